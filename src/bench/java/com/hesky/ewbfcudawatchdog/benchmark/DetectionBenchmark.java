@@ -0,0 +1,177 @@
+package com.hesky.ewbfcudawatchdog.benchmark;
+
+import com.hesky.ewbfcudawatchdog.HangDetector;
+import com.hesky.ewbfcudawatchdog.LineHandler;
+import com.hesky.ewbfcudawatchdog.LogTailer;
+import com.hesky.ewbfcudawatchdog.Main;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detection path benchmarks over generated logs.
+ * <ul>
+ * <li>{@code fullScan} scans the whole log like a first poll after start. Its {@code scannedMb} counter is the throughput in MB/s and
+ * {@code allocatedBytes} (bytes/s) divided by {@code scannedMb} is the allocation per scanned MB.</li>
+ * <li>{@code timeToDetection} appends a hang sequence to a log that has already been scanned and polls until it is detected,
+ * which is the latency a running watchdog adds after the miner wrote the failure.</li>
+ * </ul>
+ * Run with {@code mvn -Pbenchmark test-compile exec:exec -Djmh.args="DetectionBenchmark -p size=1MB,100MB"}.
+ */
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DetectionBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class GeneratedLog {
+        @Param({"1KB", "1MB", "100MB", "1GB"})
+        public String size;
+
+        @Param({"0.9"})
+        public double failureAt;
+
+        @Param({"2"})
+        public int gpuCount;
+
+        @Param({"hang"})
+        public String detector;
+
+        public Path path;
+        public long bytes;
+
+        @Setup(Level.Trial)
+        public void generate() throws IOException {
+            path = Files.createTempFile("miner-bench", ".log");
+            bytes = parseSize(size);
+            new LogGenerator(gpuCount, 42).generate(path, bytes, failureAt);
+            bytes = Files.size(path);
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            Files.deleteIfExists(path);
+        }
+
+        public Detector newDetector() {
+            switch (detector) {
+                case "hang":
+                    HangDetector hangDetector = new HangDetector(Main.getParams(), gpuCount);
+                    return new Detector(hangDetector, hangDetector::isHanging);
+                default:
+                    throw new IllegalArgumentException("Unknown detector " + detector);
+            }
+        }
+    }
+
+    public interface Verdict {
+        boolean isDetected();
+    }
+
+    public static class Detector {
+        public final LineHandler handler;
+        public final Verdict verdict;
+
+        public Detector(LineHandler handler, Verdict verdict) {
+            this.handler = handler;
+            this.verdict = verdict;
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class ScanCounters {
+        private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        public double scannedMb;
+        public long allocatedBytes;
+
+        @Setup(Level.Iteration)
+        public void clean() {
+            scannedMb = 0;
+            allocatedBytes = 0;
+        }
+
+        long allocated() {
+            return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ScannedLog {
+        private static final byte[] HEALTHY = "INFO 12:00:00: GPU0 Accepted share 53ms [A:1, R:0]\n".getBytes(StandardCharsets.UTF_8);
+        private byte[] failure;
+        private Detector detector;
+        private LogTailer tailer;
+        private Path path;
+
+        @Setup(Level.Trial)
+        public void scan(GeneratedLog log) throws IOException {
+            path = log.path;
+            failure = LogGenerator.failureSequence(log.gpuCount - 1).getBytes(StandardCharsets.UTF_8);
+            detector = log.newDetector();
+            tailer = new LogTailer(path, detector.handler);
+            tailer.poll();
+            detector.handler.reset();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public boolean fullScan(GeneratedLog log, ScanCounters counters) throws IOException {
+        long allocatedBefore = counters.allocated();
+        Detector detector = log.newDetector();
+        LogTailer tailer = new LogTailer(log.path, detector.handler);
+        tailer.poll();
+        tailer.flush();
+        counters.allocatedBytes += counters.allocated() - allocatedBefore;
+        counters.scannedMb += log.bytes / (1024d * 1024d);
+        return detector.verdict.isDetected();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public boolean timeToDetection(ScannedLog log) throws IOException {
+        Files.write(log.path, ScannedLog.HEALTHY, StandardOpenOption.APPEND);
+        Files.write(log.path, log.failure, StandardOpenOption.APPEND);
+        while (!log.detector.verdict.isDetected()) {
+            log.tailer.poll();
+        }
+        log.detector.handler.reset();
+        return true;
+    }
+
+    static long parseSize(String size) {
+        String value = size.trim().toUpperCase();
+        long multiplier = 1;
+        if (value.endsWith("GB")) {
+            multiplier = 1L << 30;
+        } else if (value.endsWith("MB")) {
+            multiplier = 1L << 20;
+        } else if (value.endsWith("KB")) {
+            multiplier = 1L << 10;
+        }
+        return Long.parseLong(value.replaceAll("[^0-9]", "")) * multiplier;
+    }
+}
@@ -0,0 +1,102 @@
+package com.hesky.ewbfcudawatchdog.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Writes synthetic EWBF miner logs: the usual mix of work, share, speed and temperature lines, occasional recovered restarts
+ * (restart attempt followed by exit code 30) and optionally one hang sequence at a given position.
+ */
+public class LogGenerator {
+    private final int gpuCount;
+    private final Random random;
+    private int accepted;
+
+    public LogGenerator(int gpuCount, long seed) {
+        this.gpuCount = gpuCount;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @param size       approximate size of the log in bytes
+     * @param failureAt  position of the hang sequence as a fraction of the size, negative for a healthy log
+     */
+    public void generate(Path path, long size, double failureAt) throws IOException {
+        long failureOffset = failureAt < 0 ? Long.MAX_VALUE : (long) (size * failureAt);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path), 1 << 16)) {
+            long written = 0;
+            while (written < size) {
+                String line;
+                if (written >= failureOffset) {
+                    line = failureSequence(random.nextInt(gpuCount));
+                    failureOffset = Long.MAX_VALUE;
+                } else {
+                    line = nextLine();
+                }
+                byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+                out.write(bytes);
+                written += bytes.length;
+            }
+        }
+    }
+
+    public static String failureSequence(int device) {
+        return "ERROR: Looks like GPU" + device + " are stopped. Restart attempt.\n"
+                + "CUDA: Device: " + device + " Thread exited with code: 46\n";
+    }
+
+    private String nextLine() {
+        int gpu = random.nextInt(gpuCount);
+        int kind = random.nextInt(100);
+        String time = String.format("%02d:%02d:%02d", random.nextInt(24), random.nextInt(60), random.nextInt(60));
+        if (kind < 35) {
+            return "INFO " + time + ": GPU" + gpu + " Accepted share " + (30 + random.nextInt(200)) + "ms [A:" + (++accepted) + ", R:"
+                    + random.nextInt(5) + "]\n";
+        }
+        if (kind < 55) {
+            return "INFO " + time + ": Detected new work: " + Integer.toHexString(random.nextInt()) + "\n";
+        }
+        if (kind < 70) {
+            StringBuilder speed = new StringBuilder("Speed:");
+            int total = 0;
+            for (int i = 0; i < gpuCount; i++) {
+                int sols = 280 + random.nextInt(240);
+                total += sols;
+                speed.append(i == 0 ? " " : ", ").append("GPU").append(i).append(' ').append(sols).append(" Sol/s");
+            }
+            return speed.append('\n').append("Total speed: ").append(total).append(" Sol/s\n").toString();
+        }
+        if (kind < 85) {
+            StringBuilder temp = new StringBuilder("Temp:");
+            for (int i = 0; i < gpuCount; i++) {
+                temp.append(" GPU").append(i).append(": ").append(55 + random.nextInt(30)).append('C');
+            }
+            return temp.append('\n').toString();
+        }
+        if (kind < 95) {
+            return "INFO " + time + ": Target set to 0041893" + Long.toHexString(random.nextLong()) + "\n";
+        }
+        if (kind < 98) {
+            return "ERROR: Lost connection with the server.\nINFO: Attempt to restore connection.\n"
+                    + "INFO: Connection restored, pool: eu1-zcash.flypool.org:3333.\n";
+        }
+        return "ERROR: Looks like GPU" + gpu + " are stopped. Restart attempt.\nCUDA: Device: " + gpu + " Thread exited with code: 30\n";
+    }
+
+    /**
+     * {@code LogGenerator <file> <size in bytes> [failureAt] [gpuCount]}
+     */
+    public static void main(String[] args) throws IOException {
+        Path path = Paths.get(args[0]);
+        long size = Long.parseLong(args[1]);
+        double failureAt = args.length > 2 ? Double.parseDouble(args[2]) : -1;
+        int gpuCount = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+        new LogGenerator(gpuCount, 42).generate(path, size, failureAt);
+    }
+}
@@ -0,0 +1,87 @@
+package com.hesky.ewbfcudawatchdog;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Collects captured output in memory and appends it to the archive file in batches when {@link #flush()} is called, normally from a
+ * scheduled task. Writers only copy into the pending buffer. The file is opened for each batch, so it can be moved away between
+ * batches. When the pending buffer would exceed its limit the new bytes are dropped and counted.
+ */
+public class ArchiveWriter {
+    private static final Logger LOG = getLogger(ArchiveWriter.class);
+    private static final int INITIAL_SIZE = 16 * 1024;
+
+    private final Path path;
+    private final int maxPendingBytes;
+    private final Object flushLock = new Object();
+    private ByteBuffer pending = ByteBuffer.allocate(INITIAL_SIZE);
+    private ByteBuffer writing = ByteBuffer.allocate(INITIAL_SIZE);
+    private long droppedBytes;
+
+    public ArchiveWriter(Path path, int maxPendingBytes) {
+        this.path = path;
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public synchronized void write(byte[] bytes, int offset, int length) {
+        if (pending.position() + length > maxPendingBytes) {
+            droppedBytes += length;
+            return;
+        }
+        if (pending.remaining() < length) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.min(maxPendingBytes, Math.max(pending.capacity() * 2, pending.position() +
+                    length)));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        pending.put(bytes, offset, length);
+    }
+
+    private synchronized long swap() {
+        ByteBuffer full = pending;
+        pending = writing;
+        pending.clear();
+        writing = full;
+        long dropped = droppedBytes;
+        droppedBytes = 0;
+        return dropped;
+    }
+
+    /**
+     * Appends everything written so far to the archive file.
+     */
+    public void flush() throws IOException {
+        synchronized (flushLock) {
+            long dropped = swap();
+            if (dropped > 0) {
+                LOG.warn("{} bytes of output were not archived to {}", dropped, path);
+            }
+            writing.flip();
+            if (!writing.hasRemaining()) {
+                return;
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption
+                    .APPEND)) {
+                while (writing.hasRemaining()) {
+                    channel.write(writing);
+                }
+            }
+            finally {
+                writing.clear();
+            }
+        }
+    }
+}
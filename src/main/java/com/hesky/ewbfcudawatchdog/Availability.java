@@ -0,0 +1,331 @@
+package com.hesky.ewbfcudawatchdog;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Time spent per {@link State} by every miner and GPU. Durations come from the monotonic clock only, the wall clock just picks the
+ * hour and day they are booked to, so clock changes and late ticks do not skew them. Each subject keeps its totals, a ring of
+ * 30 days of hours and a ring of ten years of days in primitive arrays; a tick books the time since the last one to the current
+ * hour and day, so its cost does not grow with the run time. The getters book the time of the current state first, so the
+ * state in progress is always included.
+ * <p>
+ * A failure is counted when a subject enters {@link State#RECOVERING} from a hashing state. Availability is the share of hashing
+ * (healthy or degraded) time; MTBF is hashing time per failure and MTTR recovering and rebooting time per failure. The state is
+ * saved as a small gzipped binary file holding only the used ring slots.
+ */
+public class Availability {
+    public enum State {
+        HEALTHY, DEGRADED, RECOVERING, REBOOTING
+    }
+
+    public static final int HOURS = 30 * 24;
+    public static final int DAYS = 3660;
+    private static final int STATES = State.values().length;
+    private static final int MAGIC = 0x41564c31;
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private final LongSupplier nanoClock;
+    private final LongSupplier wallClock;
+    private final Map<String, Account> accounts = new LinkedHashMap<>();
+
+    private static class Account {
+        private State state = State.HEALTHY;
+        private long sinceNanos;
+        private final long[] totalMillis = new long[STATES];
+        private long failures;
+        private final Ring hours = new Ring(HOURS);
+        private final Ring days = new Ring(DAYS);
+    }
+
+    /**
+     * Millis per state and failures for the last {@code size} periods. A slot belongs to the period stored with it and is cleared
+     * when the ring comes round to it again.
+     */
+    private static class Ring {
+        private final long[] period;
+        private final int[] millis;
+        private final int[] failures;
+
+        private Ring(int size) {
+            period = new long[size];
+            Arrays.fill(period, -1);
+            millis = new int[size * STATES];
+            failures = new int[size];
+        }
+
+        private int slot(long current) {
+            int slot = (int) (current % period.length);
+            if (period[slot] != current) {
+                period[slot] = current;
+                Arrays.fill(millis, slot * STATES, slot * STATES + STATES, 0);
+                failures[slot] = 0;
+            }
+            return slot;
+        }
+
+        private void add(long current, State state, long amount) {
+            int index = slot(current) * STATES + state.ordinal();
+            millis[index] = (int) Math.min(Integer.MAX_VALUE, millis[index] + amount);
+        }
+
+        private long sum(long current, int count, State state) {
+            long sum = 0;
+            for (int slot = 0; slot < period.length; slot++) {
+                if (period[slot] > current - count && period[slot] <= current) {
+                    sum += millis[slot * STATES + state.ordinal()];
+                }
+            }
+            return sum;
+        }
+    }
+
+    public Availability(LongSupplier nanoClock, LongSupplier wallClock) {
+        this.nanoClock = nanoClock;
+        this.wallClock = wallClock;
+    }
+
+    /**
+     * Books the time of the current state and switches to the given one. Unknown subjects are added.
+     */
+    public synchronized void set(String subject, State state) {
+        Account account = account(subject);
+        book(account);
+        if (state == State.RECOVERING && (account.state == State.HEALTHY || account.state == State.DEGRADED)) {
+            account.failures++;
+            long now = wallClock.getAsLong();
+            account.hours.failures[account.hours.slot(now / HOUR_MILLIS)]++;
+            account.days.failures[account.days.slot(now / DAY_MILLIS)]++;
+        }
+        account.state = state;
+    }
+
+    /**
+     * Books time that passed outside this run, such as a reboot, to the current hour and day.
+     */
+    public synchronized void add(String subject, State state, long millis) {
+        Account account = account(subject);
+        book(account, state, millis);
+    }
+
+    /**
+     * Books the time since the last tick or change of every subject.
+     */
+    public synchronized void tick() {
+        for (Account account : accounts.values()) {
+            book(account);
+        }
+    }
+
+    private Account account(String subject) {
+        return accounts.computeIfAbsent(subject, name -> {
+            Account account = new Account();
+            account.sinceNanos = nanoClock.getAsLong();
+            return account;
+        });
+    }
+
+    private void book(Account account) {
+        long now = nanoClock.getAsLong();
+        long millis = TimeUnit.NANOSECONDS.toMillis(now - account.sinceNanos);
+        account.sinceNanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        book(account, account.state, millis);
+    }
+
+    private void book(Account account, State state, long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        long now = wallClock.getAsLong();
+        account.totalMillis[state.ordinal()] += millis;
+        account.hours.add(now / HOUR_MILLIS, state, millis);
+        account.days.add(now / DAY_MILLIS, state, millis);
+    }
+
+    public synchronized List<String> getSubjects() {
+        return new ArrayList<>(accounts.keySet());
+    }
+
+    /**
+     * @return the current state or null for an unknown subject
+     */
+    public synchronized State getState(String subject) {
+        Account account = accounts.get(subject);
+        return account == null ? null : account.state;
+    }
+
+    public synchronized long getTotalMillis(String subject, State state) {
+        Account account = booked(subject);
+        return account == null ? 0 : account.totalMillis[state.ordinal()];
+    }
+
+    /**
+     * @return the account with the time of its current state booked, or null for an unknown subject
+     */
+    private Account booked(String subject) {
+        Account account = accounts.get(subject);
+        if (account != null) {
+            book(account);
+        }
+        return account;
+    }
+
+    /**
+     * @param hours up to {@link #HOURS}, the current hour included
+     */
+    public synchronized long getMillis(String subject, State state, int hours) {
+        Account account = booked(subject);
+        return account == null ? 0 : account.hours.sum(wallClock.getAsLong() / HOUR_MILLIS, hours, state);
+    }
+
+    /**
+     * @param days up to {@link #DAYS}, the current day included
+     */
+    public synchronized long getDayMillis(String subject, State state, int days) {
+        Account account = booked(subject);
+        return account == null ? 0 : account.days.sum(wallClock.getAsLong() / DAY_MILLIS, days, state);
+    }
+
+    public synchronized long getFailures(String subject) {
+        Account account = accounts.get(subject);
+        return account == null ? 0 : account.failures;
+    }
+
+    /**
+     * @return share of hashing time in the last hours, NaN when nothing was booked
+     */
+    public synchronized double getAvailability(String subject, int hours) {
+        long hashing = getMillis(subject, State.HEALTHY, hours) + getMillis(subject, State.DEGRADED, hours);
+        long down = getMillis(subject, State.RECOVERING, hours) + getMillis(subject, State.REBOOTING, hours);
+        return hashing + down == 0 ? Double.NaN : (double) hashing / (hashing + down);
+    }
+
+    /**
+     * @return mean hashing time between failures over all time, NaN without failures
+     */
+    public synchronized double getMtbfMillis(String subject) {
+        long failures = getFailures(subject);
+        return failures == 0 ? Double.NaN : (double) (getTotalMillis(subject, State.HEALTHY) + getTotalMillis(subject, State
+                .DEGRADED)) / failures;
+    }
+
+    /**
+     * @return mean recovering and rebooting time per failure over all time, NaN without failures
+     */
+    public synchronized double getMttrMillis(String subject) {
+        long failures = getFailures(subject);
+        return failures == 0 ? Double.NaN : (double) (getTotalMillis(subject, State.RECOVERING) + getTotalMillis(subject, State
+                .REBOOTING)) / failures;
+    }
+
+    /**
+     * Writes all subjects to a temporary file and replaces the old file with it. Current states are not saved, every run starts
+     * healthy.
+     */
+    public void persist(Path file) throws IOException {
+        Path temporary = file.toAbsolutePath().resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(Files.newOutputStream(temporary)))) {
+            synchronized (this) {
+                tick();
+                out.writeInt(MAGIC);
+                out.writeInt(accounts.size());
+                for (Map.Entry<String, Account> entry : accounts.entrySet()) {
+                    Account account = entry.getValue();
+                    out.writeUTF(entry.getKey());
+                    for (long millis : account.totalMillis) {
+                        out.writeLong(millis);
+                    }
+                    out.writeLong(account.failures);
+                    write(out, account.hours);
+                    write(out, account.days);
+                }
+            }
+        }
+        try {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void write(DataOutputStream out, Ring ring) throws IOException {
+        int used = 0;
+        for (long period : ring.period) {
+            if (period >= 0) {
+                used++;
+            }
+        }
+        out.writeInt(used);
+        for (int slot = 0; slot < ring.period.length; slot++) {
+            if (ring.period[slot] < 0) {
+                continue;
+            }
+            out.writeLong(ring.period[slot]);
+            for (int state = 0; state < STATES; state++) {
+                out.writeInt(ring.millis[slot * STATES + state]);
+            }
+            out.writeInt(ring.failures[slot]);
+        }
+    }
+
+    /**
+     * Adds the saved subjects; does nothing when the file does not exist.
+     */
+    public synchronized void load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (InputStream in = Files.newInputStream(file); DataInputStream data = new DataInputStream(new GZIPInputStream(in))) {
+            if (data.readInt() != MAGIC) {
+                throw new IOException("File " + file + " is not an availability file");
+            }
+            int subjects = data.readInt();
+            for (int i = 0; i < subjects; i++) {
+                Account account = account(data.readUTF());
+                for (int state = 0; state < STATES; state++) {
+                    account.totalMillis[state] += data.readLong();
+                }
+                account.failures += data.readLong();
+                read(data, account.hours);
+                read(data, account.days);
+            }
+        }
+    }
+
+    private static void read(DataInputStream in, Ring ring) throws IOException {
+        int used = in.readInt();
+        for (int i = 0; i < used; i++) {
+            long period = in.readLong();
+            int slot = ring.slot(period);
+            for (int state = 0; state < STATES; state++) {
+                ring.millis[slot * STATES + state] += in.readInt();
+            }
+            ring.failures[slot] += in.readInt();
+        }
+    }
+
+    /**
+     * @return for example {@code 99.1%}, or {@code n/a}
+     */
+    public static String percent(double availability) {
+        return Double.isNaN(availability) ? "n/a" : String.format(Locale.ROOT, "%.1f%%", availability * 100);
+    }
+}
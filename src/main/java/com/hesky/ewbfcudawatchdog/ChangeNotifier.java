@@ -0,0 +1,104 @@
+package com.hesky.ewbfcudawatchdog;
+
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * One {@link WatchService} and one thread for all monitored logs. The directories of the registered files are watched and the
+ * listener of a file runs on the notifier thread when the file is created, modified or deleted, so listeners must only hand the
+ * work over. On an overflow every listener of the directory runs.
+ */
+public class ChangeNotifier implements Closeable {
+    private static final Logger LOG = getLogger(ChangeNotifier.class);
+
+    private final WatchService watchService;
+    private final Map<WatchKey, Map<Path, Runnable>> listeners = new ConcurrentHashMap<>();
+    private final Thread thread;
+
+    public ChangeNotifier(Path anyPath) throws IOException {
+        watchService = anyPath.getFileSystem().newWatchService();
+        thread = new Thread(this::dispatch, "change-notifier");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return false when the directory of the file cannot be watched and the caller has to rely on polling
+     */
+    public boolean register(Path file, Runnable listener) {
+        Path absolute = file.toAbsolutePath();
+        Path directory = absolute.getParent();
+        try {
+            WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            listeners.computeIfAbsent(key, k -> new ConcurrentHashMap<>()).put(absolute.getFileName(), listener);
+            LOG.info("Watching directory {} for changes of {}", directory, absolute.getFileName());
+            return true;
+        }
+        catch (IOException | UnsupportedOperationException | ClosedWatchServiceException e) {
+            LOG.warn("Cannot watch directory " + directory + ". Falling back to polling.", e);
+            return false;
+        }
+    }
+
+    private void dispatch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Map<Path, Runnable> directoryListeners = listeners.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (directoryListeners == null) {
+                        continue;
+                    }
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        directoryListeners.values().forEach(ChangeNotifier::notify);
+                    } else {
+                        Runnable listener = directoryListeners.get(event.context());
+                        if (listener != null) {
+                            notify(listener);
+                        }
+                    }
+                }
+                if (!key.reset()) {
+                    LOG.warn("Directory {} is no longer watched. Its logs fall back to polling.", key.watchable());
+                    listeners.remove(key);
+                }
+            }
+        }
+        catch (InterruptedException | ClosedWatchServiceException e) {
+            LOG.debug("Change notifier is stopped");
+        }
+    }
+
+    private static void notify(Runnable listener) {
+        try {
+            listener.run();
+        }
+        catch (RuntimeException e) {
+            LOG.warn("Change listener failed", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            watchService.close();
+        }
+        catch (IOException e) {
+            LOG.warn("Cannot close watch service", e);
+        }
+        thread.interrupt();
+    }
+}
@@ -0,0 +1,109 @@
+package com.hesky.ewbfcudawatchdog;
+
+import java.time.Clock;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * What a {@link Supervisor} and its monitors take from the computer: the time, the threads scans and recoveries run on, the miner
+ * processes and the log rotation. {@link #system(Properties)} is the real computer. A {@link Replay} runs the same supervisor in
+ * a virtual one, where a {@link VirtualScheduler} runs every task on the {@link VirtualClock} and a stub plays the miner.
+ */
+public class Environment {
+    private final Clock clock;
+    private final VirtualScheduler virtual;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService recoveryExecutor;
+    private final ProcessControl processControl;
+    private final LogRotator logRotator;
+
+    private Environment(Clock clock, VirtualScheduler virtual, ScheduledExecutorService scheduler, ExecutorService recoveryExecutor,
+                        ProcessControl processControl, LogRotator logRotator) {
+        this.clock = clock;
+        this.virtual = virtual;
+        this.scheduler = scheduler;
+        this.recoveryExecutor = recoveryExecutor;
+        this.processControl = processControl;
+        this.logRotator = logRotator;
+    }
+
+    /**
+     * The system clock, {@code supervisorThreads} scheduler threads, a cached pool for recoveries and the process control and log
+     * rotator of {@link Main}.
+     */
+    public static Environment system(Properties params) {
+        int threads = Integer.parseInt(params.getProperty("supervisorThreads", "2"));
+        return new Environment(Clock.systemDefaultZone(), null, Executors.newScheduledThreadPool(threads, daemonThreads("supervisor")),
+                Executors.newCachedThreadPool(daemonThreads("recovery")), Main.getProcessControl(), Main.getLogRotator());
+    }
+
+    /**
+     * Scans and recoveries both run on the scheduler, and sleeping runs the tasks due meanwhile.
+     */
+    public static Environment virtual(VirtualScheduler scheduler, ProcessControl processControl, LogRotator logRotator) {
+        return new Environment(scheduler.getClock(), scheduler, scheduler, scheduler, processControl, logRotator);
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * @return clock for {@code LocalDateTime.now(clock)}
+     */
+    public Clock getClock() {
+        return clock;
+    }
+
+    public long millis() {
+        return clock.millis();
+    }
+
+    /**
+     * @return monotonic time in nanoseconds, in place of {@link System#nanoTime()}
+     */
+    public long nanoTime() {
+        return virtual == null ? System.nanoTime() : virtual.getClock().nanoTime();
+    }
+
+    public void sleep(long duration, TimeUnit unit) throws InterruptedException {
+        if (virtual == null) {
+            unit.sleep(duration);
+        } else {
+            virtual.sleep((unit.toNanos(duration) + 999_999) / 1_000_000);
+        }
+    }
+
+    /**
+     * @return true when the environment is a replay, which notifies the monitors of log changes itself
+     */
+    public boolean isVirtual() {
+        return virtual != null;
+    }
+
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    public ExecutorService getRecoveryExecutor() {
+        return recoveryExecutor;
+    }
+
+    public ProcessControl getProcessControl() {
+        return processControl;
+    }
+
+    public LogRotator getLogRotator() {
+        return logRotator;
+    }
+}
@@ -0,0 +1,394 @@
+package com.hesky.ewbfcudawatchdog;
+
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Receives {@link FleetEvent}s from the watchdogs of a fleet and keeps the totals per rig in memory as {@link Metrics}. UDP datagrams
+ * and TCP connections are accepted on the same port and served by one selector thread, so a few hundred rigs reporting every minute
+ * take a fraction of one core. A rig is alive while it has been heard from within three heartbeat intervals.
+ * <p>
+ * Events are not authenticated, so at most {@code maxRigs} rigs are kept. When a new rig arrives at the limit, rigs silent for
+ * {@code rigExpiry} ms are dropped with their metrics; if none is, the events of the new rig are counted as rejected. Reboots of the
+ * last hour are counted per minute in a ring of 60 counters, at the time they were reported but never later than their receipt.
+ */
+public class FleetCollector implements Runnable, Closeable, LineHandler {
+    private static final Logger LOG = getLogger(FleetCollector.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long MINUTE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final int REBOOT_WINDOW_MINUTES = 60;
+
+    private final Metrics metrics = new Metrics();
+    private final Map<String, Rig> rigs = new ConcurrentHashMap<>();
+    private final long[] rebootMinutes = new long[REBOOT_WINDOW_MINUTES];
+    private final int[] rebootCounts = new int[REBOOT_WINDOW_MINUTES];
+    private final long heartbeatIntervalMillis;
+    private final int maxRigs;
+    private final long rigExpiryMillis;
+    private final Metrics.Counter events;
+    private final Metrics.Counter malformed;
+    private final Metrics.Counter rejected;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final DatagramChannel datagrams;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final LineSplitter datagramSplitter = new LineSplitter(this);
+    private final Thread thread;
+    private volatile boolean closed;
+
+    private class Rig {
+        private final String name;
+        private final Metrics.Counter heartbeats;
+        private final Metrics.Counter incidents;
+        private final Metrics.Counter rigReboots;
+        private final Map<String, Metrics.Counter> recoveries = new ConcurrentHashMap<>();
+        private volatile long lastSeenMillis;
+
+        private Rig(String name) {
+            this.name = name;
+            String labels = Metrics.label("rig", name);
+            heartbeats = metrics.counter("fleet_heartbeats_total", "Heartbeats received per rig.", labels);
+            incidents = metrics.counter("fleet_incidents_total", "Incidents reported per rig.", labels);
+            rigReboots = metrics.counter("fleet_reboots_total", "Reboots reported per rig.", labels);
+        }
+
+        private Metrics.Counter recoveries(String action, boolean success) {
+            return recoveries.computeIfAbsent(action + "|" + success, key -> metrics.counter("fleet_recoveries_total", "Recovery " +
+                    "actions reported per rig.", Metrics.label("rig", name) + "," + Metrics.label("action", action) + "," + Metrics.label
+                    ("result", success ? "success" : "failure")));
+        }
+    }
+
+    public FleetCollector(InetSocketAddress address, long heartbeatIntervalMillis, int maxRigs, long rigExpiryMillis) throws IOException {
+        this.heartbeatIntervalMillis = heartbeatIntervalMillis;
+        this.maxRigs = maxRigs;
+        this.rigExpiryMillis = rigExpiryMillis;
+        events = metrics.counter("fleet_events_total", "Events received from all rigs.", null);
+        malformed = metrics.counter("fleet_malformed_events_total", "Received lines that are not events.", null);
+        rejected = metrics.counter("fleet_rejected_events_total", "Events of new rigs received while the rig limit is reached.", null);
+        metrics.gauge("fleet_rigs", "Rigs kept, heard from within the rig expiry.", null, rigs::size);
+        metrics.gauge("fleet_rigs_alive", "Rigs heard from within three heartbeat intervals.", null, this::getAliveRigs);
+        metrics.gauge("fleet_reboots_last_hour", "Reboots reported by all rigs within the last hour.", null, this::getRebootsLastHour);
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        datagrams = DatagramChannel.open();
+        try {
+            server.bind(address);
+            datagrams.bind(new InetSocketAddress(address.getAddress(), getPort()));
+            server.configureBlocking(false);
+            datagrams.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            datagrams.register(selector, SelectionKey.OP_READ);
+        }
+        catch (IOException e) {
+            closeChannels();
+            throw e;
+        }
+        thread = new Thread(this, "fleet-collector");
+        thread.setDaemon(true);
+    }
+
+    public FleetCollector start() {
+        thread.start();
+        return this;
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void run() {
+        while (!closed) {
+            try {
+                selector.select();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.channel() == datagrams) {
+                        receive();
+                    } else {
+                        read(key);
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+            catch (IOException e) {
+                if (!closed) {
+                    LOG.warn("Fleet events cannot be received", e);
+                }
+            }
+        }
+        closeChannels();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel != null) {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, new LineSplitter(this));
+        }
+    }
+
+    private void receive() throws IOException {
+        buffer.clear();
+        while (datagrams.receive(buffer) != null) {
+            datagramSplitter.split(buffer.array(), 0, buffer.position());
+            datagramSplitter.flush();
+            buffer.clear();
+        }
+    }
+
+    private void read(SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        LineSplitter splitter = (LineSplitter) key.attachment();
+        try {
+            buffer.clear();
+            int n = channel.read(buffer);
+            if (n > 0) {
+                splitter.split(buffer.array(), 0, n);
+                return;
+            }
+            if (n == 0) {
+                return;
+            }
+            splitter.flush();
+        }
+        catch (IOException e) {
+            LOG.debug("Connection {} is broken", channel, e);
+        }
+        key.cancel();
+        try {
+            channel.close();
+        }
+        catch (IOException e) {
+            LOG.debug("Connection {} cannot be closed", channel, e);
+        }
+    }
+
+    @Override
+    public void onLine(byte[] bytes, int offset, int length) {
+        FleetEvent event = FleetEvent.parse(new String(bytes, offset, length, StandardCharsets.UTF_8));
+        if (event == null || event.getRig().isEmpty()) {
+            malformed.inc();
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Rig rig = rigs.get(event.getRig());
+        if (rig == null) {
+            if (rigs.size() >= maxRigs) {
+                expireRigs(now);
+            }
+            if (rigs.size() >= maxRigs) {
+                rejected.inc();
+                return;
+            }
+            rig = new Rig(event.getRig());
+            rigs.put(event.getRig(), rig);
+        }
+        events.inc();
+        rig.lastSeenMillis = now;
+        switch (event.getType()) {
+            case HEARTBEAT:
+                rig.heartbeats.inc();
+                break;
+            case INCIDENT:
+                rig.incidents.inc();
+                break;
+            case RECOVERY:
+                rig.recoveries(event.getDetail(), event.getValue() >= 0).inc();
+                break;
+            case REBOOT:
+                rig.rigReboots.inc();
+                countReboot(Math.min(event.getTimeMillis(), now), now);
+                break;
+        }
+    }
+
+    private synchronized void countReboot(long timeMillis, long now) {
+        long minute = timeMillis / MINUTE_MILLIS;
+        if (minute <= now / MINUTE_MILLIS - REBOOT_WINDOW_MINUTES) {
+            return;
+        }
+        int slot = (int) (minute % REBOOT_WINDOW_MINUTES);
+        if (rebootMinutes[slot] != minute) {
+            rebootMinutes[slot] = minute;
+            rebootCounts[slot] = 0;
+        }
+        rebootCounts[slot]++;
+    }
+
+    private void expireRigs(long now) {
+        for (Rig rig : rigs.values()) {
+            if (now - rig.lastSeenMillis >= rigExpiryMillis) {
+                rigs.remove(rig.name);
+                metrics.remove(Metrics.label("rig", rig.name));
+                LOG.info("Rig {} is dropped, it has not been heard from for {} ms", rig.name, now - rig.lastSeenMillis);
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+    }
+
+    public long getEvents() {
+        return events.get();
+    }
+
+    public long getMalformed() {
+        return malformed.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public int getRigs() {
+        return rigs.size();
+    }
+
+    public int getAliveRigs() {
+        long since = System.currentTimeMillis() - heartbeatIntervalMillis * 3;
+        int alive = 0;
+        for (Rig rig : rigs.values()) {
+            if (rig.lastSeenMillis >= since) {
+                alive++;
+            }
+        }
+        return alive;
+    }
+
+    public synchronized int getRebootsLastHour() {
+        long since = System.currentTimeMillis() / MINUTE_MILLIS - REBOOT_WINDOW_MINUTES;
+        int count = 0;
+        for (int slot = 0; slot < REBOOT_WINDOW_MINUTES; slot++) {
+            if (rebootMinutes[slot] > since) {
+                count += rebootCounts[slot];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return incidents reported by the rig or 0 when it was never heard from
+     */
+    public long getIncidents(String rig) {
+        Rig state = rigs.get(rig);
+        return state == null ? 0 : state.incidents.get();
+    }
+
+    public long getHeartbeats(String rig) {
+        Rig state = rigs.get(rig);
+        return state == null ? 0 : state.heartbeats.get();
+    }
+
+    public long getRecoveries(String rig, String action, boolean success) {
+        Rig state = rigs.get(rig);
+        Metrics.Counter counter = state == null ? null : state.recoveries.get(action + "|" + success);
+        return counter == null ? 0 : counter.get();
+    }
+
+    private void closeChannels() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            server.close();
+            datagrams.close();
+            selector.close();
+        }
+        catch (IOException e) {
+            LOG.debug("Fleet collector cannot be closed", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (thread.getState() == Thread.State.NEW) {
+            closeChannels();
+            return;
+        }
+        selector.wakeup();
+        try {
+            thread.join(1000);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs the collector until the process is stopped, serving the totals on {@code GET /metrics}. Arguments are
+     * {@code [--host host] [--port port] [--metrics-port port]}, defaults come from {@code fleetCollectorHost} (loopback unless set),
+     * {@code fleetCollectorPort} and {@code fleetMetricsPort}.
+     */
+    public static int runCollector(String[] args, Properties params, PrintStream out) throws IOException, InterruptedException {
+        String host = params.getProperty("fleetCollectorHost", "127.0.0.1");
+        int port = Integer.parseInt(params.getProperty("fleetCollectorPort", "9430"));
+        int metricsPort = Integer.parseInt(params.getProperty("fleetMetricsPort", "9431"));
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--host":
+                        host = args[++i];
+                        break;
+                    case "--port":
+                        port = Integer.parseInt(args[++i]);
+                        break;
+                    case "--metrics-port":
+                        metricsPort = Integer.parseInt(args[++i]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException(args[i]);
+                }
+            }
+        }
+        catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            out.println("Wrong collector " + String.join(" ", args));
+            return 2;
+        }
+        long heartbeatIntervalMillis = Long.parseLong(params.getProperty("fleetHeartbeatInterval", "60000"));
+        FleetCollector collector = new FleetCollector(new InetSocketAddress(host, port), heartbeatIntervalMillis, Integer.parseInt(params
+                .getProperty("fleetMaxRigs", "1000")), Long.parseLong(params.getProperty("fleetRigExpiry", "86400000")));
+        try {
+            MetricsServer metricsServer = new MetricsServer(collector.getMetrics(), new InetSocketAddress(host, metricsPort));
+            try {
+                out.println("Collecting fleet events on " + host + ":" + collector.getPort());
+                collector.start().thread.join();
+            }
+            finally {
+                metricsServer.close();
+            }
+        }
+        finally {
+            collector.close();
+        }
+        return 0;
+    }
+}
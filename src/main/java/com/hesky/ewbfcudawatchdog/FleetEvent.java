@@ -0,0 +1,91 @@
+package com.hesky.ewbfcudawatchdog;
+
+/**
+ * One event a watchdog reports to the fleet collector, sent as a line {@code type|rig|time|miner|device|detail|value}. The time is
+ * in epoch milliseconds. Heartbeats carry the watchdog version as detail and its uptime in milliseconds as value; incidents and
+ * reboots the reason; recoveries the action and the time to hashing again in milliseconds, or -1 when the action failed.
+ */
+public class FleetEvent {
+    private static final String SEPARATOR = "|";
+
+    public enum Type {
+        HEARTBEAT, INCIDENT, RECOVERY, REBOOT
+    }
+
+    private final Type type;
+    private final String rig;
+    private final long timeMillis;
+    private final String miner;
+    private final int device;
+    private final String detail;
+    private final long value;
+
+    public FleetEvent(Type type, String rig, long timeMillis, String miner, int device, String detail, long value) {
+        this.type = type;
+        this.rig = clean(rig);
+        this.timeMillis = timeMillis;
+        this.miner = clean(miner);
+        this.device = device;
+        this.detail = clean(detail);
+        this.value = value;
+    }
+
+    private static String clean(String value) {
+        return value == null ? "" : value.replace(SEPARATOR, "/").replace('\n', ' ').replace('\r', ' ');
+    }
+
+    /**
+     * @return the event or null when the line is not a complete record
+     */
+    public static FleetEvent parse(String line) {
+        String[] fields = line.split("\\|", -1);
+        if (fields.length != 7) {
+            return null;
+        }
+        try {
+            return new FleetEvent(Type.valueOf(fields[0]), fields[1], Long.parseLong(fields[2]), fields[3], Integer.parseInt(fields[4]),
+                    fields[5], Long.parseLong(fields[6]));
+        }
+        catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    public String format() {
+        return type + SEPARATOR + rig + SEPARATOR + timeMillis + SEPARATOR + miner + SEPARATOR + device + SEPARATOR + detail + SEPARATOR
+                + value;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getRig() {
+        return rig;
+    }
+
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    public String getMiner() {
+        return miner;
+    }
+
+    public int getDevice() {
+        return device;
+    }
+
+    public String getDetail() {
+        return detail;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return format();
+    }
+}
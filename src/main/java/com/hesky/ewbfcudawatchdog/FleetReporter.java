@@ -0,0 +1,217 @@
+package com.hesky.ewbfcudawatchdog;
+
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Sends {@link FleetEvent}s to the fleet collector. {@link #report(FleetEvent)} only offers the event to a bounded queue and
+ * counts it as dropped when the queue is full, so reporting never holds up detection. A daemon thread sends the queued events in
+ * batches of lines, one datagram per batch over UDP or over one kept-open TCP connection. A batch that cannot be sent is dropped
+ * and counted as well.
+ */
+public class FleetReporter implements Closeable {
+    private static final Logger LOG = getLogger(FleetReporter.class);
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+
+    private final String rig;
+    private final InetSocketAddress collector;
+    private final boolean tcp;
+    private final int maxBatchBytes;
+    private final long flushIntervalMillis;
+    private final BlockingQueue<FleetEvent> queue;
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread thread;
+    private DatagramChannel datagrams;
+    private Socket socket;
+    private volatile boolean closed;
+
+    /**
+     * @param maxBatchBytes largest batch, keep it below the path MTU for UDP
+     */
+    public FleetReporter(String rig, InetSocketAddress collector, boolean tcp, int queueCapacity, int maxBatchBytes, long
+            flushIntervalMillis) {
+        this.rig = rig;
+        this.collector = collector;
+        this.tcp = tcp;
+        this.maxBatchBytes = maxBatchBytes;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.thread = new Thread(this::send, "fleet-reporter");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * @param address {@code host:port}
+     */
+    public static InetSocketAddress parseAddress(String address) {
+        int colon = address.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Wrong collector address " + address + ", host:port expected");
+        }
+        return new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+    }
+
+    public FleetReporter start() {
+        thread.start();
+        return this;
+    }
+
+    /**
+     * @return false when the event was dropped
+     */
+    public boolean report(FleetEvent event) {
+        if (queue.offer(event)) {
+            return true;
+        }
+        dropped.increment();
+        return false;
+    }
+
+    public boolean heartbeat(String version, long uptimeMillis) {
+        return report(new FleetEvent(FleetEvent.Type.HEARTBEAT, rig, System.currentTimeMillis(), null, -1, version, uptimeMillis));
+    }
+
+    public boolean incident(Incident incident) {
+        return report(event(FleetEvent.Type.INCIDENT, incident));
+    }
+
+    public boolean reboot(Incident incident) {
+        return report(event(FleetEvent.Type.REBOOT, incident));
+    }
+
+    private FleetEvent event(FleetEvent.Type type, Incident incident) {
+        return new FleetEvent(type, rig, incident.getTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli(), incident
+                .getMiner(), incident.getDevice(), incident.getReason(), 0);
+    }
+
+    /**
+     * @param millis time to hashing again, ignored when the action failed
+     */
+    public boolean recovery(String miner, int device, String action, boolean success, long millis) {
+        return report(new FleetEvent(FleetEvent.Type.RECOVERY, rig, System.currentTimeMillis(), miner, device, action, success ? millis :
+                -1));
+    }
+
+    public long getSent() {
+        return sent.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    private void send() {
+        List<FleetEvent> batch = new ArrayList<>();
+        while (!closed || !queue.isEmpty()) {
+            try {
+                FleetEvent first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch);
+                sendBatch(batch);
+            }
+            catch (InterruptedException e) {
+                break;
+            }
+            finally {
+                batch.clear();
+            }
+        }
+        closeConnection();
+    }
+
+    private void sendBatch(List<FleetEvent> batch) {
+        StringBuilder lines = new StringBuilder();
+        int count = 0;
+        for (FleetEvent event : batch) {
+            String line = event.format() + "\n";
+            if (lines.length() > 0 && lines.length() + line.length() > maxBatchBytes) {
+                write(lines, count);
+                lines.setLength(0);
+                count = 0;
+            }
+            lines.append(line);
+            count++;
+        }
+        write(lines, count);
+    }
+
+    private void write(StringBuilder lines, int count) {
+        byte[] bytes = lines.toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            if (tcp) {
+                if (socket == null) {
+                    socket = new Socket();
+                    socket.connect(collector, CONNECT_TIMEOUT_MILLIS);
+                }
+                OutputStream out = socket.getOutputStream();
+                out.write(bytes);
+                out.flush();
+            } else {
+                if (datagrams == null) {
+                    datagrams = DatagramChannel.open();
+                }
+                datagrams.send(ByteBuffer.wrap(bytes), collector);
+            }
+            sent.add(count);
+        }
+        catch (IOException e) {
+            LOG.debug("Fleet events cannot be sent to " + collector, e);
+            dropped.add(count);
+            closeConnection();
+        }
+    }
+
+    private void closeConnection() {
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+            if (datagrams != null) {
+                datagrams.close();
+            }
+        }
+        catch (IOException e) {
+            LOG.debug("Connection to the fleet collector cannot be closed", e);
+        }
+        socket = null;
+        datagrams = null;
+    }
+
+    /**
+     * Sends what is queued, waiting at most a second, and stops the sender.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (thread.isAlive()) {
+            try {
+                thread.join(1000);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread.interrupt();
+        }
+    }
+}
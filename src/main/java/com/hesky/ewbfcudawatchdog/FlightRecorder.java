@@ -0,0 +1,176 @@
+package com.hesky.ewbfcudawatchdog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps the last {@code capacity} bytes of miner output in a direct ring buffer, outside the heap. On an incident
+ * {@link #snapshot(Path, Incident)} writes only this window, starting at its first complete line if it has a line end, to a small
+ * file in the
+ * {@code incidents} directory next to the rotated logs:
+ * <pre>
+ * miner=zec
+ * device=1
+ * reason=hang notResponse
+ * detected=2017-09-08T12:33:00.120
+ * lastOutput=2017-09-08T12:32:59.870
+ * bytes=1048320
+ * totalBytes=734003200
+ *
+ * ...the last lines of output...
+ * </pre>
+ * so the cost of keeping the evidence does not depend on the size of the log. Writes and snapshots are synchronized.
+ */
+public class FlightRecorder {
+    private static final DateTimeFormatter NAME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH-mm-ss.SSS");
+    private static final String SUFFIX = ".snapshot";
+
+    private final ByteBuffer ring;
+    private final int capacity;
+    private final LongSupplier clock;
+    private long written;
+    private long lastWriteMillis;
+
+    public FlightRecorder(int capacity) {
+        this(capacity, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock source of the time of the last output, replaced by a virtual clock in replays
+     */
+    public FlightRecorder(int capacity, LongSupplier clock) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.clock = clock;
+        this.ring = ByteBuffer.allocateDirect(capacity);
+    }
+
+    public static Path snapshotsDirectory(Path log) {
+        return LogRotator.logsDirectory(log).resolve("incidents");
+    }
+
+    public synchronized void write(byte[] bytes, int offset, int length) {
+        if (length <= 0) {
+            return;
+        }
+        if (length > capacity) {
+            offset += length - capacity;
+            written += length - capacity;
+            length = capacity;
+        }
+        int position = (int) (written % capacity);
+        int first = Math.min(length, capacity - position);
+        ring.position(position);
+        ring.put(bytes, offset, first);
+        if (first < length) {
+            ring.position(0);
+            ring.put(bytes, offset + first, length - first);
+        }
+        written += length;
+        lastWriteMillis = clock.getAsLong();
+    }
+
+    /**
+     * Forgets the recorded output, for example after the log was rotated for a restart.
+     */
+    public synchronized void clear() {
+        written = 0;
+        lastWriteMillis = 0;
+    }
+
+    /**
+     * @return bytes written since the start or the last {@link #clear()}
+     */
+    public synchronized long getWritten() {
+        return written;
+    }
+
+    private static boolean isLineEnd(byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    /**
+     * @return a copy of the recorded window, at most {@code capacity} bytes, oldest first
+     */
+    public synchronized byte[] window() {
+        int size = (int) Math.min(written, capacity);
+        byte[] window = new byte[size];
+        int start = (int) ((written - size) % capacity);
+        int first = Math.min(size, capacity - start);
+        ByteBuffer view = ring.duplicate();
+        view.position(start);
+        view.get(window, 0, first);
+        if (first < size) {
+            view.position(0);
+            view.get(window, first, size - first);
+        }
+        return window;
+    }
+
+    /**
+     * Writes the window with the incident to a new file in {@code directory}. The window goes from the direct buffer straight to
+     * the file; writes of output wait meanwhile.
+     *
+     * @return the snapshot file
+     */
+    public Path snapshot(Path directory, Incident incident) throws IOException {
+        Files.createDirectories(directory);
+        String baseName = NAME_FORMAT.format(incident.getTime()) + " " + incident.getMiner().replaceAll("[^A-Za-z0-9_.-]", "_");
+        Path temporary = directory.resolve(baseName + SUFFIX + ".tmp");
+        synchronized (this) {
+            int size = (int) Math.min(written, capacity);
+            int start = (int) ((written - size) % capacity);
+            if (written > capacity) {
+                int skipped = 0;
+                while (skipped < size && !isLineEnd(ring.get((start + skipped) % capacity))) {
+                    skipped++;
+                }
+                while (skipped < size && isLineEnd(ring.get((start + skipped) % capacity))) {
+                    skipped++;
+                }
+                if (skipped < size) {
+                    start = (start + skipped) % capacity;
+                    size -= skipped;
+                }
+            }
+            String header = "miner=" + incident.getMiner() + "\ndevice=" + incident.getDevice() + "\nreason=" + incident.getReason() +
+                    "\ndetected=" + incident.getTime() + "\nlastOutput=" + (lastWriteMillis == 0 ? "" : LocalDateTime.ofInstant(Instant
+                    .ofEpochMilli(lastWriteMillis), ZoneId.systemDefault())) + "\nbytes=" + size + "\ntotalBytes=" + written + "\n\n";
+            int first = Math.min(size, capacity - start);
+            ByteBuffer head = ring.duplicate();
+            head.limit(start + first).position(start);
+            ByteBuffer tail = ring.duplicate();
+            tail.limit(size - first).position(0);
+            ByteBuffer[] buffers = {ByteBuffer.wrap(header.getBytes(StandardCharsets.UTF_8)), head, tail};
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffers[2].hasRemaining() || buffers[1].hasRemaining() || buffers[0].hasRemaining()) {
+                    channel.write(buffers);
+                }
+            }
+        }
+        Path target = directory.resolve(baseName + SUFFIX);
+        for (int attempt = 1; ; attempt++) {
+            try {
+                LogRotator.move(temporary, target);
+                return target;
+            }
+            catch (FileAlreadyExistsException e) {
+                target = directory.resolve(baseName + "-" + attempt + SUFFIX);
+            }
+        }
+    }
+}
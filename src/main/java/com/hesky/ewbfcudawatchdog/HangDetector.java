@@ -0,0 +1,396 @@
+package com.hesky.ewbfcudawatchdog;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Evaluates the failure {@link Rule}s incrementally as lines arrive. Every line gets the time of the clock when it is handled, so
+ * a restart attempt long before an exit code 46 no longer counts as a hang. Rule state is kept per GPU (plus one slot for pooled
+ * and device-less phrases) in primitive arrays: the time a sequence was armed, the ring of the last N occurrences for a rate
+ * rule, the time an unanswered phrase was seen for an absence rule, the time a telemetry condition began to hold. Telemetry rules
+ * are checked on every {@link #onTelemetry(Telemetry)}.
+ * <p>
+ * Lines that were already in the log when it was first read carry no useful time. Between {@link #beginBacklog(int)} and
+ * {@link #endBacklog()} sequence and rate rules measure their window in lines instead, and absence rules are not armed.
+ * <p>
+ * The rules come from a supplier and are checked on every line; when the supplier returns a new {@link RuleBook} the state is
+ * rebuilt for it. A detected hang is sticky until {@link #reset()}. The state can be saved and restored across restarts of the
+ * watchdog.
+ */
+public class HangDetector implements LineHandler, PhraseMatcher.Listener {
+    public static final String DEVICE_PLACEHOLDER = "{device}";
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final int gpuCount;
+    private final Supplier<RuleBook> rules;
+    private final LongSupplier clock;
+    private RuleBook book;
+    private RuleBook.Compiled compiled;
+    private long[][] times;
+    private int[][] ringNext;
+    private long now;
+    private int backlogLineWindow = -1;
+    private long backlogLine;
+    private boolean hanging;
+    private int hangingDevice = -1;
+    private String hangingRule;
+
+    public HangDetector(Properties params) {
+        this(params, Integer.parseInt(params.getProperty("gpuCount", "1")));
+    }
+
+    public HangDetector(Properties params, int gpuCount) {
+        this(constant(RuleBook.fromParams(params)), gpuCount, System::currentTimeMillis);
+    }
+
+    public HangDetector(Supplier<RuleBook> rules, int gpuCount, LongSupplier clock) {
+        this.gpuCount = gpuCount;
+        this.rules = rules;
+        this.clock = clock;
+        refresh();
+    }
+
+    private static Supplier<RuleBook> constant(RuleBook book) {
+        return () -> book;
+    }
+
+    private void refresh() {
+        RuleBook latest = rules.get();
+        if (latest == book) {
+            return;
+        }
+        book = latest;
+        compiled = latest.compile(gpuCount);
+        int slots = gpuCount + 1;
+        times = new long[compiled.rules.length][];
+        ringNext = new int[compiled.rules.length][];
+        for (int i = 0; i < compiled.rules.length; i++) {
+            Rule rule = compiled.rules[i];
+            times[i] = new long[slots * (rule.getKind() == Rule.Kind.RATE ? rule.getCount() : 1)];
+            Arrays.fill(times[i], NONE);
+            ringNext[i] = new int[slots];
+        }
+    }
+
+    @Override
+    public void onLine(byte[] bytes, int offset, int length) {
+        refresh();
+        if (hanging) {
+            return;
+        }
+        if (backlogLineWindow >= 0) {
+            now = ++backlogLine;
+            compiled.matcher.scan(bytes, offset, length, this);
+            return;
+        }
+        now = clock.getAsLong();
+        compiled.matcher.scan(bytes, offset, length, this);
+        checkAbsences();
+    }
+
+    /**
+     * Starts handling the content that was in the log before it was first read.
+     *
+     * @param lineWindow distance in lines that replaces the time window of sequence and rate rules
+     */
+    public void beginBacklog(int lineWindow) {
+        refresh();
+        backlogLineWindow = lineWindow;
+        backlogLine = 0;
+    }
+
+    /**
+     * Ends the backlog. Sequence and rate occurrences within the line window of its end count as seen now, older ones are dropped.
+     */
+    public void endBacklog() {
+        if (backlogLineWindow < 0) {
+            return;
+        }
+        long at = clock.getAsLong();
+        for (int i = 0; i < compiled.rules.length; i++) {
+            Rule.Kind kind = compiled.rules[i].getKind();
+            if (kind != Rule.Kind.SEQUENCE && kind != Rule.Kind.RATE) {
+                continue;
+            }
+            long[] ruleTimes = times[i];
+            for (int j = 0; j < ruleTimes.length; j++) {
+                if (ruleTimes[j] != NONE) {
+                    ruleTimes[j] = backlogLine - ruleTimes[j] <= backlogLineWindow ? at : NONE;
+                }
+            }
+        }
+        backlogLineWindow = -1;
+    }
+
+    private long window(Rule rule) {
+        return backlogLineWindow >= 0 ? backlogLineWindow : rule.getWindowMillis();
+    }
+
+    private int slot(Rule rule, int device) {
+        return rule.isAnyDevice() || device < 0 ? gpuCount : device;
+    }
+
+    private int slotDevice(int slot) {
+        return slot < gpuCount ? slot : -1;
+    }
+
+    @Override
+    public void onMatch(int phraseId) {
+        int phrase = compiled.phraseOf[phraseId];
+        int device = compiled.deviceOf[phraseId];
+        for (int i = 0; i < compiled.rules.length && !hanging; i++) {
+            boolean first = compiled.firstPhrase[i] == phrase;
+            boolean second = compiled.secondPhrase[i] == phrase;
+            if (!first && !second) {
+                continue;
+            }
+            Rule rule = compiled.rules[i];
+            int slot = slot(rule, device);
+            long[] ruleTimes = times[i];
+            switch (rule.getKind()) {
+                case SINGLE:
+                    hang(rule, device);
+                    break;
+                case SEQUENCE:
+                    if (second) {
+                        int armed = armedSlot(rule, ruleTimes, slot, device);
+                        if (armed >= 0) {
+                            hang(rule, device >= 0 ? device : slotDevice(armed));
+                            break;
+                        }
+                    }
+                    if (first) {
+                        ruleTimes[slot] = now;
+                    }
+                    break;
+                case RATE:
+                    int depth = rule.getCount();
+                    int next = ringNext[i][slot];
+                    ruleTimes[slot * depth + next] = now;
+                    next = (next + 1) % depth;
+                    ringNext[i][slot] = next;
+                    long oldest = ruleTimes[slot * depth + next];
+                    if (oldest != NONE && now - oldest <= window(rule)) {
+                        hang(rule, device);
+                    }
+                    break;
+                case ABSENCE:
+                    if (second) {
+                        if (rule.isAnyDevice() || device < 0) {
+                            Arrays.fill(ruleTimes, NONE);
+                        } else {
+                            ruleTimes[slot] = NONE;
+                            ruleTimes[gpuCount] = NONE;
+                        }
+                    } else if (ruleTimes[slot] == NONE && backlogLineWindow < 0) {
+                        ruleTimes[slot] = now;
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @return the slot armed within the window of a sequence rule or -1
+     */
+    private int armedSlot(Rule rule, long[] ruleTimes, int slot, int device) {
+        int from = slot;
+        int to = slot;
+        if (!rule.isAnyDevice() && device < 0) {
+            from = 0;
+        }
+        int found = -1;
+        for (int candidate = from; candidate <= to; candidate++) {
+            if (isArmed(rule, ruleTimes[candidate]) && (found < 0 || ruleTimes[candidate] > ruleTimes[found])) {
+                found = candidate;
+            }
+        }
+        if (found < 0 && slot != gpuCount && isArmed(rule, ruleTimes[gpuCount])) {
+            found = gpuCount;
+        }
+        return found;
+    }
+
+    private boolean isArmed(Rule rule, long armedAt) {
+        return armedAt != NONE && now - armedAt <= window(rule);
+    }
+
+    private void checkAbsences() {
+        for (int i = 0; i < compiled.rules.length && !hanging; i++) {
+            Rule rule = compiled.rules[i];
+            if (rule.getKind() != Rule.Kind.ABSENCE) {
+                continue;
+            }
+            for (int slot = 0; slot < times[i].length; slot++) {
+                if (times[i][slot] != NONE && now - times[i][slot] >= rule.getWindowMillis()) {
+                    hang(rule, slotDevice(slot));
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the telemetry rules against the last sample. A condition must hold in every sample for the rule duration; a missing
+     * value ends an above or below condition.
+     */
+    public void onTelemetry(Telemetry telemetry) {
+        refresh();
+        if (hanging) {
+            return;
+        }
+        now = clock.getAsLong();
+        for (int i = 0; i < compiled.rules.length && !hanging; i++) {
+            Rule rule = compiled.rules[i];
+            if (!rule.isTelemetry()) {
+                continue;
+            }
+            int column = telemetry.column(rule.getFirst());
+            if (column < 0) {
+                continue;
+            }
+            for (int device = 0; device < gpuCount && !hanging; device++) {
+                double value = telemetry.latest(device, column);
+                boolean holds;
+                switch (rule.getKind()) {
+                    case ABOVE:
+                        holds = value > rule.getThreshold();
+                        break;
+                    case BELOW:
+                        holds = value < rule.getThreshold();
+                        break;
+                    default:
+                        holds = Double.isNaN(value);
+                }
+                if (!holds) {
+                    times[i][device] = NONE;
+                    continue;
+                }
+                if (times[i][device] == NONE) {
+                    times[i][device] = now;
+                }
+                if (now - times[i][device] >= rule.getWindowMillis()) {
+                    hang(rule, device);
+                }
+            }
+        }
+    }
+
+    private void hang(Rule rule, int device) {
+        hanging = true;
+        hangingDevice = device;
+        hangingRule = rule.getName();
+    }
+
+    /**
+     * Also fires absence rules whose time has run out since the last line.
+     */
+    public boolean isHanging() {
+        if (!hanging && backlogLineWindow < 0) {
+            refresh();
+            now = clock.getAsLong();
+            checkAbsences();
+        }
+        return hanging;
+    }
+
+    /**
+     * @return index of the GPU whose line triggered the detection or -1 when the miner is not hanging or the rule has no device
+     */
+    public int getHangingDevice() {
+        return hangingDevice;
+    }
+
+    /**
+     * @return name of the rule that fired or null
+     */
+    public String getHangingRule() {
+        return hangingRule;
+    }
+
+    /**
+     * Saves the state of every rule as {@code KIND;ring positions;times}, with {@code -} for an unset time. A hanging detector saves
+     * nothing, since the lines that made it hang are handled by the recovery.
+     *
+     * @return state by rule name
+     */
+    public Map<String, String> saveState() {
+        Map<String, String> state = new LinkedHashMap<>();
+        if (hanging) {
+            return state;
+        }
+        for (int i = 0; i < compiled.rules.length; i++) {
+            StringBuilder value = new StringBuilder(compiled.rules[i].getKind().name()).append(';');
+            for (int slot = 0; slot < ringNext[i].length; slot++) {
+                value.append(slot > 0 ? "," : "").append(ringNext[i][slot]);
+            }
+            value.append(';');
+            for (int j = 0; j < times[i].length; j++) {
+                value.append(j > 0 ? "," : "").append(times[i][j] == NONE ? "-" : Long.toString(times[i][j]));
+            }
+            state.put(compiled.rules[i].getName(), value.toString());
+        }
+        return state;
+    }
+
+    /**
+     * Restores the state saved by {@link #saveState()}. Rules that are new, changed their kind or count, or whose state is broken
+     * start fresh.
+     */
+    public void restoreState(Map<String, String> state) {
+        refresh();
+        for (int i = 0; i < compiled.rules.length; i++) {
+            String value = state.get(compiled.rules[i].getName());
+            if (value == null) {
+                continue;
+            }
+            String[] parts = value.split(";", -1);
+            if (parts.length != 3 || !parts[0].equals(compiled.rules[i].getKind().name())) {
+                continue;
+            }
+            String[] next = parts[1].split(",");
+            String[] ruleTimes = parts[2].split(",");
+            if (next.length != ringNext[i].length || ruleTimes.length != times[i].length) {
+                continue;
+            }
+            try {
+                int[] restoredNext = new int[next.length];
+                for (int slot = 0; slot < next.length; slot++) {
+                    restoredNext[slot] = Integer.parseInt(next[slot]);
+                    if (restoredNext[slot] < 0 || restoredNext[slot] >= Math.max(1, compiled.rules[i].getCount())) {
+                        throw new NumberFormatException(next[slot]);
+                    }
+                }
+                long[] restoredTimes = new long[ruleTimes.length];
+                for (int j = 0; j < ruleTimes.length; j++) {
+                    restoredTimes[j] = ruleTimes[j].equals("-") ? NONE : Long.parseLong(ruleTimes[j]);
+                }
+                ringNext[i] = restoredNext;
+                times[i] = restoredTimes;
+            }
+            catch (NumberFormatException e) {
+                // keeps the fresh state of this rule
+            }
+        }
+    }
+
+    public int getGpuCount() {
+        return gpuCount;
+    }
+
+    @Override
+    public void reset() {
+        hanging = false;
+        hangingDevice = -1;
+        hangingRule = null;
+        backlogLineWindow = -1;
+        for (int i = 0; i < times.length; i++) {
+            Arrays.fill(times[i], NONE);
+            Arrays.fill(ringNext[i], 0);
+        }
+    }
+}
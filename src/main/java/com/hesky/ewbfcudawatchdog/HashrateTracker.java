@@ -0,0 +1,229 @@
+package com.hesky.ewbfcudawatchdog;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.function.LongSupplier;
+
+/**
+ * Parses per-GPU hashrate lines ({@code GPU0: 450 Sol/s GPU1: 452 Sol/s}) and accepted share lines
+ * ({@code GPU1 Accepted share 47ms}) straight from the line bytes, keeps the hashrates in one {@link SampleRing} per GPU and evaluates
+ * two sliding-window rules:
+ * <ul>
+ * <li>a GPU reported less than {@code minHashrate} for the whole {@code lowHashrateWindow}; {@code minHashrate.<device>} overrides
+ * the limit for one GPU</li>
+ * <li>no share was accepted for {@code shareTimeout}</li>
+ * </ul>
+ * A rule with a zero limit is disabled. Every line is passed on to the next handler. Parsing and recording do not allocate.
+ * <p>
+ * The window is only judged when the ring still holds its oldest sample, so {@code hashrateSamples} has to cover
+ * {@code lowHashrateWindow} at the {@code hashrateInterval} the miner prints hashrates; a smaller ring is rejected.
+ */
+public class HashrateTracker implements LineHandler {
+    private static final byte[] GPU = "gpu".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ACCEPTED = "accepted".getBytes(StandardCharsets.US_ASCII);
+
+    private final LineHandler next;
+    private final LongSupplier clock;
+    private final byte[] unit;
+    private final double[] minHashrates;
+    private final long lowHashrateWindowMillis;
+    private final long shareTimeoutMillis;
+    private final SampleRing[] hashrates;
+    private final long[] lastShareTimes;
+    private long startTime;
+    private long lastShareTime;
+    private int degradedDevice = -1;
+    private String degradation;
+
+    public HashrateTracker(Properties params, int gpuCount, LongSupplier clock, LineHandler next) {
+        this.next = next;
+        this.clock = clock;
+        this.unit = params.getProperty("hashrateUnit", "Sol/s").toLowerCase().getBytes(StandardCharsets.US_ASCII);
+        this.lowHashrateWindowMillis = Long.parseLong(params.getProperty("lowHashrateWindow", "600000"));
+        this.shareTimeoutMillis = Long.parseLong(params.getProperty("shareTimeout", "0"));
+        int capacity = Integer.parseInt(params.getProperty("hashrateSamples", "512"));
+        this.minHashrates = new double[gpuCount];
+        this.hashrates = new SampleRing[gpuCount];
+        this.lastShareTimes = new long[gpuCount];
+        String defaultMinHashrate = params.getProperty("minHashrate", "0");
+        boolean enabled = false;
+        for (int device = 0; device < gpuCount; device++) {
+            minHashrates[device] = Double.parseDouble(params.getProperty("minHashrate." + device, defaultMinHashrate));
+            enabled |= minHashrates[device] > 0;
+            hashrates[device] = new SampleRing(capacity);
+        }
+        long interval = Long.parseLong(params.getProperty("hashrateInterval", "2000"));
+        if (enabled && interval > 0 && capacity <= lowHashrateWindowMillis / interval) {
+            throw new IllegalArgumentException(String.format("hashrateSamples=%d cannot cover lowHashrateWindow=%d at hashrateInterval=%d, "
+                    + "at least %d are needed", capacity, lowHashrateWindowMillis, interval, lowHashrateWindowMillis / interval + 1));
+        }
+        reset();
+    }
+
+    @Override
+    public void onLine(byte[] bytes, int offset, int length) {
+        long now = clock.getAsLong();
+        int end = offset + length;
+        if (indexOf(bytes, offset, end, ACCEPTED) >= 0) {
+            lastShareTime = now;
+            int gpu = indexOf(bytes, offset, end, GPU);
+            if (gpu >= 0) {
+                int device = parseDevice(bytes, gpu + GPU.length, end);
+                if (device >= 0 && device < lastShareTimes.length) {
+                    lastShareTimes[device] = now;
+                }
+            }
+        } else {
+            parseHashrates(bytes, offset, end, now);
+        }
+        next.onLine(bytes, offset, length);
+    }
+
+    private void parseHashrates(byte[] bytes, int from, int end, long now) {
+        for (int gpu = indexOf(bytes, from, end, GPU); gpu >= 0; gpu = indexOf(bytes, from, end, GPU)) {
+            int position = gpu + GPU.length;
+            from = position;
+            int device = parseDevice(bytes, position, end);
+            if (device < 0) {
+                continue;
+            }
+            while (position < end && isDigit(bytes[position])) {
+                position++;
+            }
+            if (position < end && bytes[position] == ':') {
+                position++;
+            }
+            while (position < end && bytes[position] == ' ') {
+                position++;
+            }
+            int numberStart = position;
+            double rate = 0;
+            while (position < end && isDigit(bytes[position])) {
+                rate = rate * 10 + (bytes[position++] - '0');
+            }
+            if (position < end && bytes[position] == '.') {
+                position++;
+                for (double scale = 0.1; position < end && isDigit(bytes[position]); scale /= 10) {
+                    rate += (bytes[position++] - '0') * scale;
+                }
+            }
+            if (position == numberStart) {
+                continue;
+            }
+            while (position < end && bytes[position] == ' ') {
+                position++;
+            }
+            if (regionMatches(bytes, position, end, unit) && device < hashrates.length) {
+                hashrates[device].add(now, rate);
+                from = position + unit.length;
+            }
+        }
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static int parseDevice(byte[] bytes, int position, int end) {
+        if (position >= end || !isDigit(bytes[position])) {
+            return -1;
+        }
+        int device = 0;
+        while (position < end && isDigit(bytes[position]) && device < 10000) {
+            device = device * 10 + (bytes[position++] - '0');
+        }
+        return device;
+    }
+
+    private static byte lower(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    private static boolean regionMatches(byte[] bytes, int position, int end, byte[] lowerPattern) {
+        if (end - position < lowerPattern.length) {
+            return false;
+        }
+        for (int i = 0; i < lowerPattern.length; i++) {
+            if (lower(bytes[position + i]) != lowerPattern[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] bytes, int from, int end, byte[] lowerPattern) {
+        for (int i = from; i <= end - lowerPattern.length; i++) {
+            if (regionMatches(bytes, i, end, lowerPattern)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Evaluates the rules at the current time. A found degradation is sticky until {@link #reset()}.
+     */
+    public boolean isDegraded() {
+        if (degradation != null) {
+            return true;
+        }
+        long now = clock.getAsLong();
+        for (int device = 0; device < hashrates.length; device++) {
+            if (minHashrates[device] > 0 && hashrates[device].allBelowSince(now - lowHashrateWindowMillis, minHashrates[device])) {
+                degradedDevice = device;
+                degradation = String.format("GPU%d is below %s for %d ms, average %.1f", device, minHashrates[device],
+                        lowHashrateWindowMillis, hashrates[device].averageSince(now - lowHashrateWindowMillis));
+                return true;
+            }
+        }
+        if (shareTimeoutMillis > 0 && now - Math.max(startTime, lastShareTime) >= shareTimeoutMillis) {
+            degradation = "no accepted share for " + (now - Math.max(startTime, lastShareTime)) + " ms";
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return GPU index of the hashrate rule that fired or -1
+     */
+    public int getDegradedDevice() {
+        return degradedDevice;
+    }
+
+    /**
+     * @return description of the fired rule or null
+     */
+    public String getDegradation() {
+        return degradation;
+    }
+
+    /**
+     * @return newest hashrate of the GPU or NaN when none was reported
+     */
+    public double getHashrate(int device) {
+        SampleRing ring = hashrates[device];
+        return ring.size() == 0 ? Double.NaN : ring.valueAt(0);
+    }
+
+    /**
+     * @return time of the last accepted share of the GPU or 0 when there was none
+     */
+    public long getLastShareTime(int device) {
+        return lastShareTimes[device];
+    }
+
+    @Override
+    public void reset() {
+        for (SampleRing ring : hashrates) {
+            ring.clear();
+        }
+        for (int device = 0; device < lastShareTimes.length; device++) {
+            lastShareTimes[device] = 0;
+        }
+        startTime = clock.getAsLong();
+        lastShareTime = 0;
+        degradedDevice = -1;
+        degradation = null;
+        next.reset();
+    }
+}
@@ -0,0 +1,89 @@
+package com.hesky.ewbfcudawatchdog;
+
+import java.time.LocalDateTime;
+
+/**
+ * One recovery action started for a miner failure, as stored in the incident journal: {@code time|miner|device|reason|action}.
+ * The action is a {@link RecoveryLadder.Action} key; records of older journals have no action and were all reboots.
+ */
+public class Incident {
+    private static final String SEPARATOR = "|";
+
+    private final LocalDateTime time;
+    private final String miner;
+    private final int device;
+    private final String reason;
+    private final String action;
+
+    public Incident(LocalDateTime time, String miner, int device, String reason) {
+        this(time, miner, device, reason, "");
+    }
+
+    public Incident(LocalDateTime time, String miner, int device, String reason, String action) {
+        this.time = time;
+        this.miner = clean(miner);
+        this.device = device;
+        this.reason = clean(reason);
+        this.action = clean(action);
+    }
+
+    private static String clean(String value) {
+        return value == null ? "" : value.replace(SEPARATOR, "/").replace('\n', ' ').replace('\r', ' ');
+    }
+
+    /**
+     * @return the incident or null when the line is not a complete record
+     */
+    public static Incident parse(String line) {
+        String[] fields = line.split("\\|", -1);
+        if (fields.length != 4 && fields.length != 5) {
+            return null;
+        }
+        try {
+            return new Incident(LocalDateTime.parse(fields[0]), fields[1], Integer.parseInt(fields[2]), fields[3], fields.length == 5 ?
+                    fields[4] : RecoveryLadder.Action.REBOOT.getKey());
+        }
+        catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    public String format() {
+        return time + SEPARATOR + miner + SEPARATOR + device + SEPARATOR + reason + SEPARATOR + action;
+    }
+
+    public LocalDateTime getTime() {
+        return time;
+    }
+
+    public String getMiner() {
+        return miner;
+    }
+
+    /**
+     * @return GPU index or -1 when the incident is not tied to a device
+     */
+    public int getDevice() {
+        return device;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * @return key of the recovery action, empty when the incident is not journaled
+     */
+    public String getAction() {
+        return action;
+    }
+
+    public boolean isReboot() {
+        return action.equals(RecoveryLadder.Action.REBOOT.getKey());
+    }
+
+    @Override
+    public String toString() {
+        return format();
+    }
+}
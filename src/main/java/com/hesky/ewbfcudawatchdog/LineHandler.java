@@ -0,0 +1,10 @@
+package com.hesky.ewbfcudawatchdog;
+
+/**
+ * Receives complete log lines as raw bytes. The array is reused by the caller, so implementations must not keep a reference to it.
+ */
+public interface LineHandler {
+    void onLine(byte[] bytes, int offset, int length);
+
+    void reset();
+}
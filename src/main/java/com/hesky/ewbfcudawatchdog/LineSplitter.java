@@ -0,0 +1,80 @@
+package com.hesky.ewbfcudawatchdog;
+
+import java.util.Arrays;
+
+/**
+ * Splits chunks of bytes into lines on {@code \n} or {@code \r} and hands them to a {@link LineHandler}; empty lines are skipped.
+ * The unfinished last line is kept until its terminator arrives, up to 64 KB.
+ */
+public class LineSplitter {
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private final LineHandler handler;
+    private byte[] partialLine = new byte[256];
+    private int partialLength;
+
+    public LineSplitter(LineHandler handler) {
+        this.handler = handler;
+    }
+
+    public void split(byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        int lineStart = offset;
+        for (int i = offset; i < end; i++) {
+            byte b = bytes[i];
+            if (b == '\n' || b == '\r') {
+                if (partialLength > 0) {
+                    appendPartial(bytes, lineStart, i - lineStart);
+                    handler.onLine(partialLine, 0, partialLength);
+                    partialLength = 0;
+                } else if (i > lineStart) {
+                    handler.onLine(bytes, lineStart, i - lineStart);
+                }
+                lineStart = i + 1;
+            }
+        }
+        if (lineStart < end) {
+            appendPartial(bytes, lineStart, end - lineStart);
+        }
+    }
+
+    /**
+     * Passes the unfinished last line to the handler as if it were terminated.
+     */
+    public void flush() {
+        if (partialLength > 0) {
+            handler.onLine(partialLine, 0, partialLength);
+            partialLength = 0;
+        }
+    }
+
+    public boolean hasPartialLine() {
+        return partialLength > 0;
+    }
+
+    /**
+     * @return bytes of the unfinished last line kept so far
+     */
+    public int getPartialLength() {
+        return partialLength;
+    }
+
+    /**
+     * Drops the unfinished last line.
+     */
+    public void clear() {
+        partialLength = 0;
+    }
+
+    private void appendPartial(byte[] bytes, int from, int length) {
+        int count = Math.min(length, MAX_LINE_LENGTH - partialLength);
+        if (count <= 0) {
+            return;
+        }
+        if (partialLength + count > partialLine.length) {
+            partialLine = Arrays.copyOf(partialLine, Math.min(MAX_LINE_LENGTH, Math.max(partialLine.length * 2, partialLength + count)));
+        }
+        System.arraycopy(bytes, from, partialLine, partialLength, count);
+        partialLength += count;
+    }
+}
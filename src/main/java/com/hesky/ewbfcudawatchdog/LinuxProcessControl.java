@@ -0,0 +1,243 @@
+package com.hesky.ewbfcudawatchdog;
+
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Process control through {@code /proc}. Processes are listed and their descendants found in-process. Processes started by the
+ * watchdog are stopped through their {@link Process} objects; other processes get their signals from one {@code kill} call.
+ * Exits are awaited by polling {@code /proc} with a short interval instead of fixed sleeps.
+ */
+public class LinuxProcessControl implements ProcessControl {
+    private static final Logger LOG = getLogger(LinuxProcessControl.class);
+    private static final Path PROC = Paths.get("/proc");
+    private static final long EXIT_POLL_MILLIS = 20;
+    private static final int COMM_LENGTH = 15;
+
+    private final long gracePeriodMillis;
+    private final long ownPid;
+    private final Map<Long, Process> started = new ConcurrentHashMap<>();
+
+    public LinuxProcessControl(long gracePeriodMillis) {
+        this.gracePeriodMillis = gracePeriodMillis;
+        long pid;
+        try {
+            pid = Long.parseLong(PROC.resolve("self").toRealPath().getFileName().toString());
+        }
+        catch (IOException | NumberFormatException e) {
+            pid = -1;
+        }
+        this.ownPid = pid;
+    }
+
+    public List<ProcessInfo> processes() throws IOException {
+        List<ProcessInfo> processes = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(PROC)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (!name.isEmpty() && Character.isDigit(name.charAt(0))) {
+                    ProcessInfo info = read(Long.parseLong(name));
+                    if (info != null) {
+                        processes.add(info);
+                    }
+                }
+            }
+        }
+        return processes;
+    }
+
+    /**
+     * @return the process or null when it has exited or is a zombie
+     */
+    private static ProcessInfo read(long pid) {
+        Path directory = PROC.resolve(Long.toString(pid));
+        try {
+            String stat = new String(Files.readAllBytes(directory.resolve("stat")), StandardCharsets.UTF_8);
+            int nameEnd = stat.lastIndexOf(')');
+            String name = stat.substring(stat.indexOf('(') + 1, nameEnd);
+            String[] fields = stat.substring(nameEnd + 2).split(" ");
+            if (fields[0].equals("Z") || fields[0].equals("X")) {
+                return null;
+            }
+            long parentPid = Long.parseLong(fields[1]);
+            String commandLine = new String(Files.readAllBytes(directory.resolve("cmdline")), StandardCharsets.UTF_8).replace('\0', ' ')
+                    .trim();
+            if (name.length() == COMM_LENGTH && !commandLine.isEmpty()) {
+                String program = commandLine.split(" ", 2)[0];
+                String image = program.substring(program.lastIndexOf('/') + 1);
+                if (image.startsWith(name)) {
+                    name = image;
+                }
+            }
+            return new ProcessInfo(pid, parentPid, name, commandLine);
+        }
+        catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public List<ProcessInfo> find(String pattern) throws IOException {
+        List<ProcessInfo> found = new ArrayList<>();
+        for (ProcessInfo process : processes()) {
+            if (process.getPid() != ownPid && process.matches(pattern)) {
+                found.add(process);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public boolean kill(String pattern) throws IOException, InterruptedException {
+        List<ProcessInfo> all = processes();
+        List<ProcessInfo> matching = new ArrayList<>();
+        for (ProcessInfo process : all) {
+            if (process.getPid() != ownPid && process.matches(pattern)) {
+                matching.add(process);
+            }
+        }
+        if (matching.isEmpty()) {
+            LOG.warn("Kill process for {} was finished with errors! Process is not found", pattern);
+            return false;
+        }
+        List<Long> roots = new ArrayList<>();
+        for (ProcessInfo process : matching) {
+            roots.add(process.getPid());
+        }
+        Set<Long> tree = ProcessInfo.withDescendants(all, roots);
+        LOG.debug("Stopping {} with descendants {}", matching, tree);
+        signal(tree, false);
+        if (!awaitExit(tree, gracePeriodMillis)) {
+            LOG.warn("Processes {} of {} did not stop in {} ms. Killing them", alive(tree), pattern, gracePeriodMillis);
+            signal(alive(tree), true);
+            if (!awaitExit(tree, gracePeriodMillis)) {
+                LOG.warn("Kill process for {} was finished with errors! Processes {} are still alive", pattern, alive(tree));
+                return false;
+            }
+        }
+        LOG.info("Kill process for {} was successfully finished!", pattern);
+        return true;
+    }
+
+    private void signal(Collection<Long> pids, boolean forcibly) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add("kill");
+        command.add(forcibly ? "-KILL" : "-TERM");
+        for (Long pid : pids) {
+            Process process = started.get(pid);
+            if (process != null) {
+                if (forcibly) {
+                    process.destroyForcibly();
+                } else {
+                    process.destroy();
+                }
+            } else {
+                command.add(Long.toString(pid));
+            }
+        }
+        if (command.size() > 2) {
+            new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(nullFile()).start().waitFor(gracePeriodMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private boolean isAlive(long pid) {
+        Process process = started.get(pid);
+        if (process != null) {
+            if (process.isAlive()) {
+                return true;
+            }
+            started.remove(pid);
+            return false;
+        }
+        return read(pid) != null;
+    }
+
+    private List<Long> alive(Collection<Long> pids) {
+        List<Long> alive = new ArrayList<>();
+        for (Long pid : pids) {
+            if (isAlive(pid)) {
+                alive.add(pid);
+            }
+        }
+        return alive;
+    }
+
+    private boolean awaitExit(Collection<Long> pids, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (!alive(pids).isEmpty()) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            TimeUnit.MILLISECONDS.sleep(EXIT_POLL_MILLIS);
+        }
+        return true;
+    }
+
+    @Override
+    public Process start(String program, Path directory, List<String> arguments, boolean captureOutput) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessControl.resolveProgram(program, directory).toString());
+        command.addAll(arguments);
+        LOG.info("Starting {}", command);
+        ProcessBuilder builder = new ProcessBuilder(command).redirectErrorStream(true);
+        if (!captureOutput) {
+            builder.redirectOutput(nullFile());
+        }
+        if (directory != null) {
+            builder.directory(directory.toFile());
+        }
+        Process process = builder.start();
+        long pid = pidOf(process);
+        if (pid > 0) {
+            started.put(pid, process);
+        }
+        return process;
+    }
+
+    /**
+     * @return pid of the process or -1 when the runtime does not expose it
+     */
+    static long pidOf(Process process) {
+        try {
+            return (Long) Process.class.getMethod("pid").invoke(process);
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            try {
+                Field field = process.getClass().getDeclaredField("pid");
+                field.setAccessible(true);
+                return field.getLong(process);
+            }
+            catch (ReflectiveOperationException | RuntimeException ex) {
+                return -1;
+            }
+        }
+    }
+
+    private static File nullFile() {
+        return new File("/dev/null");
+    }
+
+    @Override
+    public void reboot(int delaySeconds, String message) throws IOException {
+        long minutes = (delaySeconds + 59) / 60;
+        new ProcessBuilder("shutdown", "-r", "+" + minutes, message).redirectErrorStream(true).redirectOutput(nullFile()).start();
+    }
+}
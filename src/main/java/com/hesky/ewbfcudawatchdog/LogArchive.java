@@ -0,0 +1,437 @@
+package com.hesky.ewbfcudawatchdog;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Searches the rotated logs in {@code logs} directories for failure phrases. Segments whose {@link SegmentIndex} shows no
+ * matching phrase in the time range are skipped without being opened; the rest are decompressed and scanned in parallel on the
+ * common fork/join pool, one task per segment. Segments without an index are scanned with the phrase matcher.
+ */
+public class LogArchive {
+    private static final Logger LOG = getLogger(LogArchive.class);
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final List<Path> directories;
+    private final RuleBook.Compiled rules;
+
+    public LogArchive(Collection<Path> directories, RuleBook rules, int gpuCount) {
+        this.directories = new ArrayList<>(directories);
+        this.rules = rules.compile(gpuCount);
+    }
+
+    public Result query(Query query) throws IOException {
+        long started = System.nanoTime();
+        List<Segment> segments = segments();
+        List<Segment> candidates = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (segment.mayMatch(query)) {
+                candidates.add(segment);
+            }
+        }
+        List<Hit> hits;
+        try {
+            hits = candidates.isEmpty() ? new ArrayList<>() : ForkJoinPool.commonPool().invoke(new ScanTask(candidates, 0, candidates
+                    .size(), query));
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        hits.sort(Comparator.comparingLong(Hit::getSegmentEndMillis).thenComparing(hit -> hit.getSegment().toString()).thenComparingInt
+                (Hit::getLine));
+        return new Result(hits, segments.size(), candidates.size(), System.nanoTime() - started);
+    }
+
+    private List<Segment> segments() throws IOException {
+        List<Segment> segments = new ArrayList<>();
+        for (Path directory : directories) {
+            if (!Files.isDirectory(directory)) {
+                continue;
+            }
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.{txt,txt.gz}")) {
+                for (Path file : files) {
+                    SegmentIndex index = null;
+                    try {
+                        index = SegmentIndex.read(SegmentIndex.sidecar(file));
+                    }
+                    catch (NoSuchFileException e) {
+                        LOG.debug("Segment {} has no index", file);
+                    }
+                    catch (IOException e) {
+                        LOG.warn("Index of " + file + " is broken, the segment is scanned", e);
+                    }
+                    segments.add(new Segment(file, index, Files.getLastModifiedTime(file).toMillis()));
+                }
+            }
+        }
+        return segments;
+    }
+
+    private List<Hit> scan(Segment segment, Query query) throws IOException {
+        SegmentScanner scanner = new SegmentScanner(segment, query);
+        LineSplitter lineSplitter = new LineSplitter(scanner);
+        boolean compressed = segment.file.getFileName().toString().endsWith(".gz");
+        try (InputStream in = compressed ? new GZIPInputStream(Files.newInputStream(segment.file), 1 << 16) : Files.newInputStream
+                (segment.file)) {
+            byte[] buffer = new byte[1 << 16];
+            for (int n; (n = in.read(buffer)) != -1 && !scanner.isDone(); ) {
+                lineSplitter.split(buffer, 0, n);
+            }
+        }
+        lineSplitter.flush();
+        return scanner.hits;
+    }
+
+    /**
+     * {@code query [--logs dir] [--device n] [--phrase name] [--days n] [--context lines]}: prints the matches of the rotated logs
+     * of every configured miner, or of the given directory.
+     *
+     * @return exit code
+     */
+    public static int runQuery(String[] args, Properties params, PrintStream out) throws IOException {
+        Set<Path> directories = new LinkedHashSet<>();
+        int device = -1;
+        String phrase = null;
+        long fromMillis = 0;
+        int context = 20;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String value = i + 1 < args.length ? args[i + 1] : null;
+                switch (args[i]) {
+                    case "--logs":
+                        directories.add(Paths.get(value));
+                        break;
+                    case "--device":
+                        device = Integer.parseInt(value);
+                        break;
+                    case "--phrase":
+                        phrase = value;
+                        break;
+                    case "--days":
+                        fromMillis = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(Long.parseLong(value));
+                        break;
+                    case "--context":
+                        context = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+                i++;
+            }
+        }
+        catch (NumberFormatException | NullPointerException e) {
+            out.println("Wrong query " + String.join(" ", args));
+            return 2;
+        }
+        catch (IllegalArgumentException e) {
+            out.println(e.getMessage());
+            return 2;
+        }
+        if (directories.isEmpty()) {
+            for (MinerDefinition miner : MinerDefinition.load(params)) {
+                if (miner.getLogFile() != null) {
+                    directories.add(LogRotator.logsDirectory(miner.getLogFile()));
+                }
+            }
+        }
+        int gpuCount = Integer.parseInt(params.getProperty("gpuCount", "1"));
+        LogArchive archive = new LogArchive(directories, RuleBook.fromParams(params), gpuCount);
+        Result result = archive.query(new Query(fromMillis, Long.MAX_VALUE, device, phrase, context));
+        for (Hit hit : result.getHits()) {
+            out.println("== " + TIME_FORMAT.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(hit.getSegmentEndMillis()), ZoneId
+                    .systemDefault())) + " " + hit.getSegment() + ":" + hit.getLine() + " " + (hit.getDevice() < 0 ? "" : "GPU" + hit
+                    .getDevice() + " ") + hit.getPhrase());
+            List<String> lines = hit.getContext();
+            for (int i = 0; i < lines.size(); i++) {
+                out.println((i == hit.getContextLine() ? "> " : "  ") + lines.get(i));
+            }
+        }
+        out.println("Found " + result.getHits().size() + " matches in " + result.getSegmentsScanned() + " of " + result
+                .getSegmentsTotal() + " segments in " + TimeUnit.NANOSECONDS.toMillis(result.getNanos()) + " ms");
+        return 0;
+    }
+
+    private static class Segment {
+        private final Path file;
+        private final SegmentIndex index;
+        private final long endMillis;
+
+        private Segment(Path file, SegmentIndex index, long modifiedMillis) {
+            this.file = file;
+            this.index = index;
+            this.endMillis = index == null ? modifiedMillis : index.getEndMillis();
+        }
+
+        private boolean mayMatch(Query query) {
+            if (index == null) {
+                return endMillis >= query.fromMillis;
+            }
+            return index.overlaps(query.fromMillis, query.toMillis) && index.count(query.device, query.phrase) > 0;
+        }
+    }
+
+    private class ScanTask extends RecursiveTask<List<Hit>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Segment> segments;
+        private final int from;
+        private final int to;
+        private final Query query;
+
+        private ScanTask(List<Segment> segments, int from, int to, Query query) {
+            this.segments = segments;
+            this.from = from;
+            this.to = to;
+            this.query = query;
+        }
+
+        @Override
+        protected List<Hit> compute() {
+            if (to - from == 1) {
+                try {
+                    return scan(segments.get(from), query);
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            int middle = (from + to) >>> 1;
+            ScanTask left = new ScanTask(segments, from, middle, query);
+            left.fork();
+            List<Hit> hits = new ScanTask(segments, middle, to, query).compute();
+            hits.addAll(0, left.join());
+            return hits;
+        }
+    }
+
+    /**
+     * Walks the lines of one segment, keeping the last {@code context} lines for the matches to come.
+     */
+    private class SegmentScanner implements LineHandler, PhraseMatcher.Listener {
+        private final Segment segment;
+        private final Query query;
+        private final ArrayDeque<String> before = new ArrayDeque<>();
+        private final List<Hit> open = new ArrayList<>();
+        private final List<Hit> hits = new ArrayList<>();
+        private int line;
+        private int nextMatch;
+        private int lastMatchLine;
+
+        private SegmentScanner(Segment segment, Query query) {
+            this.segment = segment;
+            this.query = query;
+            if (segment.index != null) {
+                int last = segment.index.getMatchCount() - 1;
+                while (last >= 0 && !segment.index.matches(last, query.device, query.phrase)) {
+                    last--;
+                }
+                lastMatchLine = last < 0 ? 0 : segment.index.getLine(last);
+            }
+        }
+
+        private boolean isDone() {
+            return segment.index != null && line > lastMatchLine && open.isEmpty();
+        }
+
+        @Override
+        public void onLine(byte[] bytes, int offset, int length) {
+            line++;
+            String text = null;
+            if (!open.isEmpty() || query.context > 0) {
+                text = new String(bytes, offset, length, StandardCharsets.UTF_8);
+            }
+            for (Iterator<Hit> iterator = open.iterator(); iterator.hasNext(); ) {
+                Hit hit = iterator.next();
+                hit.context.add(text);
+                if (hit.context.size() - hit.contextLine > query.context) {
+                    iterator.remove();
+                }
+            }
+            int found = hits.size();
+            if (segment.index == null) {
+                rules.matcher.scan(bytes, offset, length, this);
+            } else {
+                SegmentIndex index = segment.index;
+                for (; nextMatch < index.getMatchCount() && index.getLine(nextMatch) <= line; nextMatch++) {
+                    if (index.getLine(nextMatch) == line && index.matches(nextMatch, query.device, query.phrase)) {
+                        add(index.getPhrase(nextMatch), index.getDevice(nextMatch));
+                    }
+                }
+            }
+            for (int i = found; i < hits.size(); i++) {
+                Hit hit = hits.get(i);
+                hit.context.addAll(before);
+                hit.contextLine = before.size();
+                hit.context.add(text == null ? new String(bytes, offset, length, StandardCharsets.UTF_8) : text);
+                if (query.context > 0) {
+                    open.add(hit);
+                }
+            }
+            if (query.context > 0) {
+                before.addLast(text);
+                if (before.size() > query.context) {
+                    before.removeFirst();
+                }
+            }
+        }
+
+        @Override
+        public void onMatch(int phraseId) {
+            String phrase = rules.phraseNames[rules.phraseOf[phraseId]];
+            int device = rules.deviceOf[phraseId];
+            if ((query.device < 0 || device == query.device) && (query.phrase == null || query.phrase.equals(phrase))) {
+                for (int i = hits.size() - 1; i >= 0 && hits.get(i).line == line; i--) {
+                    if (hits.get(i).device == device && hits.get(i).phrase.equals(phrase)) {
+                        return;
+                    }
+                }
+                add(phrase, device);
+            }
+        }
+
+        private void add(String phrase, int device) {
+            hits.add(new Hit(segment.file, segment.endMillis, line, phrase, device));
+        }
+
+        @Override
+        public void reset() {
+        }
+    }
+
+    /**
+     * Matches from {@code fromMillis} to {@code toMillis}; device -1 and phrase null match anything.
+     */
+    public static class Query {
+        private final long fromMillis;
+        private final long toMillis;
+        private final int device;
+        private final String phrase;
+        private final int context;
+
+        public Query(long fromMillis, long toMillis, int device, String phrase, int context) {
+            this.fromMillis = fromMillis;
+            this.toMillis = toMillis;
+            this.device = device;
+            this.phrase = phrase;
+            this.context = context;
+        }
+    }
+
+    public static class Hit {
+        private final Path segment;
+        private final long segmentEndMillis;
+        private final int line;
+        private final String phrase;
+        private final int device;
+        private final List<String> context = new ArrayList<>();
+        private int contextLine;
+
+        private Hit(Path segment, long segmentEndMillis, int line, String phrase, int device) {
+            this.segment = segment;
+            this.segmentEndMillis = segmentEndMillis;
+            this.line = line;
+            this.phrase = phrase;
+            this.device = device;
+        }
+
+        public Path getSegment() {
+            return segment;
+        }
+
+        /**
+         * @return last write to the segment; lines carry no time of their own
+         */
+        public long getSegmentEndMillis() {
+            return segmentEndMillis;
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        public String getPhrase() {
+            return phrase;
+        }
+
+        /**
+         * @return GPU index or -1
+         */
+        public int getDevice() {
+            return device;
+        }
+
+        /**
+         * @return up to {@code context} lines before the match, the match and up to {@code context} lines after it
+         */
+        public List<String> getContext() {
+            return Collections.unmodifiableList(context);
+        }
+
+        /**
+         * @return position of the matched line in the context
+         */
+        public int getContextLine() {
+            return contextLine;
+        }
+    }
+
+    public static class Result {
+        private final List<Hit> hits;
+        private final int segmentsTotal;
+        private final int segmentsScanned;
+        private final long nanos;
+
+        private Result(List<Hit> hits, int segmentsTotal, int segmentsScanned, long nanos) {
+            this.hits = hits;
+            this.segmentsTotal = segmentsTotal;
+            this.segmentsScanned = segmentsScanned;
+            this.nanos = nanos;
+        }
+
+        public List<Hit> getHits() {
+            return hits;
+        }
+
+        public int getSegmentsTotal() {
+            return segmentsTotal;
+        }
+
+        public int getSegmentsScanned() {
+            return segmentsScanned;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+    }
+}
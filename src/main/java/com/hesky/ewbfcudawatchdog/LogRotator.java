@@ -0,0 +1,263 @@
+package com.hesky.ewbfcudawatchdog;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongSupplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Moves a miner log into the {@code logs} directory next to it with a rename, so the restart only waits for a metadata
+ * operation. Every rotation gets its own name ({@code yyyy-MM-dd HH-mm-ss.SSS <incident>.txt}, with a counter on collision).
+ * Compression to {@code .txt.gz} runs on a background thread; the archive is written to a temporary file and renamed when it is
+ * complete, and the plain copy is deleted only after that, so an interrupted compression is simply repeated on the next start.
+ * <p>
+ * With rules the rotator also writes a {@link SegmentIndex} next to every rotated log, in the same pass as the compression.
+ */
+public class LogRotator {
+    private static final Logger LOG = getLogger(LogRotator.class);
+    private static final DateTimeFormatter NAME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH-mm-ss.SSS");
+    private static final String ROTATED_SUFFIX = ".txt";
+    private static final String COMPRESSED_SUFFIX = ".txt.gz";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final boolean compress;
+    private final RuleBook rules;
+    private final int gpuCount;
+    private final LongSupplier clock;
+    private final Set<Path> resumed = ConcurrentHashMap.newKeySet();
+    private final ExecutorService compressor;
+
+    public LogRotator(boolean compress) {
+        this(compress, null, 0);
+    }
+
+    /**
+     * @param rules phrases to index, null to write no index
+     */
+    public LogRotator(boolean compress, RuleBook rules, int gpuCount) {
+        this(compress, rules, gpuCount, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock time in millis the rotated names are made of
+     */
+    public LogRotator(boolean compress, RuleBook rules, int gpuCount, LongSupplier clock) {
+        this.compress = compress;
+        this.rules = rules;
+        this.gpuCount = gpuCount;
+        this.clock = clock;
+        this.compressor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "log-compressor");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    public static Path logsDirectory(Path log) {
+        Path parent = log.toAbsolutePath().getParent();
+        return parent.resolve("logs");
+    }
+
+    /**
+     * Renames the log into the logs directory and queues its compression.
+     *
+     * @param incident short text added to the name, for example the miner name, may be null
+     * @return the rotated file
+     */
+    public Path rotate(Path log, String incident) throws IOException {
+        Path logsDirectory = logsDirectory(log);
+        if (!Files.exists(logsDirectory)) {
+            Files.createDirectories(logsDirectory);
+            LOG.info("Directory {} was created", logsDirectory);
+        }
+        String baseName = NAME_FORMAT.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(clock.getAsLong()), ZoneId.systemDefault()));
+        if (incident != null && !incident.isEmpty()) {
+            baseName += " " + incident.replaceAll("[^A-Za-z0-9_.-]", "_");
+        }
+        Path target = logsDirectory.resolve(baseName + ROTATED_SUFFIX);
+        for (int attempt = 1; ; attempt++) {
+            try {
+                move(log, target);
+                break;
+            }
+            catch (FileAlreadyExistsException e) {
+                target = logsDirectory.resolve(baseName + "-" + attempt + ROTATED_SUFFIX);
+            }
+        }
+        LOG.info("LogFile {} was moved to {}", log, target);
+        if (compress) {
+            compress(target);
+        } else if (rules != null) {
+            index(target);
+        }
+        return target;
+    }
+
+    /**
+     * Moves without ever replacing the target: the file is hard linked to its new name, which fails atomically when the name is
+     * taken, and then unlinked from the old one. Where links are not supported a plain move is used, which also refuses an
+     * existing target.
+     *
+     * @throws FileAlreadyExistsException when the target exists
+     */
+    static void move(Path source, Path target) throws IOException {
+        try {
+            Files.createLink(target, source);
+        }
+        catch (FileAlreadyExistsException e) {
+            throw e;
+        }
+        catch (UnsupportedOperationException | IOException e) {
+            Files.move(source, target);
+            return;
+        }
+        try {
+            Files.delete(source);
+        }
+        catch (IOException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+    }
+
+    public Future<Path> compress(Path rotated) {
+        return compressor.submit(() -> {
+            String name = rotated.getFileName().toString();
+            Path compressed = rotated.resolveSibling(name.substring(0, name.length() - ROTATED_SUFFIX.length()) + COMPRESSED_SUFFIX);
+            Path temporary = compressed.resolveSibling(compressed.getFileName() + TEMPORARY_SUFFIX);
+            try {
+                SegmentIndex index;
+                try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(temporary), 1 << 16)) {
+                    index = copy(rotated, false, out);
+                }
+                if (index != null) {
+                    index.write(SegmentIndex.sidecar(compressed));
+                }
+                move(temporary, compressed);
+                Files.delete(rotated);
+                LOG.info("LogFile {} was compressed to {}", rotated, compressed);
+                return compressed;
+            }
+            catch (IOException e) {
+                LOG.warn("LogFile " + rotated + " was not compressed.", e);
+                Files.deleteIfExists(temporary);
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Queues writing the index of a rotated log, plain or compressed.
+     */
+    public Future<Path> index(Path segment) {
+        return compressor.submit(() -> {
+            Path sidecar = SegmentIndex.sidecar(segment);
+            try {
+                copy(segment, segment.getFileName().toString().endsWith(COMPRESSED_SUFFIX), null).write(sidecar);
+                LOG.info("LogFile {} was indexed", segment);
+                return sidecar;
+            }
+            catch (IOException e) {
+                LOG.warn("LogFile " + segment + " was not indexed.", e);
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Copies the segment to {@code out}, if any, and indexes it on the way when there are rules.
+     */
+    private SegmentIndex copy(Path segment, boolean compressed, OutputStream out) throws IOException {
+        SegmentIndex.Builder builder = rules == null ? null : new SegmentIndex.Builder(rules.compile(gpuCount));
+        LineSplitter lineSplitter = builder == null ? null : new LineSplitter(builder);
+        try (InputStream in = compressed ? new GZIPInputStream(Files.newInputStream(segment), 1 << 16) : Files.newInputStream
+                (segment)) {
+            byte[] buffer = new byte[1 << 16];
+            for (int n; (n = in.read(buffer)) != -1; ) {
+                if (out != null) {
+                    out.write(buffer, 0, n);
+                }
+                if (lineSplitter != null) {
+                    lineSplitter.split(buffer, 0, n);
+                }
+            }
+        }
+        if (builder == null) {
+            return null;
+        }
+        lineSplitter.flush();
+        BasicFileAttributes attributes = Files.readAttributes(segment, BasicFileAttributes.class);
+        long end = attributes.lastModifiedTime().toMillis();
+        return builder.build(Math.min(attributes.creationTime().toMillis(), end), end);
+    }
+
+    /**
+     * Queues compression of rotated logs left uncompressed by a previous run, removes its unfinished archives and indexes the
+     * segments that have no index yet. Each directory is resumed once per rotator, however many miners share it.
+     *
+     * @return number of queued compressions and indexes
+     */
+    public int resumePending(Path logsDirectory) {
+        if (!compress && rules == null || !Files.isDirectory(logsDirectory) || !resumed.add(logsDirectory.toAbsolutePath()
+                .normalize())) {
+            return 0;
+        }
+        int queued = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(logsDirectory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(TEMPORARY_SUFFIX)) {
+                    Files.deleteIfExists(file);
+                } else if (name.endsWith(ROTATED_SUFFIX) && compress) {
+                    compress(file);
+                    queued++;
+                } else if ((name.endsWith(ROTATED_SUFFIX) || name.endsWith(COMPRESSED_SUFFIX)) && rules != null && !Files.exists
+                        (SegmentIndex.sidecar(file))) {
+                    index(file);
+                    queued++;
+                }
+            }
+        }
+        catch (IOException e) {
+            LOG.warn("Cannot resume compression in " + logsDirectory, e);
+        }
+        return queued;
+    }
+
+    /**
+     * Waits for queued compressions, used on shutdown and in tests.
+     */
+    public boolean awaitCompression(long timeout, TimeUnit unit) throws InterruptedException {
+        try {
+            compressor.submit(() -> { }).get(timeout, unit);
+            return true;
+        }
+        catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+}
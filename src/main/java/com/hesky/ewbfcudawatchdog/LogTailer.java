@@ -0,0 +1,223 @@
+package com.hesky.ewbfcudawatchdog;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Reads only the bytes appended to a log since the previous poll and hands complete lines to a {@link LineHandler}.
+ * The unfinished last line is kept until its terminator arrives. When the file is truncated or replaced (different file key,
+ * or creation time where the file system has no file keys, or different first bytes) the offset and the handler state are reset and the new file is read from the beginning.
+ * New bytes are also kept by an optional {@link FlightRecorder}. The position can be saved as a {@link ScanCheckpoint} and resumed
+ * after a restart of the watchdog.
+ */
+public class LogTailer {
+    private static final Logger LOG = getLogger(LogTailer.class);
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int HEAD_SIZE = 64;
+
+    private final Path path;
+    private final LineHandler handler;
+    private final LineSplitter lineSplitter;
+    private final FlightRecorder recorder;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private final ByteBuffer headBuffer = ByteBuffer.allocate(HEAD_SIZE);
+    private long offset;
+    private Object fileKey;
+    private FileTime creationTime;
+    private final byte[] head = new byte[HEAD_SIZE];
+    private int headLength;
+
+    public LogTailer(Path path, LineHandler handler) {
+        this(path, handler, null);
+    }
+
+    /**
+     * @param recorder keeps the last bytes read, may be null
+     */
+    public LogTailer(Path path, LineHandler handler, FlightRecorder recorder) {
+        this.path = path;
+        this.handler = handler;
+        this.lineSplitter = new LineSplitter(handler);
+        this.recorder = recorder;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Reads everything appended since the last call.
+     *
+     * @return number of new bytes read
+     * @throws NoSuchFileException when the log does not exist (for example right after it was moved away)
+     */
+    public long poll() throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        }
+        catch (NoSuchFileException e) {
+            if (offset != 0 || lineSplitter.hasPartialLine()) {
+                reset();
+            }
+            throw e;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (isReplaced(channel, attributes, size)) {
+                LOG.info("File {} was truncated or replaced. Reading it from the beginning.", path);
+                reset();
+            }
+            fileKey = attributes.fileKey();
+            creationTime = attributes.creationTime();
+            long read = 0;
+            while (offset < size) {
+                readBuffer.clear();
+                int n = channel.read(readBuffer, offset);
+                if (n <= 0) {
+                    break;
+                }
+                rememberHead(readBuffer.array(), n);
+                lineSplitter.split(readBuffer.array(), 0, n);
+                if (recorder != null) {
+                    recorder.write(readBuffer.array(), 0, n);
+                }
+                offset += n;
+                read += n;
+            }
+            return read;
+        }
+    }
+
+    /**
+     * @return the position after the last complete line handled, without rule state
+     */
+    public ScanCheckpoint checkpoint() {
+        CRC32 crc = new CRC32();
+        crc.update(head, 0, headLength);
+        return new ScanCheckpoint(offset - lineSplitter.getPartialLength(), fileKey == null ? null : fileKey.toString(), creationTime ==
+                null ? 0 : creationTime.toMillis(), headLength, crc.getValue(), Collections.emptyMap());
+    }
+
+    /**
+     * Continues from the checkpoint when the log is still the same file: same file key, or creation time where there are no file
+     * keys, same first bytes and at least as long as the offset. The handler state is not touched.
+     *
+     * @return false when the log was replaced, it is then read from the beginning
+     */
+    public boolean resume(ScanCheckpoint checkpoint) throws IOException {
+        if (checkpoint.getOffset() <= 0 || checkpoint.getHeadLength() > HEAD_SIZE) {
+            return false;
+        }
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        }
+        catch (NoSuchFileException e) {
+            return false;
+        }
+        if (attributes.size() < checkpoint.getOffset()) {
+            return false;
+        }
+        if (checkpoint.getFileKey() != null || attributes.fileKey() != null) {
+            if (attributes.fileKey() == null || !attributes.fileKey().toString().equals(checkpoint.getFileKey())) {
+                return false;
+            }
+        } else if (attributes.creationTime().toMillis() != checkpoint.getCreationTimeMillis()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            headBuffer.clear();
+            headBuffer.limit(checkpoint.getHeadLength());
+            while (headBuffer.hasRemaining()) {
+                if (channel.read(headBuffer, headBuffer.position()) <= 0) {
+                    return false;
+                }
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(headBuffer.array(), 0, checkpoint.getHeadLength());
+        if (crc.getValue() != checkpoint.getHeadCrc()) {
+            return false;
+        }
+        System.arraycopy(headBuffer.array(), 0, head, 0, checkpoint.getHeadLength());
+        headLength = checkpoint.getHeadLength();
+        lineSplitter.clear();
+        offset = checkpoint.getOffset();
+        fileKey = attributes.fileKey();
+        creationTime = attributes.creationTime();
+        return true;
+    }
+
+    /**
+     * Passes the unfinished last line to the handler as if it were terminated. Used when the whole file is scanned once.
+     */
+    public void flush() {
+        lineSplitter.flush();
+    }
+
+    public void reset() {
+        offset = 0;
+        lineSplitter.clear();
+        headLength = 0;
+        fileKey = null;
+        creationTime = null;
+        handler.reset();
+    }
+
+    private boolean isReplaced(FileChannel channel, BasicFileAttributes attributes, long size) throws IOException {
+        if (offset == 0) {
+            return false;
+        }
+        if (size < offset) {
+            return true;
+        }
+        if (fileKey != null || attributes.fileKey() != null) {
+            if (!Objects.equals(fileKey, attributes.fileKey())) {
+                return true;
+            }
+        } else if (!Objects.equals(creationTime, attributes.creationTime())) {
+            return true;
+        }
+        headBuffer.clear();
+        headBuffer.limit(headLength);
+        while (headBuffer.hasRemaining()) {
+            if (channel.read(headBuffer, headBuffer.position()) <= 0) {
+                return true;
+            }
+        }
+        byte[] current = headBuffer.array();
+        for (int i = 0; i < headLength; i++) {
+            if (current[i] != head[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void rememberHead(byte[] bytes, int length) {
+        if (offset < HEAD_SIZE) {
+            int count = (int) Math.min(HEAD_SIZE - offset, length);
+            System.arraycopy(bytes, 0, head, (int) offset, count);
+            headLength = (int) offset + count;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.hesky.ewbfcudawatchdog;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides when a log should be scanned next. The poll interval adapts to the log: it drops to the minimum while the log grows
+ * and doubles up to the maximum while it is idle, which covers lost or coalesced {@link ChangeNotifier} events and file systems
+ * without notifications. The watcher also reports a stall when the log has not grown for the stall timeout.
+ */
+public class LogWatcher {
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+    private final long stallTimeoutNanos;
+    private final LongSupplier nanoClock;
+    private long intervalMillis;
+    private long lastGrowthNanos;
+
+    /**
+     * @param stallTimeoutMillis time without growth after which {@link #isStalled()} is true, 0 disables stall detection
+     */
+    public LogWatcher(long minIntervalMillis, long maxIntervalMillis, long stallTimeoutMillis) {
+        this(minIntervalMillis, maxIntervalMillis, stallTimeoutMillis, System::nanoTime);
+    }
+
+    /**
+     * @param nanoClock source of {@link System#nanoTime()}, replaced by a virtual clock in replays
+     */
+    public LogWatcher(long minIntervalMillis, long maxIntervalMillis, long stallTimeoutMillis, LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+        this.minIntervalMillis = Math.min(minIntervalMillis, maxIntervalMillis);
+        this.maxIntervalMillis = maxIntervalMillis;
+        this.stallTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(stallTimeoutMillis);
+        reset();
+    }
+
+    /**
+     * Records the result of a scan and adapts the poll interval.
+     */
+    public void onScan(long bytesRead) {
+        if (bytesRead > 0) {
+            lastGrowthNanos = nanoClock.getAsLong();
+            intervalMillis = minIntervalMillis;
+        } else {
+            intervalMillis = Math.min(intervalMillis * 2, maxIntervalMillis);
+        }
+    }
+
+    public boolean isStalled() {
+        return stallTimeoutNanos > 0 && nanoClock.getAsLong() - lastGrowthNanos > stallTimeoutNanos;
+    }
+
+    /**
+     * Starts the stall timer again and tightens the poll interval, for example after the miner was restarted.
+     */
+    public void reset() {
+        lastGrowthNanos = nanoClock.getAsLong();
+        intervalMillis = minIntervalMillis;
+    }
+
+    /**
+     * @return delay until the next scan, never later than the moment the stall timeout expires; once it has expired the poll
+     * interval, so a stall that is not reset does not make the caller spin
+     */
+    public long nextDelayMillis() {
+        long delay = intervalMillis;
+        if (stallTimeoutNanos > 0) {
+            long untilStall = TimeUnit.NANOSECONDS.toMillis(lastGrowthNanos + stallTimeoutNanos - nanoClock.getAsLong()) + 1;
+            if (untilStall > 0) {
+                delay = Math.min(delay, untilStall);
+            }
+        }
+        return Math.max(1, delay);
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+}
@@ -4,26 +4,26 @@ import org.slf4j.Logger;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URISyntaxException;
-import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
-import java.time.Duration;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
 
 import static org.slf4j.LoggerFactory.getLogger;
 
 public class Main {
+    public static final int REBOOT_DELAY_SECONDS = 20;
+    public static final String REBOOT_MESSAGE = "ZecMiner is working wrong.";
     private static final Logger LOG = getLogger(Main.class);
     private static final Properties PARAMS = new Properties();
-    private static Duration TOTAL_TIME;
     private static Path statsFilePath = new File("stats.txt").toPath();
+    private static final LogRotator LOG_ROTATOR;
+    private static final ProcessControl PROCESS_CONTROL;
 
     static {
         try {
@@ -33,210 +33,114 @@ public class Main {
             LOG.error("Wrong file name", e);
             System.exit(1);
         }
+        LOG_ROTATOR = new LogRotator("1".equals(PARAMS.getProperty("compressRotatedLogs")), "1".equals(PARAMS.getProperty
+                ("indexRotatedLogs")) ? RuleBook.fromParams(PARAMS) : null, Integer.parseInt(PARAMS.getProperty("gpuCount", "1")));
+        PROCESS_CONTROL = ProcessControl.forCurrentSystem(Long.parseLong(PARAMS.getProperty("killTimeout", "10000")), "1".equals(PARAMS
+                .getProperty("gracefulKill")));
     }
 
     public static Map<String, String> readStats(Path path) throws IOException {
         List<String> stats = Files.readAllLines(path);
-        Map<String, String> map = new HashMap<>();
+        Map<String, String> map = new LinkedHashMap<>();
         for (String stat : stats) {
-            String[] pv = stat.split("=");
-            map.put(pv[0], pv[1]);
+            if (stat.trim().isEmpty()) {
+                continue;
+            }
+            String[] pv = stat.split("=", 2);
+            if (pv.length != 2 || pv[0].trim().isEmpty()) {
+                LOG.warn("Skipping wrong stats line '{}' in {}", stat, path);
+                continue;
+            }
+            map.put(pv[0].trim(), pv[1].trim());
         }
         return map;
     }
 
+    /**
+     * Writes the stats to a temporary file and replaces the old file with it, so there is always a complete stats file on disk.
+     */
     public static void writeStats(Path path, Map<String, String> stats) throws IOException {
         List<String> statStrings = new ArrayList<>();
         stats.forEach((p, v) -> statStrings.add(p + "=" + v));
-        Files.deleteIfExists(path);
-        Files.write(path, statStrings, StandardOpenOption.CREATE);
+        Path temporary = path.toAbsolutePath().resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption
+                .TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = ByteBuffer.wrap((String.join(System.lineSeparator(), statStrings) + System.lineSeparator()).getBytes
+                    (StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(true);
+        }
+        try {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+        }
     }
 
     public static Properties getParams() {
         return PARAMS;
     }
 
-    private static String get(String propertyName) {
-        return PARAMS.getProperty(propertyName);
+    public static LogRotator getLogRotator() {
+        return LOG_ROTATOR;
     }
 
-    public static void main(String[] args) throws URISyntaxException, IOException {
-        Map<String, String> stats = readStats(statsFilePath);
-        final LocalDateTime startDateTime = LocalDateTime.now();
-        TOTAL_TIME = Duration.parse(stats.get("totalTime"));
-        long sleepDurationMillis = Long.parseLong(get("sleepDuration"));
-        double sleepDurationSecs = Long.parseLong(get("sleepDuration")) / 1000d;
-        Path logFilePath = Paths.get(get("fileName"));
-        LocalDateTime currentDateTime = LocalDateTime.now();
-        Duration duration = Duration.between(startDateTime, currentDateTime);
-        LOG.info("===========WATCHDOG FOR EWBF\'s CUDA ZEC MINER v{}===========", get("programVersion"));
-        LOG.info("Got file with path {}.  Starting program...", logFilePath.toString());
-        byte i = 2, j = 0;
-        exitLabel:
-        while (true) {
-            LOG.info("--------------NEW ITERATION--------------");
-            Duration prevDuration = duration;
-            duration = Duration.between(startDateTime, currentDateTime);
-            TOTAL_TIME = TOTAL_TIME.plusMillis(duration.toMillis() - prevDuration.toMillis());
-            if (i == 2) {
-                printTime(duration);
-                LOG.info("TODAY SHUTDOWNS - {}. TOTAL SHUTDOWNS - {}. LAST IN {}", stats.get("todayShutdowns"), stats.get("totalShutdowns"), stats
-                        .get("lastShutdownDateTime"));
-                i = 0;
-            }
-            if (j == 20) {
-                try {
-                    stats.put("totalTime", TOTAL_TIME.toString());
-                    if (!stats.get("todayDate").equalsIgnoreCase(currentDateTime.toLocalDate().toString())) {
-                        stats.put("todayDate", currentDateTime.toLocalDate().toString());
-                        stats.put("todayShutdowns", "0");
-                    }
-                    writeStats(statsFilePath, stats);
-                }
-                catch (IOException e) {
-                    LOG.warn("Cannot write to file.", e);
-                }
-                j = 0;
-            }
-            LOG.info("Starting check out file: {}.", logFilePath);
-            try {
-                if (isHangingUp(logFilePath)) {
-                    LOG.warn("Miner is hanging! Killing process {}", get("ewbfZecMinerProcessName"));
-                    try {
-                        if (killProcess(get("ewbfZecMinerProcessName")) && moveFile(logFilePath)) {
-                            do {
-                                try {
-                                    if (get("needRestart").equals("0")) {
+    public static ProcessControl getProcessControl() {
+        return PROCESS_CONTROL;
+    }
 
-                                        boolean isClaymoreEthMinerActive;
-                                        isClaymoreEthMinerActive = killProcess(get("claymoreETHMinerProcessName"));
-                                        TimeUnit.MILLISECONDS.sleep(sleepDurationMillis / 10);  // waiting for program closing
-                                        if (isClaymoreEthMinerActive) {
-                                            startApp(get("claymoreETHMinerProcessName"), get("claymoreEthMinerDirectory"), get
-                                                    ("claymoreEthMinerParams"));
-                                        }
-                                        startApp(get("ewbfZecMinerProcessName"), get("ewbfZecMinerDirectory"), get("ewbfZecMinerParams"));
-                                        TimeUnit.MILLISECONDS.sleep(sleepDurationMillis * 2); //waiting for new logs from miner
-                                        if (isHangingUp(logFilePath)) {
-                                            if (killProcess(get("ewbfZecMinerProcessName")) && moveFile(logFilePath)) {
-                                                if (isClaymoreEthMinerActive) {
-                                                    killProcess(get("claymoreETHMinerProcessName"));
-                                                }
-                                                saveStats(stats);
-                                                break exitLabel;
-                                            }
-                                        } else {
-                                            LOG.info("Miners restart were successfully");
-                                        }
-                                    } else {
-                                        saveStats(stats);
-                                        break exitLabel;
-                                    }
-                                }
-                                catch (IOException e) {
-                                    LOG.warn("Shutdown process cannot be executed. Attempt to try again.", e);
-                                }
-                            } while (true);
-                        } else {
-                            LOG.warn("File {} was not moved", logFilePath.toString());
-                        }
-                    }
-                    catch (IOException | InterruptedException e) {
-                        LOG.error("Process was not killed. ", e);
-                    }
-                } else {
-                    LOG.info("Miner hanging is not detected");
-                }
-            }
-            catch (IOException e) {
-                LOG.warn("Checking out is interrupted. ", e);
-            }
-            try {
-                LOG.info("Sleeping for {} seconds", sleepDurationSecs);
-                TimeUnit.MILLISECONDS.sleep(sleepDurationMillis);
-            }
-            catch (InterruptedException e) {
-                LOG.warn("Waiting is interrupted. Program is  executing now.", e);
-            }
-            LOG.info("Sleep is over. Resume program.");
-            currentDateTime = LocalDateTime.now();
-            i++;
-            j++;
-        }
-        LOG.info("========EXIT=========");
+    private static String get(String propertyName) {
+        return PARAMS.getProperty(propertyName);
     }
 
-    private static void saveStats(Map<String, String> stats) throws IOException {
-        LocalDateTime currentDateTime = LocalDateTime.now();
-        LOG.info("Starting reboot computer...");
-        stats.put("totalTime", TOTAL_TIME.toString());
-        stats.put("totalShutdowns", Long.toString(Long.parseLong(stats.get("totalShutdowns")) + 1));
-        if (stats.get("todayDate").equals(currentDateTime.toLocalDate().toString())) {
-            stats.put("todayShutdowns", Long.toString(Long.parseLong(stats.get("todayShutdowns")) + 1));
-        } else {
-            stats.put("todayShutdowns", "1");
-            stats.put("todayDate", currentDateTime.toLocalDate().toString());
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String command = args != null && args.length > 0 ? args[0] : "";
+        if ("query".equals(command)) {
+            System.exit(LogArchive.runQuery(Arrays.copyOfRange(args, 1, args.length), PARAMS, System.out));
+        }
+        if ("replay".equals(command)) {
+            System.exit(Replay.runReplay(Arrays.copyOfRange(args, 1, args.length), PARAMS, System.out));
+        }
+        if ("collector".equals(command)) {
+            System.exit(FleetCollector.runCollector(Arrays.copyOfRange(args, 1, args.length), PARAMS, System.out));
         }
-        stats.put("lastShutdownDateTime", LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")));
-        writeStats(statsFilePath, stats);
-        rebootComputer(20);
-        LOG.info("Shutdown process has been executed.");
+        LOG.info("===========WATCHDOG FOR EWBF\'s CUDA ZEC MINER v{}===========", get("programVersion"));
+        Supervisor supervisor = new Supervisor(PARAMS, MinerDefinition.load(PARAMS), statsFilePath);
+        supervisor.start();
+        supervisor.awaitStop();
+        LOG.info("========EXIT=========");
     }
 
-    public static void startApp(String processName, String processDirectory, String... commandLineAttribs) throws IOException {
-        StringBuilder command = new StringBuilder(String.format("cd \"%s\" && \"%s\"", processDirectory, processName));
-        if (commandLineAttribs != null) {
-            for (String commandLineAttrib : commandLineAttribs) {
-                command.append(" ").append(commandLineAttrib);
-            }
-        }
-        LOG.info("Starting {}", command);
-        new ProcessBuilder("cmd.exe", "/c", command.toString()).start();
+    public static Process startApp(String processName, String processDirectory, String... commandLineAttribs) throws IOException {
+        return startApp(false, processName, processDirectory, commandLineAttribs);
     }
 
-    private static void printTime(Duration duration) {
-        long hours = duration.toHours();
-        long minutes = duration.toMinutes() - (60 * hours);
-        LOG.info("Time: {}:{}\nTotal time: {} days {} hours {} minutes", (hours < 10 ? "0" + hours : hours), (minutes < 10 ? "0" + minutes :
-                        minutes),
-                TOTAL_TIME.toDays(), TOTAL_TIME.toHours() - TOTAL_TIME.toDays() * 24, TOTAL_TIME.toMinutes() - TOTAL_TIME.toHours() *
-                        60);
+    /**
+     * @param captureOutput true when the caller reads the output of the process
+     */
+    public static Process startApp(boolean captureOutput, String processName, String processDirectory, String... commandLineAttribs)
+            throws IOException {
+        return PROCESS_CONTROL.start(processName, processDirectory, captureOutput, commandLineAttribs);
     }
 
     public static void rebootComputer(int delay) throws IOException {
-        Runtime.getRuntime().exec("SHUTDOWN /r /t " + delay + " /f /c  \"ZecMiner is working wrong.\" ");
+        PROCESS_CONTROL.reboot(delay, REBOOT_MESSAGE);
     }
 
     public static boolean killProcess(String name) throws IOException, InterruptedException {
-        Runtime runtime = Runtime.getRuntime();
-        Process killProcess = runtime.exec(String.format("TASKKILL /IM \"%s*\" /F /T", name));
-        InputStream in = killProcess.getErrorStream();
-
-        if (killProcess.waitFor() == 0) {
-            LOG.info("Kill process for {} was successfully finished!", name);
-            return true;
-        } else {
-            LOG.warn("Kill process for {} was finished with errors!", name);
-            byte[] bytes = new byte[in.available()];
-            in.read(bytes);
-            String s = new String(bytes, Charset.forName("cp866"));
-            LOG.error("Error message from taskkill: {}", s);
-            return false;
-        }
+        return PROCESS_CONTROL.kill(name);
     }
 
     public static boolean moveFile(Path path) {
+        return moveFile(path, null);
+    }
+
+    public static boolean moveFile(Path path, String incident) {
         try {
-            Path logsDirectory = path.getParent().resolve("logs");
-            if (!Files.exists(logsDirectory)) {
-                Files.createDirectory(logsDirectory);
-                LOG.info("Directory {} was created", path.toString());
-            }
-            Path movedFilePath = logsDirectory.resolve(DateTimeFormatter.ofPattern("yyyy-MM-dd HH-mm").format(LocalDateTime.now()) + ".txt");
-            Files.copy(path, movedFilePath);
-            LOG.info("LogFile {} was copied to {}", path.toString(), movedFilePath);
-            Files.delete(path);
-            LOG.info("LogFile {} was successfully removed.", path.toString());
+            LOG_ROTATOR.rotate(path, incident);
             return true;
         }
         catch (IOException e) {
@@ -246,27 +150,12 @@ public class Main {
     }
 
     public static boolean isHangingUp(Path filePath) throws IOException {
-        List<String> fileLines = Files.readAllLines(filePath);
-        if (fileLines.size() == 0 || fileLines.get(0).isEmpty()) {
-            return false;
-        }
-        for (int i = 0; i < fileLines.size(); i++) {
-            String restartStringCandidate = fileLines.get(i);
-            if (restartStringCandidate.equalsIgnoreCase(get("gpu0NotResponse"))
-                    || restartStringCandidate.equalsIgnoreCase(get("gpu1NotResponse"))) {
-                return true;
-            }
-            if (restartStringCandidate.equalsIgnoreCase(get("gpu1RestartAttempt"))
-                    || restartStringCandidate.equalsIgnoreCase(get("gpu0RestartAttempt"))) {
-                for (int j = i + 1; j < fileLines.size(); j++) {
-                    String errorStringCandidate = fileLines.get(j);
-                    if (errorStringCandidate.equalsIgnoreCase(get("gpu0ThreadExited46Error"))
-                            || errorStringCandidate.equalsIgnoreCase(get("gpu1ThreadExited46Error"))) {
-                        return true;
-                    }
-                }
-            }
-        }
-        return false;
+        HangDetector detector = new HangDetector(PARAMS);
+        LogTailer tailer = new LogTailer(filePath, detector);
+        detector.beginBacklog(Integer.parseInt(PARAMS.getProperty("backlogLineWindow", "100")));
+        tailer.poll();
+        tailer.flush();
+        detector.endBacklog();
+        return detector.isHanging();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,226 @@
+package com.hesky.ewbfcudawatchdog;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * In-process metrics registry written in the Prometheus text format. Metrics are created once at start up; recording a value only
+ * touches preallocated {@link LongAdder}s and atomic arrays, so the scan path does not allocate.
+ */
+public class Metrics {
+    /**
+     * Bucket bounds in seconds for durations recorded in nanoseconds.
+     */
+    public static final double[] DURATION_BUCKETS = {0.0001, 0.0005, 0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5, 10, 30, 60, 120, 300};
+    public static final double[] SIZE_BUCKETS = {0, 128, 1024, 8192, 65536, 524288, 4194304, 33554432};
+    public static final double NANOS = 1e-9;
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    private static class Family {
+        private final String help;
+        private final String type;
+        private final List<Metric> metrics = new ArrayList<>();
+
+        private Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private abstract static class Metric {
+        final String labels;
+
+        private Metric(String labels) {
+            this.labels = labels == null ? "" : labels;
+        }
+
+        abstract void write(String name, StringBuilder out);
+    }
+
+    public static class Counter extends Metric {
+        private final LongAdder value = new LongAdder();
+
+        private Counter(String labels) {
+            super(labels);
+        }
+
+        public void inc() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+
+        @Override
+        void write(String name, StringBuilder out) {
+            sample(out, name, labels, value.sum());
+        }
+    }
+
+    private static class Gauge extends Metric {
+        private final DoubleSupplier value;
+
+        private Gauge(String labels, DoubleSupplier value) {
+            super(labels);
+            this.value = value;
+        }
+
+        @Override
+        void write(String name, StringBuilder out) {
+            sample(out, name, labels, value.getAsDouble());
+        }
+    }
+
+    /**
+     * Histogram of raw long values, for example nanoseconds; {@code scale} converts them to the unit of the bucket bounds.
+     */
+    public static class Histogram extends Metric {
+        private final double[] bounds;
+        private final long[] rawBounds;
+        private final double scale;
+        private final AtomicLongArray buckets;
+        private final LongAdder sum = new LongAdder();
+
+        private Histogram(String labels, double scale, double[] bounds) {
+            super(labels);
+            this.bounds = bounds.clone();
+            this.scale = scale;
+            this.rawBounds = new long[bounds.length];
+            for (int i = 0; i < bounds.length; i++) {
+                rawBounds[i] = Math.round(bounds[i] / scale);
+            }
+            this.buckets = new AtomicLongArray(bounds.length + 1);
+        }
+
+        public void observe(long rawValue) {
+            int bucket = 0;
+            while (bucket < rawBounds.length && rawValue > rawBounds[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+            sum.add(rawValue);
+        }
+
+        public long getCount() {
+            long count = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                count += buckets.get(i);
+            }
+            return count;
+        }
+
+        @Override
+        void write(String name, StringBuilder out) {
+            String separator = labels.isEmpty() ? "" : ",";
+            long cumulative = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                cumulative += buckets.get(i);
+                sample(out, name + "_bucket", labels + separator + "le=\"" + format(bounds[i]) + "\"", cumulative);
+            }
+            cumulative += buckets.get(bounds.length);
+            sample(out, name + "_bucket", labels + separator + "le=\"+Inf\"", cumulative);
+            sample(out, name + "_sum", labels, sum.sum() * scale);
+            sample(out, name + "_count", labels, cumulative);
+        }
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(format(value)).append('\n');
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return String.format(Locale.ROOT, "%s", value);
+    }
+
+    /**
+     * @return label string for a single label, for example {@code miner="zec"}
+     */
+    public static String label(String name, String value) {
+        return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+
+    private synchronized <T extends Metric> T register(String name, String help, String type, T metric) {
+        Family family = families.get(name);
+        if (family == null) {
+            family = new Family(help, type);
+            families.put(name, family);
+        } else if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as " + family.type);
+        }
+        family.metrics.add(metric);
+        return metric;
+    }
+
+    public Counter counter(String name, String help, String labels) {
+        return register(name, help, "counter", new Counter(labels));
+    }
+
+    public void gauge(String name, String help, String labels, DoubleSupplier value) {
+        register(name, help, "gauge", new Gauge(labels, value));
+    }
+
+    public Histogram histogram(String name, String help, String labels, double scale, double... bounds) {
+        return register(name, help, "histogram", new Histogram(labels, scale, bounds));
+    }
+
+    /**
+     * @return value of the counter with exactly these labels, 0 when there is none
+     */
+    public synchronized long getCounter(String name, String labels) {
+        Family family = families.get(name);
+        if (family != null) {
+            for (Metric metric : family.metrics) {
+                if (metric instanceof Counter && metric.labels.equals(labels == null ? "" : labels)) {
+                    return ((Counter) metric).get();
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Removes the metrics whose labels start with the label, for example those of a {@code rig} that is gone.
+     */
+    public synchronized void remove(String label) {
+        for (Family family : families.values()) {
+            family.metrics.removeIf(metric -> metric.labels.equals(label) || metric.labels.startsWith(label + ","));
+        }
+    }
+
+    public synchronized void write(StringBuilder out) {
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            Family family = entry.getValue();
+            out.append("# HELP ").append(entry.getKey()).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(entry.getKey()).append(' ').append(family.type).append('\n');
+            for (Metric metric : family.metrics) {
+                metric.write(entry.getKey(), out);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        write(out);
+        return out.toString();
+    }
+}
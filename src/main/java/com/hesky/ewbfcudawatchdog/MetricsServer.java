@@ -0,0 +1,73 @@
+package com.hesky.ewbfcudawatchdog;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Serves {@link Metrics} on {@code GET /metrics} in the Prometheus text format. Requests are handled by one daemon thread.
+ */
+public class MetricsServer implements Closeable {
+    private static final Logger LOG = getLogger(MetricsServer.class);
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final Metrics metrics;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public MetricsServer(Metrics metrics, InetSocketAddress address) throws IOException {
+        this.metrics = metrics;
+        this.server = HttpServer.create(address, 0);
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.createContext("/metrics", this::handle);
+        server.setExecutor(executor);
+        server.start();
+        LOG.info("Metrics are served on http://{}:{}/metrics", address.getHostString(), getPort());
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = metrics.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,164 @@
+package com.hesky.ewbfcudawatchdog;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * One miner the watchdog can kill and start. Miners with a log file are monitored; companions are miners without their own log that
+ * are killed and started again together with the monitored one (for example the Claymore ETH miner next to EWBF).
+ * <p>
+ * Definitions are read from {@code miners=a,b} and {@code miner.<name>.<key>} properties. Without {@code miners} the single
+ * EWBF + Claymore pair from the original {@code ewbfZecMiner*} / {@code claymoreEthMiner*} properties is used.
+ */
+public class MinerDefinition {
+    private final String name;
+    private final String processName;
+    private final String directory;
+    private final String params;
+    private final Path logFile;
+    private final int gpuCount;
+    private final List<String> companions;
+    private final List<String> readyPhrases;
+
+    public MinerDefinition(String name, String processName, String directory, String params, Path logFile, int gpuCount,
+                           List<String> companions, List<String> readyPhrases) {
+        this.name = name;
+        this.processName = processName;
+        this.directory = directory;
+        this.params = params;
+        this.logFile = logFile;
+        this.gpuCount = gpuCount;
+        this.companions = Collections.unmodifiableList(new ArrayList<>(companions));
+        this.readyPhrases = Collections.unmodifiableList(new ArrayList<>(readyPhrases));
+    }
+
+    private static List<String> list(String value) {
+        value = value == null ? "" : value.trim();
+        return value.isEmpty() ? Collections.emptyList() : Arrays.asList(value.split("\\s*,\\s*"));
+    }
+
+    public static List<MinerDefinition> load(Properties properties) {
+        int gpuCount = Integer.parseInt(properties.getProperty("gpuCount", "1"));
+        String readyPhrases = properties.getProperty("readyPhrases", "");
+        String miners = properties.getProperty("miners", "").trim();
+        List<MinerDefinition> definitions = new ArrayList<>();
+        if (miners.isEmpty()) {
+            definitions.add(new MinerDefinition("zec", properties.getProperty("ewbfZecMinerProcessName"), properties.getProperty
+                    ("ewbfZecMinerDirectory"), properties.getProperty("ewbfZecMinerParams"), Paths.get(properties.getProperty("fileName")),
+                    gpuCount, Collections.singletonList("eth"), list(readyPhrases)));
+            definitions.add(new MinerDefinition("eth", properties.getProperty("claymoreETHMinerProcessName"), properties.getProperty
+                    ("claymoreEthMinerDirectory"), properties.getProperty("claymoreEthMinerParams"), null, gpuCount, Collections.emptyList(),
+                    Collections.emptyList()));
+            return definitions;
+        }
+        for (String name : miners.split(",")) {
+            name = name.trim();
+            String prefix = "miner." + name + ".";
+            String processName = properties.getProperty(prefix + "processName");
+            if (processName == null) {
+                throw new IllegalArgumentException("Property " + prefix + "processName is not set");
+            }
+            String logFile = properties.getProperty(prefix + "logFile");
+            definitions.add(new MinerDefinition(name, processName, properties.getProperty(prefix + "directory", ""), properties.getProperty
+                    (prefix + "params", ""), logFile == null ? null : Paths.get(logFile), Integer.parseInt(properties.getProperty(prefix +
+                    "gpuCount", Integer.toString(gpuCount))), list(properties.getProperty(prefix + "companions")), list(properties
+                    .getProperty(prefix + "readyPhrases", readyPhrases))));
+        }
+        return definitions;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getProcessName() {
+        return processName;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public String getParams() {
+        return params;
+    }
+
+    /**
+     * Parameters that leave one GPU out: the device is removed from {@code --cuda_devices}, or all other devices are listed when
+     * the parameters have no such option. GPU numbers of the log are taken as CUDA device numbers.
+     *
+     * @return the parameters or null when no other GPU would be left
+     */
+    public String getParamsWithoutDevice(int device) {
+        if (device < 0 || device >= gpuCount || gpuCount < 2) {
+            return null;
+        }
+        List<String> arguments = ProcessControl.splitArguments(params);
+        List<String> result = new ArrayList<>();
+        boolean listed = false;
+        for (int i = 0; i < arguments.size(); i++) {
+            result.add(quote(arguments.get(i)));
+            if (arguments.get(i).equals("--cuda_devices")) {
+                listed = true;
+                int kept = 0;
+                boolean removed = false;
+                for (; i + 1 < arguments.size() && arguments.get(i + 1).matches("\\d+"); i++) {
+                    if (Integer.parseInt(arguments.get(i + 1)) == device) {
+                        removed = true;
+                    } else {
+                        result.add(arguments.get(i + 1));
+                        kept++;
+                    }
+                }
+                if (!removed || kept == 0) {
+                    return null;
+                }
+            }
+        }
+        if (!listed) {
+            result.add("--cuda_devices");
+            for (int other = 0; other < gpuCount; other++) {
+                if (other != device) {
+                    result.add(Integer.toString(other));
+                }
+            }
+        }
+        return String.join(" ", result);
+    }
+
+    private static String quote(String argument) {
+        return argument.isEmpty() || argument.matches(".*\\s.*") ? "\"" + argument + "\"" : argument;
+    }
+
+    /**
+     * @return log of the miner or null when the miner is only a companion
+     */
+    public Path getLogFile() {
+        return logFile;
+    }
+
+    public int getGpuCount() {
+        return gpuCount;
+    }
+
+    public List<String> getCompanions() {
+        return companions;
+    }
+
+    /**
+     * @return phrases of healthy output that prove a restarted miner works, empty when none are configured
+     */
+    public List<String> getReadyPhrases() {
+        return readyPhrases;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + processName + ")";
+    }
+}
@@ -0,0 +1,777 @@
+package com.hesky.ewbfcudawatchdog;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Watches the log of one miner. Scans run on the shared scheduler and reschedule themselves with the adaptive delay of
+ * {@link LogWatcher}; a change notification moves the next scan forward. When a hang or a stall is found the recovery runs on the
+ * recovery executor, so a slow kill or start never holds up the scans of other miners. Scans of this miner are paused until
+ * its recovery ends. The recovery climbs the {@link RecoveryLadder} until the miner is hashing again; every action it starts is
+ * journaled as an {@link Incident}.
+ * <p>
+ * The last {@code flightRecorderSize} bytes of output are kept by a {@link FlightRecorder} and written as a snapshot on every
+ * detection. With {@code keepIncidentLogs=0} the full log is then deleted instead of rotated.
+ * <p>
+ * A watched log is resumed from its {@link ScanCheckpoint} at start, so a restart of the watchdog reads only new bytes and does
+ * not detect the same lines twice. Checkpoints are taken at most every {@code checkpointInterval} ms, on every detection and at
+ * stop, and written on the recovery executor. Without a checkpoint the lines already in the log are handled as a backlog, whose
+ * rule windows are {@code backlogLineWindow} lines.
+ * <p>
+ * With {@code stratumPools} set (or {@code miner.<name>.stratumPools}) the miner is expected to mine through a {@link StratumProxy}
+ * on port {@code stratumProxy}, which fails over between the pools on its own; failing shares it sees are a detection like a
+ * degraded hashrate.
+ * <p>
+ * Time, processes and log rotation come from the {@link Environment} of the supervisor, so a {@link Replay} runs the same
+ * monitor on a virtual clock.
+ */
+public class MinerMonitor implements Runnable {
+    /**
+     * Separates the miner and the GPU in {@link Availability} subjects, for example {@code zec/GPU1}.
+     */
+    public static final String DEVICE_SEPARATOR = "/GPU";
+    private static final Logger LOG = getLogger(MinerMonitor.class);
+
+    private final Supervisor supervisor;
+    private final Environment environment;
+    private final MinerDefinition miner;
+    private final List<MinerDefinition> companions;
+    private final Path logFilePath;
+    private final HangDetector hangDetector;
+    private final HashrateTracker hashrateTracker;
+    private final ReadinessProbe readinessProbe;
+    private final LogTailer logTailer;
+    private final LogWatcher logWatcher;
+    private final long sleepDurationMillis;
+    private final long pollIntervalMillis;
+    private final long readyTimeoutMillis;
+    private final boolean needRestart;
+    private final RecoveryLadder ladder;
+    private final long breakerBackoffMillis;
+    private final boolean captureOutput;
+    private final ArchiveWriter archive;
+    private final long archiveFlushIntervalMillis;
+    private final FlightRecorder recorder;
+    private final boolean keepIncidentLogs;
+    private final Path checkpointPath;
+    private final long checkpointIntervalMillis;
+    private final int backlogLineWindow;
+    private boolean backlog;
+    private StratumProxy stratumProxy;
+    private final AtomicReference<ScanCheckpoint> pendingCheckpoint = new AtomicReference<>();
+    private final Object checkpointLock = new Object();
+    private long lastCheckpointMillis;
+    private long lastCheckpointOffset = -1;
+    private final Metrics.Histogram scanBytes;
+    private final Metrics.Histogram scanDuration;
+    private final Metrics.Histogram detectionLatency;
+    private final Metrics.Histogram killDuration;
+    private final Metrics.Histogram recoveryDuration;
+    private final Metrics.Histogram readinessDuration;
+    private final Metrics.Counter hangs;
+    private final Metrics.Counter stalls;
+    private final Metrics.Counter degradations;
+    private final Metrics.Counter restartSuccesses;
+    private final Metrics.Counter restartFailures;
+    private final Metrics.Counter refusedReboots;
+    private final Map<RecoveryLadder.Action, Metrics.Histogram> timeToHashing = new EnumMap<>(RecoveryLadder.Action.class);
+    private boolean seenReady;
+    private int excludedDevice = -1;
+    private long detectedNanos;
+    private volatile OutputCapture capture;
+    private long capturedBytesSeen;
+    private ScheduledFuture<?> nextScan;
+    private boolean recovering;
+    private boolean stopped;
+
+    public MinerMonitor(Supervisor supervisor, MinerDefinition miner, List<MinerDefinition> companions) {
+        this.supervisor = supervisor;
+        this.environment = supervisor.getEnvironment();
+        this.miner = miner;
+        this.companions = companions;
+        this.logFilePath = miner.getLogFile();
+        this.hangDetector = new HangDetector(supervisor.getRules(), miner.getGpuCount(), environment::millis);
+        this.hashrateTracker = new HashrateTracker(supervisor.getParams(), miner.getGpuCount(), environment::millis, hangDetector);
+        this.readinessProbe = new ReadinessProbe(miner.getReadyPhrases(), hashrateTracker);
+        int recorderSize = Integer.parseInt(supervisor.getParams().getProperty("flightRecorderSize", "0"));
+        this.recorder = recorderSize > 0 ? new FlightRecorder(recorderSize, environment::millis) : null;
+        this.keepIncidentLogs = recorder == null || !"0".equals(supervisor.getParams().getProperty("keepIncidentLogs"));
+        this.logTailer = new LogTailer(logFilePath, readinessProbe, recorder);
+        this.sleepDurationMillis = Long.parseLong(supervisor.getParams().getProperty("sleepDuration"));
+        this.pollIntervalMillis = Long.parseLong(supervisor.getParams().getProperty("minPollInterval", "500"));
+        this.readyTimeoutMillis = Long.parseLong(supervisor.getParams().getProperty("readyTimeout", Long.toString(sleepDurationMillis *
+                2)));
+        boolean watchMode = "1".equals(supervisor.getParams().getProperty("watchMode"));
+        this.logWatcher = new LogWatcher(watchMode ? pollIntervalMillis : sleepDurationMillis, sleepDurationMillis, Long.parseLong
+                (supervisor.getParams().getProperty("stallTimeout")), environment::nanoTime);
+        this.needRestart = "0".equals(supervisor.getParams().getProperty("needRestart"));
+        this.ladder = new RecoveryLadder(supervisor.getParams(), supervisor.getStats(), environment::millis);
+        this.breakerBackoffMillis = Long.parseLong(supervisor.getParams().getProperty("breakerBackoff", "600000"));
+        this.captureOutput = "1".equals(supervisor.getParams().getProperty("miner." + miner.getName() + ".captureOutput", supervisor
+                .getParams().getProperty("captureOutput")));
+        this.archive = captureOutput ? new ArchiveWriter(logFilePath, Integer.parseInt(supervisor.getParams().getProperty
+                ("archiveBufferSize", "4194304"))) : null;
+        this.archiveFlushIntervalMillis = Long.parseLong(supervisor.getParams().getProperty("archiveFlushInterval", "1000"));
+        this.checkpointPath = captureOutput ? null : supervisor.getStats().getCheckpointPath(miner.getName());
+        this.checkpointIntervalMillis = Long.parseLong(supervisor.getParams().getProperty("checkpointInterval", "5000"));
+        this.backlogLineWindow = Integer.parseInt(supervisor.getParams().getProperty("backlogLineWindow", "100"));
+        Metrics metrics = supervisor.getMetrics();
+        String label = Metrics.label("miner", miner.getName());
+        this.scanBytes = metrics.histogram("watchdog_scan_bytes", "New log bytes read by one scan.", label, 1, Metrics.SIZE_BUCKETS);
+        this.scanDuration = metrics.histogram("watchdog_scan_duration_seconds", "Duration of one log scan.", label, Metrics.NANOS,
+                Metrics.DURATION_BUCKETS);
+        this.detectionLatency = metrics.histogram("watchdog_detection_latency_seconds", "Time from the last write of the log to the " +
+                "detection of a hang.", label, 0.001, Metrics.DURATION_BUCKETS);
+        this.killDuration = metrics.histogram("watchdog_kill_duration_seconds", "Duration of killing the miner process.", label,
+                Metrics.NANOS, Metrics.DURATION_BUCKETS);
+        this.recoveryDuration = metrics.histogram("watchdog_recovery_duration_seconds", "Time from the detection until the miner " +
+                "works again or the reboot is requested.", label, Metrics.NANOS, Metrics.DURATION_BUCKETS);
+        this.readinessDuration = metrics.histogram("watchdog_readiness_seconds", "Time from the start of the restarted miner until " +
+                "its log shows healthy output.", label, Metrics.NANOS, Metrics.DURATION_BUCKETS);
+        this.hangs = metrics.counter("watchdog_detections_total", "Detected failures.", label + "," + Metrics.label("reason", "hang"));
+        this.stalls = metrics.counter("watchdog_detections_total", "Detected failures.", label + "," + Metrics.label("reason",
+                "stall"));
+        this.degradations = metrics.counter("watchdog_detections_total", "Detected failures.", label + "," + Metrics.label("reason",
+                "degraded"));
+        this.restartSuccesses = metrics.counter("watchdog_restarts_total", "Miner restarts.", label + "," + Metrics.label("result",
+                "success"));
+        this.restartFailures = metrics.counter("watchdog_restarts_total", "Miner restarts.", label + "," + Metrics.label("result",
+                "failure"));
+        this.refusedReboots = metrics.counter("watchdog_refused_reboots_total", "Reboots refused by the reboot limit.", label);
+        setState(Availability.State.HEALTHY);
+        for (RecoveryLadder.Action action : ladder.getSteps()) {
+            timeToHashing.put(action, metrics.histogram("watchdog_time_to_hashing_seconds", "Time from the detection until the miner " +
+                    "is hashing again after a recovery action.", label + "," + Metrics.label("action", action.getKey()), Metrics.NANOS,
+                    Metrics.DURATION_BUCKETS));
+        }
+    }
+
+    public MinerDefinition getMiner() {
+        return miner;
+    }
+
+    public RecoveryLadder getLadder() {
+        return ladder;
+    }
+
+    /**
+     * @return true when the watchdog starts the miner itself and reads its output instead of its log
+     */
+    public boolean isCapturingOutput() {
+        return captureOutput;
+    }
+
+    public synchronized void start() {
+        startStratumProxy();
+        if (captureOutput) {
+            LOG.info("Miner {} is started by the watchdog, its output is archived to {}. Starting monitoring...", miner, logFilePath);
+            supervisor.getScheduler().scheduleWithFixedDelay(this::flushArchive, archiveFlushIntervalMillis, archiveFlushIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+            recovering = true;
+            supervisor.getRecoveryExecutor().execute(this::takeOver);
+            return;
+        }
+        LOG.info("Got file with path {} for miner {}. Starting monitoring...", logFilePath, miner);
+        backlog = true;
+        resumeFromCheckpoint();
+        schedule(0);
+    }
+
+    public synchronized void stop() {
+        stopped = true;
+        if (nextScan != null) {
+            nextScan.cancel(false);
+        }
+        if (stratumProxy != null) {
+            stratumProxy.close();
+        }
+        flushArchive();
+        if (checkpointPath != null) {
+            pendingCheckpoint.set(logTailer.checkpoint().withRuleState(hangDetector.saveState()));
+            writeCheckpoint();
+        }
+    }
+
+    private void startStratumProxy() {
+        Properties params = supervisor.getParams();
+        String prefix = "miner." + miner.getName() + ".";
+        String pools = params.getProperty(prefix + "stratumPools", params.getProperty("stratumPools", "")).trim();
+        if (pools.isEmpty()) {
+            return;
+        }
+        int port = Integer.parseInt(params.getProperty(prefix + "stratumProxy", params.getProperty("stratumProxy", "0")));
+        try {
+            stratumProxy = new StratumProxy(miner.getName(), new InetSocketAddress(params.getProperty("stratumProxyHost", "127.0.0.1"),
+                    port), StratumProxy.parsePools(pools), params, supervisor.getMetrics()).start();
+        }
+        catch (IOException | IllegalArgumentException e) {
+            LOG.warn("Stratum proxy of miner " + miner + " cannot be started, the miner has to connect to the pool itself", e);
+        }
+    }
+
+    private boolean isStratumDegraded() {
+        return stratumProxy != null && stratumProxy.getDegradation() != null;
+    }
+
+    private void resumeFromCheckpoint() {
+        try {
+            ScanCheckpoint checkpoint = ScanCheckpoint.read(checkpointPath);
+            if (checkpoint == null) {
+                return;
+            }
+            if (logTailer.resume(checkpoint)) {
+                hangDetector.restoreState(checkpoint.getRuleState());
+                backlog = false;
+                lastCheckpointOffset = checkpoint.getOffset();
+                LOG.info("Scan of {} resumes at byte {}", logFilePath, checkpoint.getOffset());
+            } else {
+                LOG.info("File {} is not the file of the last checkpoint. Reading it from the beginning.", logFilePath);
+            }
+        }
+        catch (IOException e) {
+            LOG.warn("Checkpoint " + checkpointPath + " cannot be read", e);
+        }
+    }
+
+    /**
+     * Takes a checkpoint when the scan has moved and the interval has passed, or always when {@code force} is set.
+     */
+    private void checkpoint(boolean force) {
+        if (checkpointPath == null) {
+            return;
+        }
+        long now = environment.millis();
+        if (!force && (logTailer.getOffset() == lastCheckpointOffset || now - lastCheckpointMillis < checkpointIntervalMillis)) {
+            return;
+        }
+        ScanCheckpoint checkpoint = logTailer.checkpoint().withRuleState(hangDetector.saveState());
+        lastCheckpointMillis = now;
+        lastCheckpointOffset = logTailer.getOffset();
+        pendingCheckpoint.set(checkpoint);
+        supervisor.getRecoveryExecutor().execute(this::writeCheckpoint);
+    }
+
+    /**
+     * Writes the latest checkpoint taken; an older one is never written after a newer one.
+     */
+    private void writeCheckpoint() {
+        synchronized (checkpointLock) {
+            ScanCheckpoint checkpoint = pendingCheckpoint.getAndSet(null);
+            if (checkpoint == null) {
+                return;
+            }
+            try {
+                checkpoint.write(checkpointPath);
+            }
+            catch (IOException e) {
+                LOG.warn("Checkpoint " + checkpointPath + " cannot be written", e);
+            }
+        }
+    }
+
+    /**
+     * Replaces a miner started outside the watchdog with one whose output is captured.
+     */
+    private void takeOver() {
+        try {
+            if (environment.getProcessControl().kill(miner.getProcessName())) {
+                LOG.info("Running miner {} was stopped to capture its output", miner);
+            }
+            launch(miner.getParams());
+        }
+        catch (IOException e) {
+            LOG.warn("Miner " + miner + " cannot be started", e);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            synchronized (this) {
+                recovering = false;
+                schedule(0);
+            }
+        }
+    }
+
+    private Process launch(String params) throws IOException {
+        Process process = environment.getProcessControl().start(miner.getProcessName(), miner.getDirectory(), true, params);
+        synchronized (this) {
+            capturedBytesSeen = 0;
+            capture = new OutputCapture(miner.getName(), process.getInputStream(), this, readinessProbe, archive, recorder, this::onOutput)
+                    .start();
+        }
+        return process;
+    }
+
+    /**
+     * Called by the capture thread after each chunk of output. A hang is handled at once instead of at the next scan.
+     */
+    private synchronized void onOutput() {
+        if (hangDetector.isHanging()) {
+            schedule(0);
+        }
+    }
+
+    private void flushArchive() {
+        if (archive == null) {
+            return;
+        }
+        try {
+            archive.flush();
+        }
+        catch (IOException e) {
+            LOG.warn("Output of miner " + miner + " cannot be archived to " + logFilePath, e);
+        }
+    }
+
+    /**
+     * Moves the log away for the next run, or deletes it when its end is kept by an incident snapshot. An archive of captured output
+     * may not exist yet when the miner printed nothing.
+     */
+    private boolean moveLog() {
+        if (captureOutput && !Files.exists(logFilePath)) {
+            return true;
+        }
+        if (!keepIncidentLogs) {
+            try {
+                Files.deleteIfExists(logFilePath);
+                LOG.info("LogFile {} was deleted, its end is kept in the incident snapshot", logFilePath);
+                return true;
+            }
+            catch (IOException e) {
+                LOG.warn("File " + logFilePath + " was not deleted.", e);
+                return false;
+            }
+        }
+        try {
+            environment.getLogRotator().rotate(logFilePath, miner.getName());
+            return true;
+        }
+        catch (IOException e) {
+            LOG.warn("File " + logFilePath + " was not moved.", e);
+            return false;
+        }
+    }
+
+    /**
+     * Writes the recorded end of the output with the incident, then forgets it, so the next snapshot only holds the next run.
+     */
+    private void snapshot(int device, String reason) {
+        if (recorder == null) {
+            return;
+        }
+        try {
+            Path snapshot = recorder.snapshot(FlightRecorder.snapshotsDirectory(logFilePath), new Incident(now(), miner
+                    .getName(), device, reason));
+            LOG.info("Last output of miner {} was saved to {}", miner, snapshot);
+        }
+        catch (IOException e) {
+            LOG.warn("Incident snapshot of miner " + miner + " cannot be written", e);
+        }
+        recorder.clear();
+    }
+
+    /**
+     * Kills the miner. When its output is captured, waits until the output is closed and archives the rest of it.
+     */
+    private boolean killMiner() throws IOException, InterruptedException {
+        boolean killed = environment.getProcessControl().kill(miner.getProcessName());
+        OutputCapture ended = capture;
+        if (ended != null) {
+            if (!ended.awaitEnd(sleepDurationMillis, TimeUnit.MILLISECONDS)) {
+                LOG.warn("Output of miner {} is still open after the kill", miner);
+            }
+            synchronized (this) {
+                if (capture == ended) {
+                    capture = null;
+                    capturedBytesSeen = 0;
+                }
+            }
+            flushArchive();
+        }
+        return killed;
+    }
+
+    private LocalDateTime now() {
+        return LocalDateTime.now(environment.getClock());
+    }
+
+    /**
+     * Switches the {@link Availability} state of the miner and its GPUs. While a GPU is excluded it counts as recovering and a
+     * healthy miner as degraded.
+     */
+    private void setState(Availability.State state) {
+        Availability availability = supervisor.getAvailability();
+        boolean excluded = excludedDevice >= 0 && state == Availability.State.HEALTHY;
+        availability.set(miner.getName(), excluded ? Availability.State.DEGRADED : state);
+        for (int device = 0; device < miner.getGpuCount(); device++) {
+            availability.set(miner.getName() + DEVICE_SEPARATOR + device, excluded && device == excludedDevice ? Availability.State
+                    .RECOVERING : state);
+        }
+    }
+
+    /**
+     * Called after every telemetry sample. A hang is handled at once instead of at the next scan.
+     */
+    public synchronized void onTelemetry(Telemetry telemetry) {
+        hangDetector.onTelemetry(telemetry);
+        if (hangDetector.isHanging()) {
+            schedule(0);
+        }
+    }
+
+    /**
+     * Called by the {@link ChangeNotifier} when the log changes.
+     */
+    public synchronized void onChange() {
+        schedule(0);
+    }
+
+    private void schedule(long delayMillis) {
+        if (stopped || recovering) {
+            return;
+        }
+        if (nextScan != null) {
+            nextScan.cancel(false);
+        }
+        nextScan = supervisor.getScheduler().schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void run() {
+        if (stopped || recovering) {
+            return;
+        }
+        LOG.debug("Starting check out file: {}.", logFilePath);
+        try {
+            if (isHangingUp() || logWatcher.isStalled() || hashrateTracker.isDegraded() || isStratumDegraded()) {
+                detectedNanos = environment.nanoTime();
+                if (hangDetector.isHanging()) {
+                    hangs.inc();
+                    long lastOutputMillis = captureOutput ? (capture == null ? 0 : capture.getLastReadMillis()) : Files
+                            .getLastModifiedTime(logFilePath).toMillis();
+                    if (lastOutputMillis > 0) {
+                        detectionLatency.observe(Math.max(0, environment.millis() - lastOutputMillis));
+                    }
+                } else if (logWatcher.isStalled()) {
+                    stalls.inc();
+                } else {
+                    degradations.inc();
+                }
+                recovering = true;
+                setState(Availability.State.RECOVERING);
+                checkpoint(true);
+                supervisor.getRecoveryExecutor().execute(this::recover);
+                return;
+            }
+            LOG.debug("Miner {} hanging is not detected", miner);
+            if (supervisor.getAvailability().getState(miner.getName()) == Availability.State.RECOVERING) {
+                setState(Availability.State.HEALTHY);
+            }
+            checkpoint(false);
+            if (!seenReady && readinessProbe.isReady()) {
+                seenReady = true;
+                supervisor.getScheduler().execute(() -> supervisor.onMinerReady(this));
+            }
+        }
+        catch (IOException e) {
+            LOG.warn("Checking out " + logFilePath + " is interrupted. ", e);
+            logWatcher.onScan(0);
+        }
+        schedule(logWatcher.nextDelayMillis());
+    }
+
+    private boolean isHangingUp() throws IOException {
+        long read;
+        if (captureOutput) {
+            OutputCapture current = capture;
+            long total = current == null ? capturedBytesSeen : current.getBytesRead();
+            read = total - capturedBytesSeen;
+            capturedBytesSeen = total;
+        } else {
+            long start = environment.nanoTime();
+            if (backlog) {
+                hangDetector.beginBacklog(backlogLineWindow);
+            }
+            try {
+                read = logTailer.poll();
+            }
+            finally {
+                if (backlog) {
+                    backlog = false;
+                    hangDetector.endBacklog();
+                }
+            }
+            scanDuration.observe(environment.nanoTime() - start);
+        }
+        scanBytes.observe(read);
+        logWatcher.onScan(read);
+        LOG.debug("Read {} new bytes from {}", read, logFilePath);
+        return hangDetector.isHanging();
+    }
+
+    private void recover() {
+        int device;
+        String reason;
+        synchronized (this) {
+            if (hangDetector.isHanging()) {
+                device = hangDetector.getHangingDevice();
+                reason = "hang " + hangDetector.getHangingRule();
+                LOG.warn("Miner {} is hanging on GPU{} by rule {}! Killing process {}", miner, device, hangDetector.getHangingRule(),
+                        miner.getProcessName());
+            } else if (logWatcher.isStalled()) {
+                device = -1;
+                reason = "stall";
+                LOG.warn("File {} has not grown for {} ms! Killing process {}", logFilePath, supervisor.getParams().getProperty
+                        ("stallTimeout"), miner.getProcessName());
+            } else if (hashrateTracker.isDegraded()) {
+                device = hashrateTracker.getDegradedDevice();
+                reason = "degraded";
+                LOG.warn("Miner {} is degraded: {}! Killing process {}", miner, hashrateTracker.getDegradation(), miner
+                        .getProcessName());
+            } else {
+                device = -1;
+                reason = "degraded";
+                LOG.warn("Miner {} is degraded: {}! Killing process {}", miner, stratumProxy.getDegradation(), miner.getProcessName());
+            }
+        }
+        snapshot(device, reason);
+        recover(device, reason, ladder.firstStep());
+    }
+
+    /**
+     * Restarts this miner on behalf of another one that escalated to restarting all miners. Does nothing while a recovery of this
+     * miner is running.
+     */
+    public synchronized void restartNow() {
+        if (stopped || recovering) {
+            return;
+        }
+        LOG.info("Miner {} is restarted with all miners", miner);
+        recovering = true;
+        detectedNanos = environment.nanoTime();
+        int step = ladder.getSteps().indexOf(RecoveryLadder.Action.RESTART);
+        supervisor.getRecoveryExecutor().execute(() -> recover(-1, "restart of all miners", Math.max(0, step)));
+    }
+
+    private void recover(int device, String reason, int firstStep) {
+        long resumeDelayMillis = 0;
+        supervisor.reportIncident(new Incident(now(), miner.getName(), device, reason));
+        try {
+            long killStart = environment.nanoTime();
+            boolean killed = killMiner();
+            killDuration.observe(environment.nanoTime() - killStart);
+            if (!killed || !moveLog()) {
+                LOG.warn("File {} was not moved", logFilePath.toString());
+                resumeDelayMillis = sleepDurationMillis;
+                return;
+            }
+            synchronized (this) {
+                logTailer.reset();
+                logWatcher.reset();
+                if (stratumProxy != null) {
+                    stratumProxy.resetShares();
+                }
+            }
+            if (!needRestart) {
+                firstStep = ladder.getSteps().size() - 1;
+            }
+            List<MinerDefinition> activeCompanions = killCompanions();
+            for (int step = firstStep; ; step = ladder.next(step)) {
+                RecoveryLadder.Action action = ladder.get(step);
+                String params = miner.getParams();
+                if (action == RecoveryLadder.Action.EXCLUDE_DEVICE) {
+                    params = miner.getParamsWithoutDevice(device);
+                    if (params == null) {
+                        continue;
+                    }
+                } else if (action == RecoveryLadder.Action.RESTART_ALL) {
+                    if (supervisor.getMonitors().size() < 2) {
+                        continue;
+                    }
+                } else if (action == RecoveryLadder.Action.REBOOT) {
+                    recoveryDuration.observe(environment.nanoTime() - detectedNanos);
+                    if (ladder.isRebootAllowed()) {
+                        supervisor.getStats().recordRecoveryAttempt(action.getKey());
+                        supervisor.reboot(new Incident(now(), miner.getName(), device, reason, action.getKey()));
+                        return;
+                    }
+                    LOG.error("Too many reboots recently, miner {} is started again instead and checked in {} ms", miner,
+                            breakerBackoffMillis);
+                    refusedReboots.inc();
+                    supervisor.recordIncident(new Incident(now(), miner.getName(), device, reason, RecoveryLadder.Action
+                            .RESTART.getKey()));
+                    startMiners(activeCompanions, miner.getParams());
+                    resumeDelayMillis = breakerBackoffMillis;
+                    return;
+                }
+                supervisor.recordIncident(new Incident(now(), miner.getName(), device, reason, action.getKey()));
+                if (action == RecoveryLadder.Action.RESTART_ALL) {
+                    supervisor.restartAll(this);
+                }
+                LOG.info("Recovering miner {} by {}", miner, action.getKey());
+                supervisor.getStats().recordRecoveryAttempt(action.getKey());
+                long startNanos = environment.nanoTime();
+                Process process = startMiners(activeCompanions, params);
+                if (awaitReadiness(process)) {
+                    long now = environment.nanoTime();
+                    readinessDuration.observe(now - startNanos);
+                    recoveryDuration.observe(now - detectedNanos);
+                    timeToHashing.get(action).observe(now - detectedNanos);
+                    supervisor.getStats().recordRecoverySuccess(action.getKey(), TimeUnit.NANOSECONDS.toMillis(now - detectedNanos));
+                    supervisor.reportRecovery(miner.getName(), device, action.getKey(), true, TimeUnit.NANOSECONDS.toMillis(now -
+                            detectedNanos));
+                    ladder.onRecovered(step);
+                    synchronized (this) {
+                        excludedDevice = action == RecoveryLadder.Action.EXCLUDE_DEVICE ? device : -1;
+                        setState(Availability.State.HEALTHY);
+                    }
+                    restartSuccesses.inc();
+                    LOG.info("Miner {} is ready {} ms after the start, {} ms after the detection, recovered by {}", miner, TimeUnit
+                            .NANOSECONDS.toMillis(now - startNanos), TimeUnit.NANOSECONDS.toMillis(now - detectedNanos), action.getKey());
+                    return;
+                }
+                restartFailures.inc();
+                supervisor.reportRecovery(miner.getName(), device, action.getKey(), false, 0);
+                synchronized (this) {
+                    if (hangDetector.isHanging()) {
+                        device = hangDetector.getHangingDevice();
+                    }
+                    reason = (hangDetector.isHanging() ? "hang" : "not ready") + " after " + action.getKey();
+                }
+                snapshot(device, reason);
+                if (!killMiner() || !moveLog()) {
+                    resumeDelayMillis = sleepDurationMillis;
+                    return;
+                }
+                for (MinerDefinition companion : activeCompanions) {
+                    environment.getProcessControl().kill(companion.getProcessName());
+                }
+                synchronized (this) {
+                    logTailer.reset();
+                    logWatcher.reset();
+                }
+            }
+        }
+        catch (IOException e) {
+            LOG.warn("Recovery of miner " + miner + " cannot be executed. Attempt to try again.", e);
+            resumeDelayMillis = sleepDurationMillis;
+        }
+        catch (InterruptedException e) {
+            LOG.warn("Recovery of miner {} is interrupted.", miner);
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            synchronized (this) {
+                recovering = false;
+                logWatcher.reset();
+                schedule(resumeDelayMillis);
+            }
+        }
+    }
+
+    /**
+     * Kills the companions in parallel.
+     *
+     * @return companions that were running
+     */
+    private List<MinerDefinition> killCompanions() throws InterruptedException {
+        List<Future<Boolean>> kills = new ArrayList<>();
+        for (MinerDefinition companion : companions) {
+            kills.add(supervisor.getRecoveryExecutor().submit(() -> environment.getProcessControl().kill(companion.getProcessName())));
+        }
+        List<MinerDefinition> activeCompanions = new ArrayList<>();
+        for (int i = 0; i < kills.size(); i++) {
+            try {
+                if (kills.get(i).get()) {
+                    activeCompanions.add(companions.get(i));
+                }
+            }
+            catch (ExecutionException e) {
+                LOG.warn("Companion " + companions.get(i) + " cannot be killed", e.getCause());
+            }
+        }
+        return activeCompanions;
+    }
+
+    /**
+     * Starts the companions and the miner in parallel.
+     *
+     * @param params parameters of the miner
+     * @return process of the miner
+     */
+    private Process startMiners(List<MinerDefinition> activeCompanions, String params) throws IOException, InterruptedException {
+        List<Future<Process>> starts = new ArrayList<>();
+        for (MinerDefinition companion : activeCompanions) {
+            starts.add(supervisor.getRecoveryExecutor().submit(() -> environment.getProcessControl().start(companion.getProcessName(),
+                    companion.getDirectory(), false, companion.getParams())));
+        }
+        Process process = captureOutput ? launch(params) : environment.getProcessControl().start(miner.getProcessName(), miner
+                .getDirectory(), false, params);
+        for (int i = 0; i < starts.size(); i++) {
+            try {
+                starts.get(i).get();
+            }
+            catch (ExecutionException e) {
+                LOG.warn("Companion " + activeCompanions.get(i) + " cannot be started", e.getCause());
+            }
+        }
+        return process;
+    }
+
+    /**
+     * Polls the new log until it shows healthy output. Fails as soon as the miner hangs again or exits, or when the deadline passes.
+     * Without ready phrases the miner is ready when it has not hung until the deadline.
+     */
+    private boolean awaitReadiness(Process process) throws IOException, InterruptedException {
+        long deadline = environment.nanoTime() + TimeUnit.MILLISECONDS.toNanos(readyTimeoutMillis);
+        while (true) {
+            synchronized (this) {
+                try {
+                    isHangingUp();
+                }
+                catch (NoSuchFileException e) {
+                    LOG.debug("Log {} is not created yet", logFilePath);
+                }
+                if (hangDetector.isHanging()) {
+                    LOG.warn("Miner {} is hanging again on GPU{} after restart", miner, hangDetector.getHangingDevice());
+                    return false;
+                }
+                if (readinessProbe.isReady()) {
+                    return true;
+                }
+            }
+            if (process != null && !process.isAlive()) {
+                LOG.warn("Miner {} exited with code {} after restart", miner, process.exitValue());
+                return false;
+            }
+            long remainingNanos = deadline - environment.nanoTime();
+            if (remainingNanos <= 0) {
+                if (!readinessProbe.hasPhrases()) {
+                    return true;
+                }
+                LOG.warn("Miner {} has not shown healthy output in {} ms after restart", miner, readyTimeoutMillis);
+                return false;
+            }
+            environment.sleep(Math.min(remainingNanos, TimeUnit.MILLISECONDS.toNanos(pollIntervalMillis)), TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.hesky.ewbfcudawatchdog;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Reads the output of a miner started by the watchdog on a dedicated daemon thread. Lines go straight to the handler while
+ * {@code lock} is held, so detection happens as soon as the miner prints; the raw bytes are also handed to the
+ * {@link ArchiveWriter}, which writes them to disk later, and to the optional {@link FlightRecorder}. {@code afterRead} runs after
+ * every chunk, outside the lock.
+ */
+public class OutputCapture implements Runnable {
+    private static final Logger LOG = getLogger(OutputCapture.class);
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream in;
+    private final Object lock;
+    private final LineSplitter lineSplitter;
+    private final ArchiveWriter archive;
+    private final FlightRecorder recorder;
+    private final Runnable afterRead;
+    private final Thread thread;
+    private volatile long bytesRead;
+    private volatile long lastReadMillis;
+
+    public OutputCapture(String name, InputStream in, Object lock, LineHandler handler, ArchiveWriter archive, Runnable afterRead) {
+        this(name, in, lock, handler, archive, null, afterRead);
+    }
+
+    public OutputCapture(String name, InputStream in, Object lock, LineHandler handler, ArchiveWriter archive, FlightRecorder recorder,
+                         Runnable afterRead) {
+        this.in = in;
+        this.lock = lock;
+        this.lineSplitter = new LineSplitter(handler);
+        this.archive = archive;
+        this.recorder = recorder;
+        this.afterRead = afterRead;
+        this.thread = new Thread(this, "capture-" + name);
+        thread.setDaemon(true);
+    }
+
+    public OutputCapture start() {
+        thread.start();
+        return this;
+    }
+
+    @Override
+    public void run() {
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        try {
+            for (int n; (n = in.read(buffer)) != -1; ) {
+                lastReadMillis = System.currentTimeMillis();
+                synchronized (lock) {
+                    lineSplitter.split(buffer, 0, n);
+                }
+                if (archive != null) {
+                    archive.write(buffer, 0, n);
+                }
+                if (recorder != null) {
+                    recorder.write(buffer, 0, n);
+                }
+                bytesRead += n;
+                afterRead.run();
+            }
+        }
+        catch (IOException e) {
+            LOG.debug("Output of {} is closed", thread.getName(), e);
+        }
+        finally {
+            synchronized (lock) {
+                lineSplitter.flush();
+            }
+            try {
+                in.close();
+            }
+            catch (IOException e) {
+                LOG.debug("Output of {} cannot be closed", thread.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * @return bytes read since the start, growing only on the capture thread
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return time of the last read in milliseconds or 0 when nothing was read yet
+     */
+    public long getLastReadMillis() {
+        return lastReadMillis;
+    }
+
+    public boolean isRunning() {
+        return thread.isAlive();
+    }
+
+    /**
+     * Waits until the process has closed its output and every byte has been handled.
+     */
+    public boolean awaitEnd(long timeout, TimeUnit unit) throws InterruptedException {
+        thread.join(unit.toMillis(timeout));
+        return !thread.isAlive();
+    }
+}
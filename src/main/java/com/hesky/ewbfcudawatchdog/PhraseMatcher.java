@@ -0,0 +1,140 @@
+package com.hesky.ewbfcudawatchdog;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton that finds any number of phrases in raw line bytes in a single pass. ASCII letters are compared
+ * case-insensitively, other bytes exactly. The automaton is compiled into a dense transition table over byte classes, so the cost
+ * per byte is one table lookup no matter how many phrases it holds.
+ */
+public class PhraseMatcher {
+    public interface Listener {
+        void onMatch(int phraseId);
+    }
+
+    private final int[] byteClass = new int[256];
+    private final int classCount;
+    private final int[] transitions;
+    private final int[] output;
+    private final int[] nextOutput;
+
+    /**
+     * @param phrases phrases to look for, the index of a phrase in the list is the id passed to {@link Listener#onMatch(int)}
+     */
+    public PhraseMatcher(List<String> phrases) {
+        List<byte[]> encoded = new ArrayList<>(phrases.size());
+        for (String phrase : phrases) {
+            byte[] bytes = phrase.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length == 0) {
+                throw new IllegalArgumentException("Empty phrase");
+            }
+            encoded.add(bytes);
+        }
+        classCount = assignByteClasses(encoded);
+
+        List<int[]> trie = new ArrayList<>();
+        List<Integer> trieOutput = new ArrayList<>();
+        trie.add(newRow());
+        trieOutput.add(-1);
+        for (int id = 0; id < encoded.size(); id++) {
+            int state = 0;
+            for (byte b : encoded.get(id)) {
+                int c = byteClass[b & 0xFF];
+                if (trie.get(state)[c] == -1) {
+                    trie.get(state)[c] = trie.size();
+                    trie.add(newRow());
+                    trieOutput.add(-1);
+                }
+                state = trie.get(state)[c];
+            }
+            if (trieOutput.get(state) == -1) {
+                trieOutput.set(state, id);
+            }
+        }
+
+        int stateCount = trie.size();
+        transitions = new int[stateCount * classCount];
+        output = new int[stateCount];
+        nextOutput = new int[stateCount];
+        int[] failure = new int[stateCount];
+        for (int s = 0; s < stateCount; s++) {
+            output[s] = trieOutput.get(s);
+        }
+        Arrays.fill(nextOutput, -1);
+
+        int[] queue = new int[stateCount];
+        int head = 0, tail = 0;
+        for (int c = 0; c < classCount; c++) {
+            int child = trie.get(0)[c];
+            if (child == -1) {
+                transitions[c] = 0;
+            } else {
+                transitions[c] = child;
+                failure[child] = 0;
+                queue[tail++] = child;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            int fail = failure[state];
+            nextOutput[state] = output[fail] != -1 ? fail : nextOutput[fail];
+            for (int c = 0; c < classCount; c++) {
+                int child = trie.get(state)[c];
+                if (child == -1) {
+                    transitions[state * classCount + c] = transitions[fail * classCount + c];
+                } else {
+                    transitions[state * classCount + c] = child;
+                    failure[child] = transitions[fail * classCount + c];
+                    queue[tail++] = child;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reports every phrase occurrence in the line. A phrase found several times in one line is reported several times.
+     */
+    public void scan(byte[] bytes, int offset, int length, Listener listener) {
+        int state = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            state = transitions[state * classCount + byteClass[bytes[i] & 0xFF]];
+            for (int s = output[state] != -1 ? state : nextOutput[state]; s != -1; s = nextOutput[s]) {
+                listener.onMatch(output[s]);
+            }
+        }
+    }
+
+    public int getStateCount() {
+        return output.length;
+    }
+
+    private int assignByteClasses(List<byte[]> phrases) {
+        Arrays.fill(byteClass, 0);
+        int next = 1;
+        for (byte[] phrase : phrases) {
+            for (byte b : phrase) {
+                int folded = fold(b & 0xFF);
+                if (byteClass[folded] == 0) {
+                    byteClass[folded] = next++;
+                }
+            }
+        }
+        for (int b = 'A'; b <= 'Z'; b++) {
+            byteClass[b] = byteClass[fold(b)];
+        }
+        return next;
+    }
+
+    private int[] newRow() {
+        int[] row = new int[classCount];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    private static int fold(int b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+    }
+}
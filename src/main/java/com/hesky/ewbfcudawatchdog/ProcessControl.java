@@ -0,0 +1,104 @@
+package com.hesky.ewbfcudawatchdog;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds, starts and stops miner processes and reboots the computer.
+ */
+public interface ProcessControl {
+
+    /**
+     * @return processes matching the pattern, see {@link ProcessInfo#matches(String)}
+     */
+    List<ProcessInfo> find(String pattern) throws IOException;
+
+    /**
+     * Asks the matching processes and their descendants to stop, kills the ones still alive after the grace period and waits for
+     * all of them to exit.
+     *
+     * @return false when nothing matched or a process is still alive
+     */
+    boolean kill(String pattern) throws IOException, InterruptedException;
+
+    /**
+     * Runs the program directly, without a shell. The program is looked up in the directory first.
+     *
+     * @param captureOutput true to keep stdout and stderr (merged) readable through {@link Process#getInputStream()}, false to
+     *                      discard them
+     */
+    Process start(String program, Path directory, List<String> arguments, boolean captureOutput) throws IOException;
+
+    /**
+     * Runs the program with the arguments of the command lines, split by {@link #splitArguments(String)}.
+     */
+    default Process start(String program, String directory, boolean captureOutput, String... commandLines) throws IOException {
+        List<String> arguments = new ArrayList<>();
+        if (commandLines != null) {
+            for (String commandLine : commandLines) {
+                arguments.addAll(splitArguments(commandLine));
+            }
+        }
+        return start(program, directory == null ? null : Paths.get(directory), arguments, captureOutput);
+    }
+
+    void reboot(int delaySeconds, String message) throws IOException;
+
+    /**
+     * @param gracefulWindowsKill true to ask Windows miners to close before they are killed, which can add the grace period to a
+     *                            recovery; on Linux the termination signal is always sent first since it costs nothing
+     */
+    static ProcessControl forCurrentSystem(long gracePeriodMillis, boolean gracefulWindowsKill) {
+        if (System.getProperty("os.name", "").toLowerCase().startsWith("windows")) {
+            return new WindowsProcessControl(gracePeriodMillis, gracefulWindowsKill);
+        }
+        return new LinuxProcessControl(gracePeriodMillis);
+    }
+
+    static Path resolveProgram(String program, Path directory) {
+        if (directory != null) {
+            Path local = directory.resolve(program);
+            if (Files.isRegularFile(local)) {
+                return local;
+            }
+        }
+        return Paths.get(program);
+    }
+
+    /**
+     * Splits a command line into arguments. Whitespace separates arguments unless it is inside double quotes.
+     */
+    static List<String> splitArguments(String commandLine) {
+        List<String> arguments = new ArrayList<>();
+        if (commandLine == null) {
+            return arguments;
+        }
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        boolean inArgument = false;
+        for (int i = 0; i < commandLine.length(); i++) {
+            char c = commandLine.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                inArgument = true;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (inArgument) {
+                    arguments.add(current.toString());
+                    current.setLength(0);
+                    inArgument = false;
+                }
+            } else {
+                current.append(c);
+                inArgument = true;
+            }
+        }
+        if (inArgument) {
+            arguments.add(current.toString());
+        }
+        return arguments;
+    }
+}
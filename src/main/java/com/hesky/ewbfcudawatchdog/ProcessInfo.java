@@ -0,0 +1,111 @@
+package com.hesky.ewbfcudawatchdog;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Snapshot of one operating system process.
+ */
+public class ProcessInfo {
+    private static final Pattern INTERPRETER = Pattern.compile("(ba|da|z)?sh|python[0-9.]*|perl|ruby|node|wine(64)?(-preloader)?");
+
+    private final long pid;
+    private final long parentPid;
+    private final String name;
+    private final String commandLine;
+
+    public ProcessInfo(long pid, long parentPid, String name, String commandLine) {
+        this.pid = pid;
+        this.parentPid = parentPid;
+        this.name = name;
+        this.commandLine = commandLine;
+    }
+
+    public long getPid() {
+        return pid;
+    }
+
+    /**
+     * @return pid of the parent or -1 when it is unknown
+     */
+    public long getParentPid() {
+        return parentPid;
+    }
+
+    /**
+     * @return image name, for example {@code miner.exe}
+     */
+    public String getName() {
+        return name;
+    }
+
+    public String getCommandLine() {
+        return commandLine;
+    }
+
+    /**
+     * Same rule as {@code TASKKILL /IM "name*"}: the image name starts with the pattern. The file name of the program in the
+     * command line is checked the same way, and for an interpreter such as {@code sh} or {@code wine} the file name of the script
+     * it runs. Other arguments never match, so {@code tail -f miner.log} or an editor holding the miner path is left alone.
+     */
+    public boolean matches(String pattern) {
+        return matches(pattern, false);
+    }
+
+    /**
+     * @param ignoreCase true to compare like {@code TASKKILL} does on Windows, where {@code ultraiso} matches {@code UltraISO.exe}
+     * @see #matches(String)
+     */
+    public boolean matches(String pattern, boolean ignoreCase) {
+        if (startsWith(name, pattern, ignoreCase)) {
+            return true;
+        }
+        String[] arguments = commandLine.trim().split("\\s+");
+        String program = fileName(arguments[0]);
+        if (startsWith(program, pattern, ignoreCase)) {
+            return true;
+        }
+        if (!INTERPRETER.matcher(program).matches()) {
+            return false;
+        }
+        for (int i = 1; i < arguments.length; i++) {
+            if (!arguments[i].startsWith("-")) {
+                return startsWith(fileName(arguments[i]), pattern, ignoreCase);
+            }
+        }
+        return false;
+    }
+
+    private static boolean startsWith(String value, String prefix, boolean ignoreCase) {
+        return value.regionMatches(ignoreCase, 0, prefix, 0, prefix.length());
+    }
+
+    /**
+     * @return pids of the roots and of every process below them in {@code all}
+     */
+    public static Set<Long> withDescendants(List<ProcessInfo> all, Collection<Long> roots) {
+        Set<Long> tree = new LinkedHashSet<>(roots);
+        boolean grown = true;
+        while (grown) {
+            grown = false;
+            for (ProcessInfo process : all) {
+                if (tree.contains(process.getParentPid()) && tree.add(process.getPid())) {
+                    grown = true;
+                }
+            }
+        }
+        return tree;
+    }
+
+    private static String fileName(String path) {
+        return path.substring(Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) + 1);
+    }
+
+    @Override
+    public String toString() {
+        return name + "[" + pid + "]";
+    }
+}
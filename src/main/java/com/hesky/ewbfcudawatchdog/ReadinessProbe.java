@@ -0,0 +1,45 @@
+package com.hesky.ewbfcudawatchdog;
+
+import java.util.List;
+
+/**
+ * Looks for healthy output (hashrate or accepted share lines) in the log of a restarted miner and passes every line on to the next
+ * handler. Readiness is sticky until {@link #reset()}. A probe without phrases never becomes ready.
+ */
+public class ReadinessProbe implements LineHandler, PhraseMatcher.Listener {
+    private final PhraseMatcher matcher;
+    private final LineHandler next;
+    private volatile boolean ready;
+
+    public ReadinessProbe(List<String> phrases, LineHandler next) {
+        this.matcher = phrases.isEmpty() ? null : new PhraseMatcher(phrases);
+        this.next = next;
+    }
+
+    public boolean hasPhrases() {
+        return matcher != null;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public void onLine(byte[] bytes, int offset, int length) {
+        if (matcher != null && !ready) {
+            matcher.scan(bytes, offset, length, this);
+        }
+        next.onLine(bytes, offset, length);
+    }
+
+    @Override
+    public void onMatch(int phraseId) {
+        ready = true;
+    }
+
+    @Override
+    public void reset() {
+        ready = false;
+        next.reset();
+    }
+}
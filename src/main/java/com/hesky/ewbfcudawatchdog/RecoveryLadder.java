@@ -0,0 +1,159 @@
+package com.hesky.ewbfcudawatchdog;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.LongSupplier;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Order in which the recovery actions of one miner are tried, cheapest first, ending with a reboot ({@code recoveryLadder}).
+ * A failure within {@code escalationCooldown} ms of a recovery starts one step above the action that recovered last time, since
+ * that action did not hold. Actions that have worked in less than {@code minActionSuccessRate} of at least
+ * {@code minActionAttempts} tries are skipped. A reboot is refused while {@code maxReboots} reboots have been journaled within
+ * {@code rebootWindow} ms, so a machine that keeps failing does not reboot in a loop.
+ */
+public class RecoveryLadder {
+    private static final Logger LOG = getLogger(RecoveryLadder.class);
+
+    public enum Action {
+        RESTART("restart"), EXCLUDE_DEVICE("exclude"), RESTART_ALL("restartAll"), REBOOT("reboot");
+
+        private final String key;
+
+        Action(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public static Action parse(String key) {
+            for (Action action : values()) {
+                if (action.key.equalsIgnoreCase(key.trim())) {
+                    return action;
+                }
+            }
+            throw new IllegalArgumentException("Unknown recovery action " + key);
+        }
+    }
+
+    private final List<Action> steps;
+    private final StatsStore stats;
+    private final LongSupplier clock;
+    private final long cooldownMillis;
+    private final int maxReboots;
+    private final long rebootWindowMillis;
+    private final double minSuccessRate;
+    private final int minAttempts;
+    private int lastStep = -1;
+    private long lastRecoveryMillis;
+
+    public RecoveryLadder(Properties params, StatsStore stats, LongSupplier clock) {
+        List<Action> steps = new ArrayList<>();
+        for (String key : params.getProperty("recoveryLadder", "restart,reboot").split(",")) {
+            if (!key.trim().isEmpty()) {
+                Action action = Action.parse(key);
+                if (!steps.contains(action)) {
+                    steps.add(action);
+                }
+            }
+        }
+        steps.remove(Action.REBOOT);
+        steps.add(Action.REBOOT);
+        this.steps = Collections.unmodifiableList(steps);
+        this.stats = stats;
+        this.clock = clock;
+        this.cooldownMillis = Long.parseLong(params.getProperty("escalationCooldown", "1800000"));
+        this.maxReboots = Integer.parseInt(params.getProperty("maxReboots", "3"));
+        this.rebootWindowMillis = Long.parseLong(params.getProperty("rebootWindow", "3600000"));
+        this.minSuccessRate = Double.parseDouble(params.getProperty("minActionSuccessRate", "0.2"));
+        this.minAttempts = Integer.parseInt(params.getProperty("minActionAttempts", "5"));
+    }
+
+    public List<Action> getSteps() {
+        return steps;
+    }
+
+    public Action get(int step) {
+        return steps.get(step);
+    }
+
+    /**
+     * @return the step to start a new recovery with
+     */
+    public synchronized int firstStep() {
+        int step = 0;
+        if (lastStep >= 0 && clock.getAsLong() - lastRecoveryMillis < cooldownMillis) {
+            step = Math.min(lastStep + 1, steps.size() - 1);
+            LOG.info("Failure within {} ms after recovery by {}, escalating to {}", cooldownMillis, steps.get(lastStep).getKey(),
+                    steps.get(step).getKey());
+        }
+        return skipUnreliable(step);
+    }
+
+    /**
+     * @return the step after a failed one, never beyond the reboot
+     */
+    public int next(int step) {
+        return skipUnreliable(Math.min(step + 1, steps.size() - 1));
+    }
+
+    private int skipUnreliable(int step) {
+        while (step < steps.size() - 1 && isUnreliable(steps.get(step))) {
+            LOG.info("Recovery action {} is skipped, it has worked {} times", steps.get(step).getKey(), stats.getRecoveryStats(steps
+                    .get(step).getKey()));
+            step++;
+        }
+        return step;
+    }
+
+    private boolean isUnreliable(Action action) {
+        StatsStore.RecoveryStats recovery = stats.getRecoveryStats(action.getKey());
+        return recovery.getAttempts() >= minAttempts && recovery.getSuccesses() < minSuccessRate * recovery.getAttempts();
+    }
+
+    /**
+     * Remembers the step that got the miner hashing again.
+     */
+    public synchronized void onRecovered(int step) {
+        lastStep = step;
+        lastRecoveryMillis = clock.getAsLong();
+    }
+
+    /**
+     * @return false while the reboot limit of the window is reached
+     */
+    public boolean isRebootAllowed() {
+        if (maxReboots <= 0) {
+            return true;
+        }
+        LocalDateTime since = LocalDateTime.ofInstant(Instant.ofEpochMilli(clock.getAsLong() - rebootWindowMillis), ZoneId
+                .systemDefault());
+        try {
+            return stats.countRebootsSince(since) < maxReboots;
+        }
+        catch (IOException e) {
+            LOG.warn("Incident journal cannot be read, reboot is allowed", e);
+            return true;
+        }
+    }
+
+    @Override
+    public String toString() {
+        List<String> keys = new ArrayList<>();
+        for (Action step : steps) {
+            keys.add(step.getKey());
+        }
+        return String.join(" > ", keys);
+    }
+}
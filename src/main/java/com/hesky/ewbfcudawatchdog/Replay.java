@@ -0,0 +1,674 @@
+package com.hesky.ewbfcudawatchdog;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Feeds recorded miner logs through the full supervision loop on a {@link VirtualClock} and counts what the watchdog would have
+ * done. A real {@link Supervisor} with its {@link MinerMonitor} runs in a virtual {@link Environment}: scans, recoveries and the
+ * {@link RecoveryLadder} run on a {@link VirtualScheduler}, and a stub {@link ProcessControl} plays the miner. The stub writes
+ * the log at the recorded pace, and when the monitor kills it the rest of the run is skipped, because the killed miner would not
+ * have written it; the next start writes the next run. A requested reboot starts a new supervisor on the same stats after the
+ * reboot delay, with the next run already writing, as a miner started with the computer.
+ * <p>
+ * Every file is one run of the miner, written one line every {@code replayLineInterval} ms. Synthetic logs may contain
+ * directives on their own lines: {@code @+30s} lets time pass without output, {@code @expect} marks where a real failure starts,
+ * {@code @start} starts a new run within the file. A run that is not killed is followed by the next one after a scan interval,
+ * in the same log. With {@code @expect} markers the report also counts false positives and missed failures. The replay ends a
+ * scan interval after the last line, or when a miner started instead of a refused reboot would have been scanned again.
+ */
+public class Replay {
+    private static final String MINER = "replay";
+
+    private final Properties params;
+    private final VirtualClock clock;
+    private final Path directory;
+    private final MinerDefinition miner;
+    private final LogRotator logRotator;
+    private final long lineIntervalMillis;
+    private final long sleepDurationMillis;
+    private final long breakerBackoffMillis;
+    private final boolean watchMode;
+    private final StubMiner stub = new StubMiner();
+    private final Report report = new Report();
+    private Input input;
+    private Event pending;
+    private boolean inputEnded;
+    private long horizonMillis = Long.MAX_VALUE;
+    private long quietUntilMillis;
+    private long lastWriteTime;
+    private long expectTime = -1;
+    private VirtualScheduler scheduler;
+    private Supervisor supervisor;
+    private int rebootDelaySeconds = -1;
+    private IOException failure;
+
+    /**
+     * @param directory empty directory for the log, the stats and the rotated logs of the replayed miner
+     */
+    public Replay(Properties params, VirtualClock clock, Path directory) {
+        this.params = new Properties();
+        this.params.putAll(params);
+        this.params.setProperty("miners", MINER);
+        this.params.setProperty("miner." + MINER + ".processName", MINER + "-miner");
+        this.params.setProperty("miner." + MINER + ".logFile", directory.resolve("miner.log").toString());
+        this.params.setProperty("captureOutput", "");
+        this.params.setProperty("stratumPools", "");
+        this.params.setProperty("telemetryCommand", "");
+        this.params.setProperty("fleetCollector", "");
+        this.params.setProperty("metricsPort", "0");
+        this.clock = clock;
+        this.directory = directory;
+        this.miner = MinerDefinition.load(this.params).get(0);
+        this.logRotator = new LogRotator(false, null, miner.getGpuCount(), clock::millis);
+        this.lineIntervalMillis = Long.parseLong(params.getProperty("replayLineInterval", "100"));
+        this.sleepDurationMillis = Long.parseLong(params.getProperty("sleepDuration"));
+        this.breakerBackoffMillis = Long.parseLong(params.getProperty("breakerBackoff", "600000"));
+        this.watchMode = "1".equals(params.getProperty("watchMode"));
+    }
+
+    public Report run(List<Path> files) throws IOException, InterruptedException {
+        long realStart = System.nanoTime();
+        long virtualStart = clock.millis();
+        input = new Input(files);
+        try {
+            pending = input.next();
+            boot();
+            while (true) {
+                while (scheduler.runNext()) {
+                    checkFailure();
+                }
+                if (scheduler.hasInterrupted()) {
+                    Thread.interrupted();
+                }
+                checkFailure();
+                if (rebootDelaySeconds < 0 || pending == null) {
+                    break;
+                }
+                clock.sleep(TimeUnit.SECONDS.toMillis(rebootDelaySeconds));
+                rebootDelaySeconds = -1;
+                boot();
+            }
+            if (rebootDelaySeconds < 0) {
+                supervisor.stop();
+            }
+            if (expectTime >= 0) {
+                report.missed++;
+            }
+        }
+        finally {
+            input.close();
+            stub.close();
+        }
+        report.virtualMillis = clock.millis() - virtualStart;
+        report.realNanos = System.nanoTime() - realStart;
+        return report;
+    }
+
+    /**
+     * Starts the computer: the next run of the miner and a new supervisor on the stats of the previous one.
+     */
+    private void boot() throws IOException {
+        scheduler = new VirtualScheduler(clock);
+        scheduler.setHorizon(horizonMillis);
+        supervisor = new Supervisor(params, Collections.singletonList(miner), directory.resolve("stats.txt"), Environment.virtual
+                (scheduler, stub, logRotator));
+        stub.boot();
+        supervisor.start();
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Writes the next event of the run to the log and schedules the one after it.
+     */
+    private void write() {
+        try {
+            Event event = pending;
+            pending = input.next();
+            long now = clock.millis();
+            switch (event.kind) {
+                case LINE:
+                    stub.write(event.bytes);
+                    lastWriteTime = now;
+                    report.lines++;
+                    Files.setLastModifiedTime(miner.getLogFile(), FileTime.fromMillis(now));
+                    if (watchMode) {
+                        supervisor.getMonitors().get(0).onChange();
+                    }
+                    break;
+                case EXPECT:
+                    report.expected++;
+                    if (expectTime < 0) {
+                        expectTime = now;
+                    }
+                    break;
+                case START:
+                    if (expectTime >= 0) {
+                        report.missed++;
+                        expectTime = -1;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            stub.scheduleWrite();
+        }
+        catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Ends the replay a scan interval from now, or when the scans paused by a refused reboot have resumed.
+     */
+    private void endInput() {
+        if (inputEnded) {
+            return;
+        }
+        inputEnded = true;
+        horizonMillis = Math.max(clock.millis() + sleepDurationMillis, quietUntilMillis);
+        scheduler.setHorizon(horizonMillis);
+    }
+
+    private long delay(Event event) {
+        switch (event.kind) {
+            case LINE:
+                return lineIntervalMillis;
+            case START:
+                return sleepDurationMillis;
+            default:
+                return event.delayMillis;
+        }
+    }
+
+    /**
+     * {@code replay [--speed n] [--set key=value]... file...}: replays the logs with the watchdog parameters, changed by
+     * {@code --set}, and prints the report. Speed 0, the default, replays as fast as possible.
+     *
+     * @return exit code
+     */
+    public static int runReplay(String[] args, Properties defaults, PrintStream out) throws IOException, InterruptedException {
+        Properties params = new Properties();
+        params.putAll(defaults);
+        double speed = 0;
+        List<Path> files = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--speed":
+                        speed = Double.parseDouble(args[++i]);
+                        break;
+                    case "--set":
+                        String[] pv = args[++i].split("=", 2);
+                        params.setProperty(pv[0], pv[1]);
+                        break;
+                    default:
+                        files.add(Paths.get(args[i]));
+                }
+            }
+        }
+        catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            out.println("Wrong replay " + String.join(" ", args));
+            return 2;
+        }
+        if (files.isEmpty()) {
+            out.println("No logs to replay");
+            return 2;
+        }
+        Path directory = Files.createTempDirectory("watchdog-replay");
+        try {
+            Replay replay = new Replay(params, new VirtualClock(System.currentTimeMillis(), speed), directory);
+            out.println(replay.run(files));
+        }
+        finally {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * The replayed miner. Kills are told apart by the detection counters of the monitor: a kill after a detection is counted as
+     * one, any other kill ends a restart that failed. Starts after a refused reboot are told apart the same way.
+     */
+    private class StubMiner implements ProcessControl {
+        private final long[] detections = new long[3];
+        private long refusedReboots;
+        private OutputStream log;
+        private ScheduledFuture<?> writeTask;
+        private Process process;
+
+        private void boot() throws IOException {
+            Arrays.fill(detections, 0);
+            refusedReboots = 0;
+            startRun();
+        }
+
+        private void startRun() throws IOException {
+            close();
+            log = Files.newOutputStream(miner.getLogFile(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            process = new StubProcess();
+            lastWriteTime = clock.millis();
+            scheduleWrite();
+        }
+
+        private void scheduleWrite() {
+            if (pending == null) {
+                endInput();
+            } else {
+                writeTask = scheduler.schedule(Replay.this::write, delay(pending), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void write(byte[] bytes) throws IOException {
+            log.write(bytes);
+            log.write('\n');
+        }
+
+        private void stopWriting() {
+            if (writeTask != null) {
+                writeTask.cancel(false);
+                writeTask = null;
+            }
+        }
+
+        private void close() throws IOException {
+            stopWriting();
+            if (log != null) {
+                log.close();
+                log = null;
+            }
+        }
+
+        private boolean rose(int index, String reason) {
+            long count = supervisor.getMetrics().getCounter("watchdog_detections_total", Metrics.label("miner", MINER) + "," +
+                    Metrics.label("reason", reason));
+            boolean rose = count > detections[index];
+            detections[index] = count;
+            return rose;
+        }
+
+        @Override
+        public List<ProcessInfo> find(String pattern) {
+            if (process == null || !new ProcessInfo(1, 0, miner.getProcessName(), miner.getProcessName()).matches(pattern)) {
+                return Collections.emptyList();
+            }
+            return Collections.singletonList(new ProcessInfo(1, 0, miner.getProcessName(), miner.getProcessName()));
+        }
+
+        /**
+         * Skips the rest of the run, up to the next {@code @start}.
+         */
+        @Override
+        public boolean kill(String pattern) throws IOException {
+            if (find(pattern).isEmpty()) {
+                return false;
+            }
+            long now = clock.millis();
+            boolean hang = rose(0, "hang");
+            boolean stall = rose(1, "stall");
+            boolean degraded = rose(2, "degraded");
+            if (hang || stall || degraded) {
+                if (hang) {
+                    report.hangs++;
+                    report.latency.add(now - lastWriteTime);
+                } else if (stall) {
+                    report.stalls++;
+                } else {
+                    report.degradations++;
+                }
+                if (expectTime >= 0) {
+                    report.truePositives++;
+                    report.timeToDetect.add(now - expectTime);
+                    expectTime = -1;
+                } else {
+                    report.falsePositives++;
+                }
+            } else {
+                report.failedRestarts++;
+            }
+            report.kills++;
+            close();
+            process = null;
+            while (pending != null && pending.kind != Kind.START) {
+                if (pending.kind == Kind.LINE) {
+                    report.skippedLines++;
+                }
+                pending = input.next();
+            }
+            if (pending != null) {
+                pending = input.next();
+            }
+            if (pending == null) {
+                endInput();
+            }
+            return true;
+        }
+
+        @Override
+        public Process start(String program, Path directory, List<String> arguments, boolean captureOutput) throws IOException {
+            long refused = supervisor.getMetrics().getCounter("watchdog_refused_reboots_total", Metrics.label("miner", MINER));
+            if (refused > refusedReboots) {
+                refusedReboots = refused;
+                report.refusedReboots++;
+                if (!inputEnded) {
+                    quietUntilMillis = clock.millis() + breakerBackoffMillis;
+                }
+            } else {
+                report.restarts++;
+            }
+            startRun();
+            return process;
+        }
+
+        @Override
+        public void reboot(int delaySeconds, String message) throws IOException {
+            report.reboots++;
+            rebootDelaySeconds = delaySeconds;
+            close();
+            process = null;
+        }
+    }
+
+    /**
+     * One run of the stub miner, alive until it is killed.
+     */
+    private class StubProcess extends Process {
+        @Override
+        public OutputStream getOutputStream() {
+            return new ByteArrayOutputStream();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public boolean isAlive() {
+            return stub.process == this;
+        }
+
+        @Override
+        public int waitFor() throws InterruptedException {
+            while (isAlive()) {
+                scheduler.sleep(sleepDurationMillis);
+            }
+            return 1;
+        }
+
+        @Override
+        public int exitValue() {
+            if (isAlive()) {
+                throw new IllegalThreadStateException("Miner is running");
+            }
+            return 1;
+        }
+
+        @Override
+        public void destroy() {
+            if (isAlive()) {
+                stub.process = null;
+                stub.stopWriting();
+            }
+        }
+    }
+
+    private enum Kind {
+        LINE, EXPECT, START, PAUSE
+    }
+
+    private static class Event {
+        private final Kind kind;
+        private final byte[] bytes;
+        private final long delayMillis;
+
+        private Event(Kind kind, byte[] bytes, long delayMillis) {
+            this.kind = kind;
+            this.bytes = bytes;
+            this.delayMillis = delayMillis;
+        }
+    }
+
+    /**
+     * Reads the files one after another, with a {@code START} before every file but the first.
+     */
+    private class Input implements Closeable {
+        private final List<Path> files;
+        private int nextFile;
+        private BufferedReader reader;
+
+        private Input(List<Path> files) {
+            this.files = files;
+        }
+
+        private Event next() throws IOException {
+            while (true) {
+                if (reader == null) {
+                    if (nextFile == files.size()) {
+                        return null;
+                    }
+                    Path file = files.get(nextFile++);
+                    InputStream in = Files.newInputStream(file);
+                    if (file.getFileName().toString().endsWith(".gz")) {
+                        in = new GZIPInputStream(in, 1 << 16);
+                    }
+                    reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.ISO_8859_1));
+                    report.files++;
+                    if (nextFile > 1) {
+                        return new Event(Kind.START, null, 0);
+                    }
+                }
+                String line = reader.readLine();
+                if (line == null) {
+                    close();
+                    continue;
+                }
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (line.equals("@expect")) {
+                    return new Event(Kind.EXPECT, null, 0);
+                }
+                if (line.equals("@start")) {
+                    return new Event(Kind.START, null, 0);
+                }
+                if (line.startsWith("@+")) {
+                    return new Event(Kind.PAUSE, null, Rule.parseDuration(line.substring(2)));
+                }
+                return new Event(Kind.LINE, line.getBytes(StandardCharsets.ISO_8859_1), 0);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (reader != null) {
+                reader.close();
+                reader = null;
+            }
+        }
+    }
+
+    /**
+     * Sum, count and maximum of durations in milliseconds.
+     */
+    public static class Durations {
+        private long count;
+        private long sum;
+        private long max;
+
+        private void add(long millis) {
+            count++;
+            sum += millis;
+            max = Math.max(max, millis);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMeanMillis() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        public long getMaxMillis() {
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return count == 0 ? "-" : "mean " + getMeanMillis() + " ms, max " + max + " ms";
+        }
+    }
+
+    public static class Report {
+        private int files;
+        private long lines;
+        private long skippedLines;
+        private long virtualMillis;
+        private long realNanos;
+        private int hangs;
+        private int stalls;
+        private int degradations;
+        private int expected;
+        private int truePositives;
+        private int falsePositives;
+        private int missed;
+        private int kills;
+        private int restarts;
+        private int failedRestarts;
+        private int reboots;
+        private int refusedReboots;
+        private final Durations latency = new Durations();
+        private final Durations timeToDetect = new Durations();
+
+        public long getLines() {
+            return lines;
+        }
+
+        public long getSkippedLines() {
+            return skippedLines;
+        }
+
+        public long getVirtualMillis() {
+            return virtualMillis;
+        }
+
+        public int getHangs() {
+            return hangs;
+        }
+
+        public int getStalls() {
+            return stalls;
+        }
+
+        public int getDegradations() {
+            return degradations;
+        }
+
+        public int getDetections() {
+            return hangs + stalls + degradations;
+        }
+
+        public int getExpected() {
+            return expected;
+        }
+
+        public int getTruePositives() {
+            return truePositives;
+        }
+
+        public int getFalsePositives() {
+            return falsePositives;
+        }
+
+        public int getMissed() {
+            return missed;
+        }
+
+        public int getKills() {
+            return kills;
+        }
+
+        public int getRestarts() {
+            return restarts;
+        }
+
+        public int getFailedRestarts() {
+            return failedRestarts;
+        }
+
+        public int getReboots() {
+            return reboots;
+        }
+
+        /**
+         * @return reboots refused by the reboot limit, the miner was started again instead
+         */
+        public int getRefusedReboots() {
+            return refusedReboots;
+        }
+
+        /**
+         * @return time from the last log write to the detection of a hang
+         */
+        public Durations getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return time from an {@code @expect} marker to its detection
+         */
+        public Durations getTimeToDetect() {
+            return timeToDetect;
+        }
+
+        @Override
+        public String toString() {
+            long realMillis = TimeUnit.NANOSECONDS.toMillis(realNanos);
+            return "Replayed " + lines + " lines of " + files + " logs (" + skippedLines + " skipped after kills), " + virtualMillis / 1000 +
+                    " s in " + realMillis + " ms\n" +
+                    "Detections: " + hangs + " hangs, " + stalls + " stalls, " + degradations + " degradations\n" +
+                    "Detection latency: " + latency + "\n" +
+                    (expected == 0 ? "No @expect markers, false positives are unknown\n" : "Expected failures: " + expected + ", detected "
+                            + truePositives + ", missed " + missed + ", false positives " + falsePositives + ", time to detect " +
+                            timeToDetect + "\n") +
+                    "Actions: " + kills + " kills, " + restarts + " restarts (" + failedRestarts + " failed), " + reboots + " reboots, " +
+                    refusedReboots + " refused";
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.hesky.ewbfcudawatchdog;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * One failure rule over named phrases. The forms are
+ * <ul>
+ * <li>{@code A} - fires on A</li>
+ * <li>{@code A then B within 10s} - fires on B when A was seen at most 10 s before</li>
+ * <li>{@code 3 x A within 5m} - fires on the third A within 5 minutes</li>
+ * <li>{@code A without C within 2m} - fires when A is not followed by C within 2 minutes</li>
+ * <li>{@code temperature.gpu above 90 for 30s} - fires when a {@link Telemetry} value stays above 90 for 30 s</li>
+ * <li>{@code clocks.sm below 300 for 2m} - the same for a value below the threshold</li>
+ * <li>{@code temperature.gpu missing for 1m} - fires when a GPU reports no value for a minute</li>
+ * </ul>
+ * Rules are evaluated per GPU; {@code any device} at the end pools the phrases of all GPUs. Durations take the suffixes
+ * {@code ms}, {@code s}, {@code m} and {@code h}; a plain number is milliseconds.
+ */
+public class Rule {
+    public enum Kind {
+        SINGLE, SEQUENCE, RATE, ABSENCE, ABOVE, BELOW, MISSING
+    }
+
+    private final String name;
+    private final Kind kind;
+    private final String first;
+    private final String second;
+    private final int count;
+    private final long windowMillis;
+    private final boolean anyDevice;
+    private final double threshold;
+
+    public Rule(String name, Kind kind, String first, String second, int count, long windowMillis, boolean anyDevice) {
+        this(name, kind, first, second, count, windowMillis, anyDevice, Double.NaN);
+    }
+
+    public Rule(String name, Kind kind, String first, String second, int count, long windowMillis, boolean anyDevice, double
+            threshold) {
+        this.name = name;
+        this.kind = kind;
+        this.first = first;
+        this.second = second;
+        this.count = count;
+        this.windowMillis = windowMillis;
+        this.anyDevice = anyDevice;
+        this.threshold = threshold;
+    }
+
+    public static Rule parse(String name, String expression) {
+        List<String> tokens = Arrays.asList(expression.trim().split("\\s+"));
+        boolean anyDevice = false;
+        int size = tokens.size();
+        if (size >= 2 && tokens.get(size - 2).equalsIgnoreCase("any") && tokens.get(size - 1).equalsIgnoreCase("device")) {
+            anyDevice = true;
+            tokens = tokens.subList(0, size - 2);
+            size -= 2;
+        }
+        if (size == 1 && !tokens.get(0).isEmpty()) {
+            return new Rule(name, Kind.SINGLE, tokens.get(0), null, 1, 0, anyDevice);
+        }
+        if (size == 4 && tokens.get(1).equalsIgnoreCase("missing") && tokens.get(2).equalsIgnoreCase("for")) {
+            return new Rule(name, Kind.MISSING, tokens.get(0), null, 1, parseDuration(tokens.get(3)), false);
+        }
+        if (size == 5 && tokens.get(3).equalsIgnoreCase("for")) {
+            String operator = tokens.get(1).toLowerCase(Locale.ROOT);
+            if (operator.equals("above") || operator.equals("below")) {
+                double threshold;
+                try {
+                    threshold = Double.parseDouble(tokens.get(2));
+                }
+                catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Wrong threshold in rule " + name + ": " + expression);
+                }
+                return new Rule(name, operator.equals("above") ? Kind.ABOVE : Kind.BELOW, tokens.get(0), null, 1, parseDuration(tokens.get
+                        (4)), false, threshold);
+            }
+        }
+        if (size == 5 && tokens.get(3).equalsIgnoreCase("within")) {
+            String operator = tokens.get(1).toLowerCase(Locale.ROOT);
+            long window = parseDuration(tokens.get(4));
+            switch (operator) {
+                case "then":
+                    return new Rule(name, Kind.SEQUENCE, tokens.get(0), tokens.get(2), 1, window, anyDevice);
+                case "without":
+                    return new Rule(name, Kind.ABSENCE, tokens.get(0), tokens.get(2), 1, window, anyDevice);
+                case "x":
+                    int count;
+                    try {
+                        count = Integer.parseInt(tokens.get(0));
+                    }
+                    catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Wrong count in rule " + name + ": " + expression);
+                    }
+                    if (count < 1) {
+                        throw new IllegalArgumentException("Count must be positive in rule " + name + ": " + expression);
+                    }
+                    return new Rule(name, Kind.RATE, tokens.get(2), null, count, window, anyDevice);
+            }
+        }
+        throw new IllegalArgumentException("Wrong rule " + name + ": " + expression);
+    }
+
+    public static long parseDuration(String text) {
+        String value = text.trim().toLowerCase(Locale.ROOT);
+        long unit = 1;
+        if (value.endsWith("ms")) {
+            value = value.substring(0, value.length() - 2);
+        } else if (value.endsWith("s")) {
+            unit = 1000;
+            value = value.substring(0, value.length() - 1);
+        } else if (value.endsWith("m")) {
+            unit = 60_000;
+            value = value.substring(0, value.length() - 1);
+        } else if (value.endsWith("h")) {
+            unit = 3_600_000;
+            value = value.substring(0, value.length() - 1);
+        }
+        try {
+            return Long.parseLong(value) * unit;
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Wrong duration " + text);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return true for rules over {@link Telemetry} values instead of phrases
+     */
+    public boolean isTelemetry() {
+        return kind == Kind.ABOVE || kind == Kind.BELOW || kind == Kind.MISSING;
+    }
+
+    /**
+     * @return the triggering phrase (A) or the telemetry column
+     */
+    public String getFirst() {
+        return first;
+    }
+
+    /**
+     * @return the following phrase (B or C) or null
+     */
+    public String getSecond() {
+        return second;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public boolean isAnyDevice() {
+        return anyDevice;
+    }
+
+    /**
+     * @return the threshold of an above or below rule, NaN for other rules
+     */
+    public double getThreshold() {
+        return threshold;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
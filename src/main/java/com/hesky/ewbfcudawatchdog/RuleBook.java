@@ -0,0 +1,154 @@
+package com.hesky.ewbfcudawatchdog;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable set of {@link Rule}s with the phrase templates they use. A rules file holds {@code phrase.<name>=template} and
+ * {@code rule.<name>=expression} entries; a phrase not defined in the file is taken from the watchdog parameters, so the rules can
+ * refer to {@code notResponse}, {@code restartAttempt} and {@code threadExited46Error} directly. Telemetry rules name a column of
+ * the telemetry command instead of a phrase. Rules are applied in name order.
+ * Compiled matchers are cached per GPU count.
+ */
+public class RuleBook {
+    private final Map<String, String> phrases;
+    private final List<Rule> rules;
+    private final Map<Integer, Compiled> compiled = new ConcurrentHashMap<>();
+
+    public RuleBook(Map<String, String> phrases, List<Rule> rules) {
+        for (Rule rule : rules) {
+            if (rule.isTelemetry()) {
+                continue;
+            }
+            check(phrases, rule, rule.getFirst());
+            if (rule.getSecond() != null) {
+                check(phrases, rule, rule.getSecond());
+            }
+        }
+        this.phrases = Collections.unmodifiableMap(new LinkedHashMap<>(phrases));
+        this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+    }
+
+    private static void check(Map<String, String> phrases, Rule rule, String phrase) {
+        if (!phrases.containsKey(phrase)) {
+            throw new IllegalArgumentException("Phrase " + phrase + " of rule " + rule + " is not defined");
+        }
+    }
+
+    /**
+     * The built-in rules: a "not respond" line is a hang, and so is an exit code 46 on any GPU within {@code restartExitWindow} ms
+     * after a restart attempt.
+     */
+    public static RuleBook fromParams(Properties params) {
+        Map<String, String> phrases = new LinkedHashMap<>();
+        for (String key : new String[]{"notResponse", "restartAttempt", "threadExited46Error"}) {
+            String template = params.getProperty(key);
+            if (template == null) {
+                throw new IllegalArgumentException("Property " + key + " is not set");
+            }
+            phrases.put(key, template);
+        }
+        List<Rule> rules = new ArrayList<>();
+        rules.add(Rule.parse("notResponse", "notResponse"));
+        rules.add(Rule.parse("restartThenExit46", "restartAttempt then threadExited46Error within " + params.getProperty
+                ("restartExitWindow", "60000") + " any device"));
+        return new RuleBook(phrases, rules);
+    }
+
+    public static RuleBook load(Path file, Properties params) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+        Map<String, String> phrases = new LinkedHashMap<>();
+        List<Rule> rules = new ArrayList<>();
+        for (String key : new TreeSet<>(properties.stringPropertyNames())) {
+            if (key.startsWith("rule.")) {
+                rules.add(Rule.parse(key.substring("rule.".length()), properties.getProperty(key)));
+            } else if (key.startsWith("phrase.")) {
+                phrases.put(key.substring("phrase.".length()), properties.getProperty(key));
+            }
+        }
+        if (rules.isEmpty()) {
+            throw new IllegalArgumentException("No rules in " + file);
+        }
+        for (Rule rule : rules) {
+            if (rule.isTelemetry()) {
+                continue;
+            }
+            for (String phrase : new String[]{rule.getFirst(), rule.getSecond()}) {
+                if (phrase != null && !phrases.containsKey(phrase) && params.getProperty(phrase) != null) {
+                    phrases.put(phrase, params.getProperty(phrase));
+                }
+            }
+        }
+        return new RuleBook(phrases, rules);
+    }
+
+    public List<Rule> getRules() {
+        return rules;
+    }
+
+    public Compiled compile(int gpuCount) {
+        return compiled.computeIfAbsent(gpuCount, count -> new Compiled(this, count));
+    }
+
+    /**
+     * Phrases expanded for every GPU and compiled into one {@link PhraseMatcher}, with the rule phrases as indexes into
+     * {@code phraseNames}.
+     */
+    public static class Compiled {
+        final int gpuCount;
+        final String[] phraseNames;
+        final PhraseMatcher matcher;
+        final int[] phraseOf;
+        final int[] deviceOf;
+        final Rule[] rules;
+        final int[] firstPhrase;
+        final int[] secondPhrase;
+
+        private Compiled(RuleBook book, int gpuCount) {
+            this.gpuCount = gpuCount;
+            List<String> names = new ArrayList<>(book.phrases.keySet());
+            phraseNames = names.toArray(new String[0]);
+            List<String> expanded = new ArrayList<>();
+            List<int[]> origins = new ArrayList<>();
+            for (int phrase = 0; phrase < names.size(); phrase++) {
+                String template = book.phrases.get(names.get(phrase));
+                if (template.contains(HangDetector.DEVICE_PLACEHOLDER)) {
+                    for (int device = 0; device < gpuCount; device++) {
+                        expanded.add(template.replace(HangDetector.DEVICE_PLACEHOLDER, Integer.toString(device)));
+                        origins.add(new int[]{phrase, device});
+                    }
+                } else {
+                    expanded.add(template);
+                    origins.add(new int[]{phrase, -1});
+                }
+            }
+            matcher = new PhraseMatcher(expanded);
+            phraseOf = new int[expanded.size()];
+            deviceOf = new int[expanded.size()];
+            for (int id = 0; id < expanded.size(); id++) {
+                phraseOf[id] = origins.get(id)[0];
+                deviceOf[id] = origins.get(id)[1];
+            }
+            rules = book.rules.toArray(new Rule[0]);
+            firstPhrase = new int[rules.length];
+            secondPhrase = new int[rules.length];
+            for (int i = 0; i < rules.length; i++) {
+                firstPhrase[i] = rules[i].isTelemetry() ? -1 : names.indexOf(rules[i].getFirst());
+                secondPhrase[i] = rules[i].getSecond() == null ? -1 : names.indexOf(rules[i].getSecond());
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.hesky.ewbfcudawatchdog;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Holds the current {@link RuleBook}. {@link #reloadIfChanged()} reads the rules file when its modification time or size has
+ * changed, compiles the new book for every GPU count in use and only then swaps it in, so detectors never wait for a reload. A
+ * broken file is reported and the previous rules stay active; without a rules file the built-in rules from the parameters are
+ * used.
+ */
+public class RuleRepository implements Supplier<RuleBook> {
+    private static final Logger LOG = getLogger(RuleRepository.class);
+
+    private final Path file;
+    private final Properties params;
+    private final Set<Integer> gpuCounts = ConcurrentHashMap.newKeySet();
+    private volatile RuleBook current;
+    private FileTime lastModified;
+    private long lastSize = -1;
+
+    public RuleRepository(Path file, Properties params) {
+        this.file = file;
+        this.params = params;
+        this.current = RuleBook.fromParams(params);
+        reloadIfChanged();
+    }
+
+    @Override
+    public RuleBook get() {
+        return current;
+    }
+
+    /**
+     * Compiles the rules for this GPU count now and on every reload.
+     */
+    public void register(int gpuCount) {
+        gpuCounts.add(gpuCount);
+        current.compile(gpuCount);
+    }
+
+    /**
+     * @return true when new rules were swapped in
+     */
+    public synchronized boolean reloadIfChanged() {
+        if (file == null) {
+            return false;
+        }
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        }
+        catch (NoSuchFileException e) {
+            if (lastModified != null) {
+                LOG.warn("Rules file {} was removed, built-in rules are used", file);
+                lastModified = null;
+                lastSize = -1;
+                swap(RuleBook.fromParams(params));
+                return true;
+            }
+            return false;
+        }
+        catch (IOException e) {
+            LOG.warn("Rules file " + file + " cannot be read", e);
+            return false;
+        }
+        if (attributes.lastModifiedTime().equals(lastModified) && attributes.size() == lastSize) {
+            return false;
+        }
+        lastModified = attributes.lastModifiedTime();
+        lastSize = attributes.size();
+        try {
+            swap(RuleBook.load(file, params));
+            LOG.info("Rules are loaded from {}: {}", file, current.getRules());
+            return true;
+        }
+        catch (IOException | IllegalArgumentException e) {
+            LOG.warn("Rules file " + file + " is wrong, previous rules are kept", e);
+            return false;
+        }
+    }
+
+    private void swap(RuleBook book) {
+        for (Integer gpuCount : gpuCounts) {
+            book.compile(gpuCount);
+        }
+        current = book;
+    }
+}
@@ -0,0 +1,92 @@
+package com.hesky.ewbfcudawatchdog;
+
+/**
+ * Fixed-size ring of timestamped samples in primitive arrays. When it is full the oldest sample is overwritten.
+ */
+public class SampleRing {
+    private final long[] times;
+    private final double[] values;
+    private int next;
+    private int size;
+
+    public SampleRing(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        times = new long[capacity];
+        values = new double[capacity];
+    }
+
+    public void add(long time, double value) {
+        times[next] = time;
+        values[next] = value;
+        next = (next + 1) % times.length;
+        if (size < times.length) {
+            size++;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return times.length;
+    }
+
+    private int index(int age) {
+        if (age < 0 || age >= size) {
+            throw new IndexOutOfBoundsException("Age " + age + " of " + size + " samples");
+        }
+        int index = next - 1 - age;
+        return index < 0 ? index + times.length : index;
+    }
+
+    /**
+     * @param age 0 for the newest sample
+     */
+    public long timeAt(int age) {
+        return times[index(age)];
+    }
+
+    public double valueAt(int age) {
+        return values[index(age)];
+    }
+
+    /**
+     * @return true when there are samples since {@code from}, all of them are below the threshold and the ring still holds a sample
+     * from before {@code from}, so the whole window is known
+     */
+    public boolean allBelowSince(long from, double threshold) {
+        int inWindow = 0;
+        for (int age = 0; age < size; age++) {
+            int index = index(age);
+            if (times[index] < from) {
+                return inWindow > 0;
+            }
+            if (values[index] >= threshold) {
+                return false;
+            }
+            inWindow++;
+        }
+        return false;
+    }
+
+    /**
+     * @return mean of the samples since {@code from} or NaN when there are none
+     */
+    public double averageSince(long from) {
+        double sum = 0;
+        int count = 0;
+        for (int age = 0; age < size && times[index(age)] >= from; age++) {
+            sum += values[index(age)];
+            count++;
+        }
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    public void clear() {
+        next = 0;
+        size = 0;
+    }
+}
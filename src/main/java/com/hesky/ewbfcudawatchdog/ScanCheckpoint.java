@@ -0,0 +1,115 @@
+package com.hesky.ewbfcudawatchdog;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Where the scan of a log stopped: the offset after the last complete line, the identity of the file (file key or creation time
+ * and a CRC32 of its first bytes) and the state of the failure rules at that point. Written like the stats file, one
+ * {@code key=value} per line and replaced atomically:
+ * <pre>
+ * offset=73400320
+ * fileKey=(dev=803,ino=1442)
+ * creationTime=1504866780000
+ * headLength=64
+ * headCrc=2899744328
+ * rule.restartThenExit46=SEQUENCE;0,0,0;-,-,1504870380000
+ * </pre>
+ * {@link LogTailer#resume(ScanCheckpoint)} continues from it only when the identity still matches.
+ */
+public class ScanCheckpoint {
+    private static final String RULE_PREFIX = "rule.";
+
+    private final long offset;
+    private final String fileKey;
+    private final long creationTimeMillis;
+    private final int headLength;
+    private final long headCrc;
+    private final Map<String, String> ruleState;
+
+    /**
+     * @param fileKey file key as text or null where the file system has none
+     */
+    public ScanCheckpoint(long offset, String fileKey, long creationTimeMillis, int headLength, long headCrc, Map<String, String>
+            ruleState) {
+        this.offset = offset;
+        this.fileKey = fileKey;
+        this.creationTimeMillis = creationTimeMillis;
+        this.headLength = headLength;
+        this.headCrc = headCrc;
+        this.ruleState = Collections.unmodifiableMap(new LinkedHashMap<>(ruleState));
+    }
+
+    public ScanCheckpoint withRuleState(Map<String, String> state) {
+        return new ScanCheckpoint(offset, fileKey, creationTimeMillis, headLength, headCrc, state);
+    }
+
+    /**
+     * @return the checkpoint or null when there is none or it is broken
+     */
+    public static ScanCheckpoint read(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        Map<String, String> values = Main.readStats(file);
+        Map<String, String> ruleState = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            if (entry.getKey().startsWith(RULE_PREFIX)) {
+                ruleState.put(entry.getKey().substring(RULE_PREFIX.length()), entry.getValue());
+            }
+        }
+        try {
+            return new ScanCheckpoint(Long.parseLong(values.get("offset")), values.get("fileKey"), Long.parseLong(values.get
+                    ("creationTime")), Integer.parseInt(values.get("headLength")), Long.parseLong(values.get("headCrc")), ruleState);
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public void write(Path file) throws IOException {
+        Map<String, String> values = new LinkedHashMap<>();
+        values.put("offset", Long.toString(offset));
+        if (fileKey != null) {
+            values.put("fileKey", fileKey);
+        }
+        values.put("creationTime", Long.toString(creationTimeMillis));
+        values.put("headLength", Integer.toString(headLength));
+        values.put("headCrc", Long.toString(headCrc));
+        for (Map.Entry<String, String> entry : ruleState.entrySet()) {
+            values.put(RULE_PREFIX + entry.getKey(), entry.getValue());
+        }
+        Main.writeStats(file, values);
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public String getFileKey() {
+        return fileKey;
+    }
+
+    public long getCreationTimeMillis() {
+        return creationTimeMillis;
+    }
+
+    public int getHeadLength() {
+        return headLength;
+    }
+
+    public long getHeadCrc() {
+        return headCrc;
+    }
+
+    /**
+     * @return rule state by rule name, see {@link HangDetector#saveState()}
+     */
+    public Map<String, String> getRuleState() {
+        return ruleState;
+    }
+}
@@ -0,0 +1,242 @@
+package com.hesky.ewbfcudawatchdog;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sidecar index of one rotated log: the time range it covers, the GPUs it mentions and the line of every failure phrase. The
+ * index is a small text file next to the segment, {@code <name>.idx}:
+ * <pre>
+ * start=1504866780000
+ * end=1504870380000
+ * lines=18211
+ * phrases=notResponse,restartAttempt,threadExited46Error
+ * devices=0,3
+ * 1204|1|3
+ * </pre>
+ * with one {@code line|phrase|device} entry per match; the device is -1 for phrases without a GPU. Lines are counted the way
+ * {@link LineSplitter} splits them, starting from 1.
+ */
+public class SegmentIndex {
+    private static final String SUFFIX = ".idx";
+
+    private final long startMillis;
+    private final long endMillis;
+    private final int lineCount;
+    private final List<String> phrases;
+    private final int[] lines;
+    private final int[] phraseIds;
+    private final int[] devices;
+
+    public SegmentIndex(long startMillis, long endMillis, int lineCount, List<String> phrases, int[] lines, int[] phraseIds, int[]
+            devices) {
+        this.startMillis = startMillis;
+        this.endMillis = endMillis;
+        this.lineCount = lineCount;
+        this.phrases = Collections.unmodifiableList(phrases);
+        this.lines = lines;
+        this.phraseIds = phraseIds;
+        this.devices = devices;
+    }
+
+    /**
+     * @return the index file of a {@code .txt} or {@code .txt.gz} segment
+     */
+    public static Path sidecar(Path segment) {
+        String name = segment.getFileName().toString();
+        if (name.endsWith(".gz")) {
+            name = name.substring(0, name.length() - ".gz".length());
+        }
+        if (name.endsWith(".txt")) {
+            name = name.substring(0, name.length() - ".txt".length());
+        }
+        return segment.resolveSibling(name + SUFFIX);
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public long getEndMillis() {
+        return endMillis;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public boolean overlaps(long fromMillis, long toMillis) {
+        return endMillis >= fromMillis && startMillis <= toMillis;
+    }
+
+    public int getMatchCount() {
+        return lines.length;
+    }
+
+    public int getLine(int match) {
+        return lines[match];
+    }
+
+    public String getPhrase(int match) {
+        return phrases.get(phraseIds[match]);
+    }
+
+    public int getDevice(int match) {
+        return devices[match];
+    }
+
+    /**
+     * @param device GPU index or -1 for any
+     * @param phrase phrase name or null for any
+     */
+    public boolean matches(int match, int device, String phrase) {
+        return (device < 0 || devices[match] == device) && (phrase == null || phrase.equals(phrases.get(phraseIds[match])));
+    }
+
+    public int count(int device, String phrase) {
+        int count = 0;
+        for (int match = 0; match < lines.length; match++) {
+            if (matches(match, device, phrase)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return distinct GPUs with at least one match
+     */
+    public int[] getDevices() {
+        return Arrays.stream(devices).filter(device -> device >= 0).distinct().sorted().toArray();
+    }
+
+    public void write(Path file) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            writer.write("start=" + startMillis + "\nend=" + endMillis + "\nlines=" + lineCount + "\nphrases=" + String.join(",",
+                    phrases) + "\ndevices=");
+            int[] seen = getDevices();
+            for (int i = 0; i < seen.length; i++) {
+                writer.write((i > 0 ? "," : "") + seen[i]);
+            }
+            writer.write('\n');
+            for (int match = 0; match < lines.length; match++) {
+                writer.write(lines[match] + "|" + phraseIds[match] + "|" + devices[match] + "\n");
+            }
+        }
+        try {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public static SegmentIndex read(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            long start = Long.parseLong(header(reader, "start"));
+            long end = Long.parseLong(header(reader, "end"));
+            int lineCount = Integer.parseInt(header(reader, "lines"));
+            String phrases = header(reader, "phrases");
+            header(reader, "devices");
+            Builder builder = new Builder(phrases.isEmpty() ? new String[0] : phrases.split(","));
+            for (String line; (line = reader.readLine()) != null; ) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] parts = line.split("\\|");
+                if (parts.length != 3) {
+                    throw new IOException("Wrong entry '" + line + "' in " + file);
+                }
+                builder.add(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+            }
+            builder.lineCount = lineCount;
+            return builder.build(start, end);
+        }
+        catch (NumberFormatException e) {
+            throw new IOException("Wrong index " + file, e);
+        }
+    }
+
+    private static String header(BufferedReader reader, String key) throws IOException {
+        String line = reader.readLine();
+        if (line == null || !line.startsWith(key + "=")) {
+            throw new IOException("Index has no " + key + " but '" + line + "'");
+        }
+        return line.substring(key.length() + 1);
+    }
+
+    @Override
+    public String toString() {
+        return "SegmentIndex{lines=" + lineCount + ", matches=" + lines.length + ", devices=" + Arrays.toString(getDevices()) + "}";
+    }
+
+    /**
+     * Collects the matches of a segment while its lines are passed through.
+     */
+    public static class Builder implements LineHandler, PhraseMatcher.Listener {
+        private final RuleBook.Compiled rules;
+        private final String[] phrases;
+        private int lineCount;
+        private int count;
+        private int[] lines = new int[16];
+        private int[] phraseIds = new int[16];
+        private int[] devices = new int[16];
+
+        public Builder(RuleBook.Compiled rules) {
+            this.rules = rules;
+            this.phrases = rules.phraseNames;
+        }
+
+        private Builder(String[] phrases) {
+            this.rules = null;
+            this.phrases = phrases;
+        }
+
+        @Override
+        public void onLine(byte[] bytes, int offset, int length) {
+            lineCount++;
+            rules.matcher.scan(bytes, offset, length, this);
+        }
+
+        @Override
+        public void onMatch(int phraseId) {
+            add(lineCount, rules.phraseOf[phraseId], rules.deviceOf[phraseId]);
+        }
+
+        private void add(int line, int phrase, int device) {
+            if (count > 0 && lines[count - 1] == line && phraseIds[count - 1] == phrase && devices[count - 1] == device) {
+                return;
+            }
+            if (count == lines.length) {
+                lines = Arrays.copyOf(lines, count * 2);
+                phraseIds = Arrays.copyOf(phraseIds, count * 2);
+                devices = Arrays.copyOf(devices, count * 2);
+            }
+            lines[count] = line;
+            phraseIds[count] = phrase;
+            devices[count] = device;
+            count++;
+        }
+
+        @Override
+        public void reset() {
+            lineCount = 0;
+            count = 0;
+        }
+
+        public SegmentIndex build(long startMillis, long endMillis) {
+            return new SegmentIndex(startMillis, endMillis, lineCount, Arrays.asList(phrases.clone()), Arrays.copyOf(lines, count),
+                    Arrays.copyOf(phraseIds, count), Arrays.copyOf(devices, count));
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.hesky.ewbfcudawatchdog;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Shutdown counters and uptime of the watchdog. Counters live in {@link LongAdder}s. Every recovery action started for a failure is
+ * appended as one short line to the incident journal ({@code incidents.txt} next to the stats file) and forced to disk before the
+ * action runs; the journal is never rewritten and is the full incident history. Its reboots are the shutdowns. {@code stats.txt} is a snapshot that is replaced atomically and
+ * records how many journal entries it already contains, so entries written after the last snapshot are replayed on load and a crash
+ * at any moment leaves a valid state behind.
+ * <p>
+ * The snapshot also keeps, per recovery action, how often it was tried, how often the miner was hashing again afterwards and
+ * how long that took, plus the time of a requested reboot until the watchdog has seen a miner recover from it.
+ */
+public class StatsStore {
+    private static final Logger LOG = getLogger(StatsStore.class);
+    private static final DateTimeFormatter SHUTDOWN_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    private final Path statsFilePath;
+    private final Path journalPath;
+    private final LongAdder todayShutdowns = new LongAdder();
+    private final LongAdder totalShutdowns = new LongAdder();
+    private final LongAdder totalTimeMillis = new LongAdder();
+    private final LongAdder journaledIncidents = new LongAdder();
+    private volatile LocalDate todayDate;
+    private volatile String lastShutdownDateTime = "";
+    private final Map<String, RecoveryStats> recoveries = new ConcurrentHashMap<>();
+    private volatile long pendingRebootMillis;
+
+    public StatsStore(Path statsFilePath) {
+        this.statsFilePath = statsFilePath;
+        this.journalPath = statsFilePath.toAbsolutePath().resolveSibling("incidents.txt");
+    }
+
+    public Path getJournalPath() {
+        return journalPath;
+    }
+
+    /**
+     * @return the {@link Availability} file, next to the stats file
+     */
+    public Path getAvailabilityPath() {
+        return statsFilePath.toAbsolutePath().resolveSibling("availability.bin");
+    }
+
+    /**
+     * @return the {@link ScanCheckpoint} file of a miner, next to the stats file
+     */
+    public Path getCheckpointPath(String miner) {
+        return statsFilePath.toAbsolutePath().resolveSibling("checkpoint-" + miner.replaceAll("[^A-Za-z0-9_.-]", "_") + ".txt");
+    }
+
+    public synchronized void load() throws IOException {
+        Map<String, String> stats = Files.exists(statsFilePath) ? Main.readStats(statsFilePath) : new LinkedHashMap<>();
+        todayShutdowns.reset();
+        todayShutdowns.add(parseLong(stats.get("todayShutdowns")));
+        totalShutdowns.reset();
+        totalShutdowns.add(parseLong(stats.get("totalShutdowns")));
+        totalTimeMillis.reset();
+        totalTimeMillis.add(stats.containsKey("totalTime") ? Duration.parse(stats.get("totalTime")).toMillis() : 0);
+        todayDate = stats.containsKey("todayDate") ? LocalDate.parse(stats.get("todayDate")) : LocalDate.now();
+        lastShutdownDateTime = stats.getOrDefault("lastShutdownDateTime", "");
+        pendingRebootMillis = parseLong(stats.get("pendingReboot"));
+        recoveries.clear();
+        for (Map.Entry<String, String> stat : stats.entrySet()) {
+            String[] key = stat.getKey().split("\\.");
+            if (key.length == 3 && key[0].equals("recovery")) {
+                RecoveryStats recovery = getRecoveryStats(key[1]);
+                long value = parseLong(stat.getValue());
+                switch (key[2]) {
+                    case "attempts":
+                        recovery.attempts.add(value);
+                        break;
+                    case "successes":
+                        recovery.successes.add(value);
+                        break;
+                    case "millis":
+                        recovery.millis.add(value);
+                        break;
+                    default:
+                        LOG.warn("Unknown stat {}", stat.getKey());
+                }
+            }
+        }
+        long snapshotIncidents = parseLong(stats.get("journaledIncidents"));
+        journaledIncidents.reset();
+        List<Incident> history = readHistory();
+        for (Incident incident : history) {
+            journaledIncidents.increment();
+            if (journaledIncidents.sum() > snapshotIncidents) {
+                LOG.info("Replaying incident {} written after the last stats snapshot", incident);
+                count(incident);
+            }
+        }
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        }
+        catch (NumberFormatException e) {
+            LOG.warn("Wrong counter value {} in stats", value);
+            return 0;
+        }
+    }
+
+    private void count(Incident incident) {
+        if (!incident.isReboot()) {
+            return;
+        }
+        totalShutdowns.increment();
+        LocalDate date = incident.getTime().toLocalDate();
+        if (date.equals(todayDate)) {
+            todayShutdowns.increment();
+        } else if (todayDate == null || date.isAfter(todayDate)) {
+            todayDate = date;
+            todayShutdowns.reset();
+            todayShutdowns.increment();
+        }
+        lastShutdownDateTime = incident.getTime().format(SHUTDOWN_FORMAT);
+    }
+
+    /**
+     * Appends the incident to the journal, forces it to disk and counts it when it is a reboot.
+     */
+    public synchronized void recordIncident(Incident incident) throws IOException {
+        try (FileChannel journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption
+                .WRITE)) {
+            String record = incident.format() + "\n";
+            long end = journal.size();
+            if (end > 0 && !endsWithNewLine(journal)) {
+                record = "\n" + record;
+            }
+            ByteBuffer bytes = ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) {
+                end += journal.write(bytes, end);
+            }
+            journal.force(false);
+        }
+        journaledIncidents.increment();
+        count(incident);
+    }
+
+    private static boolean endsWithNewLine(FileChannel journal) throws IOException {
+        ByteBuffer last = ByteBuffer.allocate(1);
+        journal.read(last, journal.size() - 1);
+        return last.get(0) == '\n';
+    }
+
+    /**
+     * @return every incident in the journal, incomplete records are skipped
+     */
+    public List<Incident> readHistory() throws IOException {
+        List<Incident> history = new ArrayList<>();
+        if (!Files.exists(journalPath)) {
+            return history;
+        }
+        for (String line : Files.readAllLines(journalPath, StandardCharsets.UTF_8)) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            Incident incident = Incident.parse(line);
+            if (incident == null) {
+                LOG.warn("Skipping incomplete incident record '{}'", line);
+            } else {
+                history.add(incident);
+            }
+        }
+        return history;
+    }
+
+    /**
+     * @return number of journaled reboots at or after the time
+     */
+    public int countRebootsSince(LocalDateTime time) throws IOException {
+        int count = 0;
+        for (Incident incident : readHistory()) {
+            if (incident.isReboot() && !incident.getTime().isBefore(time)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public void recordRecoveryAttempt(String action) {
+        getRecoveryStats(action).attempts.increment();
+    }
+
+    /**
+     * @param millis time from the detection until the miner was hashing again
+     */
+    public void recordRecoverySuccess(String action, long millis) {
+        RecoveryStats recovery = getRecoveryStats(action);
+        recovery.successes.increment();
+        recovery.millis.add(millis);
+    }
+
+    public RecoveryStats getRecoveryStats(String action) {
+        return recoveries.computeIfAbsent(action, key -> new RecoveryStats());
+    }
+
+    /**
+     * @return time of the reboot requested by the previous run, 0 when a miner has recovered from it or there was none
+     */
+    public long getPendingRebootMillis() {
+        return pendingRebootMillis;
+    }
+
+    public void setPendingRebootMillis(long pendingRebootMillis) {
+        this.pendingRebootMillis = pendingRebootMillis;
+    }
+
+    public void addTime(Duration duration) {
+        totalTimeMillis.add(duration.toMillis());
+    }
+
+    /**
+     * Resets today's counter when the date has changed.
+     */
+    public synchronized void rollDay(LocalDate today) {
+        if (!today.equals(todayDate)) {
+            todayDate = today;
+            todayShutdowns.reset();
+        }
+    }
+
+    /**
+     * Writes the snapshot. The previous snapshot stays valid until the new one replaces it.
+     */
+    public synchronized void persist() throws IOException {
+        Map<String, String> stats = new LinkedHashMap<>();
+        stats.put("todayShutdowns", Long.toString(todayShutdowns.sum()));
+        stats.put("totalShutdowns", Long.toString(totalShutdowns.sum()));
+        stats.put("totalTime", getTotalTime().toString());
+        stats.put("lastShutdownDateTime", lastShutdownDateTime);
+        stats.put("todayDate", todayDate.toString());
+        stats.put("journaledIncidents", Long.toString(journaledIncidents.sum()));
+        stats.put("pendingReboot", Long.toString(pendingRebootMillis));
+        for (Map.Entry<String, RecoveryStats> recovery : recoveries.entrySet()) {
+            String prefix = "recovery." + recovery.getKey() + ".";
+            stats.put(prefix + "attempts", Long.toString(recovery.getValue().getAttempts()));
+            stats.put(prefix + "successes", Long.toString(recovery.getValue().getSuccesses()));
+            stats.put(prefix + "millis", Long.toString(recovery.getValue().millis.sum()));
+        }
+        Main.writeStats(statsFilePath, stats);
+    }
+
+    public long getTodayShutdowns() {
+        return todayShutdowns.sum();
+    }
+
+    public long getTotalShutdowns() {
+        return totalShutdowns.sum();
+    }
+
+    public Duration getTotalTime() {
+        return Duration.ofMillis(totalTimeMillis.sum());
+    }
+
+    public String getLastShutdownDateTime() {
+        return lastShutdownDateTime;
+    }
+
+    public LocalDate getTodayDate() {
+        return todayDate;
+    }
+
+    /**
+     * Outcomes of one recovery action.
+     */
+    public static class RecoveryStats {
+        private final LongAdder attempts = new LongAdder();
+        private final LongAdder successes = new LongAdder();
+        private final LongAdder millis = new LongAdder();
+
+        public long getAttempts() {
+            return attempts.sum();
+        }
+
+        public long getSuccesses() {
+            return successes.sum();
+        }
+
+        /**
+         * @return mean time from the detection until hashing again over the successes, 0 without successes
+         */
+        public long getMeanMillis() {
+            long count = successes.sum();
+            return count == 0 ? 0 : millis.sum() / count;
+        }
+
+        @Override
+        public String toString() {
+            return getSuccesses() + "/" + getAttempts() + " in " + getMeanMillis() + " ms";
+        }
+    }
+}
@@ -0,0 +1,739 @@
+package com.hesky.ewbfcudawatchdog;
+
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * A local stratum proxy for one miner: the miner connects to {@code stratumProxyHost:<port>} instead of the pool and every
+ * connection is relayed line by line to the active pool of {@code stratumPools}. All miner and pool connections are served by one
+ * selector thread.
+ * <p>
+ * On the way through, submits and their answers are matched by id, so share latency, accepted, rejected and stale shares and the
+ * gaps between jobs are known per worker without reading the miner log. When a pool closes the connection, cannot be connected
+ * within {@code stratumConnectTimeout} or sends no job for {@code stratumJobTimeout}, the next pool becomes active and the
+ * connection is moved to it: the login requests of the miner are replayed and their answers swallowed, so the miner keeps its
+ * connection and is not restarted. Shares only count with the extranonce of the pool, so when the new pool answers the replayed
+ * {@code mining.subscribe} with another one, a miner that sent {@code mining.extranonce.subscribe} gets a
+ * {@code mining.set_extranonce}, and any other miner is disconnected so it reconnects and subscribes again. New connections use the
+ * active pool; there is no switching back.
+ * <p>
+ * {@link #getDegradation()} reports a miner whose last {@code stratumShareWindow} shares were rejected or stale more often than
+ * {@code stratumMaxRejectRate}; switching pools does not help there.
+ */
+public class StratumProxy implements Runnable, Closeable {
+    private static final Logger LOG = getLogger(StratumProxy.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_PENDING_BYTES = 1024 * 1024;
+    private static final int MAX_LOGIN_LINES = 8;
+    private static final long TICK_MILLIS = 100;
+    private static final long RETRY_DELAY_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final byte ACCEPTED = 0;
+    private static final byte REJECTED = 1;
+    private static final byte STALE = 2;
+    private static final Set<String> LOGIN_METHODS = new HashSet<>(Arrays.asList("mining.subscribe", "mining.authorize",
+            "mining.extranonce.subscribe", "eth_submitLogin", "eth_login", "login"));
+    private static final Set<String> WORKER_METHODS = new HashSet<>(Arrays.asList("mining.authorize", "eth_submitLogin", "eth_login",
+            "login"));
+    private static final Set<String> SUBMIT_METHODS = new HashSet<>(Arrays.asList("mining.submit", "eth_submitWork", "submit"));
+    private static final String SUBSCRIBE = "mining.subscribe";
+    private static final String EXTRANONCE_SUBSCRIBE = "mining.extranonce.subscribe";
+    private static final Set<String> JOB_METHODS = new HashSet<>(Arrays.asList("mining.notify", "job"));
+    private static final Pattern STALE_ERROR = Pattern.compile("^\\[\\s*21\\b|\"code\"\\s*:\\s*21\\b|stale", Pattern.CASE_INSENSITIVE);
+
+    private final String miner;
+    private final List<InetSocketAddress> pools;
+    private final long connectTimeoutNanos;
+    private final long jobTimeoutNanos;
+    private final double maxRejectRate;
+    private final byte[] results;
+    private final Metrics metrics;
+    private final Metrics.Counter failovers;
+    private final Map<String, Worker> workers = new ConcurrentHashMap<>();
+    private final List<Session> sessions = new ArrayList<>();
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final Thread thread;
+    private long resultCount;
+    private volatile int activePool;
+    private volatile int connections;
+    private volatile boolean closed;
+
+    /**
+     * Share counters and timings of one worker name, as sent by the miner in its login.
+     */
+    private class Worker {
+        private final Metrics.Counter accepted;
+        private final Metrics.Counter rejected;
+        private final Metrics.Counter stale;
+        private final Metrics.Histogram latency;
+        private final Metrics.Histogram jobGap;
+
+        private Worker(String name) {
+            String labels = Metrics.label("miner", miner) + "," + Metrics.label("worker", name);
+            String help = "Shares answered by the pool.";
+            accepted = metrics.counter("watchdog_stratum_shares_total", help, labels + "," + Metrics.label("result", "accepted"));
+            rejected = metrics.counter("watchdog_stratum_shares_total", help, labels + "," + Metrics.label("result", "rejected"));
+            stale = metrics.counter("watchdog_stratum_shares_total", help, labels + "," + Metrics.label("result", "stale"));
+            latency = metrics.histogram("watchdog_stratum_share_latency_seconds", "Time from a submit until the pool answers it.",
+                    labels, Metrics.NANOS, Metrics.DURATION_BUCKETS);
+            jobGap = metrics.histogram("watchdog_stratum_job_gap_seconds", "Time between two jobs sent by the pool.", labels, Metrics
+                    .NANOS, Metrics.DURATION_BUCKETS);
+        }
+    }
+
+    /**
+     * One miner connection and its connection to the pool.
+     */
+    private class Session {
+        private final SocketChannel client;
+        private ByteBuffer toClient = ByteBuffer.allocate(BUFFER_SIZE);
+        private ByteBuffer toPool = ByteBuffer.allocate(BUFFER_SIZE);
+        private final LineSplitter clientLines = new LineSplitter(new LineHandler() {
+            @Override
+            public void onLine(byte[] bytes, int offset, int length) {
+                onClientLine(Session.this, bytes, offset, length);
+            }
+
+            @Override
+            public void reset() {
+            }
+        });
+        private final LineSplitter poolLines = new LineSplitter(new LineHandler() {
+            @Override
+            public void onLine(byte[] bytes, int offset, int length) {
+                onPoolLine(Session.this, bytes, offset, length);
+            }
+
+            @Override
+            public void reset() {
+            }
+        });
+        private final List<byte[]> logins = new ArrayList<>();
+        private final Set<String> replayedIds = new HashSet<>();
+        private final Map<String, Long> submits = new HashMap<>();
+        private Worker worker = worker("unknown");
+        private String subscribeId;
+        private boolean extranonceSubscribed;
+        private String extranonce;
+        private SocketChannel upstream;
+        private int pool;
+        private int failures;
+        private long connectDeadlineNanos;
+        private long reconnectNanos;
+        private long lastJobNanos;
+
+        private Session(SocketChannel client) {
+            this.client = client;
+        }
+    }
+
+    /**
+     * @param address where miners connect
+     * @param pools   the pool and its backups, in order
+     */
+    public StratumProxy(String miner, InetSocketAddress address, List<InetSocketAddress> pools, Properties params, Metrics metrics)
+            throws IOException {
+        if (pools.isEmpty()) {
+            throw new IllegalArgumentException("No pools for the stratum proxy of miner " + miner);
+        }
+        this.miner = miner;
+        this.pools = Collections.unmodifiableList(new ArrayList<>(pools));
+        this.connectTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(params.getProperty("stratumConnectTimeout", "3000")));
+        this.jobTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(params.getProperty("stratumJobTimeout", "0")));
+        this.maxRejectRate = Double.parseDouble(params.getProperty("stratumMaxRejectRate", "0"));
+        this.results = new byte[Integer.parseInt(params.getProperty("stratumShareWindow", "20"))];
+        this.metrics = metrics == null ? new Metrics() : metrics;
+        String label = Metrics.label("miner", miner);
+        failovers = this.metrics.counter("watchdog_stratum_failovers_total", "Switches of the stratum proxy to the next pool.", label);
+        this.metrics.gauge("watchdog_stratum_connections", "Miner connections to the stratum proxy.", label, () -> connections);
+        this.metrics.gauge("watchdog_stratum_active_pool", "Position of the active pool in stratumPools.", label, () -> activePool);
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        try {
+            server.bind(address);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        }
+        catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+        thread = new Thread(this, "stratum-proxy-" + miner);
+        thread.setDaemon(true);
+    }
+
+    /**
+     * @return {@code host:port} addresses separated by commas
+     */
+    public static List<InetSocketAddress> parsePools(String pools) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String pool : pools.trim().split("\\s*,\\s*")) {
+            int colon = pool.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Wrong pool address " + pool + ", host:port expected");
+            }
+            addresses.add(new InetSocketAddress(pool.substring(0, colon), Integer.parseInt(pool.substring(colon + 1))));
+        }
+        return addresses;
+    }
+
+    public StratumProxy start() {
+        thread.start();
+        return this;
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    public int getActivePool() {
+        return activePool;
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    public long getFailovers() {
+        return failovers.get();
+    }
+
+    public long getAccepted(String worker) {
+        Worker state = workers.get(worker);
+        return state == null ? 0 : state.accepted.get();
+    }
+
+    public long getRejected(String worker) {
+        Worker state = workers.get(worker);
+        return state == null ? 0 : state.rejected.get();
+    }
+
+    public long getStale(String worker) {
+        Worker state = workers.get(worker);
+        return state == null ? 0 : state.stale.get();
+    }
+
+    /**
+     * @return jobs received by the worker, the first one included
+     */
+    public long getJobs(String worker) {
+        Worker state = workers.get(worker);
+        return state == null ? 0 : state.jobGap.getCount();
+    }
+
+    /**
+     * @return why the shares of the miner fail, or null while they do not or fewer than {@code stratumShareWindow} were answered
+     */
+    public synchronized String getDegradation() {
+        if (maxRejectRate <= 0 || results.length == 0 || resultCount < results.length) {
+            return null;
+        }
+        int failed = 0;
+        for (byte result : results) {
+            if (result != ACCEPTED) {
+                failed++;
+            }
+        }
+        if (failed <= maxRejectRate * results.length) {
+            return null;
+        }
+        return failed + " of the last " + results.length + " shares rejected or stale";
+    }
+
+    /**
+     * Forgets the answered shares, for example after the miner was restarted.
+     */
+    public synchronized void resetShares() {
+        resultCount = 0;
+    }
+
+    private synchronized void record(byte result) {
+        if (results.length > 0) {
+            results[(int) (resultCount % results.length)] = result;
+        }
+        resultCount++;
+    }
+
+    private Worker worker(String name) {
+        return workers.computeIfAbsent(name, Worker::new);
+    }
+
+    @Override
+    public void run() {
+        LOG.info("Stratum proxy of miner {} listens on port {} for {}", miner, getPort(), pools);
+        while (!closed) {
+            try {
+                selector.select(TICK_MILLIS);
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        handle(key);
+                    }
+                }
+                selector.selectedKeys().clear();
+                checkTimeouts();
+            }
+            catch (IOException e) {
+                if (!closed) {
+                    LOG.warn("Stratum proxy of miner " + miner + " cannot serve connections", e);
+                }
+            }
+        }
+        for (Session session : new ArrayList<>(sessions)) {
+            closeSession(session);
+        }
+        try {
+            server.close();
+            selector.close();
+        }
+        catch (IOException e) {
+            LOG.debug("Stratum proxy cannot be closed", e);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        Session session = new Session(channel);
+        channel.register(selector, SelectionKey.OP_READ, session);
+        sessions.add(session);
+        connections = sessions.size();
+        session.pool = activePool;
+        connect(session);
+    }
+
+    private void connect(Session session) {
+        long now = System.nanoTime();
+        session.reconnectNanos = 0;
+        session.lastJobNanos = now;
+        try {
+            SocketChannel upstream = SocketChannel.open();
+            session.upstream = upstream;
+            upstream.configureBlocking(false);
+            upstream.connect(pools.get(session.pool));
+            upstream.register(selector, SelectionKey.OP_CONNECT, session);
+            session.connectDeadlineNanos = now + connectTimeoutNanos;
+        }
+        catch (IOException | RuntimeException e) {
+            LOG.debug("Pool {} cannot be connected", pools.get(session.pool), e);
+            failover(session, "cannot be connected");
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        Session session = (Session) key.attachment();
+        boolean fromPool = key.channel() == session.upstream;
+        try {
+            if (fromPool && key.isConnectable()) {
+                session.upstream.finishConnect();
+                session.connectDeadlineNanos = 0;
+                key.interestOps(SelectionKey.OP_READ);
+                flush(session.upstream, session.toPool, key);
+                return;
+            }
+            if (key.isWritable()) {
+                flush((SocketChannel) key.channel(), fromPool ? session.toPool : session.toClient, key);
+            }
+            if (!key.isValid() || !key.isReadable()) {
+                return;
+            }
+            buffer.clear();
+            int n = ((SocketChannel) key.channel()).read(buffer);
+            if (n > 0) {
+                (fromPool ? session.poolLines : session.clientLines).split(buffer.array(), 0, n);
+                return;
+            }
+            if (n == 0) {
+                return;
+            }
+            if (fromPool) {
+                failover(session, "closed the connection");
+            } else {
+                closeSession(session);
+            }
+        }
+        catch (IOException e) {
+            if (fromPool) {
+                LOG.debug("Connection to pool {} is broken", pools.get(session.pool), e);
+                failover(session, "broke the connection");
+            } else {
+                LOG.debug("Connection of miner {} is broken", miner, e);
+                closeSession(session);
+            }
+        }
+    }
+
+    private void onClientLine(Session session, byte[] bytes, int offset, int length) {
+        String line = new String(bytes, offset, length, StandardCharsets.UTF_8);
+        String method = stringField(line, "method");
+        if (method != null) {
+            if (LOGIN_METHODS.contains(method) && session.logins.size() < MAX_LOGIN_LINES) {
+                session.logins.add(Arrays.copyOfRange(bytes, offset, offset + length));
+            }
+            if (SUBSCRIBE.equals(method)) {
+                session.subscribeId = field(line, "id");
+            } else if (EXTRANONCE_SUBSCRIBE.equals(method)) {
+                session.extranonceSubscribed = true;
+            }
+            if (WORKER_METHODS.contains(method)) {
+                String name = firstParam(line);
+                if (name != null && !name.isEmpty()) {
+                    session.worker = worker(name);
+                }
+            } else if (SUBMIT_METHODS.contains(method)) {
+                session.submits.put(field(line, "id"), System.nanoTime());
+            }
+        }
+        if (!send(session, true, bytes, offset, length)) {
+            LOG.warn("Pool {} does not read the output of miner {}, dropping the connection", pools.get(session.pool), miner);
+            closeSession(session);
+        }
+    }
+
+    private void onPoolLine(Session session, byte[] bytes, int offset, int length) {
+        String line = new String(bytes, offset, length, StandardCharsets.UTF_8);
+        String method = stringField(line, "method");
+        String id = field(line, "id");
+        long now = System.nanoTime();
+        if (method == null && session.replayedIds.remove(id)) {
+            if (id.equals(session.subscribeId)) {
+                onResubscribed(session, line);
+            }
+            return;
+        }
+        if (method == null && session.extranonce == null && id != null && id.equals(session.subscribeId)) {
+            session.extranonce = extranonce(line);
+        }
+        if (method == null && session.submits.containsKey(id)) {
+            session.worker.latency.observe(now - session.submits.remove(id));
+            String error = field(line, "error");
+            if ("true".equals(field(line, "result")) && (error == null || "null".equals(error))) {
+                session.worker.accepted.inc();
+                record(ACCEPTED);
+            } else if (error != null && STALE_ERROR.matcher(error).find()) {
+                session.worker.stale.inc();
+                record(STALE);
+            } else {
+                session.worker.rejected.inc();
+                record(REJECTED);
+            }
+        } else if (isJob(line, method, id)) {
+            session.worker.jobGap.observe(now - session.lastJobNanos);
+            session.lastJobNanos = now;
+            session.failures = 0;
+        }
+        if (!send(session, false, bytes, offset, length)) {
+            LOG.warn("Miner {} does not read the output of pool {}, dropping the connection", miner, pools.get(session.pool));
+            closeSession(session);
+        }
+    }
+
+    /**
+     * Hands the extranonce of the new pool to the miner, or disconnects the miner when it cannot take one.
+     */
+    private void onResubscribed(Session session, String line) {
+        String extranonce = extranonce(line);
+        if (extranonce == null || extranonce.equals(session.extranonce)) {
+            return;
+        }
+        if (!session.extranonceSubscribed) {
+            LOG.info("Pool {} gave miner {} another extranonce, the miner has to reconnect", pools.get(session.pool), miner);
+            closeSession(session);
+            return;
+        }
+        session.extranonce = extranonce;
+        byte[] notification = ("{\"id\":null,\"method\":\"mining.set_extranonce\",\"params\":[" + extranonce + "]}").getBytes(
+                StandardCharsets.UTF_8);
+        if (!send(session, false, notification, 0, notification.length)) {
+            closeSession(session);
+        }
+    }
+
+    /**
+     * @return extranonce1 and, if given, its size from the answer to {@code mining.subscribe}, as raw JSON values separated by a
+     * comma, or null
+     */
+    static String extranonce(String line) {
+        String result = field(line, "result");
+        if (result == null || !result.startsWith("[")) {
+            return null;
+        }
+        List<String> elements = elements(result);
+        return elements.size() < 2 ? null : String.join(",", elements.subList(1, elements.size()));
+    }
+
+    /**
+     * @return the raw top level values of a JSON array
+     */
+    private static List<String> elements(String array) {
+        List<String> elements = new ArrayList<>();
+        int depth = 0;
+        boolean quoted = false;
+        int start = 1;
+        for (int i = 1; i < array.length(); i++) {
+            char c = array.charAt(i);
+            if (quoted) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == '[' || c == '{') {
+                depth++;
+            } else if (depth > 0 && (c == ']' || c == '}')) {
+                depth--;
+            } else if (depth == 0 && (c == ',' || c == ']')) {
+                elements.add(array.substring(start, i).trim());
+                if (c == ']') {
+                    break;
+                }
+                start = i + 1;
+            }
+        }
+        return elements;
+    }
+
+    /**
+     * A job is a {@code mining.notify} (or {@code job}) notification, or with the getwork style protocol of ethproxy pools an
+     * unrequested result with the work package.
+     */
+    private static boolean isJob(String line, String method, String id) {
+        if (method != null) {
+            return JOB_METHODS.contains(method);
+        }
+        String result = field(line, "result");
+        return ("0".equals(id) || "null".equals(id)) && result != null && result.startsWith("[");
+    }
+
+    /**
+     * Queues the line and writes as much as the channel takes now; the rest is written when the channel is writable. Lines to a
+     * pool that is not connected yet wait in the queue.
+     *
+     * @return false when more than {@link #MAX_PENDING_BYTES} would be waiting
+     */
+    private boolean send(Session session, boolean toPool, byte[] bytes, int offset, int length) {
+        ByteBuffer out = toPool ? session.toPool : session.toClient;
+        if (out.remaining() < length + 1) {
+            if (out.position() + length + 1 > MAX_PENDING_BYTES) {
+                return false;
+            }
+            ByteBuffer larger = ByteBuffer.allocate(Math.min(MAX_PENDING_BYTES, Math.max(out.capacity() * 2, out.position() + length +
+                    1)));
+            out.flip();
+            larger.put(out);
+            out = larger;
+            if (toPool) {
+                session.toPool = larger;
+            } else {
+                session.toClient = larger;
+            }
+        }
+        out.put(bytes, offset, length).put((byte) '\n');
+        SocketChannel channel = toPool ? session.upstream : session.client;
+        SelectionKey key = channel == null ? null : channel.keyFor(selector);
+        if (key == null || !key.isValid() || (toPool && session.connectDeadlineNanos != 0)) {
+            return true;
+        }
+        try {
+            flush(channel, out, key);
+        }
+        catch (IOException e) {
+            LOG.debug("Connection {} is broken", channel, e);
+        }
+        return true;
+    }
+
+    private static void flush(SocketChannel channel, ByteBuffer out, SelectionKey key) throws IOException {
+        out.flip();
+        try {
+            channel.write(out);
+        }
+        finally {
+            out.compact();
+        }
+        key.interestOps(out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    /**
+     * Moves the session to the next pool, or to the active one when another session has switched already. The login requests of
+     * the miner are replayed to the new pool.
+     */
+    private void failover(Session session, String reason) {
+        closeUpstream(session);
+        int failed = session.pool;
+        if (activePool == failed && pools.size() > 1) {
+            activePool = (failed + 1) % pools.size();
+            failovers.inc();
+            LOG.warn("Pool {} of miner {} {}, switching to {}", pools.get(failed), miner, reason, pools.get(activePool));
+        }
+        session.pool = activePool;
+        session.submits.clear();
+        session.replayedIds.clear();
+        session.poolLines.clear();
+        session.toPool.clear();
+        for (byte[] login : session.logins) {
+            if (session.toPool.remaining() < login.length + 1) {
+                break;
+            }
+            String id = field(new String(login, StandardCharsets.UTF_8), "id");
+            if (id != null) {
+                session.replayedIds.add(id);
+            }
+            session.toPool.put(login).put((byte) '\n');
+        }
+        if (++session.failures >= pools.size()) {
+            session.reconnectNanos = System.nanoTime() + RETRY_DELAY_NANOS;
+            session.connectDeadlineNanos = 0;
+            return;
+        }
+        connect(session);
+    }
+
+    private void checkTimeouts() {
+        long now = System.nanoTime();
+        for (Session session : new ArrayList<>(sessions)) {
+            if (session.reconnectNanos != 0) {
+                if (now - session.reconnectNanos >= 0) {
+                    connect(session);
+                }
+            } else if (session.connectDeadlineNanos != 0 && now - session.connectDeadlineNanos >= 0) {
+                failover(session, "cannot be connected within " + TimeUnit.NANOSECONDS.toMillis(connectTimeoutNanos) + " ms");
+            } else if (jobTimeoutNanos > 0 && session.connectDeadlineNanos == 0 && now - session.lastJobNanos >= jobTimeoutNanos) {
+                failover(session, "sent no job for " + TimeUnit.NANOSECONDS.toMillis(jobTimeoutNanos) + " ms");
+            }
+        }
+    }
+
+    private void closeUpstream(Session session) {
+        if (session.upstream == null) {
+            return;
+        }
+        try {
+            session.upstream.close();
+        }
+        catch (IOException e) {
+            LOG.debug("Connection to pool {} cannot be closed", pools.get(session.pool), e);
+        }
+        session.upstream = null;
+    }
+
+    private void closeSession(Session session) {
+        if (!sessions.remove(session)) {
+            return;
+        }
+        connections = sessions.size();
+        closeUpstream(session);
+        try {
+            session.client.close();
+        }
+        catch (IOException e) {
+            LOG.debug("Connection of miner {} cannot be closed", miner, e);
+        }
+    }
+
+    /**
+     * @return the raw value of a top level JSON field, strings with their quotes, or null
+     */
+    static String field(String json, String name) {
+        int key = json.indexOf("\"" + name + "\"");
+        if (key < 0) {
+            return null;
+        }
+        int start = json.indexOf(':', key + name.length() + 2);
+        if (start < 0) {
+            return null;
+        }
+        start++;
+        while (start < json.length() && json.charAt(start) == ' ') {
+            start++;
+        }
+        int depth = 0;
+        boolean quoted = false;
+        for (int i = start; i < json.length(); i++) {
+            char c = json.charAt(i);
+            if (quoted) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == '[' || c == '{') {
+                depth++;
+            } else if (c == ']' || c == '}') {
+                if (depth == 0) {
+                    return json.substring(start, i).trim();
+                }
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                return json.substring(start, i).trim();
+            }
+        }
+        return json.substring(start).trim();
+    }
+
+    private static String stringField(String json, String name) {
+        String value = field(json, name);
+        return value != null && value.length() >= 2 && value.startsWith("\"") ? value.substring(1, value.length() - 1) : null;
+    }
+
+    /**
+     * @return the first string of {@code params}, the worker of a login request
+     */
+    private static String firstParam(String json) {
+        String params = field(json, "params");
+        if (params == null) {
+            return null;
+        }
+        int start = params.indexOf('"');
+        int end = start < 0 ? -1 : params.indexOf('"', start + 1);
+        return end < 0 ? null : params.substring(start + 1, end);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join(1000);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package com.hesky.ewbfcudawatchdog;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Runs one {@link MinerMonitor} per miner with a log on a small shared scheduler, plus the periodic status output and stats
+ * persistence. Recoveries run on a separate executor. The supervisor stops once a reboot has been requested. Time, threads,
+ * processes and the reboot come from its {@link Environment}.
+ */
+public class Supervisor {
+    private static final Logger LOG = getLogger(Supervisor.class);
+
+    private final Properties params;
+    private final Map<String, MinerDefinition> miners = new LinkedHashMap<>();
+    private final List<MinerMonitor> monitors = new ArrayList<>();
+    private final StatsStore stats;
+    private final RuleRepository rules;
+    private final Metrics metrics = new Metrics();
+    private final Metrics.Counter reboots;
+    private final Environment environment;
+    private final long startNanos;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService recoveryExecutor;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final Availability availability;
+    private ChangeNotifier changeNotifier;
+    private MetricsServer metricsServer;
+    private FleetReporter fleetReporter;
+    private long lastTotalTimeNanos;
+    private boolean rebooting;
+
+    public Supervisor(Properties params, List<MinerDefinition> definitions, Path statsFilePath) throws IOException {
+        this(params, definitions, statsFilePath, Environment.system(params));
+    }
+
+    public Supervisor(Properties params, List<MinerDefinition> definitions, Path statsFilePath, Environment environment) throws
+            IOException {
+        this.params = params;
+        this.environment = environment;
+        startNanos = environment.nanoTime();
+        lastTotalTimeNanos = startNanos;
+        scheduler = environment.getScheduler();
+        recoveryExecutor = environment.getRecoveryExecutor();
+        availability = new Availability(environment::nanoTime, environment::millis);
+        this.stats = new StatsStore(statsFilePath);
+        stats.load();
+        try {
+            availability.load(stats.getAvailabilityPath());
+        }
+        catch (IOException e) {
+            LOG.warn("Availability cannot be read from " + stats.getAvailabilityPath() + ", it is counted from now", e);
+        }
+        String rulesFile = params.getProperty("rulesFile", "");
+        rules = new RuleRepository(rulesFile.isEmpty() ? null : Paths.get(rulesFile), params);
+        reboots = metrics.counter("watchdog_reboots_total", "Reboots requested by this run of the watchdog.", null);
+        metrics.gauge("watchdog_shutdowns_total", "Shutdowns recorded in the stats.", null, stats::getTotalShutdowns);
+        metrics.gauge("watchdog_uptime_seconds", "Time since the watchdog was started.", null, () -> (environment.nanoTime() - startNanos)
+                * Metrics.NANOS);
+        metrics.gauge("watchdog_total_time_seconds", "Total supervised time recorded in the stats.", null, () -> stats.getTotalTime()
+                .toMillis() / 1000.0);
+        for (MinerDefinition definition : definitions) {
+            miners.put(definition.getName(), definition);
+        }
+        for (MinerDefinition definition : definitions) {
+            if (definition.getLogFile() != null) {
+                List<MinerDefinition> companions = new ArrayList<>();
+                for (String companion : definition.getCompanions()) {
+                    if (!miners.containsKey(companion)) {
+                        throw new IllegalArgumentException("Unknown companion " + companion + " of miner " + definition.getName());
+                    }
+                    companions.add(miners.get(companion));
+                }
+                rules.register(definition.getGpuCount());
+                monitors.add(new MinerMonitor(this, definition, companions));
+            }
+        }
+        for (MinerMonitor monitor : monitors) {
+            String miner = monitor.getMiner().getName();
+            String label = Metrics.label("miner", miner);
+            metrics.gauge("watchdog_availability_ratio", "Share of hashing time.", label + "," + Metrics.label("window", "24h"), () ->
+                    availability.getAvailability(miner, 24));
+            metrics.gauge("watchdog_availability_ratio", "Share of hashing time.", label + "," + Metrics.label("window", "30d"), () ->
+                    availability.getAvailability(miner, Availability.HOURS));
+            metrics.gauge("watchdog_mtbf_seconds", "Mean hashing time between failures.", label, () -> availability.getMtbfMillis
+                    (miner) / 1000);
+            metrics.gauge("watchdog_mttr_seconds", "Mean recovering and rebooting time per failure.", label, () -> availability
+                    .getMttrMillis(miner) / 1000);
+            for (Availability.State state : Availability.State.values()) {
+                metrics.gauge("watchdog_state_seconds_total", "Time spent per state.", label + "," + Metrics.label("state", state.name()
+                        .toLowerCase(Locale.ROOT)), () -> availability.getTotalMillis(miner, state) / 1000.0);
+            }
+        }
+    }
+
+    public Properties getParams() {
+        return params;
+    }
+
+    public Environment getEnvironment() {
+        return environment;
+    }
+
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    public ExecutorService getRecoveryExecutor() {
+        return recoveryExecutor;
+    }
+
+    public List<MinerMonitor> getMonitors() {
+        return monitors;
+    }
+
+    public StatsStore getStats() {
+        return stats;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public RuleRepository getRules() {
+        return rules;
+    }
+
+    public Availability getAvailability() {
+        return availability;
+    }
+
+    public void start() {
+        long sleepDurationMillis = Long.parseLong(params.getProperty("sleepDuration"));
+        bookPendingReboot();
+        if ("1".equals(params.getProperty("watchMode")) && !monitors.isEmpty() && !environment.isVirtual()) {
+            try {
+                changeNotifier = new ChangeNotifier(monitors.get(0).getMiner().getLogFile());
+            }
+            catch (IOException | UnsupportedOperationException e) {
+                LOG.warn("Change notifications are not available. Logs are polled.", e);
+            }
+        }
+        int metricsPort = Integer.parseInt(params.getProperty("metricsPort", "0"));
+        if (metricsPort > 0) {
+            try {
+                metricsServer = new MetricsServer(metrics, new InetSocketAddress(params.getProperty("metricsHost", "127.0.0.1"),
+                        metricsPort));
+            }
+            catch (IOException e) {
+                LOG.warn("Metrics endpoint cannot be started on port " + metricsPort, e);
+            }
+        }
+        for (MinerMonitor monitor : monitors) {
+            LOG.info("Recovery of miner {}: {}", monitor.getMiner(), monitor.getLadder());
+            environment.getLogRotator().resumePending(LogRotator.logsDirectory(monitor.getMiner().getLogFile()));
+            if (changeNotifier != null && !monitor.isCapturingOutput()) {
+                changeNotifier.register(monitor.getMiner().getLogFile(), monitor::onChange);
+            }
+            monitor.start();
+        }
+        scheduler.scheduleAtFixedRate(this::printStatus, 0, sleepDurationMillis * 2, TimeUnit.MILLISECONDS);
+        long rulesReloadMillis = Long.parseLong(params.getProperty("rulesReloadInterval", "5000"));
+        scheduler.scheduleWithFixedDelay(rules::reloadIfChanged, rulesReloadMillis, rulesReloadMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleAtFixedRate(this::persistStats, sleepDurationMillis * 20, sleepDurationMillis * 20, TimeUnit.MILLISECONDS);
+        startFleetReporter();
+        startTelemetry();
+    }
+
+    private void startTelemetry() {
+        String command = params.getProperty("telemetryCommand", "").trim();
+        if (command.isEmpty()) {
+            return;
+        }
+        String columns = params.getProperty("telemetryColumns", "").trim();
+        TelemetrySampler sampler = new TelemetrySampler(ProcessControl.splitArguments(command), columns.isEmpty() ? null : columns.split
+                ("\\s*,\\s*"), new Telemetry(Integer.parseInt(params.getProperty("telemetrySamples", "360"))), Long.parseLong(params
+                .getProperty("telemetryTimeout", "5000")), metrics);
+        long intervalMillis = Long.parseLong(params.getProperty("telemetryInterval", "10000"));
+        sampler.start(scheduler, recoveryExecutor, intervalMillis, telemetry -> {
+            for (MinerMonitor monitor : monitors) {
+                monitor.onTelemetry(telemetry);
+            }
+        });
+        LOG.info("GPU telemetry is sampled every {} ms by {}", intervalMillis, command);
+    }
+
+    private void startFleetReporter() {
+        String collector = params.getProperty("fleetCollector", "");
+        if (collector.isEmpty()) {
+            return;
+        }
+        String rig = params.getProperty("rigName", "");
+        if (rig.isEmpty()) {
+            try {
+                rig = InetAddress.getLocalHost().getHostName();
+            }
+            catch (IOException e) {
+                rig = "unknown";
+            }
+        }
+        try {
+            fleetReporter = new FleetReporter(rig, FleetReporter.parseAddress(collector), "tcp".equalsIgnoreCase(params.getProperty
+                    ("fleetProtocol")), Integer.parseInt(params.getProperty("fleetQueueSize", "1024")), Integer.parseInt(params
+                    .getProperty("fleetBatchBytes", "1400")), Long.parseLong(params.getProperty("fleetFlushInterval", "1000"))).start();
+        }
+        catch (IllegalArgumentException e) {
+            LOG.warn("Fleet events are not reported", e);
+            return;
+        }
+        metrics.gauge("watchdog_fleet_events_sent_total", "Events sent to the fleet collector.", null, fleetReporter::getSent);
+        metrics.gauge("watchdog_fleet_events_dropped_total", "Events dropped because the queue was full or the collector unreachable.",
+                null, fleetReporter::getDropped);
+        long heartbeatMillis = Long.parseLong(params.getProperty("fleetHeartbeatInterval", "60000"));
+        String version = params.getProperty("programVersion", "");
+        scheduler.scheduleAtFixedRate(() -> fleetReporter.heartbeat(version, TimeUnit.NANOSECONDS.toMillis(environment.nanoTime()
+                - startNanos)), 0, heartbeatMillis, TimeUnit.MILLISECONDS);
+        LOG.info("Fleet events of rig {} are reported to {}", rig, collector);
+    }
+
+    /**
+     * Reports a detected failure to the fleet collector, if one is configured.
+     */
+    public void reportIncident(Incident incident) {
+        if (fleetReporter != null) {
+            fleetReporter.incident(incident);
+        }
+    }
+
+    /**
+     * Journals a recovery action started for a failure. A journal that cannot be written does not hold up the recovery.
+     */
+    public void recordIncident(Incident incident) {
+        try {
+            stats.recordIncident(incident);
+        }
+        catch (IOException e) {
+            LOG.warn("Incident " + incident + " cannot be journaled", e);
+        }
+    }
+
+    /**
+     * Reports the outcome of a recovery action to the fleet collector, if one is configured.
+     */
+    public void reportRecovery(String miner, int device, String action, boolean success, long millis) {
+        if (fleetReporter != null) {
+            fleetReporter.recovery(miner, device, action, success, millis);
+        }
+    }
+
+    /**
+     * Books the time from a reboot requested by the previous run until now as rebooting time of every miner and GPU.
+     */
+    private void bookPendingReboot() {
+        long rebootMillis = stats.getPendingRebootMillis();
+        long millis = environment.millis() - rebootMillis;
+        if (rebootMillis <= 0 || millis <= 0 || millis > TimeUnit.DAYS.toMillis(1)) {
+            return;
+        }
+        for (String subject : availability.getSubjects()) {
+            if (getMonitor(subject) != null) {
+                availability.add(subject, Availability.State.REBOOTING, millis);
+            }
+        }
+    }
+
+    /**
+     * @return the monitor of a miner or one of its GPUs, or null
+     */
+    private MinerMonitor getMonitor(String subject) {
+        for (MinerMonitor monitor : monitors) {
+            String miner = monitor.getMiner().getName();
+            if (subject.equals(miner) || subject.startsWith(miner + MinerMonitor.DEVICE_SEPARATOR)) {
+                return monitor;
+            }
+        }
+        return null;
+    }
+
+    public void awaitStop() throws InterruptedException {
+        stopped.await();
+    }
+
+    public void stop() {
+        for (MinerMonitor monitor : monitors) {
+            monitor.stop();
+        }
+        if (changeNotifier != null) {
+            changeNotifier.close();
+        }
+        if (metricsServer != null) {
+            metricsServer.close();
+        }
+        scheduler.shutdownNow();
+        if (fleetReporter != null) {
+            fleetReporter.close();
+        }
+        persistAvailability();
+        recoveryExecutor.shutdown();
+        stopped.countDown();
+    }
+
+    /**
+     * Restarts every monitored miner except the given one, used when a recovery escalates to restarting all miners.
+     */
+    public void restartAll(MinerMonitor except) {
+        for (MinerMonitor monitor : monitors) {
+            if (monitor != except) {
+                monitor.restartNow();
+            }
+        }
+    }
+
+    /**
+     * Called when a miner shows healthy output for the first time in this run. The first call after a reboot requested by the
+     * previous run records how long the reboot took to get a miner hashing again.
+     */
+    public synchronized void onMinerReady(MinerMonitor monitor) {
+        long rebootMillis = stats.getPendingRebootMillis();
+        if (rebootMillis <= 0) {
+            return;
+        }
+        long millis = environment.millis() - rebootMillis;
+        LOG.info("Miner {} is hashing again {} ms after the reboot", monitor.getMiner(), millis);
+        stats.recordRecoverySuccess(RecoveryLadder.Action.REBOOT.getKey(), millis);
+        reportRecovery(monitor.getMiner().getName(), -1, RecoveryLadder.Action.REBOOT.getKey(), true, millis);
+        stats.setPendingRebootMillis(0);
+        persistStats();
+    }
+
+    private synchronized void updateTotalTime() {
+        long now = environment.nanoTime();
+        stats.addTime(Duration.ofNanos(now - lastTotalTimeNanos));
+        lastTotalTimeNanos = now;
+    }
+
+    private void persistAvailability() {
+        try {
+            availability.persist(stats.getAvailabilityPath());
+        }
+        catch (IOException e) {
+            LOG.warn("Availability cannot be written to " + stats.getAvailabilityPath(), e);
+        }
+    }
+
+    private synchronized void printStatus() {
+        updateTotalTime();
+        availability.tick();
+        Duration duration = Duration.ofNanos(environment.nanoTime() - startNanos);
+        long hours = duration.toHours();
+        long minutes = duration.toMinutes() - (60 * hours);
+        Duration totalTime = stats.getTotalTime();
+        LOG.info("Time: {}:{}\nTotal time: {} days {} hours {} minutes", (hours < 10 ? "0" + hours : hours), (minutes < 10 ? "0" + minutes :
+                        minutes),
+                totalTime.toDays(), totalTime.toHours() - totalTime.toDays() * 24, totalTime.toMinutes() - totalTime.toHours() *
+                        60);
+        LOG.info("TODAY SHUTDOWNS - {}. TOTAL SHUTDOWNS - {}. LAST IN {}", stats.getTodayShutdowns(), stats.getTotalShutdowns(), stats
+                .getLastShutdownDateTime());
+        for (MinerMonitor monitor : monitors) {
+            String miner = monitor.getMiner().getName();
+            LOG.info("Availability of {}: 24 hours {}, 30 days {}, failures {}, MTBF {} min, MTTR {} s", miner, Availability.percent
+                    (availability.getAvailability(miner, 24)), Availability.percent(availability.getAvailability(miner, Availability
+                    .HOURS)), availability.getFailures(miner), Math.round(availability.getMtbfMillis(miner) / 60000), Math.round
+                    (availability.getMttrMillis(miner) / 1000));
+        }
+    }
+
+    private synchronized void persistStats() {
+        updateTotalTime();
+        try {
+            stats.rollDay(LocalDate.now(environment.getClock()));
+            stats.persist();
+        }
+        catch (IOException e) {
+            LOG.warn("Cannot write to file.", e);
+        }
+        persistAvailability();
+    }
+
+    /**
+     * Journals the incident, requests the reboot and stops supervision. Only the first call has an effect.
+     */
+    public synchronized void reboot(Incident incident) throws IOException {
+        if (rebooting) {
+            return;
+        }
+        updateTotalTime();
+        LOG.info("Starting reboot computer...");
+        reboots.inc();
+        stats.recordIncident(incident);
+        if (fleetReporter != null) {
+            fleetReporter.reboot(incident);
+        }
+        for (String subject : availability.getSubjects()) {
+            if (getMonitor(subject) != null) {
+                availability.set(subject, Availability.State.REBOOTING);
+            }
+        }
+        stats.setPendingRebootMillis(environment.millis());
+        stats.persist();
+        environment.getProcessControl().reboot(Main.REBOOT_DELAY_SECONDS, Main.REBOOT_MESSAGE);
+        LOG.info("Shutdown process has been executed.");
+        rebooting = true;
+        stop();
+    }
+}
@@ -0,0 +1,139 @@
+package com.hesky.ewbfcudawatchdog;
+
+import java.util.Arrays;
+
+/**
+ * Recent GPU telemetry as primitive time series: for every sample the time and one value per device and column, in rings of
+ * {@code capacity} samples. A value the command did not report (a device missing from the output, {@code [Not Supported]},
+ * {@code N/A}) is NaN. A sample is filled with {@link #set(int, int, double)} and published with {@link #commit(long)}, so
+ * readers never see half a sample.
+ */
+public class Telemetry {
+    private final int capacity;
+    private String[] columns = new String[0];
+    private long[] times;
+    private double[][] values = new double[0][];
+    private double[][] pending = new double[0][];
+    private int pendingDevices;
+    private int deviceCount;
+    private long samples;
+
+    public Telemetry(int capacity) {
+        this.capacity = capacity;
+        this.times = new long[capacity];
+    }
+
+    /**
+     * Sets the column names; the series are cleared when they change.
+     */
+    public synchronized void setColumns(String[] names) {
+        if (Arrays.equals(columns, names)) {
+            return;
+        }
+        columns = names.clone();
+        values = new double[0][];
+        pending = new double[0][];
+        deviceCount = 0;
+        samples = 0;
+    }
+
+    public synchronized String[] getColumns() {
+        return columns.clone();
+    }
+
+    /**
+     * @return index of the column or -1
+     */
+    public synchronized int column(String name) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Sets a value of the sample being filled. Devices are created on first use.
+     */
+    public synchronized void set(int device, int column, double value) {
+        if (column < 0 || column >= columns.length || device < 0) {
+            return;
+        }
+        if (device >= pending.length) {
+            int from = pending.length;
+            pending = Arrays.copyOf(pending, device + 1);
+            values = Arrays.copyOf(values, device + 1);
+            for (int i = from; i <= device; i++) {
+                pending[i] = new double[columns.length];
+                Arrays.fill(pending[i], Double.NaN);
+                values[i] = new double[capacity * columns.length];
+                Arrays.fill(values[i], Double.NaN);
+            }
+        }
+        pending[device][column] = value;
+        pendingDevices = Math.max(pendingDevices, device + 1);
+    }
+
+    /**
+     * Publishes the sample being filled; devices it does not mention get NaN.
+     */
+    public synchronized void commit(long timeMillis) {
+        int slot = (int) (samples % capacity);
+        times[slot] = timeMillis;
+        for (int device = 0; device < pending.length; device++) {
+            System.arraycopy(pending[device], 0, values[device], slot * columns.length, columns.length);
+            Arrays.fill(pending[device], Double.NaN);
+        }
+        deviceCount = pendingDevices;
+        pendingDevices = 0;
+        samples++;
+    }
+
+    /**
+     * Drops the sample being filled, for example when the command that filled it failed.
+     */
+    public synchronized void discard() {
+        for (double[] device : pending) {
+            Arrays.fill(device, Double.NaN);
+        }
+        pendingDevices = 0;
+    }
+
+    /**
+     * @return samples committed since the columns were set
+     */
+    public synchronized long getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return devices present in the last sample
+     */
+    public synchronized int getDeviceCount() {
+        return deviceCount;
+    }
+
+    public synchronized long getLastTimeMillis() {
+        return samples == 0 ? 0 : times[(int) ((samples - 1) % capacity)];
+    }
+
+    /**
+     * @return the value of the last sample or NaN
+     */
+    public double latest(int device, int column) {
+        return get(device, column, 0);
+    }
+
+    /**
+     * @param age 0 for the last sample, 1 for the one before and so on
+     * @return the value or NaN when it is not known
+     */
+    public synchronized double get(int device, int column, int age) {
+        if (age >= samples || age >= capacity || device < 0 || device >= values.length || column < 0 || column >= columns.length) {
+            return Double.NaN;
+        }
+        int slot = (int) ((samples - 1 - age) % capacity);
+        return values[device][slot * columns.length + column];
+    }
+}
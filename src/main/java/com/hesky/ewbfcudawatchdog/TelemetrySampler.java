@@ -0,0 +1,310 @@
+package com.hesky.ewbfcudawatchdog;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Runs a command printing GPU telemetry as CSV, for example
+ * {@code nvidia-smi --query-gpu=index,temperature.gpu,power.draw,clocks.sm --format=csv}, and stores the values in
+ * {@link Telemetry}. The first line is the header unless the columns are given; units in brackets are dropped from the names and
+ * units after the numbers are ignored. Rows belong to the device in the {@code index} column, or to their position without one.
+ * Values are parsed straight from the output bytes into reused arrays, so a sample allocates nothing besides the process.
+ * <p>
+ * The shared scheduler only triggers a sample; the command runs on the given executor, and a tick that finds the previous
+ * command still running is skipped. A command running longer than the timeout is killed. A killed or failed command discards
+ * what it printed and {@link #sample(ScheduledExecutorService)} returns false, so the previous sample stays the latest.
+ */
+public class TelemetrySampler implements LineHandler {
+    private static final Logger LOG = getLogger(TelemetrySampler.class);
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+
+    private final List<String> command;
+    private final String[] configuredColumns;
+    private final Telemetry telemetry;
+    private final long timeoutMillis;
+    private final Metrics metrics;
+    private final Metrics.Counter samples;
+    private final Metrics.Counter failures;
+    private final Metrics.Counter skipped;
+    private final LineSplitter lineSplitter = new LineSplitter(this);
+    private final byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final Set<String> exported = new HashSet<>();
+    private byte[] header = new byte[0];
+    private double[] row = new double[0];
+    private int indexColumn = -1;
+    private boolean headerPending;
+    private int rows;
+    private int exportedDevices;
+
+    /**
+     * @param columns column names when the command prints no header, or null
+     * @param metrics registry for the sampler counters and the latest values, or null
+     */
+    public TelemetrySampler(List<String> command, String[] columns, Telemetry telemetry, long timeoutMillis, Metrics metrics) {
+        this.command = new ArrayList<>(command);
+        this.configuredColumns = columns;
+        this.telemetry = telemetry;
+        this.timeoutMillis = timeoutMillis;
+        this.metrics = metrics == null ? new Metrics() : metrics;
+        this.samples = this.metrics.counter("watchdog_telemetry_samples_total", "Telemetry samples taken.", null);
+        this.failures = this.metrics.counter("watchdog_telemetry_failures_total", "Telemetry commands that failed or timed out.", null);
+        this.skipped = this.metrics.counter("watchdog_telemetry_skipped_total", "Telemetry samples skipped because the previous " +
+                "command was still running.", null);
+        if (columns != null) {
+            useColumns(columns);
+        }
+    }
+
+    public Telemetry getTelemetry() {
+        return telemetry;
+    }
+
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Samples every {@code intervalMillis} on the executor and passes the telemetry to the listener after each sample.
+     */
+    public ScheduledFuture<?> start(ScheduledExecutorService scheduler, Executor executor, long intervalMillis, Consumer<Telemetry>
+            listener) {
+        return scheduler.scheduleWithFixedDelay(() -> {
+            if (!running.compareAndSet(false, true)) {
+                skipped.inc();
+                return;
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        if (sample(scheduler)) {
+                            listener.accept(telemetry);
+                        }
+                    }
+                    finally {
+                        running.set(false);
+                    }
+                });
+            }
+            catch (RuntimeException e) {
+                running.set(false);
+                LOG.warn("Telemetry sample cannot be started", e);
+            }
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs the command once and commits its values.
+     *
+     * @param killer schedules the kill on timeout, may be null to wait for the command
+     * @return false when the command could not be run, failed or timed out; nothing is committed then
+     */
+    public boolean sample(ScheduledExecutorService killer) {
+        Process process;
+        try {
+            process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        }
+        catch (IOException e) {
+            failures.inc();
+            LOG.warn("Telemetry command " + command + " cannot be started", e);
+            return false;
+        }
+        ScheduledFuture<?> kill = killer == null ? null : killer.schedule(process::destroyForcibly, timeoutMillis, TimeUnit.MILLISECONDS);
+        headerPending = configuredColumns == null;
+        rows = 0;
+        boolean succeeded = false;
+        try (InputStream in = process.getInputStream()) {
+            for (int n; (n = in.read(readBuffer)) != -1; ) {
+                lineSplitter.split(readBuffer, 0, n);
+            }
+            lineSplitter.flush();
+            if (process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS) && process.exitValue() == 0) {
+                succeeded = true;
+            } else {
+                failures.inc();
+                LOG.debug("Telemetry command {} failed", command);
+            }
+        }
+        catch (IOException e) {
+            failures.inc();
+            lineSplitter.clear();
+            LOG.debug("Output of telemetry command {} is broken", command, e);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            if (kill != null) {
+                kill.cancel(false);
+            }
+            process.destroy();
+        }
+        if (!succeeded) {
+            telemetry.discard();
+            return false;
+        }
+        telemetry.commit(System.currentTimeMillis());
+        samples.inc();
+        export();
+        return true;
+    }
+
+    @Override
+    public void onLine(byte[] bytes, int offset, int length) {
+        if (headerPending) {
+            headerPending = false;
+            if (!isHeader(bytes, offset, length)) {
+                header = Arrays.copyOfRange(bytes, offset, offset + length);
+                useColumns(parseHeader(bytes, offset, length));
+            }
+            return;
+        }
+        int end = offset + length;
+        int column = 0;
+        for (int start = offset; start <= end && column < row.length; column++) {
+            int comma = start;
+            while (comma < end && bytes[comma] != ',') {
+                comma++;
+            }
+            row[column] = parseNumber(bytes, start, comma);
+            start = comma + 1;
+        }
+        for (; column < row.length; column++) {
+            row[column] = Double.NaN;
+        }
+        int device = rows++;
+        if (indexColumn >= 0) {
+            double index = row[indexColumn];
+            if (Double.isNaN(index)) {
+                return;
+            }
+            device = (int) index;
+        }
+        for (column = 0; column < row.length; column++) {
+            telemetry.set(device, column, row[column]);
+        }
+    }
+
+    @Override
+    public void reset() {
+        lineSplitter.clear();
+    }
+
+    private boolean isHeader(byte[] bytes, int offset, int length) {
+        if (header.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (header[i] != bytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void useColumns(String[] names) {
+        telemetry.setColumns(names);
+        row = new double[names.length];
+        indexColumn = Arrays.asList(names).indexOf("index");
+        exportedDevices = 0;
+    }
+
+    private static String[] parseHeader(byte[] bytes, int offset, int length) {
+        String[] names = new String(bytes, offset, length, StandardCharsets.UTF_8).split(",");
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i];
+            int unit = name.indexOf('[');
+            if (unit >= 0) {
+                name = name.substring(0, unit);
+            }
+            names[i] = name.trim();
+        }
+        return names;
+    }
+
+    /**
+     * Parses a decimal number at the start of the field, after spaces; anything after it, such as a unit, is ignored.
+     *
+     * @return the number or NaN when the field does not start with one
+     */
+    static double parseNumber(byte[] bytes, int from, int to) {
+        int i = from;
+        while (i < to && bytes[i] == ' ') {
+            i++;
+        }
+        boolean negative = i < to && bytes[i] == '-';
+        if (negative) {
+            i++;
+        }
+        long mantissa = 0;
+        int scale = 0;
+        int digits = 0;
+        boolean fraction = false;
+        for (; i < to; i++) {
+            byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    digits++;
+                    if (fraction) {
+                        scale++;
+                    }
+                } else if (!fraction) {
+                    scale--;
+                }
+            } else if (b == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) {
+            return Double.NaN;
+        }
+        double value = scale >= 0 ? mantissa / Math.pow(10, scale) : mantissa * Math.pow(10, -scale);
+        return negative ? -value : value;
+    }
+
+    /**
+     * Registers gauges for devices and columns seen for the first time.
+     */
+    private void export() {
+        int devices = telemetry.getDeviceCount();
+        if (devices <= exportedDevices) {
+            return;
+        }
+        String[] names = telemetry.getColumns();
+        for (int device = exportedDevices; device < devices; device++) {
+            for (int column = 0; column < names.length; column++) {
+                if (column == indexColumn || !exported.add(device + "|" + names[column])) {
+                    continue;
+                }
+                int gpu = device;
+                String name = names[column];
+                metrics.gauge("watchdog_gpu_telemetry", "Last telemetry value per GPU and column.", Metrics.label("device", Integer
+                        .toString(gpu)) + "," + Metrics.label("column", name), () -> telemetry.latest(gpu, telemetry.column(name)));
+            }
+        }
+        exportedDevices = devices;
+    }
+}
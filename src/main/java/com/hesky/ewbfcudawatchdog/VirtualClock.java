@@ -0,0 +1,72 @@
+package com.hesky.ewbfcudawatchdog;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Clock of a replay. Time only moves through {@link #sleep(long)}, which waits {@code 1 / speedUp} of the virtual time in real
+ * time, or not at all when the speed-up is 0. Use it with {@code LocalDateTime.now(clock)} and {@code clock::millis} in place of
+ * the system time.
+ */
+public class VirtualClock extends Clock {
+    private final AtomicLong millis;
+    private final ZoneId zone;
+    private final double speedUp;
+
+    public VirtualClock(long startMillis, double speedUp) {
+        this(new AtomicLong(startMillis), ZoneId.systemDefault(), speedUp);
+    }
+
+    private VirtualClock(AtomicLong millis, ZoneId zone, double speedUp) {
+        this.millis = millis;
+        this.zone = zone;
+        this.speedUp = speedUp;
+    }
+
+    @Override
+    public long millis() {
+        return millis.get();
+    }
+
+    /**
+     * @return virtual time in nanoseconds, in place of {@link System#nanoTime()}
+     */
+    public long nanoTime() {
+        return TimeUnit.MILLISECONDS.toNanos(millis.get());
+    }
+
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(millis.get());
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return new VirtualClock(millis, zone, speedUp);
+    }
+
+    /**
+     * Moves the time forward, in place of {@link TimeUnit#sleep(long)}.
+     */
+    public void sleep(long durationMillis) throws InterruptedException {
+        if (durationMillis <= 0) {
+            return;
+        }
+        if (speedUp > 0) {
+            TimeUnit.NANOSECONDS.sleep((long) (TimeUnit.MILLISECONDS.toNanos(durationMillis) / speedUp));
+        }
+        millis.addAndGet(durationMillis);
+    }
+
+    public void sleepUntil(long targetMillis) throws InterruptedException {
+        sleep(targetMillis - millis.get());
+    }
+}
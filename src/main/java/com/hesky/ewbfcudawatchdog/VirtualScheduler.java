@@ -0,0 +1,264 @@
+package com.hesky.ewbfcudawatchdog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link ScheduledExecutorService} on a {@link VirtualClock}. Tasks run one at a time on the thread that calls
+ * {@link #runNext()}, in the order of their virtual times, and the clock jumps from one task to the next. A task that sleeps
+ * through {@link #sleep(long)} or waits for a future of this scheduler runs the tasks due meanwhile itself, so a recovery that
+ * waits for the miner sees the log writes and scans of that time.
+ * <p>
+ * Nothing runs after the horizon. A task that would sleep past it gets an {@link InterruptedException}, as on a shutdown, and
+ * nothing runs after that either.
+ */
+public class VirtualScheduler extends AbstractExecutorService implements ScheduledExecutorService {
+    private final VirtualClock clock;
+    private final PriorityQueue<Task<?>> queue = new PriorityQueue<>();
+    private long sequence;
+    private long horizonMillis = Long.MAX_VALUE;
+    private boolean interrupted;
+    private volatile boolean shutdown;
+
+    public VirtualScheduler(VirtualClock clock) {
+        this.clock = clock;
+    }
+
+    public VirtualClock getClock() {
+        return clock;
+    }
+
+    public synchronized void setHorizon(long horizonMillis) {
+        this.horizonMillis = horizonMillis;
+    }
+
+    /**
+     * @return true when a sleeping task was interrupted at the horizon; the interrupt flag it may have set on the thread belongs to
+     * the scheduler, not to its caller
+     */
+    public synchronized boolean hasInterrupted() {
+        return interrupted;
+    }
+
+    /**
+     * Runs the next task due before the horizon.
+     *
+     * @return false when there is none or a task was interrupted at the horizon
+     */
+    public boolean runNext() throws InterruptedException {
+        Task<?> task;
+        synchronized (this) {
+            task = queue.peek();
+            if (task == null || task.timeMillis > horizonMillis || interrupted) {
+                return false;
+            }
+            queue.poll();
+        }
+        clock.sleepUntil(task.timeMillis);
+        task.run();
+        return true;
+    }
+
+    /**
+     * Runs the tasks due within the duration and moves the clock to its end, in place of {@link TimeUnit#sleep(long)}.
+     *
+     * @throws InterruptedException when the sleep would end after the horizon
+     */
+    public void sleep(long durationMillis) throws InterruptedException {
+        long target = clock.millis() + durationMillis;
+        long horizon;
+        synchronized (this) {
+            horizon = horizonMillis;
+        }
+        while (hasTaskUntil(Math.min(target, horizon))) {
+            runNext();
+        }
+        if (target > horizon || hasInterrupted()) {
+            clock.sleepUntil(Math.min(target, horizon));
+            synchronized (this) {
+                interrupted = true;
+            }
+            throw new InterruptedException("Replay has ended");
+        }
+        clock.sleepUntil(target);
+    }
+
+    private synchronized boolean hasTaskUntil(long timeMillis) {
+        Task<?> task = queue.peek();
+        return task != null && task.timeMillis <= timeMillis && !interrupted;
+    }
+
+    private <V> Task<V> enqueue(Task<V> task) {
+        synchronized (this) {
+            if (shutdown) {
+                throw new RejectedExecutionException("Scheduler is shut down");
+            }
+            task.sequence = sequence++;
+            queue.add(task);
+        }
+        return task;
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new Task<>(callable, clock.millis(), 0);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new Task<>(Executors.callable(runnable, value), clock.millis(), 0);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command instanceof Task) {
+            enqueue((Task<?>) command);
+        } else {
+            enqueue(new Task<>(Executors.callable(command), clock.millis(), 0));
+        }
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return enqueue(new Task<>(Executors.callable(command), clock.millis() + unit.toMillis(delay), 0));
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        return enqueue(new Task<>(callable, clock.millis() + unit.toMillis(delay), 0));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Period must be positive: " + period);
+        }
+        return enqueue(new Task<>(Executors.callable(command), clock.millis() + unit.toMillis(initialDelay), unit.toMillis(period)));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        if (delay <= 0) {
+            throw new IllegalArgumentException("Delay must be positive: " + delay);
+        }
+        return enqueue(new Task<>(Executors.callable(command), clock.millis() + unit.toMillis(initialDelay), -unit.toMillis(delay)));
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        shutdown = true;
+        queue.removeIf(Task::isPeriodic);
+    }
+
+    @Override
+    public synchronized List<Runnable> shutdownNow() {
+        shutdown = true;
+        List<Runnable> pending = new ArrayList<>(queue);
+        queue.clear();
+        return pending;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public synchronized boolean isTerminated() {
+        return shutdown && queue.isEmpty();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        return isTerminated();
+    }
+
+    private class Task<V> extends FutureTask<V> implements RunnableScheduledFuture<V> {
+        private long timeMillis;
+        private final long periodMillis;
+        private long sequence;
+
+        /**
+         * @param periodMillis 0 to run once, positive for a fixed rate, negative for a fixed delay
+         */
+        private Task(Callable<V> callable, long timeMillis, long periodMillis) {
+            super(callable);
+            this.timeMillis = timeMillis;
+            this.periodMillis = periodMillis;
+        }
+
+        @Override
+        public boolean isPeriodic() {
+            return periodMillis != 0;
+        }
+
+        @Override
+        public void run() {
+            if (!isPeriodic()) {
+                super.run();
+            } else if (runAndReset() && !shutdown) {
+                timeMillis = periodMillis > 0 ? timeMillis + periodMillis : clock.millis() - periodMillis;
+                enqueue(this);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            synchronized (VirtualScheduler.this) {
+                queue.remove(this);
+            }
+            return super.cancel(mayInterruptIfRunning);
+        }
+
+        /**
+         * Runs the tasks before this one until it is done.
+         */
+        @Override
+        public V get() throws InterruptedException, ExecutionException {
+            while (!isDone()) {
+                if (!runNext()) {
+                    throw new InterruptedException("Task is not run before the end of the replay");
+                }
+            }
+            return super.get();
+        }
+
+        @Override
+        public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            long deadline = clock.millis() + unit.toMillis(timeout);
+            while (!isDone() && hasTaskUntil(deadline)) {
+                runNext();
+            }
+            if (!isDone()) {
+                throw new TimeoutException();
+            }
+            return super.get();
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(timeMillis - clock.millis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            Task<?> task = (Task<?>) other;
+            int byTime = Long.compare(timeMillis, task.timeMillis);
+            return byTime != 0 ? byTime : Long.compare(sequence, task.sequence);
+        }
+    }
+}
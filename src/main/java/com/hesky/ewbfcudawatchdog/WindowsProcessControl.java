@@ -0,0 +1,216 @@
+package com.hesky.ewbfcudawatchdog;
+
+import org.slf4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Process control through {@code tasklist}, {@code TASKKILL} and {@code SHUTDOWN}. The output of every tool is read to the end
+ * before its exit code is checked. Programs are started directly, without {@code cmd.exe}.
+ * <p>
+ * A kill lists the processes once and runs one {@code TASKKILL /F /T} for the found pids; console miners do not handle the close
+ * request anyway. With {@code gracefulKill=1} they are asked to close first and get the grace period. The descendants taken down by
+ * {@code /T} are collected before the kill, and the exit of every process of the tree is awaited. Both go through
+ * {@code ProcessHandle} where the runtime has it, otherwise through {@code wmic} and {@code tasklist} filtered to the pid. Image
+ * names are matched without regard to case, like {@code TASKKILL /IM} does.
+ */
+public class WindowsProcessControl implements ProcessControl {
+    private static final Logger LOG = getLogger(WindowsProcessControl.class);
+    private static final Charset CONSOLE_CHARSET = Charset.forName("cp866");
+    private static final long EXIT_POLL_MILLIS = 50;
+
+    private final long gracePeriodMillis;
+    private final boolean graceful;
+
+    public WindowsProcessControl(long gracePeriodMillis, boolean graceful) {
+        this.gracePeriodMillis = gracePeriodMillis;
+        this.graceful = graceful;
+    }
+
+    private static class Result {
+        private final int exitCode;
+        private final String output;
+
+        private Result(int exitCode, String output) {
+            this.exitCode = exitCode;
+            this.output = output;
+        }
+    }
+
+    private static Result run(String... command) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream in = process.getInputStream()) {
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) != -1; ) {
+                output.write(buffer, 0, n);
+            }
+        }
+        return new Result(process.waitFor(), new String(output.toByteArray(), CONSOLE_CHARSET));
+    }
+
+    @Override
+    public List<ProcessInfo> find(String pattern) throws IOException {
+        try {
+            Result result = run("tasklist", "/FO", "CSV", "/NH");
+            List<ProcessInfo> found = new ArrayList<>();
+            for (String line : result.output.split("\r?\n")) {
+                String[] fields = line.split("\",\"");
+                if (fields.length < 2) {
+                    continue;
+                }
+                String name = fields[0].replace("\"", "");
+                ProcessInfo process = new ProcessInfo(Long.parseLong(fields[1].trim()), -1, name, name);
+                if (process.matches(pattern, true)) {
+                    found.add(process);
+                }
+            }
+            return found;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Listing processes is interrupted", e);
+        }
+        catch (NumberFormatException e) {
+            throw new IOException("Wrong tasklist output", e);
+        }
+    }
+
+    @Override
+    public boolean kill(String pattern) throws IOException, InterruptedException {
+        List<Long> pids = new ArrayList<>();
+        for (ProcessInfo process : find(pattern)) {
+            pids.add(process.getPid());
+        }
+        if (pids.isEmpty()) {
+            LOG.warn("Kill process for {} was finished with errors! Process is not found", pattern);
+            return false;
+        }
+        Set<Long> tree = withDescendants(pids);
+        LOG.debug("Stopping {} with descendants {}", pids, tree);
+        if (graceful) {
+            run(taskkill(pids, false));
+            if (awaitExit(tree)) {
+                LOG.info("Kill process for {} was successfully finished!", pattern);
+                return true;
+            }
+        }
+        Result result = run(taskkill(pids, true));
+        if (awaitExit(tree)) {
+            LOG.info("Kill process for {} was successfully finished!", pattern);
+            return true;
+        }
+        LOG.warn("Kill process for {} was finished with errors!", pattern);
+        LOG.error("Error message from taskkill: {}", result.output);
+        return false;
+    }
+
+    private static String[] taskkill(List<Long> pids, boolean forcibly) {
+        List<String> command = new ArrayList<>();
+        command.add("TASKKILL");
+        if (forcibly) {
+            command.add("/F");
+        }
+        command.add("/T");
+        for (Long pid : pids) {
+            command.add("/PID");
+            command.add(Long.toString(pid));
+        }
+        return command.toArray(new String[0]);
+    }
+
+    /**
+     * @return the pids with their descendants, or only the pids when the descendants cannot be listed
+     */
+    private static Set<Long> withDescendants(List<Long> pids) throws IOException, InterruptedException {
+        try {
+            Class<?> handles = Class.forName("java.lang.ProcessHandle");
+            Set<Long> tree = new LinkedHashSet<>(pids);
+            for (Long pid : pids) {
+                Optional<?> handle = (Optional<?>) handles.getMethod("of", long.class).invoke(null, pid);
+                if (handle.isPresent()) {
+                    for (Object descendant : ((Stream<?>) handles.getMethod("descendants").invoke(handle.get())).toArray()) {
+                        tree.add((Long) handles.getMethod("pid").invoke(descendant));
+                    }
+                }
+            }
+            return tree;
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            List<ProcessInfo> all = new ArrayList<>();
+            for (String line : run("wmic", "process", "get", "ParentProcessId,ProcessId", "/FORMAT:CSV").output.split("\r?\n")) {
+                String[] fields = line.trim().split(",");
+                try {
+                    if (fields.length == 3) {
+                        all.add(new ProcessInfo(Long.parseLong(fields[2]), Long.parseLong(fields[1]), "", ""));
+                    }
+                }
+                catch (NumberFormatException notPid) {
+                    LOG.debug("Skipping wmic line {}", line);
+                }
+            }
+            return ProcessInfo.withDescendants(all, pids);
+        }
+    }
+
+    private boolean awaitExit(Collection<Long> pids) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(gracePeriodMillis);
+        for (Long pid : pids) {
+            while (isAlive(pid)) {
+                if (System.nanoTime() - deadline >= 0) {
+                    return false;
+                }
+                TimeUnit.MILLISECONDS.sleep(EXIT_POLL_MILLIS);
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAlive(long pid) throws IOException, InterruptedException {
+        try {
+            Class<?> handles = Class.forName("java.lang.ProcessHandle");
+            Optional<?> handle = (Optional<?>) handles.getMethod("of", long.class).invoke(null, pid);
+            return handle.isPresent() && (Boolean) handles.getMethod("isAlive").invoke(handle.get());
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            return run("tasklist", "/FI", "PID eq " + pid, "/FO", "CSV", "/NH").output.contains("\"" + pid + "\"");
+        }
+    }
+
+    @Override
+    public Process start(String program, Path directory, List<String> arguments, boolean captureOutput) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessControl.resolveProgram(program, directory).toString());
+        command.addAll(arguments);
+        LOG.info("Starting {}", command);
+        ProcessBuilder builder = new ProcessBuilder(command).redirectErrorStream(true);
+        if (!captureOutput) {
+            builder.redirectOutput(new File("NUL"));
+        }
+        if (directory != null) {
+            builder.directory(directory.toFile());
+        }
+        return builder.start();
+    }
+
+    @Override
+    public void reboot(int delaySeconds, String message) throws IOException {
+        new ProcessBuilder(Arrays.asList("SHUTDOWN", "/r", "/t", Integer.toString(delaySeconds), "/f", "/c", message)).start();
+    }
+}
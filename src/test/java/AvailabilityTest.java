@@ -0,0 +1,156 @@
+import com.hesky.ewbfcudawatchdog.Availability;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AvailabilityTest {
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private Path directory;
+    private long nanos = 1_000_000_000L;
+    private long wall = TimeUnit.DAYS.toMillis(17000);
+    private Availability availability;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("watchdog-test");
+        availability = new Availability(() -> nanos, () -> wall);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private void advance(long millis) {
+        nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        wall += millis;
+    }
+
+    @Test
+    public void testBooksTimePerState() {
+        availability.set("zec", Availability.State.HEALTHY);
+        advance(50 * MINUTE);
+        availability.set("zec", Availability.State.RECOVERING);
+        advance(2 * MINUTE);
+        availability.set("zec", Availability.State.HEALTHY);
+        advance(8 * MINUTE);
+        availability.tick();
+
+        assertEquals(58 * MINUTE, availability.getTotalMillis("zec", Availability.State.HEALTHY));
+        assertEquals(2 * MINUTE, availability.getTotalMillis("zec", Availability.State.RECOVERING));
+        assertEquals(1, availability.getFailures("zec"));
+        assertEquals(58.0 / 60, availability.getAvailability("zec", 24), 1e-9);
+        assertEquals(58 * MINUTE, availability.getMtbfMillis("zec"), 1e-9);
+        assertEquals(2 * MINUTE, availability.getMttrMillis("zec"), 1e-9);
+    }
+
+    @Test
+    public void testGettersIncludeTheStateInProgress() {
+        availability.set("zec", Availability.State.HEALTHY);
+        advance(30 * MINUTE);
+        availability.set("zec", Availability.State.RECOVERING);
+        advance(10 * MINUTE);
+
+        assertEquals(10 * MINUTE, availability.getTotalMillis("zec", Availability.State.RECOVERING));
+        assertEquals(0.75, availability.getAvailability("zec", 24), 1e-9);
+        assertEquals(10 * MINUTE, availability.getMttrMillis("zec"), 1e-9);
+        advance(10 * MINUTE);
+        assertEquals(20 * MINUTE, availability.getMttrMillis("zec"), 1e-9);
+        assertEquals(20 * MINUTE, availability.getDayMillis("zec", Availability.State.RECOVERING, 1));
+    }
+
+    @Test
+    public void testWallClockJumpDoesNotChangeDurations() {
+        availability.set("zec", Availability.State.HEALTHY);
+        nanos += TimeUnit.MINUTES.toNanos(10);
+        wall -= 3 * HOUR;
+        availability.tick();
+
+        assertEquals(10 * MINUTE, availability.getTotalMillis("zec", Availability.State.HEALTHY));
+    }
+
+    @Test
+    public void testFailureCountedOnlyFromHashingState() {
+        availability.set("zec", Availability.State.RECOVERING);
+        availability.set("zec", Availability.State.REBOOTING);
+        availability.set("zec", Availability.State.RECOVERING);
+        availability.set("zec", Availability.State.DEGRADED);
+        availability.set("zec", Availability.State.RECOVERING);
+
+        assertEquals(2, availability.getFailures("zec"));
+        assertTrue(Double.isNaN(availability.getMtbfMillis("other")));
+        assertTrue(Double.isNaN(availability.getAvailability("other", 24)));
+        assertEquals("n/a", Availability.percent(Double.NaN));
+        assertEquals("99.5%", Availability.percent(0.995));
+    }
+
+    @Test
+    public void testOldHoursLeaveTheWindow() {
+        availability.set("zec", Availability.State.RECOVERING);
+        advance(HOUR);
+        availability.set("zec", Availability.State.HEALTHY);
+        advance(30 * HOUR);
+        availability.tick();
+
+        assertEquals(0, availability.getMillis("zec", Availability.State.RECOVERING, 24));
+        assertEquals(1.0, availability.getAvailability("zec", 24), 1e-9);
+        assertEquals(HOUR, availability.getMillis("zec", Availability.State.RECOVERING, Availability.HOURS));
+        assertEquals(HOUR, availability.getDayMillis("zec", Availability.State.RECOVERING, 7));
+
+        advance(TimeUnit.DAYS.toMillis(Availability.HOURS / 24));
+        availability.tick();
+        assertEquals(0, availability.getMillis("zec", Availability.State.RECOVERING, Availability.HOURS));
+        assertEquals(HOUR, availability.getTotalMillis("zec", Availability.State.RECOVERING));
+    }
+
+    @Test
+    public void testAddBooksOutsideTime() {
+        availability.add("zec/GPU0", Availability.State.REBOOTING, 3 * MINUTE);
+
+        assertEquals(3 * MINUTE, availability.getMillis("zec/GPU0", Availability.State.REBOOTING, 1));
+        assertEquals(Availability.State.HEALTHY, availability.getState("zec/GPU0"));
+    }
+
+    @Test
+    public void testPersistAndLoad() throws IOException {
+        availability.set("zec", Availability.State.HEALTHY);
+        availability.set("zec/GPU1", Availability.State.HEALTHY);
+        advance(40 * MINUTE);
+        availability.set("zec/GPU1", Availability.State.RECOVERING);
+        advance(5 * MINUTE);
+        Path file = directory.resolve("availability.bin");
+        availability.persist(file);
+
+        Availability loaded = new Availability(() -> nanos, () -> wall);
+        loaded.load(file);
+
+        assertEquals(2, loaded.getSubjects().size());
+        assertEquals(45 * MINUTE, loaded.getTotalMillis("zec", Availability.State.HEALTHY));
+        assertEquals(5 * MINUTE, loaded.getMillis("zec/GPU1", Availability.State.RECOVERING, 24));
+        assertEquals(1, loaded.getFailures("zec/GPU1"));
+        assertEquals(Availability.State.HEALTHY, loaded.getState("zec/GPU1"));
+        assertTrue(Files.size(file) < 1024);
+    }
+
+    @Test(expected = IOException.class)
+    public void testLoadRejectsOtherFiles() throws IOException {
+        Path file = directory.resolve("availability.bin");
+        availability.persist(file);
+        Files.write(file, new byte[]{0x1f, (byte) 0x8b, 0, 0});
+        availability.load(file);
+    }
+}
@@ -0,0 +1,170 @@
+import com.hesky.ewbfcudawatchdog.FleetCollector;
+import com.hesky.ewbfcudawatchdog.FleetEvent;
+import com.hesky.ewbfcudawatchdog.FleetReporter;
+import com.hesky.ewbfcudawatchdog.Incident;
+import com.hesky.ewbfcudawatchdog.Metrics;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+public class FleetTest {
+    private FleetCollector collector;
+    private InetSocketAddress address;
+
+    @Before
+    public void setUp() throws Exception {
+        collector = new FleetCollector(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 60000, 25, 60000).start();
+        address = new InetSocketAddress(InetAddress.getLoopbackAddress(), collector.getPort());
+    }
+
+    @After
+    public void tearDown() {
+        collector.close();
+    }
+
+    private static void awaitCount(long expected, LongSupplier count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (count.getAsLong() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(expected, count.getAsLong());
+    }
+
+    private static void report(FleetReporter reporter) {
+        reporter.heartbeat("0.1d", 1000);
+        reporter.incident(new Incident(LocalDateTime.now(), "zec", 1, "hang notResponse"));
+        reporter.recovery("zec", 1, "restart", true, 25000);
+        reporter.recovery("zec", 1, "exclude", false, 0);
+        reporter.reboot(new Incident(LocalDateTime.now(), "zec", 1, "hang after exclude"));
+    }
+
+    @Test(timeout = 10000)
+    public void testEventsAreAggregatedOverUdp() throws Exception {
+        try (FleetReporter reporter = new FleetReporter("rig-1", address, false, 16, 1400, 50).start()) {
+            report(reporter);
+            awaitCount(5, collector::getEvents);
+            Assert.assertEquals(5, reporter.getSent());
+            Assert.assertEquals(0, reporter.getDropped());
+        }
+        Assert.assertEquals(1, collector.getRigs());
+        Assert.assertEquals(1, collector.getAliveRigs());
+        Assert.assertEquals(1, collector.getHeartbeats("rig-1"));
+        Assert.assertEquals(1, collector.getIncidents("rig-1"));
+        Assert.assertEquals(1, collector.getRecoveries("rig-1", "restart", true));
+        Assert.assertEquals(1, collector.getRecoveries("rig-1", "exclude", false));
+        Assert.assertEquals(0, collector.getRecoveries("rig-1", "exclude", true));
+        Assert.assertEquals(1, collector.getRebootsLastHour());
+        Assert.assertTrue(collector.getMetrics().toString().contains("fleet_recoveries_total{rig=\"rig-1\",action=\"restart\"," +
+                "result=\"success\"} 1"));
+    }
+
+    @Test(timeout = 10000)
+    public void testManyRigsReportOverTcpInSmallBatches() throws Exception {
+        FleetReporter[] reporters = new FleetReporter[20];
+        for (int i = 0; i < reporters.length; i++) {
+            reporters[i] = new FleetReporter("rig-" + i, address, true, 256, 200, 20).start();
+            for (int j = 0; j < 50; j++) {
+                reporters[i].heartbeat("0.1d", j);
+            }
+        }
+        awaitCount(20 * 50, collector::getEvents);
+        for (FleetReporter reporter : reporters) {
+            reporter.close();
+        }
+        Assert.assertEquals(20, collector.getRigs());
+        Assert.assertEquals(50, collector.getHeartbeats("rig-7"));
+        Assert.assertEquals(0, collector.getMalformed());
+    }
+
+    private static void receive(FleetCollector collector, String rig) {
+        byte[] line = new FleetEvent(FleetEvent.Type.HEARTBEAT, rig, 1234, "0.1d", 0, "", 0).format().getBytes(StandardCharsets.UTF_8);
+        collector.onLine(line, 0, line.length);
+    }
+
+    private static void receiveReboot(FleetCollector collector, long timeMillis) {
+        byte[] line = new FleetEvent(FleetEvent.Type.REBOOT, "rig-a", timeMillis, "zec", 1, "hang", 0).format().getBytes(StandardCharsets
+                .UTF_8);
+        collector.onLine(line, 0, line.length);
+    }
+
+    @Test
+    public void testRebootsOfTheLastHourAreBounded() throws Exception {
+        FleetCollector counting = new FleetCollector(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 60000, 2, 60000);
+        try {
+            long now = System.currentTimeMillis();
+            receiveReboot(counting, now - TimeUnit.HOURS.toMillis(2));
+            Assert.assertEquals(0, counting.getRebootsLastHour());
+            receiveReboot(counting, now + TimeUnit.DAYS.toMillis(365));
+            for (int i = 0; i < 1000; i++) {
+                receiveReboot(counting, now - TimeUnit.MINUTES.toMillis(i % 2 == 0 ? 10 : 90));
+            }
+            Assert.assertEquals(501, counting.getRebootsLastHour());
+            Assert.assertEquals(1002, counting.getMetrics().getCounter("fleet_reboots_total", Metrics.label("rig", "rig-a")));
+        }
+        finally {
+            counting.close();
+        }
+    }
+
+    @Test
+    public void testRigsAreCappedAndExpired() throws Exception {
+        FleetCollector capped = new FleetCollector(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 60000, 2, 60000);
+        try {
+            receive(capped, "rig-a");
+            receive(capped, "rig-b");
+            receive(capped, "rig-c");
+            receive(capped, "rig-a");
+            Assert.assertEquals(2, capped.getRigs());
+            Assert.assertEquals(3, capped.getEvents());
+            Assert.assertEquals(1, capped.getRejected());
+            Assert.assertEquals(0, capped.getHeartbeats("rig-c"));
+        }
+        finally {
+            capped.close();
+        }
+
+        FleetCollector expiring = new FleetCollector(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 60000, 2, 0);
+        try {
+            receive(expiring, "rig-a");
+            receive(expiring, "rig-b");
+            receive(expiring, "rig-c");
+            Assert.assertEquals(1, expiring.getRigs());
+            Assert.assertEquals(1, expiring.getHeartbeats("rig-c"));
+            Assert.assertFalse(expiring.getMetrics().toString().contains("rig-a"));
+        }
+        finally {
+            expiring.close();
+        }
+    }
+
+    @Test
+    public void testFullQueueDropsAndCounts() {
+        FleetReporter reporter = new FleetReporter("rig-1", address, false, 2, 1400, 50);
+        Assert.assertTrue(reporter.heartbeat("0.1d", 1));
+        Assert.assertTrue(reporter.heartbeat("0.1d", 2));
+        Assert.assertFalse(reporter.heartbeat("0.1d", 3));
+        Assert.assertFalse(reporter.recovery("zec", 0, "restart", true, 1));
+        Assert.assertEquals(2, reporter.getDropped());
+        Assert.assertEquals(0, reporter.getSent());
+    }
+
+    @Test
+    public void testEventLineFormat() {
+        FleetEvent event = new FleetEvent(FleetEvent.Type.INCIDENT, "rig|1", 1234, "zec", 0, "hang\nnow", 0);
+        Assert.assertEquals("INCIDENT|rig/1|1234|zec|0|hang now|0", event.format());
+        FleetEvent parsed = FleetEvent.parse(event.format());
+        Assert.assertEquals(FleetEvent.Type.INCIDENT, parsed.getType());
+        Assert.assertEquals("rig/1", parsed.getRig());
+        Assert.assertEquals(1234, parsed.getTimeMillis());
+        Assert.assertNull(FleetEvent.parse("INCIDENT|rig|x|zec|0|hang|0"));
+        Assert.assertNull(FleetEvent.parse("garbage"));
+    }
+}
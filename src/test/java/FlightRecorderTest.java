@@ -0,0 +1,91 @@
+import com.hesky.ewbfcudawatchdog.FlightRecorder;
+import com.hesky.ewbfcudawatchdog.HangDetector;
+import com.hesky.ewbfcudawatchdog.Incident;
+import com.hesky.ewbfcudawatchdog.LogTailer;
+import com.hesky.ewbfcudawatchdog.Main;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+public class FlightRecorderTest {
+    private Path testDir;
+
+    @Before
+    public void setUp() throws Exception {
+        testDir = Files.createTempDirectory("watchdog-test");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Stream<Path> paths = Files.walk(testDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private static void write(FlightRecorder recorder, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        recorder.write(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void testWindowKeepsLastBytes() {
+        FlightRecorder recorder = new FlightRecorder(8);
+        write(recorder, "abcde");
+        Assert.assertEquals("abcde", new String(recorder.window(), StandardCharsets.US_ASCII));
+        write(recorder, "fghij");
+        Assert.assertEquals("cdefghij", new String(recorder.window(), StandardCharsets.US_ASCII));
+        write(recorder, "0123456789AB");
+        Assert.assertEquals("456789AB", new String(recorder.window(), StandardCharsets.US_ASCII));
+        Assert.assertEquals(22, recorder.getWritten());
+        recorder.clear();
+        Assert.assertEquals(0, recorder.window().length);
+    }
+
+    @Test
+    public void testSnapshotStartsAtCompleteLine() throws Exception {
+        FlightRecorder recorder = new FlightRecorder(40);
+        for (int i = 0; i < 10; i++) {
+            write(recorder, "Total speed: " + i + "\n");
+        }
+        write(recorder, "GPU1 not respond\n");
+        Path snapshot = recorder.snapshot(testDir, new Incident(LocalDateTime.of(2017, 9, 8, 12, 33), "zec", 1, "hang notResponse"));
+        Assert.assertTrue(snapshot.getFileName().toString().endsWith(" zec.snapshot"));
+        String text = new String(Files.readAllBytes(snapshot), StandardCharsets.UTF_8);
+        Assert.assertTrue(text, text.startsWith("miner=zec\ndevice=1\nreason=hang notResponse\ndetected=2017-09-08T12:33\n"));
+        Assert.assertTrue(text, text.contains("\nbytes=32\ntotalBytes=167\n\nTotal speed: 9\nGPU1 not respond\n"));
+        Assert.assertTrue(text, text.endsWith("\n\nTotal speed: 9\nGPU1 not respond\n"));
+
+        Path second = recorder.snapshot(testDir, new Incident(LocalDateTime.of(2017, 9, 8, 12, 33), "zec", 1, "again"));
+        Assert.assertFalse(snapshot.equals(second));
+        Assert.assertTrue(Files.exists(second));
+    }
+
+    @Test
+    public void testWindowWithoutLineEndIsKept() throws Exception {
+        FlightRecorder recorder = new FlightRecorder(16);
+        for (int i = 0; i < 5; i++) {
+            write(recorder, "progress 0123456789 ");
+        }
+        Path snapshot = recorder.snapshot(testDir, new Incident(LocalDateTime.of(2017, 9, 8, 12, 33), "zec", -1, "stall"));
+        String text = new String(Files.readAllBytes(snapshot), StandardCharsets.UTF_8);
+        Assert.assertTrue(text, text.endsWith("\nbytes=16\ntotalBytes=100\n\nress 0123456789 "));
+    }
+
+    @Test
+    public void testTailerFeedsRecorder() throws Exception {
+        Path log = testDir.resolve("miner.log");
+        Files.write(log, "line 1\nline 2\n".getBytes(StandardCharsets.US_ASCII));
+        FlightRecorder recorder = new FlightRecorder(1024);
+        LogTailer tailer = new LogTailer(log, new HangDetector(Main.getParams(), 2), recorder);
+        tailer.poll();
+        Assert.assertEquals("line 1\nline 2\n", new String(recorder.window(), StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,134 @@
+import com.hesky.ewbfcudawatchdog.HangDetector;
+import com.hesky.ewbfcudawatchdog.HashrateTracker;
+import com.hesky.ewbfcudawatchdog.Main;
+import com.hesky.ewbfcudawatchdog.SampleRing;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class HashrateTrackerTest {
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+    private Properties params;
+    private HangDetector hangDetector;
+
+    @Before
+    public void setUp() {
+        params = new Properties();
+        params.putAll(Main.getParams());
+        params.setProperty("minHashrate", "300");
+        params.setProperty("lowHashrateWindow", "60000");
+        params.setProperty("shareTimeout", "0");
+        hangDetector = new HangDetector(params, 2);
+    }
+
+    private static void line(HashrateTracker tracker, String line) {
+        byte[] bytes = ("xx" + line + "yy").getBytes(StandardCharsets.UTF_8);
+        tracker.onLine(bytes, 2, bytes.length - 4);
+    }
+
+    @Test
+    public void testHashratesAreParsedPerDevice() {
+        HashrateTracker tracker = new HashrateTracker(params, 2, clock::get, hangDetector);
+        line(tracker, "GPU0: 450 Sol/s GPU1: 452.5 Sol/s");
+        Assert.assertEquals(450, tracker.getHashrate(0), 0);
+        Assert.assertEquals(452.5, tracker.getHashrate(1), 1e-9);
+        line(tracker, "Total speed: 902 Sol/s");
+        line(tracker, "GPU7: 450 Sol/s GPU1 temperature: 70C");
+        Assert.assertEquals(452.5, tracker.getHashrate(1), 1e-9);
+        line(tracker, "INFO 16:09:42: GPU1 Accepted share 47ms [A:1, R:0]");
+        Assert.assertEquals(clock.get(), tracker.getLastShareTime(1));
+        Assert.assertEquals(0, tracker.getLastShareTime(0));
+    }
+
+    @Test
+    public void testLowHashrateForWholeWindowDegradesDevice() {
+        HashrateTracker tracker = new HashrateTracker(params, 2, clock::get, hangDetector);
+        line(tracker, "GPU0: 450 Sol/s GPU1: 450 Sol/s");
+        for (int i = 0; i < 6; i++) {
+            clock.addAndGet(10_000);
+            line(tracker, "GPU0: 450 Sol/s GPU1: 270 Sol/s");
+            Assert.assertFalse(tracker.isDegraded());
+        }
+        clock.addAndGet(10_000);
+        line(tracker, "GPU0: 450 Sol/s GPU1: 270 Sol/s");
+        Assert.assertTrue(tracker.isDegraded());
+        Assert.assertEquals(1, tracker.getDegradedDevice());
+        Assert.assertTrue(tracker.getDegradation().startsWith("GPU1 is below"));
+
+        tracker.reset();
+        Assert.assertFalse(tracker.isDegraded());
+        Assert.assertEquals(-1, tracker.getDegradedDevice());
+    }
+
+    @Test
+    public void testDeviceLimitOverridesTheDefault() {
+        params.setProperty("minHashrate.0", "500");
+        params.setProperty("minHashrate.1", "0");
+        HashrateTracker tracker = new HashrateTracker(params, 2, clock::get, hangDetector);
+        for (int i = 0; i < 8; i++) {
+            line(tracker, "GPU0: 450 Sol/s GPU1: 100 Sol/s");
+            clock.addAndGet(10_000);
+        }
+        Assert.assertTrue(tracker.isDegraded());
+        Assert.assertEquals(0, tracker.getDegradedDevice());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRingTooSmallForTheWindowIsRejected() {
+        params.setProperty("hashrateSamples", "30");
+        params.setProperty("hashrateInterval", "2000");
+        new HashrateTracker(params, 2, clock::get, hangDetector);
+    }
+
+    @Test
+    public void testShortDropIsTolerated() {
+        HashrateTracker tracker = new HashrateTracker(params, 2, clock::get, hangDetector);
+        for (int i = 0; i < 20; i++) {
+            clock.addAndGet(10_000);
+            line(tracker, "GPU0: " + (i % 5 == 0 ? 450 : 200) + " Sol/s");
+        }
+        Assert.assertFalse(tracker.isDegraded());
+    }
+
+    @Test
+    public void testMissingSharesDegradeMiner() {
+        params.setProperty("minHashrate", "0");
+        params.setProperty("shareTimeout", "300000");
+        HashrateTracker tracker = new HashrateTracker(params, 2, clock::get, hangDetector);
+        clock.addAndGet(200_000);
+        line(tracker, "INFO 16:09:42: GPU0 Accepted share 47ms [A:1, R:0]");
+        clock.addAndGet(299_000);
+        Assert.assertFalse(tracker.isDegraded());
+        clock.addAndGet(1_000);
+        Assert.assertTrue(tracker.isDegraded());
+        Assert.assertEquals(-1, tracker.getDegradedDevice());
+    }
+
+    @Test
+    public void testLinesArePassedOn() {
+        HashrateTracker tracker = new HashrateTracker(params, 2, clock::get, hangDetector);
+        line(tracker, "ERROR: Looks like GPU1 are stuck he not respond.");
+        Assert.assertTrue(hangDetector.isHanging());
+        tracker.reset();
+        Assert.assertFalse(hangDetector.isHanging());
+    }
+
+    @Test
+    public void testSampleRingKeepsNewestSamples() {
+        SampleRing ring = new SampleRing(3);
+        for (int i = 1; i <= 5; i++) {
+            ring.add(i * 10, i);
+        }
+        Assert.assertEquals(3, ring.size());
+        Assert.assertEquals(50, ring.timeAt(0));
+        Assert.assertEquals(3, ring.valueAt(2), 0);
+        Assert.assertEquals(4.5, ring.averageSince(40), 0);
+        Assert.assertTrue(ring.allBelowSince(40, 6));
+        Assert.assertFalse(ring.allBelowSince(40, 5));
+        Assert.assertFalse(ring.allBelowSince(20, 6));
+    }
+}
@@ -0,0 +1,122 @@
+import com.hesky.ewbfcudawatchdog.LogArchive;
+import com.hesky.ewbfcudawatchdog.LogRotator;
+import com.hesky.ewbfcudawatchdog.Main;
+import com.hesky.ewbfcudawatchdog.RuleBook;
+import com.hesky.ewbfcudawatchdog.SegmentIndex;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class LogArchiveTest {
+    private static final String GPU0_LOG = "Total speed: 900 Sol/s\nline 2\nERROR: Looks like GPU0 are stuck he not respond.\nline 4\nline 5\n";
+    private static final String GPU3_LOG = "line 1\nline 2\nline 3\nERROR: Looks like GPU3 are stopped. Restart attempt.\nCUDA: Device: 3 " +
+            "Thread exited with code: 46\nline 6\nline 7\nline 8\n";
+
+    private Path testDir;
+    private Path logPath;
+    private RuleBook rules;
+
+    @Before
+    public void setUp() throws Exception {
+        testDir = Files.createTempDirectory("watchdog-test");
+        logPath = testDir.resolve("miner.log");
+        rules = RuleBook.fromParams(Main.getParams());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Stream<Path> paths = Files.walk(testDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private Path rotate(LogRotator rotator, String content) throws Exception {
+        Files.write(logPath, content.getBytes(StandardCharsets.UTF_8));
+        Path rotated = rotator.rotate(logPath, "zec");
+        Assert.assertTrue(rotator.awaitCompression(5, TimeUnit.SECONDS));
+        return rotated;
+    }
+
+    private LogArchive archive() {
+        return new LogArchive(Collections.singletonList(LogRotator.logsDirectory(logPath)), rules, 4);
+    }
+
+    @Test
+    public void testIndexIsWrittenWithCompression() throws Exception {
+        LogRotator rotator = new LogRotator(true, rules, 4);
+        Path rotated = rotate(rotator, GPU3_LOG);
+        Path compressed = rotated.resolveSibling(rotated.getFileName() + ".gz");
+        Assert.assertTrue(Files.exists(compressed));
+        SegmentIndex index = SegmentIndex.read(SegmentIndex.sidecar(compressed));
+        Assert.assertEquals(8, index.getLineCount());
+        Assert.assertArrayEquals(new int[]{3}, index.getDevices());
+        Assert.assertEquals(2, index.getMatchCount());
+        Assert.assertEquals(4, index.getLine(0));
+        Assert.assertEquals("restartAttempt", index.getPhrase(0));
+        Assert.assertEquals(5, index.getLine(1));
+        Assert.assertEquals("threadExited46Error", index.getPhrase(1));
+        Assert.assertEquals(1, index.count(3, "threadExited46Error"));
+        Assert.assertEquals(0, index.count(0, null));
+        Assert.assertTrue(index.overlaps(0, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testQuerySkipsSegmentsByIndexAndReturnsContext() throws Exception {
+        LogRotator rotator = new LogRotator(true, rules, 4);
+        rotate(rotator, GPU0_LOG);
+        rotate(rotator, GPU3_LOG);
+        rotate(rotator, "nothing here\n");
+
+        LogArchive.Result result = archive().query(new LogArchive.Query(0, Long.MAX_VALUE, 3, null, 2));
+        Assert.assertEquals(3, result.getSegmentsTotal());
+        Assert.assertEquals(1, result.getSegmentsScanned());
+        List<LogArchive.Hit> hits = result.getHits();
+        Assert.assertEquals(2, hits.size());
+        Assert.assertEquals(4, hits.get(0).getLine());
+        Assert.assertEquals(3, hits.get(0).getDevice());
+        Assert.assertEquals(Arrays.asList("line 2", "line 3", "ERROR: Looks like GPU3 are stopped. Restart attempt.", "CUDA: Device: 3 " +
+                "Thread exited with code: 46", "line 6"), hits.get(0).getContext());
+        Assert.assertEquals(2, hits.get(0).getContextLine());
+        Assert.assertEquals("threadExited46Error", hits.get(1).getPhrase());
+        Assert.assertEquals(5, hits.get(1).getContext().size());
+
+        Assert.assertEquals(0, archive().query(new LogArchive.Query(System.currentTimeMillis() + 60_000, Long.MAX_VALUE, -1, null, 0))
+                .getSegmentsScanned());
+        Assert.assertEquals(3, archive().query(new LogArchive.Query(0, Long.MAX_VALUE, -1, null, 0)).getHits().size());
+    }
+
+    @Test
+    public void testSegmentsWithoutIndexAreScanned() throws Exception {
+        LogRotator rotator = new LogRotator(false);
+        rotate(rotator, GPU0_LOG);
+        rotate(rotator, GPU3_LOG);
+
+        LogArchive.Result result = archive().query(new LogArchive.Query(0, Long.MAX_VALUE, 0, "notResponse", 1));
+        Assert.assertEquals(2, result.getSegmentsScanned());
+        Assert.assertEquals(1, result.getHits().size());
+        Assert.assertEquals(Arrays.asList("line 2", "ERROR: Looks like GPU0 are stuck he not respond.", "line 4"), result.getHits().get(0)
+                .getContext());
+
+        LogRotator indexing = new LogRotator(false, rules, 4);
+        indexing.resumePending(LogRotator.logsDirectory(logPath));
+        Assert.assertTrue(indexing.awaitCompression(5, TimeUnit.SECONDS));
+        try (Stream<Path> files = Files.list(LogRotator.logsDirectory(logPath))) {
+            Assert.assertEquals(2, files.filter(file -> file.toString().endsWith(".idx")).collect(Collectors.toList()).size());
+        }
+        result = archive().query(new LogArchive.Query(0, Long.MAX_VALUE, 0, "notResponse", 1));
+        Assert.assertEquals(1, result.getSegmentsScanned());
+        Assert.assertEquals(3, result.getHits().get(0).getLine());
+    }
+}
@@ -0,0 +1,127 @@
+import com.hesky.ewbfcudawatchdog.LogRotator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+public class LogRotatorTest {
+    private static final String CONTENT = "ERROR: Looks like GPU0 are stopped. Restart attempt.\nCUDA: Device: 0 Thread exited with code: 46\n";
+
+    private Path testDir;
+    private Path logPath;
+
+    @Before
+    public void setUp() throws Exception {
+        testDir = Files.createTempDirectory("watchdog-test");
+        logPath = testDir.resolve("miner.log");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Stream<Path> paths = Files.walk(testDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private List<Path> rotatedFiles() throws Exception {
+        try (Stream<Path> files = Files.list(LogRotator.logsDirectory(logPath))) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static String gunzip(Path path) throws Exception {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(path))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) != -1; ) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void testRotationsInTheSameMinuteGetUniqueNames() throws Exception {
+        LogRotator rotator = new LogRotator(false);
+        for (int i = 0; i < 3; i++) {
+            Files.write(logPath, CONTENT.getBytes(StandardCharsets.UTF_8));
+            Path rotated = rotator.rotate(logPath, "zec");
+            Assert.assertFalse(Files.exists(logPath));
+            Assert.assertTrue(rotated.getFileName().toString().matches(".* zec(-\\d+)?\\.txt"));
+        }
+        List<Path> files = rotatedFiles();
+        Assert.assertEquals(3, files.size());
+        for (Path file : files) {
+            Assert.assertEquals(CONTENT, new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testNameCollisionGetsTheNextSuffix() throws Exception {
+        LogRotator rotator = new LogRotator(false, null, 0, () -> 1504866780000L);
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Files.write(logPath, ("rotation " + i).getBytes(StandardCharsets.UTF_8));
+            names.add(rotator.rotate(logPath, "zec").getFileName().toString());
+        }
+        String baseName = names.get(0).substring(0, names.get(0).length() - ".txt".length());
+        Assert.assertTrue(baseName.endsWith(" zec"));
+        Assert.assertEquals(Arrays.asList(baseName + ".txt", baseName + "-1.txt", baseName + "-2.txt"), names);
+        Path logsDirectory = LogRotator.logsDirectory(logPath);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals("rotation " + i, new String(Files.readAllBytes(logsDirectory.resolve(names.get(i))), StandardCharsets
+                    .UTF_8));
+        }
+    }
+
+    @Test
+    public void testDirectoryIsResumedOnce() throws Exception {
+        Path logsDirectory = Files.createDirectories(LogRotator.logsDirectory(logPath));
+        Files.write(logsDirectory.resolve("2017-09-08 10-33-00.000.txt"), CONTENT.getBytes(StandardCharsets.UTF_8));
+        LogRotator rotator = new LogRotator(true);
+        Assert.assertEquals(1, rotator.resumePending(logsDirectory));
+        Assert.assertEquals(0, rotator.resumePending(logsDirectory));
+        Assert.assertTrue(rotator.awaitCompression(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, rotatedFiles().size());
+    }
+
+    @Test
+    public void testRotatedLogIsCompressedInBackground() throws Exception {
+        LogRotator rotator = new LogRotator(true);
+        Files.write(logPath, CONTENT.getBytes(StandardCharsets.UTF_8));
+        rotator.rotate(logPath, null);
+        Assert.assertTrue(rotator.awaitCompression(5, TimeUnit.SECONDS));
+        List<Path> files = rotatedFiles();
+        Assert.assertEquals(1, files.size());
+        Assert.assertTrue(files.get(0).toString().endsWith(".txt.gz"));
+        Assert.assertEquals(CONTENT, gunzip(files.get(0)));
+    }
+
+    @Test
+    public void testPendingCompressionIsResumed() throws Exception {
+        Path logsDirectory = Files.createDirectories(LogRotator.logsDirectory(logPath));
+        Files.write(logsDirectory.resolve("2017-09-08 10-33-00.000.txt"), CONTENT.getBytes(StandardCharsets.UTF_8));
+        Files.write(logsDirectory.resolve("2017-09-08 10-30-00.000.txt.gz.tmp"), new byte[]{1, 2, 3});
+        LogRotator rotator = new LogRotator(true);
+        rotator.resumePending(logsDirectory);
+        Assert.assertTrue(rotator.awaitCompression(5, TimeUnit.SECONDS));
+        List<Path> files = rotatedFiles();
+        Assert.assertEquals(1, files.size());
+        Assert.assertEquals("2017-09-08 10-33-00.000.txt.gz", files.get(0).getFileName().toString());
+        Assert.assertEquals(CONTENT, gunzip(files.get(0)));
+    }
+}
@@ -0,0 +1,120 @@
+import com.hesky.ewbfcudawatchdog.HangDetector;
+import com.hesky.ewbfcudawatchdog.LogTailer;
+import com.hesky.ewbfcudawatchdog.Main;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+public class LogTailerTest {
+    private static final String RESTART_ATTEMPT = "ERROR: Looks like GPU0 are stopped. Restart attempt.\n";
+    private static final String EXITED_46 = "CUDA: Device: 0 Thread exited with code: 46\n";
+    private static final String SPEED = "Speed: Gpu0 505 Sol/s, GPU1 310 Sol/s\n";
+
+    private Path testDir;
+    private Path logPath;
+    private HangDetector detector;
+    private LogTailer tailer;
+
+    @Before
+    public void setUp() throws Exception {
+        testDir = Files.createTempDirectory("watchdog-test");
+        logPath = Files.createFile(testDir.resolve("miner.log"));
+        detector = new HangDetector(Main.getParams());
+        tailer = new LogTailer(logPath, detector);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Stream<Path> paths = Files.walk(testDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private void append(String text) throws Exception {
+        Files.write(logPath, text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    }
+
+    @Test
+    public void testSequenceStateIsKeptBetweenPolls() throws Exception {
+        append(SPEED + RESTART_ATTEMPT);
+        Assert.assertEquals(SPEED.length() + RESTART_ATTEMPT.length(), tailer.poll());
+        Assert.assertFalse(detector.isHanging());
+        append(SPEED);
+        tailer.poll();
+        Assert.assertFalse(detector.isHanging());
+        append(EXITED_46);
+        Assert.assertEquals(EXITED_46.length(), tailer.poll());
+        Assert.assertTrue(detector.isHanging());
+    }
+
+    @Test
+    public void testPollReadsOnlyNewBytes() throws Exception {
+        append(SPEED + SPEED);
+        Assert.assertEquals(2 * SPEED.length(), tailer.poll());
+        Assert.assertEquals(0, tailer.poll());
+        append(SPEED);
+        Assert.assertEquals(SPEED.length(), tailer.poll());
+        Assert.assertEquals(3 * SPEED.length(), tailer.getOffset());
+    }
+
+    @Test
+    public void testPartialLineIsCompletedByNextPoll() throws Exception {
+        append(RESTART_ATTEMPT + EXITED_46.substring(0, 20));
+        tailer.poll();
+        Assert.assertFalse(detector.isHanging());
+        append(EXITED_46.substring(20));
+        tailer.poll();
+        Assert.assertTrue(detector.isHanging());
+    }
+
+    @Test
+    public void testTruncationResetsState() throws Exception {
+        append(SPEED + SPEED + RESTART_ATTEMPT);
+        tailer.poll();
+        Files.write(logPath, EXITED_46.getBytes(StandardCharsets.UTF_8), StandardOpenOption.TRUNCATE_EXISTING);
+        Assert.assertEquals(EXITED_46.length(), tailer.poll());
+        Assert.assertFalse(detector.isHanging());
+    }
+
+    @Test
+    public void testReplacementResetsState() throws Exception {
+        append(RESTART_ATTEMPT);
+        tailer.poll();
+        Path logsDirectory = Files.createDirectory(testDir.resolve("logs"));
+        Files.move(logPath, logsDirectory.resolve("old.txt"));
+        Files.write(logPath, (SPEED + SPEED + EXITED_46).getBytes(StandardCharsets.UTF_8));
+        tailer.poll();
+        Assert.assertFalse(detector.isHanging());
+    }
+
+    @Test
+    public void testCrLfLines() throws Exception {
+        append(RESTART_ATTEMPT.replace("\n", "\r\n") + EXITED_46.replace("\n", "\r\n"));
+        tailer.poll();
+        Assert.assertTrue(detector.isHanging());
+    }
+
+    @Test
+    public void testIsHangingUpOnFixtures() throws Exception {
+        Assert.assertTrue(Main.isHangingUp(resource("miner.log")));
+        Assert.assertTrue(Main.isHangingUp(resource("restart-file.txt")));
+        Assert.assertTrue(Main.isHangingUp(resource("connection-lost-miner.log")));
+        Assert.assertFalse(Main.isHangingUp(resource("empty-file.txt")));
+        Assert.assertFalse(Main.isHangingUp(resource("empty-lines-file.txt")));
+        Assert.assertFalse(Main.isHangingUp(resource("wrong-file.txt")));
+        Assert.assertFalse(Main.isHangingUp(resource("correct-restart-file.txt")));
+    }
+
+    private static Path resource(String name) throws Exception {
+        return new File(LogTailerTest.class.getResource(name).toURI()).toPath();
+    }
+}
@@ -0,0 +1,91 @@
+import com.hesky.ewbfcudawatchdog.ChangeNotifier;
+import com.hesky.ewbfcudawatchdog.LogWatcher;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+public class LogWatcherTest {
+    private Path testDir;
+    private Path logPath;
+
+    @Before
+    public void setUp() throws Exception {
+        testDir = Files.createTempDirectory("watchdog-test");
+        logPath = Files.createFile(testDir.resolve("miner.log"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Stream<Path> paths = Files.walk(testDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testWriteNotifiesListener() throws Exception {
+        try (ChangeNotifier notifier = new ChangeNotifier(logPath)) {
+            CountDownLatch changed = new CountDownLatch(1);
+            if (!notifier.register(logPath, changed::countDown)) {
+                return;
+            }
+            Files.write(testDir.resolve("other.log"), "other\n".getBytes(StandardCharsets.UTF_8));
+            long start = System.nanoTime();
+            Files.write(logPath, "Total speed: 815 Sol/s\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+            Assert.assertTrue(changed.await(4, TimeUnit.SECONDS));
+            Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 4000);
+        }
+    }
+
+    @Test
+    public void testIntervalBacksOffWhileIdleAndTightensOnGrowth() {
+        LogWatcher watcher = new LogWatcher(100, 1000, 0);
+        Assert.assertEquals(100, watcher.getIntervalMillis());
+        watcher.onScan(0);
+        Assert.assertEquals(200, watcher.getIntervalMillis());
+        for (int i = 0; i < 10; i++) {
+            watcher.onScan(0);
+        }
+        Assert.assertEquals(1000, watcher.getIntervalMillis());
+        watcher.onScan(42);
+        Assert.assertEquals(100, watcher.getIntervalMillis());
+    }
+
+    @Test(timeout = 5000)
+    public void testStallIsReportedWhenLogStopsGrowing() throws Exception {
+        LogWatcher watcher = new LogWatcher(50, 10000, 300);
+        watcher.onScan(10);
+        Assert.assertFalse(watcher.isStalled());
+        while (!watcher.isStalled()) {
+            Assert.assertTrue(watcher.nextDelayMillis() <= 301);
+            TimeUnit.MILLISECONDS.sleep(watcher.nextDelayMillis());
+            watcher.onScan(0);
+        }
+        watcher.reset();
+        Assert.assertFalse(watcher.isStalled());
+    }
+
+    @Test
+    public void testExpiredStallKeepsThePollInterval() {
+        long[] nanos = {0};
+        LogWatcher watcher = new LogWatcher(50, 400, 300, () -> nanos[0]);
+        watcher.onScan(10);
+        nanos[0] = TimeUnit.MILLISECONDS.toNanos(280);
+        Assert.assertEquals(21, watcher.nextDelayMillis());
+        nanos[0] = TimeUnit.SECONDS.toNanos(5);
+        Assert.assertTrue(watcher.isStalled());
+        for (int i = 0; i < 5; i++) {
+            watcher.onScan(0);
+        }
+        Assert.assertEquals(400, watcher.nextDelayMillis());
+    }
+}
@@ -18,6 +18,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 
 import static org.slf4j.LoggerFactory.getLogger;
 
@@ -28,7 +31,6 @@ public class MainTest {
     private static final Path TEST_MINER_LOG_FILE_PATH = Paths.get("C:/testdir/miner.log");
     private static final Path LOG_DIRECTORY_PATH = Paths.get("C:/testdir/logs");
     private static Path originalMinerLogFilePath;
-    private static Path movedMinerLogFilePath;
     private static List<String> programList = Arrays.asList("Core Temp.exe", "UltraISO.exe");
     private static List<String> programDirectoriesList = Arrays.asList("C:\\Program Files\\Core Temp", "C:\\Program Files (x86)\\UltraISO");
     private static Path restartFilePath;
@@ -59,8 +61,13 @@ public class MainTest {
     @After
     public void tearDown() throws Exception {
         TimeUnit.MILLISECONDS.sleep(500);
-        if (movedMinerLogFilePath != null) {
-            Files.deleteIfExists(movedMinerLogFilePath);
+        Main.getLogRotator().awaitCompression(5, TimeUnit.SECONDS);
+        if (Files.exists(LOG_DIRECTORY_PATH)) {
+            try (Stream<Path> movedFiles = Files.list(LOG_DIRECTORY_PATH)) {
+                for (Path movedFile : movedFiles.collect(Collectors.toList())) {
+                    Files.deleteIfExists(movedFile);
+                }
+            }
         }
         Files.deleteIfExists(LOG_DIRECTORY_PATH);
         Files.deleteIfExists(TEST_MINER_LOG_FILE_PATH);
@@ -119,7 +126,6 @@ public class MainTest {
     public void testMain() throws Exception {
         changeProperties("Core Temp.exe", "ultraiso", TEST_MINER_LOG_FILE_PATH, 200, "1");
         startApps(1);
-        setMovedMinerLogFilePath();
         LocalDateTime currentDateTime = LocalDateTime.now();
         executeMain();
         TimeUnit.MILLISECONDS.sleep(1500);
@@ -134,7 +140,6 @@ public class MainTest {
         stats.put("todayDate", "2017-08-20");
         Main.writeStats(statsFilePath, stats);
         startApps(1);
-        setMovedMinerLogFilePath();
         currentDateTime = LocalDateTime.now();
         executeMain();
         TimeUnit.MILLISECONDS.sleep(1000);
@@ -149,7 +154,6 @@ public class MainTest {
     @Test(timeout = 5000)
     public void testResetShutdowns() throws Exception {
         changeProperties("", "", Paths.get(""), 10, "1");
-        setMovedMinerLogFilePath();
         Map<String, String> stats = Main.readStats(statsFilePath);
         stats.put("todayShutdowns", "1");
         stats.put("totalShutdowns", "1");
@@ -187,7 +191,6 @@ public class MainTest {
     public void testRestartMiner() throws Exception {
         changeProperties("Core Temp.exe", "ultraiso", TEST_MINER_LOG_FILE_PATH, 1000, "0");
         startApps(2);
-        setMovedMinerLogFilePath();
         Thread thread = executeMain();
         while (true) {
             if (!Files.exists(TEST_MINER_LOG_FILE_PATH)) {
@@ -211,11 +214,6 @@ public class MainTest {
         Assert.assertEquals(0, cancelShutdownProcess.waitFor());
     }
 
-    private void setMovedMinerLogFilePath() {
-        movedMinerLogFilePath = LOG_DIRECTORY_PATH.resolve(DateTimeFormatter.ofPattern("yyyy-MM-dd HH-mm").format(LocalDateTime.now()) + "" +
-                ".txt");
-    }
-
     @Test
     public void testRebootComputer() throws Exception {
         Main.rebootComputer(30);
@@ -260,12 +258,26 @@ public class MainTest {
 
     @Test
     public void testMoveFile() throws Exception {
+        String minute = DateTimeFormatter.ofPattern("yyyy-MM-dd HH-mm").format(LocalDateTime.now());
         Assert.assertTrue(Main.moveFile(TEST_MINER_LOG_FILE_PATH));
         Assert.assertFalse(Files.exists(TEST_MINER_LOG_FILE_PATH));
         Assert.assertTrue(Files.exists(LOG_DIRECTORY_PATH));
-        setMovedMinerLogFilePath();
-        Assert.assertTrue(Files.exists(movedMinerLogFilePath));
-        Assert.assertTrue(Files.size(movedMinerLogFilePath) == Files.size(originalMinerLogFilePath));
+        Assert.assertTrue(Main.getLogRotator().awaitCompression(5, TimeUnit.SECONDS));
+        List<Path> movedFiles;
+        try (Stream<Path> files = Files.list(LOG_DIRECTORY_PATH)) {
+            movedFiles = files.collect(Collectors.toList());
+        }
+        Assert.assertEquals(1, movedFiles.size());
+        Path movedMinerLogFilePath = movedFiles.get(0);
+        Assert.assertTrue(movedMinerLogFilePath.getFileName().toString().startsWith(minute));
+        long movedSize = 0;
+        try (InputStream in = movedMinerLogFilePath.toString().endsWith(".gz") ? new GZIPInputStream(Files.newInputStream
+                (movedMinerLogFilePath)) : Files.newInputStream(movedMinerLogFilePath)) {
+            while (in.read() != -1) {
+                movedSize++;
+            }
+        }
+        Assert.assertTrue(movedSize == Files.size(originalMinerLogFilePath));
         Assert.assertFalse(Main.moveFile(Paths.get("C:/fer/ber.log")));
 
     }
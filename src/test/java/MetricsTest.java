@@ -0,0 +1,61 @@
+import com.hesky.ewbfcudawatchdog.Metrics;
+import com.hesky.ewbfcudawatchdog.MetricsServer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+public class MetricsTest {
+
+    @Test
+    public void testHistogramIsWrittenCumulatively() throws Exception {
+        Metrics metrics = new Metrics();
+        Metrics.Histogram histogram = metrics.histogram("scan_seconds", "Scan.", Metrics.label("miner", "zec"), Metrics.NANOS, 0.001, 1);
+        histogram.observe(500_000);
+        histogram.observe(2_000_000);
+        histogram.observe(5_000_000_000L);
+        String text = metrics.toString();
+        Assert.assertTrue(text.contains("# TYPE scan_seconds histogram\n"));
+        Assert.assertTrue(text.contains("scan_seconds_bucket{miner=\"zec\",le=\"0.001\"} 1\n"));
+        Assert.assertTrue(text.contains("scan_seconds_bucket{miner=\"zec\",le=\"1\"} 2\n"));
+        Assert.assertTrue(text.contains("scan_seconds_bucket{miner=\"zec\",le=\"+Inf\"} 3\n"));
+        Assert.assertTrue(text.contains("scan_seconds_sum{miner=\"zec\"} 5.0025\n"));
+        Assert.assertTrue(text.contains("scan_seconds_count{miner=\"zec\"} 3\n"));
+        Assert.assertEquals(3, histogram.getCount());
+    }
+
+    @Test
+    public void testCountersOfOneNameShareHeader() throws Exception {
+        Metrics metrics = new Metrics();
+        metrics.counter("restarts_total", "Restarts.", Metrics.label("result", "success")).inc();
+        metrics.counter("restarts_total", "Restarts.", Metrics.label("result", "failure")).add(2);
+        String text = metrics.toString();
+        Assert.assertEquals("# HELP restarts_total Restarts.\n# TYPE restarts_total counter\nrestarts_total{result=\"success\"} 1\n" +
+                "restarts_total{result=\"failure\"} 2\n", text);
+    }
+
+    @Test
+    public void testMetricsAreServedOverHttp() throws Exception {
+        Metrics metrics = new Metrics();
+        metrics.gauge("uptime_seconds", "Uptime.", null, () -> 42);
+        try (MetricsServer server = new MetricsServer(metrics, new InetSocketAddress("127.0.0.1", 0))) {
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + "/metrics")
+                    .openConnection();
+            Assert.assertEquals(200, connection.getResponseCode());
+            Assert.assertTrue(connection.getContentType().startsWith("text/plain"));
+            try (InputStream in = connection.getInputStream()) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                for (int n; (n = in.read(buffer)) != -1; ) {
+                    out.write(buffer, 0, n);
+                }
+                Assert.assertTrue(new String(out.toByteArray(), StandardCharsets.UTF_8).contains("uptime_seconds 42\n"));
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+import com.hesky.ewbfcudawatchdog.Main;
+import com.hesky.ewbfcudawatchdog.MinerDefinition;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+public class MinerDefinitionTest {
+
+    @Test
+    public void testLegacyPropertiesGiveZecMinerWithEthCompanion() {
+        Properties properties = new Properties();
+        properties.putAll(Main.getParams());
+        properties.setProperty("fileName", "miner.log");
+        List<MinerDefinition> definitions = MinerDefinition.load(properties);
+        Assert.assertEquals(2, definitions.size());
+        MinerDefinition zec = definitions.get(0);
+        Assert.assertEquals(properties.getProperty("ewbfZecMinerProcessName"), zec.getProcessName());
+        Assert.assertEquals(Paths.get("miner.log"), zec.getLogFile());
+        Assert.assertEquals(Collections.singletonList("eth"), zec.getCompanions());
+        Assert.assertNull(definitions.get(1).getLogFile());
+    }
+
+    @Test
+    public void testMinerList() {
+        Properties properties = new Properties();
+        properties.setProperty("gpuCount", "6");
+        properties.setProperty("miners", "rig1, rig2,eth");
+        properties.setProperty("miner.rig1.processName", "miner.exe");
+        properties.setProperty("miner.rig1.logFile", "/var/log/rig1/miner.log");
+        properties.setProperty("miner.rig1.companions", "eth");
+        properties.setProperty("miner.rig2.processName", "miner2.exe");
+        properties.setProperty("miner.rig2.logFile", "/var/log/rig2/miner.log");
+        properties.setProperty("miner.rig2.gpuCount", "12");
+        properties.setProperty("miner.rig2.readyPhrases", "Total speed:, accepted");
+        properties.setProperty("readyPhrases", "Sol/s");
+        properties.setProperty("miner.eth.processName", "EthDcrMiner64.exe");
+        List<MinerDefinition> definitions = MinerDefinition.load(properties);
+        Assert.assertEquals(3, definitions.size());
+        Assert.assertEquals(6, definitions.get(0).getGpuCount());
+        Assert.assertEquals(Arrays.asList("eth"), definitions.get(0).getCompanions());
+        Assert.assertEquals(12, definitions.get(1).getGpuCount());
+        Assert.assertEquals(Paths.get("/var/log/rig2/miner.log"), definitions.get(1).getLogFile());
+        Assert.assertNull(definitions.get(2).getLogFile());
+        Assert.assertEquals(Collections.singletonList("Sol/s"), definitions.get(0).getReadyPhrases());
+        Assert.assertEquals(Arrays.asList("Total speed:", "accepted"), definitions.get(1).getReadyPhrases());
+    }
+
+    @Test
+    public void testDeviceIsExcludedFromParams() {
+        MinerDefinition listed = new MinerDefinition("zec", "miner.exe", null, "--server eu1 --cuda_devices 0 1 2 --log 1", null, 3,
+                Collections.emptyList(), Collections.emptyList());
+        Assert.assertEquals("--server eu1 --cuda_devices 0 2 --log 1", listed.getParamsWithoutDevice(1));
+        Assert.assertNull(listed.getParamsWithoutDevice(3));
+        MinerDefinition unlisted = new MinerDefinition("zec", "miner.exe", null, "--user \"my rig\"", null, 3, Collections.emptyList(),
+                Collections.emptyList());
+        Assert.assertEquals("--user \"my rig\" --cuda_devices 0 1", unlisted.getParamsWithoutDevice(2));
+        MinerDefinition single = new MinerDefinition("zec", "miner.exe", null, "--cuda_devices 0", null, 2, Collections.emptyList(),
+                Collections.emptyList());
+        Assert.assertNull(single.getParamsWithoutDevice(0));
+        Assert.assertNull(single.getParamsWithoutDevice(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingProcessName() {
+        Properties properties = new Properties();
+        properties.setProperty("miners", "rig1");
+        MinerDefinition.load(properties);
+    }
+}
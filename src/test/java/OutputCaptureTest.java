@@ -0,0 +1,85 @@
+import com.hesky.ewbfcudawatchdog.ArchiveWriter;
+import com.hesky.ewbfcudawatchdog.HangDetector;
+import com.hesky.ewbfcudawatchdog.Main;
+import com.hesky.ewbfcudawatchdog.OutputCapture;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+public class OutputCaptureTest {
+    private static final String OUTPUT = "Total speed: 902 Sol/s\r\nERROR: Looks like GPU1 are stuck he not respond.\nlast line";
+
+    private Path testDir;
+    private Path archivePath;
+
+    @Before
+    public void setUp() throws Exception {
+        testDir = Files.createTempDirectory("watchdog-test");
+        archivePath = testDir.resolve("miner.log");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Stream<Path> paths = Files.walk(testDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testProcessOutputIsDetectedAndArchived() throws Exception {
+        Process process = new ProcessBuilder("sh", "-c", "printf '" + OUTPUT.replace("\r", "\\r").replace("\n", "\\n") + "'")
+                .redirectErrorStream(true).start();
+        HangDetector hangDetector = new HangDetector(Main.getParams(), 2);
+        ArchiveWriter archive = new ArchiveWriter(archivePath, 1024);
+        AtomicInteger reads = new AtomicInteger();
+        Object lock = new Object();
+        OutputCapture capture = new OutputCapture("test", process.getInputStream(), lock, hangDetector, archive, reads::incrementAndGet)
+                .start();
+        Assert.assertTrue(capture.awaitEnd(5, TimeUnit.SECONDS));
+        synchronized (lock) {
+            Assert.assertTrue(hangDetector.isHanging());
+            Assert.assertEquals(1, hangDetector.getHangingDevice());
+        }
+        Assert.assertTrue(reads.get() > 0);
+        Assert.assertEquals(OUTPUT.length(), capture.getBytesRead());
+        Assert.assertFalse(Files.exists(archivePath));
+
+        archive.flush();
+        Assert.assertEquals(OUTPUT, new String(Files.readAllBytes(archivePath), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testArchiveIsAppendedInBatchesAndBounded() throws Exception {
+        ArchiveWriter archive = new ArchiveWriter(archivePath, 8);
+        archive.write("abcd".getBytes(StandardCharsets.US_ASCII), 0, 4);
+        archive.flush();
+        archive.write("efgh".getBytes(StandardCharsets.US_ASCII), 0, 4);
+        archive.write("ijkl".getBytes(StandardCharsets.US_ASCII), 0, 4);
+        archive.write("mnopq".getBytes(StandardCharsets.US_ASCII), 0, 5);
+        archive.flush();
+        archive.flush();
+        Assert.assertEquals("abcdefghijkl", new String(Files.readAllBytes(archivePath), StandardCharsets.US_ASCII));
+    }
+
+    @Test(timeout = 10000)
+    public void testUnfinishedLastLineIsHandledAtEnd() throws Exception {
+        HangDetector hangDetector = new HangDetector(Main.getParams(), 2);
+        byte[] output = "ERROR: Looks like GPU0 are stuck he not respond.".getBytes(StandardCharsets.UTF_8);
+        OutputCapture capture = new OutputCapture("test", new ByteArrayInputStream(output), hangDetector, hangDetector, null, () -> {
+        }).start();
+        Assert.assertTrue(capture.awaitEnd(5, TimeUnit.SECONDS));
+        synchronized (hangDetector) {
+            Assert.assertTrue(hangDetector.isHanging());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+import com.hesky.ewbfcudawatchdog.HangDetector;
+import com.hesky.ewbfcudawatchdog.Main;
+import com.hesky.ewbfcudawatchdog.PhraseMatcher;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+public class PhraseMatcherTest {
+
+    private static List<Integer> scan(PhraseMatcher matcher, String line) {
+        List<Integer> matches = new ArrayList<>();
+        byte[] bytes = ("xx" + line + "yy").getBytes(StandardCharsets.UTF_8);
+        matcher.scan(bytes, 2, bytes.length - 4, matches::add);
+        return matches;
+    }
+
+    @Test
+    public void testOverlappingPhrases() {
+        PhraseMatcher matcher = new PhraseMatcher(Arrays.asList("he", "she", "his", "hers"));
+        Assert.assertEquals(Arrays.asList(1, 0, 3), scan(matcher, "ushers"));
+        Assert.assertEquals(Arrays.asList(2), scan(matcher, "this"));
+        Assert.assertEquals(new ArrayList<Integer>(), scan(matcher, "xyz"));
+    }
+
+    @Test
+    public void testAsciiCaseFolding() {
+        PhraseMatcher matcher = new PhraseMatcher(Arrays.asList("Restart attempt.", "Sol/s"));
+        Assert.assertEquals(Arrays.asList(0), scan(matcher, "ERROR: RESTART ATTEMPT."));
+        Assert.assertEquals(Arrays.asList(1, 1), scan(matcher, "Speed: Gpu0 505 sol/s, GPU1 310 SOL/S"));
+    }
+
+    @Test
+    public void testNonAsciiBytesAreMatchedExactly() {
+        PhraseMatcher matcher = new PhraseMatcher(Arrays.asList("\u0423\u0441\u0442\u0440\u043e\u0439\u0441\u0442\u0432\u043e 1"));
+        Assert.assertEquals(Arrays.asList(0), scan(matcher, "\u043e\u0448\u0438\u0431\u043a\u0430: \u0423\u0441\u0442\u0440\u043e\u0439\u0441\u0442\u0432\u043e 1 \u043d\u0435 \u043e\u0442\u0432\u0435\u0447\u0430\u0435\u0442"));
+        Assert.assertEquals(new ArrayList<Integer>(), scan(matcher, "\u0443\u0441\u0442\u0440\u043e\u0439\u0441\u0442\u0432\u043e 1"));
+    }
+
+    @Test
+    public void testDeviceIsReportedForTwelveGpus() {
+        Properties params = new Properties();
+        params.putAll(Main.getParams());
+        params.setProperty("gpuCount", "12");
+        HangDetector detector = new HangDetector(params);
+        feed(detector, "ERROR: Looks like GPU1 are stopped. Restart attempt.");
+        feed(detector, "CUDA: Device: 10 Thread exited with code: 30");
+        Assert.assertFalse(detector.isHanging());
+        feed(detector, "CUDA: Device: 11 Thread exited with code: 46");
+        Assert.assertTrue(detector.isHanging());
+        Assert.assertEquals(11, detector.getHangingDevice());
+
+        detector.reset();
+        feed(detector, "ERROR: Looks like GPU10 are stuck he not respond.");
+        Assert.assertEquals(10, detector.getHangingDevice());
+    }
+
+    private static void feed(HangDetector detector, String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        detector.onLine(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,159 @@
+import com.hesky.ewbfcudawatchdog.LinuxProcessControl;
+import com.hesky.ewbfcudawatchdog.ProcessControl;
+import com.hesky.ewbfcudawatchdog.ProcessInfo;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class ProcessControlTest {
+    private Path testDir;
+    private LinuxProcessControl control;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue(Files.isDirectory(Paths.get("/proc/self")));
+        testDir = Files.createTempDirectory("watchdog-test");
+        control = new LinuxProcessControl(500);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (testDir != null) {
+            try (Stream<Path> paths = Files.walk(testDir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private Path script(String name, String... lines) throws Exception {
+        Path script = testDir.resolve(name);
+        List<String> content = new ArrayList<>();
+        content.add("#!/bin/sh");
+        content.addAll(Arrays.asList(lines));
+        Files.write(script, content, StandardCharsets.UTF_8);
+        Assert.assertTrue(script.toFile().setExecutable(true));
+        return script;
+    }
+
+    private List<Long> children(long parentPid) throws Exception {
+        List<Long> children = new ArrayList<>();
+        for (ProcessInfo process : control.processes()) {
+            if (process.getParentPid() == parentPid) {
+                children.add(process.getPid());
+            }
+        }
+        return children;
+    }
+
+    private boolean isRunning(long pid) throws Exception {
+        for (ProcessInfo process : control.processes()) {
+            if (process.getPid() == pid) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<ProcessInfo> awaitStarted(String pattern, int descendants) throws Exception {
+        for (int i = 0; i < 100; i++) {
+            List<ProcessInfo> found = control.find(pattern);
+            if (found.size() == 1 && children(found.get(0).getPid()).size() >= descendants) {
+                return found;
+            }
+            Thread.sleep(20);
+        }
+        Assert.fail("Process " + pattern + " is not started");
+        return null;
+    }
+
+    @Test
+    public void testArgumentsAreSplitWithoutShell() {
+        Assert.assertEquals(Arrays.asList("--server", "eu1-zcash.flypool.org", "--user", "a b", "--log", "1"), ProcessControl
+                .splitArguments(" --server eu1-zcash.flypool.org  --user \"a b\" --log 1"));
+        Assert.assertEquals(Collections.singletonList(""), ProcessControl.splitArguments("\"\""));
+        Assert.assertTrue(ProcessControl.splitArguments("").isEmpty());
+    }
+
+    @Test(timeout = 10000)
+    public void testStartedProcessIsKilledWithDescendants() throws Exception {
+        script("dummy-miner.sh", "sleep 300 &", "wait");
+        Process process = control.start("dummy-miner.sh", testDir, Collections.<String>emptyList(), false);
+        ProcessInfo miner = awaitStarted("dummy-miner", 1).get(0);
+        List<Long> descendants = children(miner.getPid());
+
+        Assert.assertTrue(control.kill("dummy-miner"));
+        Assert.assertFalse(process.isAlive());
+        Assert.assertTrue(control.find("dummy-miner").isEmpty());
+        for (Long descendant : descendants) {
+            Assert.assertFalse(isRunning(descendant));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testProcessIgnoringTerminationIsKilledForcibly() throws Exception {
+        Path script = script("stubborn-miner.sh", "trap '' TERM", "sleep 300 &", "wait");
+        Process process = new ProcessBuilder(script.toString()).start();
+        ProcessInfo miner = awaitStarted("stubborn-miner", 1).get(0);
+        List<Long> descendants = children(miner.getPid());
+
+        Assert.assertTrue(control.kill("stubborn-miner"));
+        process.waitFor();
+        for (Long descendant : descendants) {
+            Assert.assertFalse(isRunning(descendant));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testProcessMentioningTheMinerIsNotKilled() throws Exception {
+        Path log = testDir.resolve("stand-in-miner.log");
+        Files.write(log, Collections.singletonList("started"), StandardCharsets.UTF_8);
+        Process tail = new ProcessBuilder("tail", "-f", log.toString()).start();
+        try {
+            Path script = script("stand-in-miner.sh", "sleep 300 &", "wait");
+            Process miner = new ProcessBuilder("sh", script.toString()).start();
+            awaitStarted("stand-in-miner", 1);
+
+            Assert.assertTrue(control.kill("stand-in-miner"));
+            miner.waitFor();
+            Assert.assertTrue(tail.isAlive());
+            Assert.assertTrue(control.find("stand-in-miner").isEmpty());
+        }
+        finally {
+            tail.destroy();
+        }
+    }
+
+    @Test
+    public void testWindowsImageNameIgnoresCase() {
+        ProcessInfo process = new ProcessInfo(10, 1, "UltraISO.exe", "UltraISO.exe");
+        Assert.assertTrue(process.matches("ultraiso", true));
+        Assert.assertFalse(process.matches("ultraiso"));
+        Assert.assertTrue(process.matches("UltraISO"));
+    }
+
+    @Test
+    public void testDescendantsAreCollected() {
+        List<ProcessInfo> all = Arrays.asList(new ProcessInfo(12, 11, "worker", "worker"), new ProcessInfo(11, 10, "miner", "miner"),
+                new ProcessInfo(13, 1, "tail", "tail"));
+        Assert.assertEquals(Arrays.asList(10L, 11L, 12L), new ArrayList<>(ProcessInfo.withDescendants(all, Collections.singletonList
+                (10L))));
+    }
+
+    @Test
+    public void testMissingProcessIsNotKilled() throws Exception {
+        Assert.assertFalse(control.kill("no-such-miner-" + System.nanoTime()));
+    }
+}
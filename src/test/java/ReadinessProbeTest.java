@@ -0,0 +1,78 @@
+import com.hesky.ewbfcudawatchdog.HangDetector;
+import com.hesky.ewbfcudawatchdog.LogTailer;
+import com.hesky.ewbfcudawatchdog.Main;
+import com.hesky.ewbfcudawatchdog.ReadinessProbe;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+public class ReadinessProbeTest {
+    private Path testDir;
+    private Path logPath;
+    private HangDetector hangDetector;
+
+    @Before
+    public void setUp() throws Exception {
+        testDir = Files.createTempDirectory("watchdog-test");
+        logPath = testDir.resolve("miner.log");
+        hangDetector = new HangDetector(Main.getParams(), 2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Stream<Path> paths = Files.walk(testDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private void append(String text) throws Exception {
+        Files.write(logPath, text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    @Test
+    public void testHealthyOutputMakesMinerReady() throws Exception {
+        ReadinessProbe probe = new ReadinessProbe(Arrays.asList("Total speed:", "accepted"), hangDetector);
+        LogTailer tailer = new LogTailer(logPath, probe);
+        append("CUDA: Device: 0 GeForce GTX 1070, 8192 MB i:64\nINFO: Target: 0004000000...\n");
+        tailer.poll();
+        Assert.assertFalse(probe.isReady());
+        append("GPU0: 450 Sol/s GPU1: 452 Sol/s\nTotal speed: 902 Sol/s\n");
+        tailer.poll();
+        Assert.assertTrue(probe.isReady());
+        Assert.assertFalse(hangDetector.isHanging());
+
+        tailer.reset();
+        Assert.assertFalse(probe.isReady());
+    }
+
+    @Test
+    public void testLinesArePassedToHangDetector() throws Exception {
+        ReadinessProbe probe = new ReadinessProbe(Collections.singletonList("Total speed:"), hangDetector);
+        LogTailer tailer = new LogTailer(logPath, probe);
+        append("ERROR: Looks like GPU1 are stuck he not respond.\n");
+        tailer.poll();
+        Assert.assertFalse(probe.isReady());
+        Assert.assertTrue(hangDetector.isHanging());
+        Assert.assertEquals(1, hangDetector.getHangingDevice());
+    }
+
+    @Test
+    public void testProbeWithoutPhrasesIsNeverReady() throws Exception {
+        ReadinessProbe probe = new ReadinessProbe(Collections.emptyList(), hangDetector);
+        LogTailer tailer = new LogTailer(logPath, probe);
+        append("Total speed: 902 Sol/s\n");
+        tailer.poll();
+        Assert.assertFalse(probe.hasPhrases());
+        Assert.assertFalse(probe.isReady());
+    }
+}
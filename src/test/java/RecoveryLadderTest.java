@@ -0,0 +1,102 @@
+import com.hesky.ewbfcudawatchdog.Incident;
+import com.hesky.ewbfcudawatchdog.RecoveryLadder;
+import com.hesky.ewbfcudawatchdog.StatsStore;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static com.hesky.ewbfcudawatchdog.RecoveryLadder.Action.EXCLUDE_DEVICE;
+import static com.hesky.ewbfcudawatchdog.RecoveryLadder.Action.REBOOT;
+import static com.hesky.ewbfcudawatchdog.RecoveryLadder.Action.RESTART;
+import static com.hesky.ewbfcudawatchdog.RecoveryLadder.Action.RESTART_ALL;
+
+public class RecoveryLadderTest {
+    private final AtomicLong clock = new AtomicLong(System.currentTimeMillis());
+    private Path testDir;
+    private StatsStore stats;
+    private Properties params;
+
+    @Before
+    public void setUp() throws Exception {
+        testDir = Files.createTempDirectory("watchdog-test");
+        stats = new StatsStore(testDir.resolve("stats.txt"));
+        stats.load();
+        params = new Properties();
+        params.setProperty("recoveryLadder", "restart,exclude,restartAll,reboot");
+        params.setProperty("escalationCooldown", "600000");
+        params.setProperty("maxReboots", "2");
+        params.setProperty("rebootWindow", "3600000");
+        params.setProperty("minActionSuccessRate", "0.5");
+        params.setProperty("minActionAttempts", "4");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Stream<Path> paths = Files.walk(testDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testLadderEndsWithReboot() {
+        params.setProperty("recoveryLadder", "reboot, restartAll,restart");
+        RecoveryLadder ladder = new RecoveryLadder(params, stats, clock::get);
+        Assert.assertEquals(Arrays.asList(RESTART_ALL, RESTART, REBOOT), ladder.getSteps());
+        Assert.assertEquals("restartAll > restart > reboot", ladder.toString());
+        Assert.assertEquals(2, ladder.next(2));
+    }
+
+    @Test
+    public void testFailureSoonAfterRecoveryEscalates() {
+        RecoveryLadder ladder = new RecoveryLadder(params, stats, clock::get);
+        Assert.assertEquals(RESTART, ladder.get(ladder.firstStep()));
+        Assert.assertEquals(EXCLUDE_DEVICE, ladder.get(ladder.next(0)));
+        ladder.onRecovered(1);
+        clock.addAndGet(60_000);
+        Assert.assertEquals(RESTART_ALL, ladder.get(ladder.firstStep()));
+        ladder.onRecovered(2);
+        clock.addAndGet(600_000);
+        Assert.assertEquals(RESTART, ladder.get(ladder.firstStep()));
+    }
+
+    @Test
+    public void testActionsThatRarelyWorkAreSkipped() {
+        for (int i = 0; i < 4; i++) {
+            stats.recordRecoveryAttempt("restart");
+            stats.recordRecoveryAttempt("exclude");
+            stats.recordRecoveryAttempt("reboot");
+        }
+        stats.recordRecoverySuccess("restart", 30_000);
+        stats.recordRecoverySuccess("exclude", 30_000);
+        stats.recordRecoverySuccess("exclude", 30_000);
+        RecoveryLadder ladder = new RecoveryLadder(params, stats, clock::get);
+        Assert.assertEquals(EXCLUDE_DEVICE, ladder.get(ladder.firstStep()));
+        params.setProperty("recoveryLadder", "restart,reboot");
+        ladder = new RecoveryLadder(params, stats, clock::get);
+        Assert.assertEquals(REBOOT, ladder.get(ladder.firstStep()));
+    }
+
+    @Test
+    public void testRebootLoopIsBroken() throws Exception {
+        RecoveryLadder ladder = new RecoveryLadder(params, stats, clock::get);
+        LocalDateTime now = LocalDateTime.now();
+        stats.recordIncident(new Incident(now.minusHours(2), "zec", 0, "hang", "reboot"));
+        stats.recordIncident(new Incident(now.minusMinutes(30), "zec", 0, "hang", "reboot"));
+        stats.recordIncident(new Incident(now.minusMinutes(20), "zec", 1, "hang", "restart"));
+        Assert.assertTrue(ladder.isRebootAllowed());
+        stats.recordIncident(new Incident(now.minusMinutes(10), "zec", 1, "hang after restart", "reboot"));
+        Assert.assertFalse(ladder.isRebootAllowed());
+        clock.addAndGet(2_400_000);
+        Assert.assertTrue(ladder.isRebootAllowed());
+    }
+}
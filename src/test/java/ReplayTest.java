@@ -0,0 +1,168 @@
+import com.hesky.ewbfcudawatchdog.Main;
+import com.hesky.ewbfcudawatchdog.Replay;
+import com.hesky.ewbfcudawatchdog.VirtualClock;
+import com.hesky.ewbfcudawatchdog.VirtualScheduler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+public class ReplayTest {
+    private static final String HEALTHY = "Total speed: 902 Sol/s\nGPU0: 450 Sol/s GPU1: 452 Sol/s\n";
+    private static final String HANG = "ERROR: Looks like GPU1 are stuck he not respond.\n";
+
+    private Path testDir;
+    private Properties params;
+
+    @Before
+    public void setUp() throws Exception {
+        testDir = Files.createTempDirectory("watchdog-test");
+        params = new Properties();
+        params.putAll(Main.getParams());
+        params.setProperty("watchMode", "0");
+        params.setProperty("sleepDuration", "30000");
+        params.setProperty("stallTimeout", "300000");
+        params.setProperty("needRestart", "0");
+        params.setProperty("minHashrate", "0");
+        params.setProperty("shareTimeout", "0");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Stream<Path> paths = Files.walk(testDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private Path log(String name, String content) throws Exception {
+        return Files.write(testDir.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Replay.Report replay(Path... files) throws Exception {
+        return new Replay(params, new VirtualClock(0, 0), Files.createTempDirectory(testDir, "replay")).run(Arrays.asList(files));
+    }
+
+    @Test
+    public void testVirtualClockReplacesSystemTime() throws Exception {
+        VirtualClock clock = new VirtualClock(1_000, 1000);
+        long start = System.nanoTime();
+        clock.sleep(60_000);
+        Assert.assertEquals(61_000, clock.millis());
+        Assert.assertTrue(System.nanoTime() - start < 5_000_000_000L);
+        Assert.assertEquals(LocalDateTime.now(new VirtualClock(61_000, 0)), LocalDateTime.now(clock));
+    }
+
+    @Test
+    public void testVirtualSchedulerRunsTasksInTimeOrder() throws Exception {
+        VirtualScheduler scheduler = new VirtualScheduler(new VirtualClock(0, 0));
+        List<Long> runs = new ArrayList<>();
+        scheduler.scheduleAtFixedRate(() -> runs.add(scheduler.getClock().millis()), 0, 1_000, TimeUnit.MILLISECONDS);
+        Future<?> waiting = scheduler.submit(() -> {
+            scheduler.sleep(2_500);
+            return null;
+        });
+        scheduler.setHorizon(5_000);
+        waiting.get();
+        Assert.assertEquals(Arrays.asList(0L, 1_000L, 2_000L), runs);
+        Assert.assertEquals(2_500, scheduler.getClock().millis());
+        while (scheduler.runNext()) {
+            Assert.assertTrue(scheduler.getClock().millis() <= 5_000);
+        }
+        Assert.assertEquals(Arrays.asList(0L, 1_000L, 2_000L, 3_000L, 4_000L, 5_000L), runs);
+        Assert.assertFalse(scheduler.hasInterrupted());
+    }
+
+    @Test
+    public void testHangIsDetectedWithinPollInterval() throws Exception {
+        Replay.Report report = replay(log("a.txt", HEALTHY + "@+10s\n@expect\n" + HANG + "@+1m\nafter the hang\n"));
+        Assert.assertEquals(1, report.getHangs());
+        Assert.assertEquals(1, report.getTruePositives());
+        Assert.assertEquals(0, report.getFalsePositives());
+        Assert.assertEquals(1, report.getRestarts());
+        Assert.assertEquals(0, report.getReboots());
+        Assert.assertEquals(1, report.getSkippedLines());
+        Assert.assertTrue(report.getLatency().getMaxMillis() <= 30_000);
+        Assert.assertTrue(report.getTimeToDetect().getMaxMillis() <= 30_000);
+    }
+
+    @Test
+    public void testWatchModeDetectsAtOnce() throws Exception {
+        params.setProperty("watchMode", "1");
+        Replay.Report report = replay(log("a.txt", HEALTHY + "@+10s\n@expect\n" + HANG));
+        Assert.assertEquals(1, report.getHangs());
+        Assert.assertEquals(0, report.getLatency().getMaxMillis());
+    }
+
+    @Test
+    public void testFalsePositivesAndMissedFailuresAreCounted() throws Exception {
+        Replay.Report report = replay(log("a.txt", HEALTHY + HANG), log("b.txt", HEALTHY + "@expect\n" + HEALTHY));
+        Assert.assertEquals(2, report.getExpected() + report.getFalsePositives());
+        Assert.assertEquals(1, report.getFalsePositives());
+        Assert.assertEquals(1, report.getMissed());
+    }
+
+    @Test
+    public void testSilenceIsDetectedAsStall() throws Exception {
+        Replay.Report report = replay(log("a.txt", HEALTHY + "@expect\n@+10m\n" + HEALTHY));
+        Assert.assertEquals(1, report.getStalls());
+        Assert.assertEquals(1, report.getTruePositives());
+        Assert.assertTrue(report.getTimeToDetect().getMaxMillis() >= 300_000);
+    }
+
+    @Test
+    public void testFailedRestartAndRebootsAreCounted() throws Exception {
+        params.setProperty("readyTimeout", "60000");
+        params.setProperty("recoveryLadder", "restart,reboot");
+        Replay.Report report = replay(log("a.txt", HEALTHY + HANG + "@start\n" + HANG + "@start\n" + HEALTHY));
+        Assert.assertEquals(1, report.getRestarts());
+        Assert.assertEquals(1, report.getFailedRestarts());
+        Assert.assertEquals(1, report.getReboots());
+
+        params.setProperty("needRestart", "1");
+        report = replay(log("b.txt", HEALTHY + HANG + "@start\n" + HEALTHY + HANG));
+        Assert.assertEquals(0, report.getRestarts());
+        Assert.assertEquals(2, report.getReboots());
+        Assert.assertEquals(0, report.getSkippedLines());
+    }
+
+    @Test
+    public void testRecoveryClimbsTheLadder() throws Exception {
+        params.setProperty("readyTimeout", "60000");
+        Replay.Report report = replay(log("a.txt", HEALTHY + HANG + "@start\n" + HANG + "@start\n" + HEALTHY));
+        Assert.assertEquals(2, report.getRestarts());
+        Assert.assertEquals(1, report.getFailedRestarts());
+        Assert.assertEquals(0, report.getReboots());
+
+        report = replay(log("b.txt", HEALTHY + HANG + "@start\n" + HANG + "@start\n" + HANG + "@start\n" + HEALTHY));
+        Assert.assertEquals(2, report.getRestarts());
+        Assert.assertEquals(2, report.getFailedRestarts());
+        Assert.assertEquals(1, report.getReboots());
+    }
+
+    @Test
+    public void testRebootLimitIsKept() throws Exception {
+        params.setProperty("needRestart", "1");
+        params.setProperty("maxReboots", "2");
+        StringBuilder content = new StringBuilder(HEALTHY + HANG);
+        for (int i = 0; i < 3; i++) {
+            content.append("@start\n").append(HEALTHY).append(HANG);
+        }
+        Replay.Report report = replay(log("a.txt", content.toString()));
+        Assert.assertEquals(4, report.getKills());
+        Assert.assertEquals(2, report.getReboots());
+        Assert.assertEquals(2, report.getRefusedReboots());
+    }
+}
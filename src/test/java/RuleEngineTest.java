@@ -0,0 +1,197 @@
+import com.hesky.ewbfcudawatchdog.HangDetector;
+import com.hesky.ewbfcudawatchdog.Main;
+import com.hesky.ewbfcudawatchdog.Rule;
+import com.hesky.ewbfcudawatchdog.RuleBook;
+import com.hesky.ewbfcudawatchdog.RuleRepository;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+public class RuleEngineTest {
+    private static final String RESTART = "ERROR: Looks like GPU1 are stopped. Restart attempt.";
+    private static final String EXIT_46 = "CUDA: Device: 0 Thread exited with code: 46";
+
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+    private Path testDir;
+    private Path rulesFile;
+
+    @Before
+    public void setUp() throws Exception {
+        testDir = Files.createTempDirectory("watchdog-test");
+        rulesFile = testDir.resolve("rules.properties");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Stream<Path> paths = Files.walk(testDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testRulesAreParsed() {
+        Rule rule = Rule.parse("r", "3 x stopped within 5m any device");
+        Assert.assertEquals(Rule.Kind.RATE, rule.getKind());
+        Assert.assertEquals("stopped", rule.getFirst());
+        Assert.assertEquals(3, rule.getCount());
+        Assert.assertEquals(300_000, rule.getWindowMillis());
+        Assert.assertTrue(rule.isAnyDevice());
+
+        rule = Rule.parse("r", "a without b within 1500");
+        Assert.assertEquals(Rule.Kind.ABSENCE, rule.getKind());
+        Assert.assertEquals("b", rule.getSecond());
+        Assert.assertEquals(1500, rule.getWindowMillis());
+        Assert.assertFalse(rule.isAnyDevice());
+
+        for (String wrong : new String[]{"", "a then b", "a then b within", "0 x a within 1s", "a then b within 1d", "a or b within 1s"}) {
+            try {
+                Rule.parse("r", wrong);
+                Assert.fail("Parsed " + wrong);
+            }
+            catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testOldRestartAttemptIsIgnored() {
+        RuleBook book = RuleBook.fromParams(Main.getParams());
+        HangDetector detector = new HangDetector(() -> book, 2, clock::get);
+        feed(detector, RESTART);
+        clock.addAndGet(60_001);
+        feed(detector, EXIT_46);
+        Assert.assertFalse(detector.isHanging());
+
+        feed(detector, RESTART);
+        clock.addAndGet(60_000);
+        feed(detector, EXIT_46);
+        Assert.assertTrue(detector.isHanging());
+        Assert.assertEquals(0, detector.getHangingDevice());
+        Assert.assertEquals("restartThenExit46", detector.getHangingRule());
+    }
+
+    @Test
+    public void testRecoveredRestartInBacklogIsIgnored() throws Exception {
+        Path log = testDir.resolve("miner.log");
+        List<String> lines = new ArrayList<>();
+        lines.add(RESTART.replace("GPU1", "GPU0"));
+        for (int i = 0; i < 500; i++) {
+            lines.add("GPU0: 450 Sol/s GPU1: 452 Sol/s");
+        }
+        lines.add(EXIT_46);
+        Files.write(log, lines, StandardCharsets.UTF_8);
+        Assert.assertFalse(Main.isHangingUp(log));
+
+        lines.add(RESTART.replace("GPU1", "GPU0"));
+        lines.add(EXIT_46);
+        Files.write(log, lines, StandardCharsets.UTF_8);
+        Assert.assertTrue(Main.isHangingUp(log));
+    }
+
+    @Test
+    public void testRecentBacklogCountsAsSeenAtItsEnd() {
+        RuleBook book = RuleBook.fromParams(Main.getParams());
+        HangDetector detector = new HangDetector(() -> book, 2, clock::get);
+        detector.beginBacklog(100);
+        feed(detector, RESTART);
+        for (int i = 0; i < 200; i++) {
+            feed(detector, "GPU0: 450 Sol/s");
+        }
+        detector.endBacklog();
+        feed(detector, EXIT_46);
+        Assert.assertFalse(detector.isHanging());
+
+        detector.beginBacklog(100);
+        feed(detector, RESTART);
+        feed(detector, "GPU1: 450 Sol/s");
+        detector.endBacklog();
+        clock.addAndGet(30_000);
+        feed(detector, EXIT_46);
+        Assert.assertTrue(detector.isHanging());
+    }
+
+    @Test
+    public void testRateIsCountedPerDevice() throws Exception {
+        write("phrase.stopped=GPU{device} are stopped\nrule.restarts=3 x stopped within 10s\n");
+        HangDetector detector = new HangDetector(new RuleRepository(rulesFile, Main.getParams()), 2, clock::get);
+        feed(detector, "GPU0 are stopped");
+        feed(detector, "GPU1 are stopped");
+        clock.addAndGet(5_000);
+        feed(detector, "GPU0 are stopped");
+        feed(detector, "GPU1 are stopped");
+        clock.addAndGet(6_000);
+        feed(detector, "GPU0 are stopped");
+        Assert.assertFalse(detector.isHanging());
+        feed(detector, "GPU0 are stopped");
+        Assert.assertTrue(detector.isHanging());
+        Assert.assertEquals(0, detector.getHangingDevice());
+
+        detector.reset();
+        feed(detector, "GPU1 are stopped");
+        Assert.assertFalse(detector.isHanging());
+    }
+
+    @Test
+    public void testAbsenceFiresUnlessAnswered() throws Exception {
+        write("phrase.submit=GPU{device} submitted\nphrase.accept=GPU{device} accepted\nrule.noAnswer=submit without accept within 30s\n");
+        HangDetector detector = new HangDetector(new RuleRepository(rulesFile, Main.getParams()), 2, clock::get);
+        feed(detector, "GPU0 submitted");
+        feed(detector, "GPU1 submitted");
+        clock.addAndGet(20_000);
+        feed(detector, "GPU0 accepted");
+        clock.addAndGet(9_999);
+        Assert.assertFalse(detector.isHanging());
+        clock.addAndGet(1);
+        Assert.assertTrue(detector.isHanging());
+        Assert.assertEquals(1, detector.getHangingDevice());
+        Assert.assertEquals("noAnswer", detector.getHangingRule());
+    }
+
+    @Test
+    public void testRulesAreReloaded() throws Exception {
+        RuleRepository repository = new RuleRepository(rulesFile, Main.getParams());
+        repository.register(2);
+        Assert.assertEquals("notResponse", repository.get().getRules().get(0).getName());
+        HangDetector detector = new HangDetector(repository, 2, clock::get);
+        feed(detector, "GPU1 overheated");
+        Assert.assertFalse(detector.isHanging());
+
+        write("phrase.hot=GPU{device} overheated\nrule.hot=hot\n");
+        Assert.assertTrue(repository.reloadIfChanged());
+        Assert.assertFalse(repository.reloadIfChanged());
+        feed(detector, "GPU1 overheated");
+        Assert.assertTrue(detector.isHanging());
+        Assert.assertEquals("hot", detector.getHangingRule());
+
+        RuleBook loaded = repository.get();
+        write("rule.broken=hot then\n");
+        Files.setLastModifiedTime(rulesFile, FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+        Assert.assertFalse(repository.reloadIfChanged());
+        Assert.assertSame(loaded, repository.get());
+
+        Files.delete(rulesFile);
+        Assert.assertTrue(repository.reloadIfChanged());
+        Assert.assertEquals(2, repository.get().getRules().size());
+    }
+
+    private void write(String content) throws Exception {
+        Files.write(rulesFile, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void feed(HangDetector detector, String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        detector.onLine(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,145 @@
+import com.hesky.ewbfcudawatchdog.HangDetector;
+import com.hesky.ewbfcudawatchdog.LogTailer;
+import com.hesky.ewbfcudawatchdog.Main;
+import com.hesky.ewbfcudawatchdog.ScanCheckpoint;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.stream.Stream;
+
+public class ScanCheckpointTest {
+    private static final String RESTART_ATTEMPT = "ERROR: Looks like GPU0 are stopped. Restart attempt.\n";
+    private static final String EXITED_46 = "CUDA: Device: 0 Thread exited with code: 46\n";
+    private static final String NOT_RESPOND = "ERROR: Looks like GPU1 are stuck he not respond.\n";
+    private static final String SPEED = "Speed: Gpu0 505 Sol/s, GPU1 310 Sol/s\n";
+
+    private Path testDir;
+    private Path logPath;
+    private Path checkpointPath;
+
+    @Before
+    public void setUp() throws Exception {
+        testDir = Files.createTempDirectory("watchdog-test");
+        logPath = Files.createFile(testDir.resolve("miner.log"));
+        checkpointPath = testDir.resolve("checkpoint-zec.txt");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Stream<Path> paths = Files.walk(testDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private void append(String text) throws Exception {
+        Files.write(logPath, text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Scans like a watchdog run that ends with a checkpoint written to disk.
+     */
+    private ScanCheckpoint scanAndSave() throws Exception {
+        HangDetector detector = new HangDetector(Main.getParams(), 2);
+        LogTailer tailer = new LogTailer(logPath, detector);
+        ScanCheckpoint previous = ScanCheckpoint.read(checkpointPath);
+        if (previous != null && tailer.resume(previous)) {
+            detector.restoreState(previous.getRuleState());
+        }
+        tailer.poll();
+        ScanCheckpoint checkpoint = tailer.checkpoint().withRuleState(detector.saveState());
+        checkpoint.write(checkpointPath);
+        return checkpoint;
+    }
+
+    @Test
+    public void testRestartResumesAfterLastCompleteLine() throws Exception {
+        append(SPEED + SPEED + "Speed: Gpu0 5");
+        ScanCheckpoint checkpoint = scanAndSave();
+        Assert.assertEquals(SPEED.length() * 2, checkpoint.getOffset());
+
+        ScanCheckpoint read = ScanCheckpoint.read(checkpointPath);
+        Assert.assertEquals(checkpoint.getOffset(), read.getOffset());
+        Assert.assertEquals(checkpoint.getHeadCrc(), read.getHeadCrc());
+        Assert.assertEquals(checkpoint.getFileKey(), read.getFileKey());
+
+        HangDetector detector = new HangDetector(Main.getParams(), 2);
+        LogTailer tailer = new LogTailer(logPath, detector);
+        Assert.assertTrue(tailer.resume(read));
+        append("05 Sol/s\n");
+        Assert.assertEquals("Speed: Gpu0 505 Sol/s\n".length(), tailer.poll());
+    }
+
+    @Test
+    public void testHandledFailureIsNotDetectedAgain() throws Exception {
+        append(SPEED + NOT_RESPOND);
+        HangDetector detector = new HangDetector(Main.getParams(), 2);
+        LogTailer tailer = new LogTailer(logPath, detector);
+        tailer.poll();
+        Assert.assertTrue(detector.isHanging());
+        Assert.assertTrue(detector.saveState().isEmpty());
+        tailer.checkpoint().withRuleState(detector.saveState()).write(checkpointPath);
+
+        append(SPEED);
+        HangDetector restarted = new HangDetector(Main.getParams(), 2);
+        LogTailer resumed = new LogTailer(logPath, restarted);
+        ScanCheckpoint checkpoint = ScanCheckpoint.read(checkpointPath);
+        Assert.assertTrue(resumed.resume(checkpoint));
+        restarted.restoreState(checkpoint.getRuleState());
+        Assert.assertEquals(SPEED.length(), resumed.poll());
+        Assert.assertFalse(restarted.isHanging());
+    }
+
+    @Test
+    public void testRuleStateSurvivesRestart() throws Exception {
+        append(RESTART_ATTEMPT);
+        ScanCheckpoint checkpoint = scanAndSave();
+        Map<String, String> state = checkpoint.getRuleState();
+        Assert.assertTrue(state.get("restartThenExit46"), state.get("restartThenExit46").startsWith("SEQUENCE;"));
+
+        append(EXITED_46);
+        HangDetector detector = new HangDetector(Main.getParams(), 2);
+        LogTailer tailer = new LogTailer(logPath, detector);
+        Assert.assertTrue(tailer.resume(ScanCheckpoint.read(checkpointPath)));
+        detector.restoreState(ScanCheckpoint.read(checkpointPath).getRuleState());
+        Assert.assertEquals(EXITED_46.length(), tailer.poll());
+        Assert.assertTrue(detector.isHanging());
+        Assert.assertEquals("restartThenExit46", detector.getHangingRule());
+    }
+
+    @Test
+    public void testReplacedLogIsReadFromBeginning() throws Exception {
+        append(SPEED + SPEED);
+        scanAndSave();
+        Files.write(logPath, (NOT_RESPOND + SPEED + SPEED).getBytes(StandardCharsets.UTF_8));
+        HangDetector detector = new HangDetector(Main.getParams(), 2);
+        LogTailer tailer = new LogTailer(logPath, detector);
+        Assert.assertFalse(tailer.resume(ScanCheckpoint.read(checkpointPath)));
+        tailer.poll();
+        Assert.assertTrue(detector.isHanging());
+
+        Files.write(logPath, SPEED.getBytes(StandardCharsets.UTF_8));
+        Assert.assertFalse(new LogTailer(logPath, detector).resume(ScanCheckpoint.read(checkpointPath)));
+    }
+
+    @Test
+    public void testBrokenStateIsIgnored() throws Exception {
+        HangDetector detector = new HangDetector(Main.getParams(), 2);
+        Map<String, String> state = detector.saveState();
+        state.put("restartThenExit46", "RATE;0,0,0;-,-,-");
+        state.put("notResponse", "SINGLE;x;-");
+        detector.restoreState(state);
+        Assert.assertEquals(new HangDetector(Main.getParams(), 2).saveState(), detector.saveState());
+
+        Files.write(checkpointPath, "offset=12\nheadLength=x\n".getBytes(StandardCharsets.UTF_8));
+        Assert.assertNull(ScanCheckpoint.read(checkpointPath));
+        Assert.assertNull(ScanCheckpoint.read(testDir.resolve("none.txt")));
+    }
+}
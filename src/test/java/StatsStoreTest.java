@@ -0,0 +1,146 @@
+import com.hesky.ewbfcudawatchdog.Incident;
+import com.hesky.ewbfcudawatchdog.Main;
+import com.hesky.ewbfcudawatchdog.StatsStore;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+public class StatsStoreTest {
+    private static final LocalDateTime NOW = LocalDateTime.of(2017, 9, 8, 10, 33);
+
+    private Path testDir;
+    private Path statsPath;
+
+    @Before
+    public void setUp() throws Exception {
+        testDir = Files.createTempDirectory("watchdog-test");
+        statsPath = testDir.resolve("stats.txt");
+        Files.write(statsPath, Arrays.asList("todayShutdowns=1", "totalShutdowns=5", "totalTime=PT1M3.116S", "lastShutdownDateTime=2017-09-08 " +
+                "09:00", "todayDate=2017-09-08"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Stream<Path> paths = Files.walk(testDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testIncidentsAreCountedAndJournaled() throws Exception {
+        StatsStore store = new StatsStore(statsPath);
+        store.load();
+        store.recordIncident(new Incident(NOW, "zec", 1, "hang", "reboot"));
+        store.recordIncident(new Incident(NOW.plusDays(1), "zec", -1, "stall", "reboot"));
+        store.recordIncident(new Incident(NOW.plusDays(1).plusMinutes(5), "zec", 0, "hang", "restart"));
+        Assert.assertEquals(7, store.getTotalShutdowns());
+        Assert.assertEquals(1, store.getTodayShutdowns());
+        Assert.assertEquals(NOW.plusDays(1).toLocalDate(), store.getTodayDate());
+        Assert.assertEquals("2017-09-09 10:33", store.getLastShutdownDateTime());
+        List<Incident> history = store.readHistory();
+        Assert.assertEquals(3, history.size());
+        Assert.assertEquals(1, history.get(0).getDevice());
+        Assert.assertEquals("stall", history.get(1).getReason());
+        Assert.assertEquals("restart", history.get(2).getAction());
+        Assert.assertEquals(2, store.countRebootsSince(NOW));
+    }
+
+    @Test
+    public void testRecordWithoutActionIsReboot() throws Exception {
+        StatsStore store = new StatsStore(statsPath);
+        Files.write(store.getJournalPath(), "2017-09-08T10:33|zec|1|hang\n".getBytes(StandardCharsets.UTF_8));
+        store.load();
+        Assert.assertTrue(store.readHistory().get(0).isReboot());
+        Assert.assertEquals(6, store.getTotalShutdowns());
+    }
+
+    @Test
+    public void testRecoveryStatsArePersisted() throws Exception {
+        StatsStore store = new StatsStore(statsPath);
+        store.load();
+        store.recordRecoveryAttempt("restart");
+        store.recordRecoveryAttempt("restart");
+        store.recordRecoverySuccess("restart", 40_000);
+        store.recordRecoveryAttempt("reboot");
+        store.setPendingRebootMillis(1234);
+        store.persist();
+
+        StatsStore reloaded = new StatsStore(statsPath);
+        reloaded.load();
+        Assert.assertEquals(2, reloaded.getRecoveryStats("restart").getAttempts());
+        Assert.assertEquals(1, reloaded.getRecoveryStats("restart").getSuccesses());
+        Assert.assertEquals(40_000, reloaded.getRecoveryStats("restart").getMeanMillis());
+        Assert.assertEquals(0, reloaded.getRecoveryStats("reboot").getSuccesses());
+        Assert.assertEquals(1234, reloaded.getPendingRebootMillis());
+        Assert.assertEquals(5, reloaded.getTotalShutdowns());
+    }
+
+    @Test
+    public void testIncidentsAfterLastSnapshotAreReplayed() throws Exception {
+        StatsStore store = new StatsStore(statsPath);
+        store.load();
+        store.recordIncident(new Incident(NOW, "zec", 0, "hang", "reboot"));
+        store.persist();
+        store.recordIncident(new Incident(NOW.plusMinutes(5), "zec", 1, "hang", "reboot"));
+        // crash before the next snapshot
+
+        StatsStore reloaded = new StatsStore(statsPath);
+        reloaded.load();
+        Assert.assertEquals(7, reloaded.getTotalShutdowns());
+        Assert.assertEquals(3, reloaded.getTodayShutdowns());
+        Assert.assertEquals("2017-09-08 10:38", reloaded.getLastShutdownDateTime());
+    }
+
+    @Test
+    public void testTornJournalRecordIsSkipped() throws Exception {
+        StatsStore store = new StatsStore(statsPath);
+        store.load();
+        store.recordIncident(new Incident(NOW, "zec", 0, "hang", "reboot"));
+        Files.write(store.getJournalPath(), "2017-09-08T10:4".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        store.recordIncident(new Incident(NOW.plusMinutes(10), "zec", 1, "hang", "reboot"));
+
+        StatsStore reloaded = new StatsStore(statsPath);
+        reloaded.load();
+        Assert.assertEquals(2, reloaded.readHistory().size());
+        Assert.assertEquals(7, reloaded.getTotalShutdowns());
+    }
+
+    @Test
+    public void testSnapshotIsReplacedWithoutTemporaryFile() throws Exception {
+        StatsStore store = new StatsStore(statsPath);
+        store.load();
+        store.addTime(Duration.ofMinutes(1));
+        store.rollDay(LocalDate.of(2017, 9, 9));
+        store.persist();
+        Assert.assertFalse(Files.exists(testDir.resolve("stats.txt.tmp")));
+        Map<String, String> stats = Main.readStats(statsPath);
+        Assert.assertEquals("0", stats.get("todayShutdowns"));
+        Assert.assertEquals("5", stats.get("totalShutdowns"));
+        Assert.assertEquals("2017-09-09", stats.get("todayDate"));
+        Assert.assertEquals(Duration.parse("PT2M3.116S"), Duration.parse(stats.get("totalTime")));
+    }
+
+    @Test
+    public void testReadStatsSkipsMalformedLines() throws Exception {
+        Files.write(statsPath, Arrays.asList("todayShutdowns=2", "", "garbage", "=3", "lastShutdownDateTime="));
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("todayShutdowns", "2");
+        expected.put("lastShutdownDateTime", "");
+        Assert.assertEquals(expected, Main.readStats(statsPath));
+    }
+}
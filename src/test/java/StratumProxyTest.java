@@ -0,0 +1,323 @@
+import com.hesky.ewbfcudawatchdog.Main;
+import com.hesky.ewbfcudawatchdog.StratumProxy;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
+
+public class StratumProxyTest {
+    private final List<StubPool> pools = new ArrayList<>();
+    private final List<Socket> miners = new ArrayList<>();
+    private StratumProxy proxy;
+
+    /**
+     * A stratum pool answering subscribe with its extranonce, authorize and submit; a nonce {@code bad} is rejected and
+     * {@code old} is stale.
+     */
+    private static class StubPool implements Runnable {
+        private final ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        private final String name;
+        private final List<String> received = new CopyOnWriteArrayList<>();
+        private final List<Socket> connections = new CopyOnWriteArrayList<>();
+        private volatile String extranonce;
+
+        private StubPool(String name) throws IOException {
+            this.name = name;
+            this.extranonce = name;
+            Thread thread = new Thread(this, "stub-pool-" + name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private InetSocketAddress address() {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+        }
+
+        @Override
+        public void run() {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    connections.add(socket);
+                    Thread thread = new Thread(() -> serve(socket));
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+                catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+                OutputStream out = socket.getOutputStream();
+                for (String line; (line = in.readLine()) != null; ) {
+                    received.add(line);
+                    String id = line.replaceAll(".*\"id\":(\\d+).*", "$1");
+                    if (line.contains("mining.subscribe")) {
+                        write(out, "{\"id\":" + id + ",\"result\":[[[\"mining.notify\",\"1\"]],\"" + extranonce + "\",4],\"error\":null}");
+                    } else if (line.contains("mining.extranonce.subscribe")) {
+                        write(out, "{\"id\":" + id + ",\"result\":true,\"error\":null}");
+                    } else if (line.contains("mining.authorize")) {
+                        write(out, "{\"id\":" + id + ",\"result\":true,\"error\":null}");
+                        write(out, "{\"id\":null,\"method\":\"mining.notify\",\"params\":[\"" + name + "-job\",true]}");
+                    } else if (line.contains("\"bad\"")) {
+                        write(out, "{\"id\":" + id + ",\"result\":null,\"error\":[23,\"Low difficulty share\",null]}");
+                    } else if (line.contains("\"old\"")) {
+                        write(out, "{\"id\":" + id + ",\"result\":null,\"error\":[21,\"Job not found\",null]}");
+                    } else if (line.contains("mining.submit")) {
+                        write(out, "{\"id\":" + id + ",\"result\":true,\"error\":null}");
+                    }
+                }
+            }
+            catch (IOException e) {
+                // the test closed the connection
+            }
+        }
+
+        private static synchronized void write(OutputStream out, String line) throws IOException {
+            out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+
+        private void dropConnections() throws IOException {
+            for (Socket socket : connections) {
+                socket.close();
+            }
+        }
+
+        private void close() throws IOException {
+            server.close();
+            dropConnections();
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        pools.add(new StubPool("main"));
+        pools.add(new StubPool("backup"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Socket miner : miners) {
+            miner.close();
+        }
+        if (proxy != null) {
+            proxy.close();
+        }
+        for (StubPool pool : pools) {
+            pool.close();
+        }
+    }
+
+    private StratumProxy startProxy(String... overrides) throws IOException {
+        Properties params = new Properties();
+        params.putAll(Main.getParams());
+        params.setProperty("stratumShareWindow", "4");
+        params.setProperty("stratumMaxRejectRate", "0.5");
+        params.setProperty("stratumJobTimeout", "0");
+        for (int i = 0; i < overrides.length; i += 2) {
+            params.setProperty(overrides[i], overrides[i + 1]);
+        }
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (StubPool pool : pools) {
+            addresses.add(pool.address());
+        }
+        proxy = new StratumProxy("zec", new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), addresses, params, null).start();
+        return proxy;
+    }
+
+    private Socket connect() throws IOException {
+        Socket miner = new Socket(InetAddress.getLoopbackAddress(), proxy.getPort());
+        miner.setSoTimeout(5000);
+        miners.add(miner);
+        return miner;
+    }
+
+    private static void send(Socket miner, String line) throws IOException {
+        miner.getOutputStream().write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        miner.getOutputStream().flush();
+    }
+
+    private static BufferedReader reader(Socket miner) throws IOException {
+        return new BufferedReader(new InputStreamReader(miner.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private static void login(Socket miner, BufferedReader in, String worker) throws IOException {
+        send(miner, "{\"id\":1,\"method\":\"mining.subscribe\",\"params\":[\"EWBF\",null]}");
+        Assert.assertTrue(in.readLine().startsWith("{\"id\":1,\"result\""));
+        send(miner, "{\"id\":2,\"method\":\"mining.authorize\",\"params\":[\"" + worker + "\",\"x\"]}");
+        Assert.assertEquals("{\"id\":2,\"result\":true,\"error\":null}", in.readLine());
+        Assert.assertTrue(in.readLine().contains("mining.notify"));
+    }
+
+    private static void submit(Socket miner, int id, String nonce) throws IOException {
+        send(miner, "{\"id\":" + id + ",\"method\":\"mining.submit\",\"params\":[\"w\",\"job\",\"0\",\"" + nonce + "\"]}");
+    }
+
+    private static void awaitCount(long expected, LongSupplier count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (count.getAsLong() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(expected, count.getAsLong());
+    }
+
+    @Test(timeout = 10000)
+    public void testSharesAreRelayedAndCounted() throws Exception {
+        startProxy();
+        Socket miner = connect();
+        BufferedReader in = reader(miner);
+        login(miner, in, "rig.gpu0");
+        submit(miner, 3, "good");
+        Assert.assertEquals("{\"id\":3,\"result\":true,\"error\":null}", in.readLine());
+        submit(miner, 4, "bad");
+        Assert.assertTrue(in.readLine().contains("Low difficulty share"));
+        submit(miner, 5, "old");
+        Assert.assertTrue(in.readLine().contains("Job not found"));
+
+        Assert.assertEquals(1, proxy.getAccepted("rig.gpu0"));
+        Assert.assertEquals(1, proxy.getRejected("rig.gpu0"));
+        Assert.assertEquals(1, proxy.getStale("rig.gpu0"));
+        Assert.assertEquals(1, proxy.getJobs("rig.gpu0"));
+        Assert.assertEquals(1, proxy.getConnections());
+        Assert.assertEquals(Arrays.asList("mining.subscribe", "mining.authorize", "mining.submit", "mining.submit", "mining.submit"),
+                methods(pools.get(0)));
+        Assert.assertTrue(pools.get(1).received.isEmpty());
+        Assert.assertNull(proxy.getDegradation());
+    }
+
+    @Test(timeout = 10000)
+    public void testRejectedSharesAreADegradation() throws Exception {
+        startProxy();
+        Socket miner = connect();
+        BufferedReader in = reader(miner);
+        login(miner, in, "rig");
+        String[] nonces = {"good", "bad", "old", "bad"};
+        for (int i = 0; i < nonces.length; i++) {
+            submit(miner, 10 + i, nonces[i]);
+            in.readLine();
+        }
+        Assert.assertEquals("3 of the last 4 shares rejected or stale", proxy.getDegradation());
+
+        proxy.resetShares();
+        Assert.assertNull(proxy.getDegradation());
+    }
+
+    @Test(timeout = 10000)
+    public void testConnectionMovesToBackupPoolWithoutReconnect() throws Exception {
+        pools.get(1).extranonce = "main";
+        startProxy();
+        Socket miner = connect();
+        BufferedReader in = reader(miner);
+        login(miner, in, "rig");
+
+        pools.get(0).close();
+        Assert.assertEquals("{\"id\":null,\"method\":\"mining.notify\",\"params\":[\"backup-job\",true]}", in.readLine());
+        Assert.assertEquals(1, proxy.getActivePool());
+        Assert.assertEquals(1, proxy.getFailovers());
+        Assert.assertEquals(Arrays.asList("mining.subscribe", "mining.authorize"), methods(pools.get(1)));
+
+        submit(miner, 3, "good");
+        Assert.assertEquals("{\"id\":3,\"result\":true,\"error\":null}", in.readLine());
+        Assert.assertEquals(1, proxy.getAccepted("rig"));
+        Assert.assertEquals(2, proxy.getJobs("rig"));
+    }
+
+    @Test(timeout = 10000)
+    public void testNewExtranonceIsSentToSubscribedMiner() throws Exception {
+        startProxy();
+        Socket miner = connect();
+        BufferedReader in = reader(miner);
+        login(miner, in, "rig");
+        send(miner, "{\"id\":3,\"method\":\"mining.extranonce.subscribe\",\"params\":[]}");
+        Assert.assertEquals("{\"id\":3,\"result\":true,\"error\":null}", in.readLine());
+
+        pools.get(0).close();
+        Assert.assertEquals("{\"id\":null,\"method\":\"mining.set_extranonce\",\"params\":[\"backup\",4]}", in.readLine());
+        Assert.assertEquals("{\"id\":null,\"method\":\"mining.notify\",\"params\":[\"backup-job\",true]}", in.readLine());
+        Assert.assertEquals(Arrays.asList("mining.subscribe", "mining.authorize", "mining.extranonce.subscribe"), methods(pools.get(1)));
+        submit(miner, 4, "good");
+        Assert.assertEquals("{\"id\":4,\"result\":true,\"error\":null}", in.readLine());
+    }
+
+    @Test(timeout = 10000)
+    public void testMinerIsDisconnectedWhenExtranonceChanges() throws Exception {
+        startProxy();
+        Socket miner = connect();
+        BufferedReader in = reader(miner);
+        login(miner, in, "rig");
+
+        pools.get(0).close();
+        Assert.assertNull(in.readLine());
+        Assert.assertEquals(1, proxy.getActivePool());
+
+        Socket again = connect();
+        BufferedReader againIn = reader(again);
+        send(again, "{\"id\":1,\"method\":\"mining.subscribe\",\"params\":[\"EWBF\",null]}");
+        Assert.assertTrue(againIn.readLine().contains("\"backup\""));
+    }
+
+    @Test(timeout = 10000)
+    public void testPoolWithoutJobsIsLeft() throws Exception {
+        startProxy("stratumJobTimeout", "300");
+        Socket miner = connect();
+        BufferedReader in = reader(miner);
+        send(miner, "{\"id\":1,\"method\":\"mining.subscribe\",\"params\":[\"EWBF\",null]}");
+        Assert.assertTrue(in.readLine().contains("main"));
+
+        awaitCount(1, proxy::getFailovers);
+        awaitCount(1, () -> pools.get(1).received.size());
+        Assert.assertEquals(1, proxy.getActivePool());
+        Assert.assertEquals(Arrays.asList("mining.subscribe"), methods(pools.get(1)));
+    }
+
+    @Test(timeout = 20000)
+    public void testManyMinersShareOneProxy() throws Exception {
+        startProxy();
+        List<Socket> connected = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            connected.add(connect());
+        }
+        for (int i = 0; i < connected.size(); i++) {
+            Socket miner = connected.get(i);
+            BufferedReader in = reader(miner);
+            login(miner, in, "worker" + i);
+            submit(miner, 3, "good");
+            Assert.assertEquals("{\"id\":3,\"result\":true,\"error\":null}", in.readLine());
+        }
+        Assert.assertEquals(50, proxy.getConnections());
+        Assert.assertEquals(1, proxy.getAccepted("worker49"));
+
+        for (Socket miner : connected) {
+            miner.close();
+        }
+        awaitCount(0, () -> -proxy.getConnections());
+    }
+
+    private static List<String> methods(StubPool pool) {
+        List<String> methods = new ArrayList<>();
+        for (String line : pool.received) {
+            methods.add(line.replaceAll(".*\"method\":\"([^\"]+)\".*", "$1"));
+        }
+        return methods;
+    }
+}
@@ -0,0 +1,157 @@
+import com.hesky.ewbfcudawatchdog.HangDetector;
+import com.hesky.ewbfcudawatchdog.Main;
+import com.hesky.ewbfcudawatchdog.Rule;
+import com.hesky.ewbfcudawatchdog.RuleBook;
+import com.hesky.ewbfcudawatchdog.Telemetry;
+import com.hesky.ewbfcudawatchdog.TelemetrySampler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+public class TelemetryTest {
+    private static final String HEADER = "index, temperature.gpu, power.draw [W], clocks.sm [MHz]\n";
+
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+    private Path testDir;
+    private Path output;
+    private TelemetrySampler sampler;
+
+    @Before
+    public void setUp() throws Exception {
+        testDir = Files.createTempDirectory("watchdog-test");
+        output = testDir.resolve("smi.csv");
+        sampler = new TelemetrySampler(Arrays.asList("cat", output.toString()), null, new Telemetry(4), 5000, null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Stream<Path> paths = Files.walk(testDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private void sample(String csv) throws Exception {
+        Files.write(output, csv.getBytes(StandardCharsets.UTF_8));
+        Assert.assertTrue(sampler.sample(null));
+    }
+
+    private HangDetector detector(String rules) throws Exception {
+        Path file = testDir.resolve("rules.properties");
+        Files.write(file, rules.getBytes(StandardCharsets.UTF_8));
+        RuleBook book = RuleBook.load(file, Main.getParams());
+        return new HangDetector(() -> book, 2, clock::get);
+    }
+
+    @Test
+    public void testCsvIsParsedPerDevice() throws Exception {
+        sample(HEADER + "0, 65, 120.50 W, 1800 MHz\r\n1, 71, [Not Supported], 1755 MHz\n");
+        Telemetry telemetry = sampler.getTelemetry();
+        Assert.assertArrayEquals(new String[]{"index", "temperature.gpu", "power.draw", "clocks.sm"}, telemetry.getColumns());
+        Assert.assertEquals(2, telemetry.getDeviceCount());
+        Assert.assertEquals(120.5, telemetry.latest(0, telemetry.column("power.draw")), 1e-9);
+        Assert.assertEquals(71, telemetry.latest(1, telemetry.column("temperature.gpu")), 1e-9);
+        Assert.assertTrue(Double.isNaN(telemetry.latest(1, telemetry.column("power.draw"))));
+
+        sample(HEADER + "1, 73, 110 W, 1700 MHz\n");
+        Assert.assertEquals(2, telemetry.getSamples());
+        Assert.assertEquals(2, telemetry.getDeviceCount());
+        Assert.assertTrue(Double.isNaN(telemetry.latest(0, telemetry.column("temperature.gpu"))));
+        Assert.assertEquals(73, telemetry.latest(1, telemetry.column("temperature.gpu")), 1e-9);
+        Assert.assertEquals(71, telemetry.get(1, telemetry.column("temperature.gpu"), 1), 1e-9);
+        Assert.assertTrue(Double.isNaN(telemetry.get(1, telemetry.column("temperature.gpu"), 2)));
+    }
+
+    @Test
+    public void testColumnsWithoutHeader() throws Exception {
+        sampler = new TelemetrySampler(Arrays.asList("cat", output.toString()), new String[]{"temperature.gpu", "fan.speed"}, new
+                Telemetry(4), 5000, null);
+        sample("55, 40 %\n-3.25, 80 %\n");
+        Telemetry telemetry = sampler.getTelemetry();
+        Assert.assertEquals(55, telemetry.latest(0, 0), 1e-9);
+        Assert.assertEquals(-3.25, telemetry.latest(1, 0), 1e-9);
+        Assert.assertEquals(80, telemetry.latest(1, telemetry.column("fan.speed")), 1e-9);
+    }
+
+    @Test
+    public void testFailedCommandIsCounted() {
+        sampler = new TelemetrySampler(Arrays.asList(testDir.resolve("no-such-command").toString()), null, new Telemetry(4), 5000, null);
+        Assert.assertFalse(sampler.sample(null));
+        Assert.assertEquals(1, sampler.getFailures());
+    }
+
+    @Test
+    public void testOutputOfFailedCommandIsNotCommitted() throws Exception {
+        sample(HEADER + "0, 65, 120 W, 1800 MHz\n");
+        Files.write(output, (HEADER + "0, 99, 120 W, 1800 MHz\n").getBytes(StandardCharsets.UTF_8));
+        sampler = new TelemetrySampler(Arrays.asList("sh", "-c", "cat \"$0\"; exit 3", output.toString()), null, sampler.getTelemetry(),
+                5000, null);
+        Assert.assertFalse(sampler.sample(null));
+        Telemetry telemetry = sampler.getTelemetry();
+        Assert.assertEquals(1, telemetry.getSamples());
+        Assert.assertEquals(65, telemetry.latest(0, telemetry.column("temperature.gpu")), 1e-9);
+
+        sampler = new TelemetrySampler(Arrays.asList("cat", output.toString()), null, telemetry, 5000, null);
+        Assert.assertTrue(sampler.sample(null));
+        Assert.assertEquals(99, telemetry.latest(0, telemetry.column("temperature.gpu")), 1e-9);
+    }
+
+    @Test
+    public void testTelemetryRulesAreParsed() {
+        Rule rule = Rule.parse("hot", "temperature.gpu above 85.5 for 30s");
+        Assert.assertEquals(Rule.Kind.ABOVE, rule.getKind());
+        Assert.assertEquals("temperature.gpu", rule.getFirst());
+        Assert.assertEquals(85.5, rule.getThreshold(), 1e-9);
+        Assert.assertEquals(30_000, rule.getWindowMillis());
+        Assert.assertTrue(rule.isTelemetry());
+        Assert.assertEquals(Rule.Kind.MISSING, Rule.parse("lost", "clocks.sm missing for 1m").getKind());
+        try {
+            Rule.parse("hot", "temperature.gpu above hot for 30s");
+            Assert.fail();
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testValueAboveThresholdForDurationIsHang() throws Exception {
+        HangDetector detector = detector("rule.hot=temperature.gpu above 85 for 20s\n");
+        sample(HEADER + "0, 65, 120 W, 1800 MHz\n1, 90, 120 W, 1800 MHz\n");
+        detector.onTelemetry(sampler.getTelemetry());
+        Assert.assertFalse(detector.isHanging());
+        clock.addAndGet(10_000);
+        sample(HEADER + "0, 65, 120 W, 1800 MHz\n1, 84, 120 W, 1800 MHz\n");
+        detector.onTelemetry(sampler.getTelemetry());
+        clock.addAndGet(20_000);
+        sample(HEADER + "0, 65, 120 W, 1800 MHz\n1, 91, 120 W, 1800 MHz\n");
+        detector.onTelemetry(sampler.getTelemetry());
+        Assert.assertFalse(detector.isHanging());
+        clock.addAndGet(20_000);
+        detector.onTelemetry(sampler.getTelemetry());
+        Assert.assertTrue(detector.isHanging());
+        Assert.assertEquals(1, detector.getHangingDevice());
+        Assert.assertEquals("hot", detector.getHangingRule());
+    }
+
+    @Test
+    public void testDeviceOffTheBusIsHang() throws Exception {
+        HangDetector detector = detector("rule.lost=clocks.sm missing for 0\nrule.stuck=notResponse\n");
+        sample(HEADER + "0, 65, 120 W, 1800 MHz\n1, 70, 120 W, 1800 MHz\n");
+        detector.onTelemetry(sampler.getTelemetry());
+        Assert.assertFalse(detector.isHanging());
+        sample(HEADER + "0, 65, 120 W, 1800 MHz\n");
+        detector.onTelemetry(sampler.getTelemetry());
+        Assert.assertTrue(detector.isHanging());
+        Assert.assertEquals(1, detector.getHangingDevice());
+        Assert.assertEquals("lost", detector.getHangingRule());
+    }
+}